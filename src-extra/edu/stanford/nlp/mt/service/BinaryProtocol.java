@@ -0,0 +1,305 @@
+package edu.stanford.nlp.mt.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.mt.service.Messages.Language;
+import edu.stanford.nlp.mt.service.Messages.MessageType;
+import edu.stanford.nlp.mt.service.Messages.Reply;
+import edu.stanford.nlp.mt.service.Messages.Request;
+import edu.stanford.nlp.mt.service.Messages.RuleQueryReply;
+import edu.stanford.nlp.mt.service.Messages.RuleQueryRequest;
+import edu.stanford.nlp.mt.service.Messages.TranslationReply;
+import edu.stanford.nlp.mt.service.Messages.TranslationRequest;
+import edu.stanford.nlp.mt.service.handlers.RuleQuery;
+import edu.stanford.nlp.mt.service.handlers.ServiceResponse;
+import edu.stanford.nlp.mt.service.handlers.TranslationQuery;
+
+/**
+ * Compact binary encoding of the service messages for persistent connections.
+ *
+ * Each message is a frame: a 4-byte big-endian length followed by the body.
+ * Request bodies are:
+ * <pre>
+ *   int requestId, byte messageType, byte src, byte tgt, str text, str inputProperties, ...
+ *   TRANSLATION_REQUEST: int n, str tgtPrefix, bool bulk
+ *   RULE_QUERY_REQUEST:  int spanLimit, str leftContext
+ * </pre>
+ * Response bodies are:
+ * <pre>
+ *   int requestId, byte status, byte messageType, int numResults,
+ *   numResults x (double score, strList tgt, strList align)
+ * </pre>
+ * where <code>str</code> is an int byte length followed by UTF-8 bytes, and
+ * <code>strList</code> is an int count followed by strings. Enums are encoded by
+ * ordinal. Clients choose request ids, so that many requests can be pipelined
+ * on one connection and the responses can be matched when they complete out of order.
+ *
+ * Each frame body is read in full before it is decoded, so counts and lengths
+ * are checked against the frame length. Request frames of an unknown message type
+ * are decoded without a request, and the server answers them with
+ * <code>STATUS_BAD_REQUEST</code> so that the client can complete the request id.
+ */
+public final class BinaryProtocol {
+
+  // Response status codes
+  public static final byte STATUS_OK = 0;
+  public static final byte STATUS_BAD_REQUEST = 1;
+  public static final byte STATUS_UNAVAILABLE = 2;
+  public static final byte STATUS_ERROR = 3;
+
+  // Sanity limit on the frame length
+  private static final int MAX_FRAME_LENGTH = 1 << 24;
+
+  // Minimum encoded size of a result: score, and the counts of two string lists
+  private static final int MIN_RESULT_LENGTH = 8 + 4 + 4;
+
+  private BinaryProtocol() {}
+
+  /**
+   * A decoded request frame. The request is null if the message type is unknown.
+   */
+  public static class RequestFrame {
+    public final int requestId;
+    public final MessageType type;
+    public final Request request;
+    public RequestFrame(int requestId, MessageType type, Request request) {
+      this.requestId = requestId;
+      this.type = type;
+      this.request = request;
+    }
+  }
+
+  /**
+   * A decoded response frame.
+   */
+  public static class ResponseFrame {
+    public final int requestId;
+    public final byte status;
+    public final Reply reply;
+    public ResponseFrame(int requestId, byte status, Reply reply) {
+      this.requestId = requestId;
+      this.status = status;
+      this.reply = reply;
+    }
+  }
+
+  /**
+   * Read the next request frame. The rest of a frame of an unknown message type
+   * is skipped, and the frame is returned with type <code>UNKNOWN_REQUEST</code>
+   * and a null request.
+   *
+   * @param in
+   * @return The frame, or null at the end of the stream.
+   * @throws IOException
+   */
+  public static RequestFrame readRequest(DataInputStream in) throws IOException {
+    final DataInputStream body = readFrame(in);
+    if (body == null) return null;
+    final int requestId = body.readInt();
+    final byte typeOrdinal = body.readByte();
+    final MessageType type = typeOrdinal >= 0 && typeOrdinal < MessageType.values().length ?
+        MessageType.values()[typeOrdinal] : MessageType.UNKNOWN_REQUEST;
+    if (type != MessageType.TRANSLATION_REQUEST && type != MessageType.RULE_QUERY_REQUEST) {
+      return new RequestFrame(requestId, MessageType.UNKNOWN_REQUEST, null);
+    }
+    final Language src = enumValue(Language.values(), body.readByte());
+    final Language tgt = enumValue(Language.values(), body.readByte());
+    final String text = readString(body);
+    final String inputProperties = readString(body);
+    Request request;
+    if (type == MessageType.TRANSLATION_REQUEST) {
+      final int n = body.readInt();
+      final String tgtPrefix = readString(body);
+      final boolean bulk = body.readBoolean();
+      request = new TranslationRequest(src, tgt, text, inputProperties, n, tgtPrefix, bulk);
+    } else {
+      final int spanLimit = body.readInt();
+      final String leftContext = readString(body);
+      request = new RuleQueryRequest(src, tgt, text, inputProperties, spanLimit, leftContext);
+    }
+    return new RequestFrame(requestId, type, request);
+  }
+
+  /**
+   * Write a request frame.
+   *
+   * @param out
+   * @param requestId
+   * @param request
+   * @throws IOException
+   */
+  public static void writeRequest(DataOutputStream out, int requestId, Request request) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream body = new DataOutputStream(bytes);
+    body.writeInt(requestId);
+    if (request instanceof TranslationRequest) {
+      TranslationRequest r = (TranslationRequest) request;
+      writeHeader(body, MessageType.TRANSLATION_REQUEST, r);
+      body.writeInt(r.n);
+      writeString(body, r.tgtPrefix);
+      body.writeBoolean(r.bulk);
+    } else if (request instanceof RuleQueryRequest) {
+      RuleQueryRequest r = (RuleQueryRequest) request;
+      writeHeader(body, MessageType.RULE_QUERY_REQUEST, r);
+      body.writeInt(r.spanLimit);
+      writeString(body, r.leftContext == null ? "" : r.leftContext);
+    } else {
+      throw new IllegalArgumentException("Unsupported request type: " + request.getClass().getName());
+    }
+    writeFrame(out, bytes);
+  }
+
+  private static void writeHeader(DataOutputStream body, MessageType type, Request request) throws IOException {
+    body.writeByte(type.ordinal());
+    body.writeByte(request.src.ordinal());
+    body.writeByte(request.tgt.ordinal());
+    writeString(body, request.text);
+    writeString(body, request.inputProperties == null ? "" : request.inputProperties);
+  }
+
+  /**
+   * Write a response frame.
+   *
+   * @param out
+   * @param requestId
+   * @param status
+   * @param response The response, or null if the status is not <code>STATUS_OK</code>.
+   * @throws IOException
+   */
+  public static void writeResponse(DataOutputStream out, int requestId, byte status,
+      ServiceResponse response) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+    DataOutputStream body = new DataOutputStream(bytes);
+    body.writeInt(requestId);
+    body.writeByte(status);
+    final Reply reply = response == null ? null : response.getReply();
+    if (reply instanceof TranslationReply) {
+      List<TranslationQuery> result = ((TranslationReply) reply).result;
+      body.writeByte(MessageType.TRANSLATION_REPLY.ordinal());
+      body.writeInt(result.size());
+      for (TranslationQuery query : result) {
+        body.writeDouble(query.score);
+        writeStringList(body, query.tgt);
+        writeStringList(body, query.align);
+      }
+    } else if (reply instanceof RuleQueryReply) {
+      List<RuleQuery> result = ((RuleQueryReply) reply).result;
+      body.writeByte(MessageType.RULE_QUERY_REPLY.ordinal());
+      body.writeInt(result.size());
+      for (RuleQuery query : result) {
+        body.writeDouble(query.score);
+        writeStringList(body, query.tgt);
+        writeStringList(body, query.align);
+      }
+    } else {
+      body.writeByte(MessageType.UNKNOWN_REQUEST.ordinal());
+      body.writeInt(0);
+    }
+    writeFrame(out, bytes);
+  }
+
+  /**
+   * Read a response frame.
+   *
+   * @param in
+   * @return The frame, or null at the end of the stream.
+   * @throws IOException
+   */
+  public static ResponseFrame readResponse(DataInputStream in) throws IOException {
+    final DataInputStream body = readFrame(in);
+    if (body == null) return null;
+    final int requestId = body.readInt();
+    final byte status = body.readByte();
+    final byte typeOrdinal = body.readByte();
+    final MessageType type = typeOrdinal >= 0 && typeOrdinal < MessageType.values().length ?
+        MessageType.values()[typeOrdinal] : MessageType.UNKNOWN_REQUEST;
+    final int numResults = body.readInt();
+    if (numResults < 0 || numResults > body.available() / MIN_RESULT_LENGTH) {
+      throw new IOException("Invalid number of results: " + numResults);
+    }
+    Reply reply = null;
+    if (type == MessageType.TRANSLATION_REPLY) {
+      List<TranslationQuery> result = new ArrayList<>(numResults);
+      for (int i = 0; i < numResults; ++i) {
+        double score = body.readDouble();
+        result.add(new TranslationQuery(readStringList(body), readStringList(body), score));
+      }
+      reply = new TranslationReply(result);
+    } else if (type == MessageType.RULE_QUERY_REPLY) {
+      List<RuleQuery> result = new ArrayList<>(numResults);
+      for (int i = 0; i < numResults; ++i) {
+        double score = body.readDouble();
+        result.add(new RuleQuery(readStringList(body), readStringList(body), score));
+      }
+      reply = new RuleQueryReply(result);
+    }
+    return new ResponseFrame(requestId, status, reply);
+  }
+
+  private static void writeFrame(DataOutputStream out, ByteArrayOutputStream body) throws IOException {
+    out.writeInt(body.size());
+    body.writeTo(out);
+  }
+
+  /**
+   * Read the body of the next frame. Returns null at the end of the stream.
+   */
+  private static DataInputStream readFrame(DataInputStream in) throws IOException {
+    final int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    byte[] body = new byte[length];
+    in.readFully(body);
+    return new DataInputStream(new ByteArrayInputStream(body));
+  }
+
+  private static <T> T enumValue(T[] values, byte ordinal) throws IOException {
+    if (ordinal < 0 || ordinal >= values.length) throw new IOException("Invalid enum ordinal: " + ordinal);
+    return values[ordinal];
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string from a frame body, where <code>available()</code> is the
+   * number of remaining bytes.
+   */
+  private static String readString(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0 || length > in.available()) throw new IOException("Invalid string length: " + length);
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeStringList(DataOutputStream out, List<String> list) throws IOException {
+    out.writeInt(list.size());
+    for (String s : list) writeString(out, s);
+  }
+
+  private static List<String> readStringList(DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    if (size < 0 || size > in.available() / 4) throw new IOException("Invalid list length: " + size);
+    List<String> list = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) list.add(readString(in));
+    return list;
+  }
+}
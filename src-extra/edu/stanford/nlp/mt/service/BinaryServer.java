@@ -0,0 +1,144 @@
+package edu.stanford.nlp.mt.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.service.BinaryProtocol.RequestFrame;
+import edu.stanford.nlp.mt.service.handlers.RequestHandler;
+import edu.stanford.nlp.mt.service.handlers.ServiceResponse;
+
+/**
+ * Serves the <code>BinaryProtocol</code> over persistent TCP connections. Uses the
+ * same request handlers as the <code>PhrasalServlet</code>.
+ *
+ * Each connection has a reader thread that decodes request frames and passes them
+ * to the handlers. Asynchronous handlers return immediately, so a client can
+ * pipeline many requests on one connection. Responses are written as soon as they
+ * are ready, and may arrive out of order. Clients match them by request id.
+ */
+public class BinaryServer implements Runnable {
+
+  private static final Logger logger = LogManager.getLogger(BinaryServer.class);
+
+  private final ServerSocket serverSocket;
+  private final RequestHandler[] requestHandlers;
+  private volatile boolean running = true;
+
+  /**
+   * Constructor. Binds the server socket.
+   *
+   * @param host Address to bind, or null for all addresses.
+   * @param port
+   * @param requestHandlers Handlers indexed by <code>MessageType</code> ordinal.
+   * @throws IOException
+   */
+  public BinaryServer(String host, int port, RequestHandler[] requestHandlers) throws IOException {
+    this.requestHandlers = requestHandlers;
+    this.serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(host == null ? new InetSocketAddress(port) :
+      new InetSocketAddress(InetAddress.getByName(host), port));
+  }
+
+  /**
+   * Start the accept loop on a daemon thread.
+   *
+   * @return
+   */
+  public Thread start() {
+    Thread thread = new Thread(this, "binary-server");
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  @Override
+  public void run() {
+    logger.info("Binary protocol listening on port: {}", serverSocket.getLocalPort());
+    while (running) {
+      try {
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        Thread reader = new Thread(() -> serve(socket), "binary-" + socket.getRemoteSocketAddress());
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        if (running) logger.error("Accept failed", e);
+      }
+    }
+  }
+
+  /**
+   * Read requests from a connection until the client closes it.
+   */
+  private void serve(Socket socket) {
+    final String clientId = socket.getInetAddress().getHostAddress();
+    try (Socket s = socket) {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+      RequestFrame frame;
+      while ((frame = BinaryProtocol.readRequest(in)) != null) {
+        final int requestId = frame.requestId;
+        if (frame.request == null) {
+          // Unknown message type
+          write(out, requestId, BinaryProtocol.STATUS_BAD_REQUEST, null);
+          continue;
+        }
+        final RequestHandler handler = requestHandlers[frame.type.ordinal()];
+        if ( ! handler.validate(frame.request)) {
+          write(out, requestId, BinaryProtocol.STATUS_BAD_REQUEST, null);
+          continue;
+        }
+        try {
+          handler.handleAsynchronous(frame.request, clientId, response -> {
+            byte status = response == ServiceResponse.UNAVAILABLE ? BinaryProtocol.STATUS_UNAVAILABLE :
+              response == null || response.getReply() == null ? BinaryProtocol.STATUS_ERROR : BinaryProtocol.STATUS_OK;
+            write(out, requestId, status, status == BinaryProtocol.STATUS_OK ? response : null);
+          });
+        } catch (Exception e) {
+          logger.error("Request handler failed", e);
+          write(out, requestId, BinaryProtocol.STATUS_ERROR, null);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Connection from {} closed: {}", clientId, e.getMessage());
+    }
+  }
+
+  /**
+   * Write a response frame. Responses from different decoder threads share the
+   * output stream of the connection.
+   */
+  private static void write(DataOutputStream out, int requestId, byte status, ServiceResponse response) {
+    synchronized(out) {
+      try {
+        BinaryProtocol.writeResponse(out, requestId, status, response);
+        out.flush();
+      } catch (IOException e) {
+        logger.warn("Could not write response {}: {}", requestId, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Stop accepting connections.
+   */
+  public void shutdown() {
+    running = false;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      logger.warn("Could not close server socket", e);
+    }
+  }
+}
@@ -113,8 +113,15 @@ public final class Messages {
     // The number of translations to generate
     public final int n;
     public final String tgtPrefix;
+    // Bulk requests are scheduled after interactive requests
+    public final boolean bulk;
     public TranslationRequest(Language sourceLang, Language targetLang, String source, String inputProps, int n, String tgtPrefix) {
+      this(sourceLang, targetLang, source, inputProps, n, tgtPrefix, false);
+    }
+    public TranslationRequest(Language sourceLang, Language targetLang, String source, String inputProps, int n, String tgtPrefix,
+        boolean bulk) {
       super(sourceLang, targetLang, source, inputProps);
+      this.bulk = bulk;
       this.n = (n <= 0 || n > 50) ? 10 : n;
       this.id = MessageType.TRANSLATION_REQUEST.ordinal();
       this.tgtPrefix = tgtPrefix == null || tgtPrefix.length() == 0 ? "" : tgtPrefix.trim();
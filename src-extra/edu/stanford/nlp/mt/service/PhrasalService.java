@@ -14,6 +14,7 @@ import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import edu.stanford.nlp.mt.service.handlers.TranslationRequestHandler;
 import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
 
@@ -45,6 +46,14 @@ public final class PhrasalService {
     optionArgDefs.put("l", 0);
     optionArgDefs.put("u", 1);
     optionArgDefs.put("r", 1);
+    optionArgDefs.put("q", 1);
+    optionArgDefs.put("b", 1);
+    optionArgDefs.put("s", 1);
+    optionArgDefs.put("t", 1);
+    optionArgDefs.put("c", 1);
+    optionArgDefs.put("e", 1);
+    optionArgDefs.put("x", 1);
+    optionArgDefs.put("w", 1);
     return optionArgDefs;
   }
 
@@ -63,6 +72,21 @@ public final class PhrasalService {
     sb.append(" -m       : Load mock servlet").append(nl);
     sb.append(" -u file  : UI to load (html file)").append(nl);
     sb.append(" -r path  : Static resource base path").append(nl);
+    sb.append(" -q num   : Max queued interactive requests (default: ")
+      .append(TranslationRequestHandler.DEFAULT_QUEUE_CAPACITY[0]).append(")").append(nl);
+    sb.append(" -b num   : Max queued bulk requests (default: ")
+      .append(TranslationRequestHandler.DEFAULT_QUEUE_CAPACITY[1]).append(")").append(nl);
+    sb.append(" -s ms    : Max queue wait for interactive requests (default: ")
+      .append(TranslationRequestHandler.DEFAULT_QUEUE_SLO[0]).append(")").append(nl);
+    sb.append(" -t ms    : Max queue wait for bulk requests (default: ")
+      .append(TranslationRequestHandler.DEFAULT_QUEUE_SLO[1]).append(")").append(nl);
+    sb.append(" -c num   : Max cached responses, 0 to disable (default: ")
+      .append(PhrasalServlet.DEFAULT_CACHE_SIZE).append(")").append(nl);
+    sb.append(" -e s     : Cached response time to live (default: ")
+      .append(PhrasalServlet.DEFAULT_CACHE_TTL).append(")").append(nl);
+    sb.append(" -x port  : Port for the binary protocol, 0 to disable (default: 0)").append(nl);
+    sb.append(" -w num   : Source preprocessing threads, 0 to preprocess on the decoder threads (default: ")
+      .append(TranslationRequestHandler.DEFAULT_PREPROCESSING_THREADS).append(")").append(nl);
     return sb.toString();
   }
 
@@ -78,6 +102,17 @@ public final class PhrasalService {
     boolean localHost = PropertiesUtils.getBool(options, "l", false);
     String uiFile = options.getProperty("u", "debug.html");
     String resourcePath = options.getProperty("r", ".");
+    int[] queueCapacity = new int[] {
+        PropertiesUtils.getInt(options, "q", TranslationRequestHandler.DEFAULT_QUEUE_CAPACITY[0]),
+        PropertiesUtils.getInt(options, "b", TranslationRequestHandler.DEFAULT_QUEUE_CAPACITY[1]) };
+    long[] queueSLO = new long[] {
+        PropertiesUtils.getLong(options, "s", TranslationRequestHandler.DEFAULT_QUEUE_SLO[0]),
+        PropertiesUtils.getLong(options, "t", TranslationRequestHandler.DEFAULT_QUEUE_SLO[1]) };
+    long cacheSize = PropertiesUtils.getLong(options, "c", PhrasalServlet.DEFAULT_CACHE_SIZE);
+    long cacheTTL = PropertiesUtils.getLong(options, "e", PhrasalServlet.DEFAULT_CACHE_TTL);
+    int binaryPort = PropertiesUtils.getInt(options, "x", 0);
+    int preprocessingThreads = PropertiesUtils.getInt(options, "w", 
+        TranslationRequestHandler.DEFAULT_PREPROCESSING_THREADS);
 
     // Parse arguments
     String argList = options.getProperty("",null);
@@ -110,7 +145,8 @@ public final class PhrasalService {
     context.setContextPath("/");
  
     // Add Phrasal servlet
-    PhrasalServlet servlet = loadMockServlet ? new PhrasalServlet() : new PhrasalServlet(phrasalIniFile);
+    PhrasalServlet servlet = loadMockServlet ? new PhrasalServlet() : new PhrasalServlet(phrasalIniFile, queueCapacity, queueSLO,
+        cacheSize, cacheTTL, preprocessingThreads);
     context.addServlet(new ServletHolder(servlet), SERVLET_ROOT);
 
     // TODO(spenceg): gzip compression causes an encoding problem for unicode characters
@@ -129,6 +165,9 @@ public final class PhrasalService {
     
     // Start the service
     try {
+      if (binaryPort > 0) {
+        new BinaryServer(localHost ? DEBUG_URL : null, binaryPort, servlet.getRequestHandlers()).start();
+      }
       logger.info("Starting PhrasalService on port: " + String.valueOf(port));
       server.start();
       server.join();
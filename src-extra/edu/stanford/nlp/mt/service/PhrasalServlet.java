@@ -41,6 +41,10 @@ public class PhrasalServlet extends HttpServlet {
   
   // Time in ms that an asynchronous response can be suspended.
   private static final long ASYNC_TIMEOUT = 30000;
+  
+  // Default response cache settings
+  public static final long DEFAULT_CACHE_SIZE = 10000;
+  public static final long DEFAULT_CACHE_TTL = 3600;
 
   private final RequestHandler[] requestHandlers;
   private Phrasal decoder;
@@ -55,6 +59,23 @@ public class PhrasalServlet extends HttpServlet {
    * @param phrasalIniName
    */
   public PhrasalServlet(String phrasalIniName){
+    this(phrasalIniName, TranslationRequestHandler.DEFAULT_QUEUE_CAPACITY, 
+        TranslationRequestHandler.DEFAULT_QUEUE_SLO, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL,
+        TranslationRequestHandler.DEFAULT_PREPROCESSING_THREADS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param phrasalIniName
+   * @param queueCapacity Maximum number of queued translation requests per priority class.
+   * @param queueSLO Maximum queue wait (ms) per priority class.
+   * @param cacheSize Maximum number of cached responses per request type. 0 disables the cache.
+   * @param cacheTTL Time to live (s) of a cached response.
+   * @param preprocessingThreads Number of source preprocessing threads.
+   */
+  public PhrasalServlet(String phrasalIniName, int[] queueCapacity, long[] queueSLO,
+      long cacheSize, long cacheTTL, int preprocessingThreads) {
     boolean debugMode = (phrasalIniName == null);
 
     if (!debugMode) {
@@ -69,27 +90,36 @@ public class PhrasalServlet extends HttpServlet {
       logger.info("Loaded phrasal from: " + phrasalIniName);
     }
 
-    requestHandlers = loadHandlers(debugMode);
+    requestHandlers = loadHandlers(debugMode, queueCapacity, queueSLO, cacheSize, cacheTTL,
+        debugMode ? null : modelVersion(phrasalIniName), preprocessingThreads);
   }
 
   /**
    * Setup request handlers.
    * 
    * @param loadMock
-   * @param phrasalIniName
+   * @param queueCapacity
+   * @param queueSLO
+   * @param cacheSize
+   * @param cacheTTL
+   * @param modelVersion
+   * @param preprocessingThreads
    * @return
    */
-  private RequestHandler[] loadHandlers(boolean loadMock) {
+  private RequestHandler[] loadHandlers(boolean loadMock, int[] queueCapacity, long[] queueSLO,
+      long cacheSize, long cacheTTL, String modelVersion, int preprocessingThreads) {
     RequestHandler[] handlers = new RequestHandler[MessageType.values().length];
     for (MessageType type : MessageType.values()) {
       if (type == MessageType.TRANSLATION_REQUEST) {
         handlers[type.ordinal()] = loadMock ? new TranslationRequestHandlerMock() :
-          new TranslationRequestHandler(decoder);
+          new TranslationRequestHandler(decoder, queueCapacity, queueSLO, cacheSize, cacheTTL, modelVersion,
+              preprocessingThreads);
 
       } else if (type == MessageType.RULE_QUERY_REQUEST) {
         handlers[type.ordinal()] = loadMock ? new RuleQueryRequestHandlerMock() :
           new RuleQueryRequestHandler(decoder.getTranslationModel(), new SparseScorer(decoder.getModel()),
-              decoder.getPreprocessor(), decoder.getPostprocessor());
+              decoder.getPreprocessor(), decoder.getPostprocessor(),
+              cacheSize > 0 ? new ResponseCache<Void>(cacheSize, cacheTTL, modelVersion) : null);
 
       } else if (type == MessageType.UNKNOWN_REQUEST) {
         handlers[type.ordinal()] = new UnknownRequestHandler();
@@ -99,6 +129,26 @@ public class PhrasalServlet extends HttpServlet {
     return handlers;
   }
 
+  /**
+   * The request handlers indexed by <code>MessageType</code> ordinal, for
+   * other transports such as the <code>BinaryServer</code>.
+   * 
+   * @return
+   */
+  public RequestHandler[] getRequestHandlers() {
+    return requestHandlers;
+  }
+
+  /**
+   * Identifier of the loaded model for the response caches.
+   * 
+   * @param phrasalIniName
+   * @return
+   */
+  private String modelVersion(String phrasalIniName) {
+    return String.format("%s#%08x", phrasalIniName, decoder.getModel().hashCode());
+  }
+
   /**
    * Handle HTTP GET requests.
    */
@@ -135,7 +185,13 @@ public class PhrasalServlet extends HttpServlet {
       Object asyncResult = request.getAttribute(ASYNC_KEY);
       
       // First create a ServiceResponse
-      serviceResponse = (ServiceResponse) asyncResult;
+      if (asyncResult == ServiceResponse.UNAVAILABLE) {
+        // Shed by admission control
+        ServiceResponse.writeServiceUnavailable(response);
+        logger.warn("Service unavailable: {}", request);
+      } else {
+        serviceResponse = (ServiceResponse) asyncResult;
+      }
 
     } else {
       // Synchronous message
@@ -0,0 +1,339 @@
+package edu.stanford.nlp.mt.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Admission control and scheduling for service requests.
+ *
+ * Requests are queued by priority class in bounded queues. Interactive requests are
+ * always served before bulk requests. Within a class, the clients are served round-robin
+ * so that one client cannot monopolize the decoder. Requests are shed (rejected) when
+ * the queue of their class is full, when the expected queue wait exceeds the queue-time
+ * SLO of the class, or when a request has waited longer than the SLO by the time that a
+ * worker is free.
+ *
+ * Each worker thread owns a processor for its whole lifetime, so per-thread decoder
+ * state is never shared. An exception thrown by a processor does not kill the worker.
+ *
+ * @param <T>
+ */
+public class RequestScheduler<T> {
+
+  private static final Logger logger = LogManager.getLogger(RequestScheduler.class);
+
+  public static enum Priority {INTERACTIVE, BULK};
+
+  /**
+   * Processes requests on a single worker thread.
+   *
+   * @param <T>
+   */
+  public static interface Processor<T> {
+    /**
+     * Process a request.
+     *
+     * @param request
+     */
+    public void process(T request);
+
+    /**
+     * The request was not processed. The client should receive HTTP 503.
+     *
+     * @param request
+     */
+    public void shed(T request);
+  }
+
+  private static class QueuedRequest<T> {
+    private final T request;
+    private final Priority priority;
+    private final long submitTime;
+    private QueuedRequest(T request, Priority priority) {
+      this.request = request;
+      this.priority = priority;
+      this.submitTime = System.nanoTime();
+    }
+  }
+
+  /**
+   * Bounded queue with round-robin service among clients.
+   */
+  private static class FairQueue<T> {
+    private final int capacity;
+    private final Map<String,ArrayDeque<QueuedRequest<T>>> clientQueues = new HashMap<>();
+    private final ArrayDeque<String> clients = new ArrayDeque<>();
+    private int size = 0;
+
+    private FairQueue(int capacity) {
+      this.capacity = capacity;
+    }
+
+    private boolean offer(String clientId, QueuedRequest<T> request) {
+      if (size >= capacity) return false;
+      ArrayDeque<QueuedRequest<T>> queue = clientQueues.get(clientId);
+      if (queue == null) {
+        queue = new ArrayDeque<>();
+        clientQueues.put(clientId, queue);
+        clients.addLast(clientId);
+      }
+      queue.addLast(request);
+      ++size;
+      return true;
+    }
+
+    private QueuedRequest<T> poll() {
+      if (size == 0) return null;
+      String clientId = clients.pollFirst();
+      ArrayDeque<QueuedRequest<T>> queue = clientQueues.get(clientId);
+      QueuedRequest<T> request = queue.pollFirst();
+      if (queue.isEmpty()) {
+        clientQueues.remove(clientId);
+      } else {
+        clients.addLast(clientId);
+      }
+      --size;
+      return request;
+    }
+  }
+
+  /**
+   * Summary statistics of a duration. Guarded by the scheduler lock.
+   */
+  private static class Timing {
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+    private void add(long nanos) {
+      ++count;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+    private double meanNanos() {
+      return count == 0 ? 0.0 : totalNanos / (double) count;
+    }
+    @Override
+    public String toString() {
+      return String.format("n: %d mean: %.1fms max: %.1fms", count, meanNanos() / 1e6, maxNanos / 1e6);
+    }
+  }
+
+  private final int numThreads;
+  private final List<FairQueue<T>> queues;
+  private final long[] sloNanos;
+  private final Timing[] queueWait;
+  private final Timing[] serviceTime;
+  private final long[] numShed;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Thread[] workers;
+  private volatile boolean running = true;
+
+  /**
+   * Constructor. Starts the worker threads.
+   *
+   * @param numThreads Number of worker threads.
+   * @param processorFactory Creates the processor for a worker given the thread id.
+   * @param capacity Maximum number of queued requests per priority class.
+   * @param sloMillis Maximum queue wait in milliseconds per priority class. A
+   *        value <= 0 disables queue-time shedding for that class.
+   */
+  public RequestScheduler(int numThreads, IntFunction<Processor<T>> processorFactory,
+      int[] capacity, long[] sloMillis) {
+    final int numClasses = Priority.values().length;
+    if (capacity.length != numClasses || sloMillis.length != numClasses) {
+      throw new IllegalArgumentException("Expected settings for " + numClasses + " priority classes");
+    }
+    this.numThreads = numThreads;
+    this.queues = new ArrayList<>(numClasses);
+    this.sloNanos = new long[numClasses];
+    this.queueWait = new Timing[numClasses];
+    this.serviceTime = new Timing[numClasses];
+    this.numShed = new long[numClasses];
+    for (int i = 0; i < numClasses; ++i) {
+      queues.add(new FairQueue<>(capacity[i]));
+      sloNanos[i] = sloMillis[i] > 0 ? TimeUnit.MILLISECONDS.toNanos(sloMillis[i]) : Long.MAX_VALUE;
+      queueWait[i] = new Timing();
+      serviceTime[i] = new Timing();
+    }
+    this.workers = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      final Processor<T> processor = processorFactory.apply(i);
+      workers[i] = new Thread(() -> work(processor), "decoder-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Submit a request for processing.
+   *
+   * @param request
+   * @param clientId
+   * @param priority
+   * @return false if the request was rejected. The caller should return HTTP 503.
+   */
+  public boolean submit(T request, String clientId, Priority priority) {
+    final int c = priority.ordinal();
+    lock.lock();
+    try {
+      if ( ! running || ! admit(c) || ! queues.get(c).offer(clientId, new QueuedRequest<>(request, priority))) {
+        ++numShed[c];
+        return false;
+      }
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reject the request if the expected queue wait, based on the mean service time
+   * so far, exceeds the SLO. Must hold the lock.
+   */
+  private boolean admit(int c) {
+    if (sloNanos[c] == Long.MAX_VALUE) return true;
+    int numAhead = 0;
+    for (int i = 0; i <= c; ++i) numAhead += queues.get(i).size;
+    final double expectedWait = numAhead * serviceTime[c].meanNanos() / numThreads;
+    return expectedWait <= sloNanos[c];
+  }
+
+  private void work(Processor<T> processor) {
+    while (true) {
+      QueuedRequest<T> item = null;
+      boolean shed = false;
+      lock.lock();
+      try {
+        while ((item = poll()) == null) {
+          if ( ! running) return;
+          notEmpty.awaitUninterruptibly();
+        }
+        final int c = item.priority.ordinal();
+        final long wait = System.nanoTime() - item.submitTime;
+        queueWait[c].add(wait);
+        if ( ! running || wait > sloNanos[c]) {
+          ++numShed[c];
+          shed = true;
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      if (shed) {
+        logger.warn("Shed {} request after queue wait", item.priority);
+        try {
+          processor.shed(item.request);
+        } catch (Exception e) {
+          logger.error("Processor threw an exception", e);
+        }
+        continue;
+      }
+
+      final long startTime = System.nanoTime();
+      try {
+        processor.process(item.request);
+      } catch (Exception e) {
+        logger.error("Processor threw an exception", e);
+      }
+      final long elapsed = System.nanoTime() - startTime;
+      lock.lock();
+      try {
+        serviceTime[item.priority.ordinal()].add(elapsed);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Highest priority request. Must hold the lock.
+   */
+  private QueuedRequest<T> poll() {
+    for (FairQueue<T> queue : queues) {
+      QueuedRequest<T> item = queue.poll();
+      if (item != null) return item;
+    }
+    return null;
+  }
+
+  /**
+   * Number of queued requests.
+   *
+   * @return
+   */
+  public int size() {
+    lock.lock();
+    try {
+      int size = 0;
+      for (FairQueue<T> queue : queues) size += queue.size;
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Number of shed requests of a priority class.
+   *
+   * @param priority
+   * @return
+   */
+  public long numShed(Priority priority) {
+    lock.lock();
+    try {
+      return numShed[priority.ordinal()];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop the workers. Queued requests are shed.
+   */
+  public void shutdown() {
+    lock.lock();
+    try {
+      running = false;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (Thread worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    lock.lock();
+    try {
+      for (Priority priority : Priority.values()) {
+        final int c = priority.ordinal();
+        if (sb.length() > 0) sb.append(" | ");
+        sb.append(String.format("%s queued: %d shed: %d wait: [%s] service: [%s]", priority,
+            queues.get(c).size, numShed[c], queueWait[c], serviceTime[c]));
+      }
+    } finally {
+      lock.unlock();
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,152 @@
+package edu.stanford.nlp.mt.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.stanford.nlp.mt.service.handlers.ServiceResponse;
+
+/**
+ * Cache of service responses keyed on the normalized request content and the
+ * model version, with coalescing of identical in-flight requests.
+ *
+ * Synchronous handlers use <code>get(key, loader)</code>. Concurrent identical
+ * requests wait for a single load. Asynchronous handlers call <code>coalesce()</code>.
+ * The first request for a key becomes the leader and is processed. Later requests
+ * for the same key are parked as waiters and receive the leader's response from
+ * <code>complete()</code>.
+ *
+ * @param <W> The type of a parked request.
+ */
+public class ResponseCache<W> {
+
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+  private static final char DELIMITER = '\t';
+
+  private final Cache<String,ServiceResponse> cache;
+  private final ConcurrentHashMap<String,List<W>> inFlight = new ConcurrentHashMap<>();
+  private final String modelVersion;
+  private final AtomicLong numCoalesced = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize Maximum number of cached responses.
+   * @param ttlSeconds Time to live of a cached response in seconds. A value <= 0
+   *        disables expiration.
+   * @param modelVersion Identifier of the loaded model, or null. Responses of
+   *        different models never share keys.
+   */
+  public ResponseCache(long maxSize, long ttlSeconds, String modelVersion) {
+    CacheBuilder<Object,Object> builder = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats();
+    if (ttlSeconds > 0) builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+    this.cache = builder.build();
+    this.modelVersion = modelVersion;
+  }
+
+  /**
+   * Create a cache key from the content of a request. Strings are trimmed and
+   * whitespace is collapsed.
+   *
+   * @param parts
+   * @return
+   */
+  public String key(Object... parts) {
+    StringBuilder sb = new StringBuilder(String.valueOf(modelVersion));
+    for (Object part : parts) {
+      sb.append(DELIMITER);
+      if (part instanceof String) {
+        sb.append(WHITESPACE.matcher(((String) part).trim()).replaceAll(" "));
+      } else {
+        sb.append(part);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Lookup a cached response.
+   *
+   * @param key
+   * @return The response or null if it is not in the cache.
+   */
+  public ServiceResponse getIfPresent(String key) {
+    return cache.getIfPresent(key);
+  }
+
+  /**
+   * Lookup a cached response, or compute it. Concurrent calls with the same key
+   * share a single computation. A loader that throws is not cached.
+   *
+   * @param key
+   * @param loader
+   * @return
+   * @throws Exception The exception thrown by the loader.
+   */
+  public ServiceResponse get(String key, Callable<ServiceResponse> loader) throws Exception {
+    try {
+      return cache.get(key, loader);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Park a request if an identical request is in flight.
+   *
+   * @param key
+   * @param waiter
+   * @return true if the request was parked. Otherwise the caller is the leader for
+   *         this key, must process the request, and must call <code>complete()</code>.
+   */
+  public boolean coalesce(String key, W waiter) {
+    final boolean[] isLeader = new boolean[1];
+    inFlight.compute(key, (k, waiters) -> {
+      if (waiters == null) {
+        isLeader[0] = true;
+        return new ArrayList<>(2);
+      }
+      waiters.add(waiter);
+      return waiters;
+    });
+    if ( ! isLeader[0]) numCoalesced.incrementAndGet();
+    return ! isLeader[0];
+  }
+
+  /**
+   * Finish an in-flight request.
+   *
+   * @param key
+   * @param response The response, or null if the response should not be cached
+   *                 (e.g., the request failed or was shed).
+   * @return The parked requests that should receive the same response.
+   */
+  public List<W> complete(String key, ServiceResponse response) {
+    // Cache before releasing the key so that new requests hit the cache
+    if (response != null) cache.put(key, response);
+    List<W> waiters = inFlight.remove(key);
+    return waiters == null ? Collections.emptyList() : waiters;
+  }
+
+  /**
+   * Clear the cache, e.g., after the model changed.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("size: %d hit rate: %.3f coalesced: %d in flight: %d", cache.size(),
+        cache.stats().hitRate(), numCoalesced.get(), inFlight.size());
+  }
+}
@@ -1,5 +1,7 @@
 package edu.stanford.nlp.mt.service.handlers;
 
+import java.util.function.Consumer;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -28,5 +30,18 @@ public interface RequestHandler {
   
   public void handleAsynchronous(Request baseRequest, HttpServletRequest request, HttpServletResponse response);
   
+  /**
+   * Receive a request and pass the response to a callback, independent of the
+   * transport. The default implementation calls the synchronous handler.
+   * 
+   * @param baseRequest
+   * @param clientId Identifier of the client, e.g., the remote address.
+   * @param responder Receives the response. May be called from another thread.
+   */
+  public default void handleAsynchronous(Request baseRequest, String clientId, 
+      Consumer<ServiceResponse> responder) {
+    responder.accept(handle(baseRequest));
+  }
+  
   public boolean validate(Request request);
 }
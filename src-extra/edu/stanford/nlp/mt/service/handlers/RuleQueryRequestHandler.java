@@ -19,6 +19,7 @@ import edu.stanford.nlp.mt.decoder.util.RuleGrid;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.process.Postprocessor;
 import edu.stanford.nlp.mt.process.Preprocessor;
+import edu.stanford.nlp.mt.service.ResponseCache;
 import edu.stanford.nlp.mt.service.Messages.Language;
 import edu.stanford.nlp.mt.service.Messages.Request;
 import edu.stanford.nlp.mt.service.Messages.RuleQueryReply;
@@ -49,6 +50,7 @@ public class RuleQueryRequestHandler implements RequestHandler {
   private final Scorer<String> scorer;
   private final Preprocessor preprocessor;
   private final Postprocessor postprocessor;
+  private final ResponseCache<Void> responseCache;
 
   /**
    * Constructor.
@@ -60,10 +62,26 @@ public class RuleQueryRequestHandler implements RequestHandler {
    */
   public RuleQueryRequestHandler(TranslationModel<IString,String> phraseGenerator, 
       Scorer<String> scorer, Preprocessor preprocessor, Postprocessor postprocessor) {
+    this(phraseGenerator, scorer, preprocessor, postprocessor, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param phraseGenerator
+   * @param scorer
+   * @param preprocessor
+   * @param postprocessor
+   * @param responseCache Cache for query results. May be null.
+   */
+  public RuleQueryRequestHandler(TranslationModel<IString,String> phraseGenerator, 
+      Scorer<String> scorer, Preprocessor preprocessor, Postprocessor postprocessor,
+      ResponseCache<Void> responseCache) {
     this.phraseTable = phraseGenerator;
     this.scorer = scorer;
     this.preprocessor = preprocessor;
     this.postprocessor = postprocessor;
+    this.responseCache = responseCache;
   }
 
   @Override
@@ -71,86 +89,16 @@ public class RuleQueryRequestHandler implements RequestHandler {
     final long startTime = System.nanoTime();
     ServiceResponse response;
     try {
-      RuleQueryRequest ruleRequest = (RuleQueryRequest) request;
-
-      // Source pre-processing
-      Sequence<IString> source;
-      Sequence<IString> sourceContext;
-      SymmetricalWordAlignment s2sPrime = null;
-      if (preprocessor == null) {
-        source = IStrings.tokenize(ruleRequest.text);
-        sourceContext = ruleRequest.leftContext != null && ruleRequest.leftContext.length() > 0 ? 
-            IStrings.tokenize(ruleRequest.leftContext) : null;
-            s2sPrime = identityAlignment(source);
-
-      } else {
-        s2sPrime = preprocessor.processAndAlign(ruleRequest.text);
-        source = s2sPrime.e();
-        sourceContext = ruleRequest.leftContext != null && ruleRequest.leftContext.length() > 0 ?
-            preprocessor.process(ruleRequest.leftContext) : null;
-      }
-
-      // Query the phrase table
-      List<ConcreteRule<IString,String>> rulesForSpan;
-      ConcreteRule<IString,String> bestLeftContext = null;
-      InputProperties inputProperties = InputProperties.fromString(request.inputProperties);
-      if (sourceContext == null) {
-        List<ConcreteRule<IString,String>> ruleList = phraseTable
-            .getRules(source, inputProperties, null, qId.incrementAndGet(), scorer);
-        RuleGrid<IString,String> ruleGrid = new RuleGrid<IString,String>(ruleList, source, true);
-        rulesForSpan = ruleGrid.get(0, source.size()-1);
-
+      final RuleQueryRequest ruleRequest = (RuleQueryRequest) request;
+      if (responseCache == null) {
+        response = query(ruleRequest);
       } else {
-        Sequence<IString> queryString = Sequences.concatenate(sourceContext, source);
-        List<ConcreteRule<IString,String>> ruleList = phraseTable
-            .getRules(queryString, inputProperties, null, qId.incrementAndGet(), scorer);
-        RuleGrid<IString,String> ruleGrid = new RuleGrid<IString,String>(ruleList, queryString, true);
-        rulesForSpan = ruleGrid.get(sourceContext.size(), queryString.size()-1);
-        List<ConcreteRule<IString,String>> rulesForContext = ruleGrid.get(0, sourceContext.size()-1);
-        bestLeftContext = rulesForContext.size() > 0 ? rulesForContext.get(0) : null;
-      }
-
-      // Process the query
-      double normalizer = 0.0;
-      List<RuleQuery> queriedRules = new ArrayList<>(ruleRequest.spanLimit);
-      for(ConcreteRule<IString,String> rule : rulesForSpan) {
-        if (queriedRules.size() >= ruleRequest.spanLimit) {
-          break;
-        } else if (rule.abstractRule.target == null || rule.abstractRule.target.size() == 0) {
-          // Ignore deletion rules from the unknown word model
-          continue;
-        } else if (source.equals(rule.abstractRule.target)) {
-          // Ignore identity translation rules when drop-unknown-words is disabled.
-          continue;
-        }
-
-        // Extract word-word alignment from the rule.
-        SymmetricalWordAlignment sPrime2tPrime = getAlignment(rule.abstractRule);
-
-        // Post-process the target side, possibly adding left context.
-        Sequence<IString> target = rule.abstractRule.target;
-        int offset = 0;
-        if (bestLeftContext != null) {
-          target = Sequences.concatenate(bestLeftContext.abstractRule.target, target);
-          offset = bestLeftContext.abstractRule.target.size();
-        }
-        SymmetricalWordAlignment tPrime2t = postprocessor == null ?
-            identityAlignment(target) : postprocessor.process(target);
-
-        double score = Math.exp(rule.isolationScore);
-        normalizer += score;
-        RuleQuery query = createQueryResult(ruleRequest.text, score, s2sPrime, sPrime2tPrime, tPrime2t, offset);
-        queriedRules.add(query);
+        // Concurrent identical queries share one lookup
+        String key = responseCache.key(ruleRequest.src, ruleRequest.tgt, ruleRequest.text, 
+            ruleRequest.leftContext == null ? "" : ruleRequest.leftContext, ruleRequest.spanLimit, 
+            ruleRequest.inputProperties);
+        response = responseCache.get(key, () -> query(ruleRequest));
       }
-      // Normalize the model scores
-      for (RuleQuery query : queriedRules) {
-        query.setScore(query.score / normalizer);
-      }
-
-      // Successful query
-      RuleQueryReply reply = new RuleQueryReply(queriedRules);
-      Type t = new TypeToken<RuleQueryReply>() {}.getType();
-      response = new ServiceResponse(reply, t);
 
     } catch (Exception e) {
       logger.error("Rule query request failed", e);
@@ -165,6 +113,94 @@ public class RuleQueryRequestHandler implements RequestHandler {
     return response;
   }
 
+  /**
+   * Query the phrase table.
+   * 
+   * @param ruleRequest
+   * @return
+   * @throws Exception
+   */
+  private ServiceResponse query(RuleQueryRequest ruleRequest) throws Exception {
+    // Source pre-processing
+    Sequence<IString> source;
+    Sequence<IString> sourceContext;
+    SymmetricalWordAlignment s2sPrime = null;
+    if (preprocessor == null) {
+      source = IStrings.tokenize(ruleRequest.text);
+      sourceContext = ruleRequest.leftContext != null && ruleRequest.leftContext.length() > 0 ? 
+          IStrings.tokenize(ruleRequest.leftContext) : null;
+          s2sPrime = identityAlignment(source);
+
+    } else {
+      s2sPrime = preprocessor.processAndAlign(ruleRequest.text);
+      source = s2sPrime.e();
+      sourceContext = ruleRequest.leftContext != null && ruleRequest.leftContext.length() > 0 ?
+          preprocessor.process(ruleRequest.leftContext) : null;
+    }
+
+    // Query the phrase table
+    List<ConcreteRule<IString,String>> rulesForSpan;
+    ConcreteRule<IString,String> bestLeftContext = null;
+    InputProperties inputProperties = InputProperties.fromString(ruleRequest.inputProperties);
+    if (sourceContext == null) {
+      List<ConcreteRule<IString,String>> ruleList = phraseTable
+          .getRules(source, inputProperties, qId.incrementAndGet(), scorer);
+      RuleGrid<IString,String> ruleGrid = new RuleGrid<IString,String>(ruleList, source, -1);
+      rulesForSpan = ruleGrid.get(0, source.size()-1);
+
+    } else {
+      Sequence<IString> queryString = sourceContext.concat(source);
+      List<ConcreteRule<IString,String>> ruleList = phraseTable
+          .getRules(queryString, inputProperties, qId.incrementAndGet(), scorer);
+      RuleGrid<IString,String> ruleGrid = new RuleGrid<IString,String>(ruleList, queryString, -1);
+      rulesForSpan = ruleGrid.get(sourceContext.size(), queryString.size()-1);
+      List<ConcreteRule<IString,String>> rulesForContext = ruleGrid.get(0, sourceContext.size()-1);
+      bestLeftContext = rulesForContext.size() > 0 ? rulesForContext.get(0) : null;
+    }
+
+    // Process the query
+    double normalizer = 0.0;
+    List<RuleQuery> queriedRules = new ArrayList<>(ruleRequest.spanLimit);
+    for(ConcreteRule<IString,String> rule : rulesForSpan) {
+      if (queriedRules.size() >= ruleRequest.spanLimit) {
+        break;
+      } else if (rule.abstractRule.target == null || rule.abstractRule.target.size() == 0) {
+        // Ignore deletion rules from the unknown word model
+        continue;
+      } else if (source.equals(rule.abstractRule.target)) {
+        // Ignore identity translation rules when drop-unknown-words is disabled.
+        continue;
+      }
+
+      // Extract word-word alignment from the rule.
+      SymmetricalWordAlignment sPrime2tPrime = getAlignment(rule.abstractRule);
+
+      // Post-process the target side, possibly adding left context.
+      Sequence<IString> target = rule.abstractRule.target;
+      int offset = 0;
+      if (bestLeftContext != null) {
+        target = bestLeftContext.abstractRule.target.concat(target);
+        offset = bestLeftContext.abstractRule.target.size();
+      }
+      SymmetricalWordAlignment tPrime2t = postprocessor == null ?
+          identityAlignment(target) : postprocessor.process(target);
+
+      double score = Math.exp(rule.isolationScore);
+      normalizer += score;
+      RuleQuery query = createQueryResult(ruleRequest.text, score, s2sPrime, sPrime2tPrime, tPrime2t, offset);
+      queriedRules.add(query);
+    }
+    // Normalize the model scores
+    for (RuleQuery query : queriedRules) {
+      query.setScore(query.score / normalizer);
+    }
+
+    // Successful query
+    RuleQueryReply reply = new RuleQueryReply(queriedRules);
+    Type t = new TypeToken<RuleQueryReply>() {}.getType();
+    return new ServiceResponse(reply, t);
+  }
+
   /**
    * Convert a PhraseAlignment to a SymmetricalWordAlignment. This is necessary because
    * PhraseAlignment only stores t2s alignments, but we need the other direction for
@@ -19,6 +19,11 @@ public class ServiceResponse {
   
   private static final Gson gson = new Gson();
   
+  /**
+   * Placeholder response for requests that were shed by admission control.
+   */
+  public static final ServiceResponse UNAVAILABLE = new ServiceResponse(null, null);
+  
   private final Reply reply;
   private final Type type;
   
@@ -58,6 +63,15 @@ public class ServiceResponse {
     response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
   }
   
+  /**
+   * Write SERVICE_UNAVAILABLE (HTTP 503) into the response.
+   * 
+   * @param response
+   */
+  public static void writeServiceUnavailable(HttpServletResponse response) {
+    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+  }
+  
   /**
    * Write INTERNAL_SERVER_ERROR (HTTP 500) into the response.
    * 
@@ -3,13 +3,17 @@ package edu.stanford.nlp.mt.service.handlers;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -19,14 +23,21 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationSupport;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.reflect.TypeToken;
 
 import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.util.PrefixDecodingState;
+import edu.stanford.nlp.mt.process.CachingPreprocessor;
 import edu.stanford.nlp.mt.process.Postprocessor;
 import edu.stanford.nlp.mt.process.Preprocessor;
 import edu.stanford.nlp.mt.process.ProcessorFactory;
 import edu.stanford.nlp.mt.service.Messages.Language;
 import edu.stanford.nlp.mt.service.PhrasalServlet;
+import edu.stanford.nlp.mt.service.RequestScheduler;
+import edu.stanford.nlp.mt.service.ResponseCache;
+import edu.stanford.nlp.mt.service.RequestScheduler.Priority;
 import edu.stanford.nlp.mt.service.Messages.Request;
 import edu.stanford.nlp.mt.service.Messages.TranslationReply;
 import edu.stanford.nlp.mt.service.Messages.TranslationRequest;
@@ -39,8 +50,6 @@ import edu.stanford.nlp.mt.util.InputProperty;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
-import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
-import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 /**
  * Message handler for the TranslationRequest message.
@@ -54,10 +63,25 @@ public class TranslationRequestHandler implements RequestHandler {
   
   private static final int DIVERSITY_WINDOW = 3;
   private static final int NBEST_MULTIPLIER = 20;
-  private static final int MAX_RETRIES_PER_REQUEST = 2;
   
-  private MulticoreWrapper<DecoderInput,DecoderOutput> wrapper;
-  private final Phrasal decoder;
+  // Default admission control settings: maximum number of queued requests and
+  // maximum queue wait (ms) for each priority class.
+  public static final int[] DEFAULT_QUEUE_CAPACITY = new int[] {256, 1024};
+  public static final long[] DEFAULT_QUEUE_SLO = new long[] {2000, 20000};
+  
+  // Interactive sessions whose prefix decoding state is kept between requests
+  private static final int MAX_PREFIX_SESSIONS = 256;
+  private static final long PREFIX_SESSION_TTL = 10;
+  
+  // Source preprocessing runs in its own pool ahead of the decoder threads
+  public static final int DEFAULT_PREPROCESSING_THREADS = 2;
+  private static final long PREPROCESSING_CACHE_SIZE = 10000;
+  
+  private final RequestScheduler<DecoderInput> scheduler;
+  private final ExecutorService preprocessingPool;
+  private final Preprocessor sourcePreprocessor;
+  private final ResponseCache<DecoderInput> responseCache;
+  private final Cache<String,PrefixSession> prefixSessions;
 
   // Threadsafe fields shared among decoding threads
   private static final ConcurrentHashMap<Language,Preprocessor> targetPreprocessorCache =
@@ -70,33 +94,76 @@ public class TranslationRequestHandler implements RequestHandler {
    * @param decoder
    */
   public TranslationRequestHandler(Phrasal decoder) {
-    this.decoder = decoder;
-    // Setup a threadpool for phrasal that wraps the servlet internals
-    // needed to restart the request after processing.
-    wrapper = new MulticoreWrapper<DecoderInput,DecoderOutput>(decoder.getNumThreads(), 
-        new DecoderService(0, decoder), false);
+    this(decoder, DEFAULT_QUEUE_CAPACITY, DEFAULT_QUEUE_SLO, 0, 0, null, DEFAULT_PREPROCESSING_THREADS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param decoder
+   * @param queueCapacity Maximum number of queued requests per <code>Priority</code>.
+   * @param queueSLO Maximum queue wait (ms) per <code>Priority</code>. 
+   * @param cacheSize Maximum number of cached responses. 0 disables the cache.
+   * @param cacheTTL Time to live (s) of a cached response.
+   * @param modelVersion Identifier of the loaded model.
+   * @param preprocessingThreads Number of source preprocessing threads. 0 runs 
+   *        preprocessing on the decoder threads.
+   */
+  public TranslationRequestHandler(Phrasal decoder, int[] queueCapacity, long[] queueSLO,
+      long cacheSize, long cacheTTL, String modelVersion, int preprocessingThreads) {
+    sourcePreprocessor = decoder.getPreprocessor() == null ? null :
+      new CachingPreprocessor(decoder.getPreprocessor(), PREPROCESSING_CACHE_SIZE);
+    preprocessingPool = preprocessingThreads > 0 ? Executors.newFixedThreadPool(preprocessingThreads, r -> {
+      Thread thread = new Thread(r, "preprocessor");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+    responseCache = cacheSize > 0 ? new ResponseCache<DecoderInput>(cacheSize, cacheTTL, modelVersion) : null;
+    prefixSessions = CacheBuilder.newBuilder().maximumSize(MAX_PREFIX_SESSIONS)
+        .expireAfterAccess(PREFIX_SESSION_TTL, TimeUnit.MINUTES).build();
+    // One decoder service per decoding thread. The scheduler restarts the request
+    // after processing.
+    scheduler = new RequestScheduler<>(decoder.getNumThreads(), 
+        threadId -> new DecoderService(threadId, decoder, sourcePreprocessor, responseCache, prefixSessions), 
+        queueCapacity, queueSLO);
+  }
+
+  /**
+   * Search state for successive prefixes of the same source input. The session
+   * keeps the input id of its first request so that the decoder can match the state.
+   */
+  private static class PrefixSession {
+    private final int inputId;
+    private final PrefixDecodingState<IString,String> state = new PrefixDecodingState<>();
+    public PrefixSession(int inputId) {
+      this.inputId = inputId;
+    }
   }
 
   private static class DecoderInput {
     private final int inputId;
-    private final HttpServletRequest request;
-    private final Continuation continuation;
+    private final Consumer<ServiceResponse> responder;
     private final String text;
     private final String tgtPrefix;
     private final InputProperties properties;
     private final Language targetLanguage;
     private final int n;
     private final long submitTime;
-    public DecoderInput(int inputId, String text, String prefix, int n, Language targetLanguage, String inputProps, HttpServletRequest request,
-        Continuation continuation) {
+    private String cacheKey;
+    private String sessionKey;
+    // Set by preprocess()
+    private Sequence<IString> source;
+    private SymmetricalWordAlignment s2sPrime;
+    private List<Sequence<IString>> targets;
+    public DecoderInput(int inputId, String text, String prefix, int n, Language targetLanguage, String inputProps, 
+        Consumer<ServiceResponse> responder) {
       this.inputId = inputId;
       this.text = text;
       this.tgtPrefix = prefix;
       this.properties = InputProperties.fromString(inputProps);
       this.targetLanguage = targetLanguage;
       this.n = n;
-      this.request = request;
-      this.continuation = continuation;
+      this.responder = responder;
       this.submitTime = System.nanoTime();
     }
     @Override
@@ -105,76 +172,63 @@ public class TranslationRequestHandler implements RequestHandler {
     }
   }
   
-  private static class DecoderOutput {
-    private final int inputId;
-    private final boolean success;
-    public DecoderOutput(int inputId, boolean status) {
-      this.inputId = inputId;
-      this.success = status;
-    }
-  }
-
-  private static class DecoderService implements ThreadsafeProcessor<DecoderInput,DecoderOutput> {
+  private static class DecoderService implements RequestScheduler.Processor<DecoderInput> {
     private final int threadId;
-    private int childThreadId;
     private final Phrasal decoder;
     private final boolean dropUnknownWords;
     private final Preprocessor sourcePreprocessor;
     private final Postprocessor postprocessor;
+    private final ResponseCache<DecoderInput> responseCache;
+    private final Cache<String,PrefixSession> prefixSessions;
 
-    public DecoderService(int threadId, Phrasal decoder) {
+    public DecoderService(int threadId, Phrasal decoder, Preprocessor sourcePreprocessor, 
+        ResponseCache<DecoderInput> responseCache, Cache<String,PrefixSession> prefixSessions) {
       this.threadId = threadId;
-      this.childThreadId = threadId+1;
       this.decoder = decoder;
       this.dropUnknownWords = decoder.isDropUnknownWords();
-      this.sourcePreprocessor = decoder.getPreprocessor();
+      this.sourcePreprocessor = sourcePreprocessor;
       this.postprocessor = decoder.getPostprocessor();
+      this.responseCache = responseCache;
+      this.prefixSessions = prefixSessions;
     }
 
     @Override
-    public DecoderOutput process(DecoderInput input) {
+    public void process(DecoderInput input) {
       logger.info("Input {}: {}", input.inputId, input.text);
       try {
-        // Source pre-processing
+        // Pre-processing, unless the preprocessing stage already did it
         final long preprocStart = System.nanoTime();
-        Sequence<IString> source;
-        SymmetricalWordAlignment s2sPrime = null;
-        if (sourcePreprocessor == null) {
-          source = IStrings.tokenize(input.text);
-          s2sPrime = identityAlignment(source);
-
-        } else {
-          s2sPrime = sourcePreprocessor.processAndAlign(input.text);
-          source = s2sPrime.e();
-        }
-
-        // Target prefix pre-processing
-        List<Sequence<IString>> targets = null;
-        if (input.tgtPrefix != null && input.tgtPrefix.length() > 0) {
-          SymmetricalWordAlignment t2t;
-          try {
-            Language targetLanguage = input.targetLanguage;
-            if ( ! targetPreprocessorCache.contains(targetLanguage)) {
-              targetPreprocessorCache.putIfAbsent(targetLanguage, ProcessorFactory.getPreprocessor(input.targetLanguage.name()));
-            }
-            t2t = targetPreprocessorCache.get(targetLanguage).processAndAlign(input.tgtPrefix);
-            
-          } catch (Exception e) {
-            logger.warn("Prefix preprocessor threw an exception", e);
-            Sequence<IString> prefix = IStrings.tokenize(input.tgtPrefix);
-            t2t = identityAlignment(prefix);
-          }
-          targets = new LinkedList<>();
-          targets.add(t2t.e());
-        }
+        if (input.source == null) preprocess(input, sourcePreprocessor);
+        final Sequence<IString> source = input.source;
+        final SymmetricalWordAlignment s2sPrime = input.s2sPrime;
+        final List<Sequence<IString>> targets = input.targets;
         input.properties.put(InputProperty.TargetPrefix, targets != null);
         
         // Decode
         final long decodeStart = System.nanoTime();
         final int numRequestedTranslations = input.n;
         final int numTranslationsToGenerate = input.n * NBEST_MULTIPLIER;
-        List<RichTranslation<IString,String>> translations = 
-            decoder.decode(source, input.inputId, threadId, numTranslationsToGenerate, targets, input.properties); 
+        
+        // Interactive MT: re-use the search state of the previous prefix of this input.
+        // The session is removed while it is in use, so concurrent requests decode from scratch.
+        PrefixSession session = null;
+        int decoderInputId = input.inputId;
+        if (targets != null && input.sessionKey != null) {
+          session = prefixSessions.asMap().remove(input.sessionKey);
+          if (session == null) session = new PrefixSession(input.inputId);
+          decoderInputId = session.inputId;
+          input.properties.put(InputProperty.PrefixDecodingState, session.state);
+        }
+        List<RichTranslation<IString,String>> translations;
+        try {
+          translations = decoder.decode(source, decoderInputId, threadId, numTranslationsToGenerate, 
+              targets, input.properties);
+        } finally {
+          if (session != null) {
+            logger.info("Input {} prefix session: {}", input.inputId, session.state);
+            prefixSessions.put(input.sessionKey, session);
+          }
+        }
         logger.info("Input {} decoder: #translations: {}",
             input.inputId, translations.size());
         
@@ -231,19 +285,21 @@ public class TranslationRequestHandler implements RequestHandler {
             input.inputId, querySeconds, preprocSeconds, decodeSeconds, postprocSeconds);
 
         // Create the service reply
-        TranslationRequestHandler.populateRequest(input.request, translationList, alignments, scoreList);
-        input.continuation.resume(); // Re-dispatch/ resume to generate response
-
-        return new DecoderOutput(input.inputId, true);
+        respond(responseCache, input, toResponse(translationList, alignments, scoreList), true);
       
       } catch(Exception e) {
         // Catch all exception handler. Generate an empty response.
         logger.error("Decoding of request failed: " + input.toString(), e);
-        TranslationRequestHandler.populateRequest(input.request, new LinkedList<Sequence<IString>>(), 
-            new LinkedList<List<String>>(), new LinkedList<Double>());
-        input.continuation.resume(); // Re-dispatch/ resume to generate response
+        respond(responseCache, input, toResponse(new LinkedList<Sequence<IString>>(), 
+            new LinkedList<List<String>>(), new LinkedList<Double>()), false);
       }
-      return new DecoderOutput(input.inputId, false);
+    }
+
+    @Override
+    public void shed(DecoderInput input) {
+      logger.warn("Input {} shed after {}s in the queue", input.inputId,
+          (System.nanoTime() - input.submitTime) / 1e9);
+      respond(responseCache, input, ServiceResponse.UNAVAILABLE, false);
     }
 
     /**
@@ -340,19 +396,14 @@ public class TranslationRequestHandler implements RequestHandler {
       }
       return alignmentList;
     }
+  }
 
-    private static SymmetricalWordAlignment identityAlignment(Sequence<IString> sequence) {
-      SymmetricalWordAlignment alignment = new SymmetricalWordAlignment(sequence,sequence);
-      for (int i = 0, sequenceLength = sequence.size(); i < sequenceLength; ++i) {
-        alignment.addAlign(i, i);
-      }
-      return alignment;
-    }
-
-    @Override
-    public ThreadsafeProcessor<DecoderInput, DecoderOutput> newInstance() {
-      return new DecoderService(childThreadId++, decoder);
+  private static SymmetricalWordAlignment identityAlignment(Sequence<IString> sequence) {
+    SymmetricalWordAlignment alignment = new SymmetricalWordAlignment(sequence,sequence);
+    for (int i = 0, sequenceLength = sequence.size(); i < sequenceLength; ++i) {
+      alignment.addAlign(i, i);
     }
+    return alignment;
   }
 
   /**
@@ -378,70 +429,143 @@ public class TranslationRequestHandler implements RequestHandler {
   }
 
   /**
-   * Populate a servlet request with the result of processing the input.
+   * Create the service response from the result of processing the input.
    * 
-   * @param request
    * @param translationList
    * @param alignments
    * @param scoreList
+   * @return
    */
-  private static void populateRequest(HttpServletRequest request, List<Sequence<IString>> translationList,
+  private static ServiceResponse toResponse(List<Sequence<IString>> translationList,
       List<List<String>> alignments, List<Double> scoreList) {
     Type t = new TypeToken<TranslationReply>() {}.getType();
     List<TranslationQuery> queryList = toQuery(translationList, alignments, scoreList);
     TranslationReply baseResponse = new TranslationReply(queryList);
-    ServiceResponse serviceResponse = new ServiceResponse(baseResponse, t);
-    request.setAttribute(PhrasalServlet.ASYNC_KEY, serviceResponse);   
+    return new ServiceResponse(baseResponse, t);
+  }
+
+  /**
+   * Tokenize the source and the target prefix of an input.
+   * 
+   * @param input
+   * @param sourcePreprocessor
+   */
+  private static void preprocess(DecoderInput input, Preprocessor sourcePreprocessor) {
+    // Source pre-processing
+    if (sourcePreprocessor == null) {
+      Sequence<IString> source = IStrings.tokenize(input.text);
+      input.s2sPrime = identityAlignment(source);
+    } else {
+      input.s2sPrime = sourcePreprocessor.processAndAlign(input.text);
+    }
+
+    // Target prefix pre-processing
+    if (input.tgtPrefix != null && input.tgtPrefix.length() > 0) {
+      SymmetricalWordAlignment t2t;
+      try {
+        Language targetLanguage = input.targetLanguage;
+        if ( ! targetPreprocessorCache.contains(targetLanguage)) {
+          targetPreprocessorCache.putIfAbsent(targetLanguage, ProcessorFactory.getPreprocessor(input.targetLanguage.name()));
+        }
+        t2t = targetPreprocessorCache.get(targetLanguage).processAndAlign(input.tgtPrefix);
+        
+      } catch (Exception e) {
+        logger.warn("Prefix preprocessor threw an exception", e);
+        Sequence<IString> prefix = IStrings.tokenize(input.tgtPrefix);
+        t2t = identityAlignment(prefix);
+      }
+      List<Sequence<IString>> targets = new LinkedList<>();
+      targets.add(t2t.e());
+      input.targets = targets;
+    }
+    // Publish the source last. The decoder checks it to skip pre-processing.
+    input.source = input.s2sPrime.e();
+  }
+
+  /**
+   * Pass the response to the client. Identical requests
+   * that were coalesced with this one receive the same response.
+   * 
+   * @param responseCache
+   * @param input
+   * @param response
+   * @param cacheable
+   */
+  private static void respond(ResponseCache<DecoderInput> responseCache, DecoderInput input, 
+      ServiceResponse response, boolean cacheable) {
+    List<DecoderInput> waiters = responseCache == null || input.cacheKey == null ? 
+        Collections.emptyList() : responseCache.complete(input.cacheKey, cacheable ? response : null);
+    input.responder.accept(response);
+    for (DecoderInput waiter : waiters) waiter.responder.accept(response);
   }
   
   @Override
   public void handleAsynchronous(Request baseRequest,
       HttpServletRequest request, HttpServletResponse response) {
-    logger.info(wrapper.toString());
-    
     // Suspend the request
     Continuation continuation = ContinuationSupport.getContinuation(request);
     continuation.suspend(response);
 
+    handleAsynchronous(baseRequest, request.getRemoteAddr(), serviceResponse -> {
+      request.setAttribute(PhrasalServlet.ASYNC_KEY, serviceResponse);
+      continuation.resume(); // Re-dispatch/ resume to generate response
+    });
+  }
+
+  @Override
+  public void handleAsynchronous(Request baseRequest, String clientId,
+      Consumer<ServiceResponse> responder) {
+    logger.info(scheduler.toString());
+
     // Create the input to the translation service
     TranslationRequest translationRequest = (TranslationRequest) baseRequest;
     int sourceId = inputId.incrementAndGet();
     DecoderInput input = new DecoderInput(sourceId, translationRequest.text, translationRequest.tgtPrefix, 
-        translationRequest.n, translationRequest.tgt, translationRequest.inputProperties, request, continuation);
+        translationRequest.n, translationRequest.tgt, translationRequest.inputProperties, responder);
 
-    // Try to submit the request to the service.
-    boolean requestSubmitted = false;
-    for (int numRetries = 0; !requestSubmitted && numRetries < MAX_RETRIES_PER_REQUEST; ++numRetries) {
-      try {
-        // Clear the wrapper of status messages of completed jobs
-        wrapper.put(input);
-        requestSubmitted = true;
-        while(wrapper.peek()) {
-          DecoderOutput status = wrapper.poll();
-          sourceId = status.inputId;
-          if (status.success) {
-            logger.info("Input id {}: status {}", status.inputId, status.success);
-          } else {
-            logger.error("Input id {}: status {}", status.inputId, status.success);
-          }
-        }
-        
-      } catch (RejectedExecutionException e) {
-        logger.error("Threadpool corrupted by underlying exceptions. Restarting...", e);
-        wrapper.join();
-        wrapper = new MulticoreWrapper<DecoderInput,DecoderOutput>(decoder.getNumThreads(), 
-            new DecoderService(0, decoder), false);
-        logger.info("Restarted threadpool");
-      } catch (Exception e) {
-        logger.error("Exception while processing request", e);
+    if (translationRequest.tgtPrefix != null && translationRequest.tgtPrefix.length() > 0) {
+      input.sessionKey = String.format("%s\t%s\t%s\t%s", clientId, translationRequest.src,
+          translationRequest.tgt, translationRequest.text);
+    }
+    if (responseCache != null) {
+      input.cacheKey = responseCache.key(translationRequest.src, translationRequest.tgt, translationRequest.text,
+          translationRequest.tgtPrefix, translationRequest.n, translationRequest.inputProperties);
+      ServiceResponse cachedResponse = responseCache.getIfPresent(input.cacheKey);
+      if (cachedResponse != null) {
+        logger.info("Input {} served from the cache: {}", sourceId, responseCache);
+        responder.accept(cachedResponse);
+        return;
+      } else if (responseCache.coalesce(input.cacheKey, input)) {
+        // An identical request is being decoded
+        logger.info("Input {} coalesced: {}", sourceId, responseCache);
+        return;
       }
     }
-    
-    if ( ! requestSubmitted) {
-      logger.error("Decoding of request failed: {}", input);
-      TranslationRequestHandler.populateRequest(input.request, new LinkedList<Sequence<IString>>(), 
-          new LinkedList<List<String>>(), new LinkedList<Double>());
-      input.continuation.resume(); // Re-dispatch/ resume to generate response
+
+    // Pre-process in the preprocessing pool, then submit the request to the scheduler.
+    Priority priority = translationRequest.bulk ? Priority.BULK : Priority.INTERACTIVE;
+    if (preprocessingPool == null) {
+      schedule(input, clientId, priority);
+    } else {
+      preprocessingPool.execute(() -> {
+        try {
+          preprocess(input, sourcePreprocessor);
+        } catch (Exception e) {
+          // The decoder thread retries and generates the error response
+          logger.warn("Input {} preprocessing failed", input.inputId, e);
+        }
+        schedule(input, clientId, priority);
+      });
+    }
+  }
+
+  /**
+   * Submit a request to the scheduler. Rejected requests receive HTTP 503.
+   */
+  private void schedule(DecoderInput input, String clientId, Priority priority) {
+    if ( ! scheduler.submit(input, clientId, priority)) {
+      logger.warn("Input {} rejected by admission control: {}", input.inputId, scheduler);
+      respond(responseCache, input, ServiceResponse.UNAVAILABLE, false);
     }
   }
 
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -42,6 +43,15 @@ public class TranslationRequestHandlerMock implements RequestHandler {
     Continuation continuation = ContinuationSupport.getContinuation(request);
     continuation.suspend(response); //Start Async Processing
 
+    handleAsynchronous(baseRequest, request.getRemoteAddr(), serviceResponse -> {
+      request.setAttribute(PhrasalServlet.ASYNC_KEY, serviceResponse);   
+      continuation.resume(); // Re-dispatch/ resume to generate response
+    });
+  }
+
+  @Override
+  public void handleAsynchronous(Request baseRequest, String clientId,
+      Consumer<ServiceResponse> responder) {
     TranslationRequest translationRequest = (TranslationRequest) baseRequest;
     
     // Translate to uppercase!
@@ -64,9 +74,7 @@ public class TranslationRequestHandlerMock implements RequestHandler {
       e.printStackTrace();
     }
     
-    ServiceResponse serviceResponse = new ServiceResponse(baseResponse, t);
-    request.setAttribute(PhrasalServlet.ASYNC_KEY, serviceResponse);   
-    continuation.resume(); // Re-dispatch/ resume to generate response
+    responder.accept(new ServiceResponse(baseResponse, t));
   }
 
   @Override
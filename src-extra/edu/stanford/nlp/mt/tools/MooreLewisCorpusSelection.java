@@ -2,17 +2,26 @@ package edu.stanford.nlp.mt.tools;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.LineNumberReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import edu.stanford.nlp.mt.lm.KenLanguageModel;
+import edu.stanford.nlp.mt.lm.LanguageModel;
+import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
-import edu.stanford.nlp.mt.util.LineIndexedCorpus;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.ArraySequence;
@@ -20,15 +29,21 @@ import edu.stanford.nlp.mt.util.ArraySequence;
 /**
  * Moore-Lewis's "Intelligent Selection of Language Model Training Data" (ACL2010).
  *
+ * The data is streamed in chunks to a pool of worker threads that share the KenLM
+ * models. Only the best <code>selectionSize</code> lines are kept in memory. Lines
+ * with equal scores are selected in corpus order.
+ *
  * @author Thang Luong lmthang@stanford.edu, 2013
  *
  */
 public class MooreLewisCorpusSelection {
 
-  private KenLanguageModel inKenLM;
-  private KenLanguageModel outKenLM;
-  private LineIndexedCorpus data;
-  private double[] crossEntDiffScores; // cross-entropy diff scores
+  private static final int CHUNK_SIZE = 10000;
+
+  private LanguageModel<IString> inKenLM;
+  private LanguageModel<IString> outKenLM;
+  private String dataFile;
+  private int numThreads;
 
   private IString startToken;
   private IString endToken;
@@ -37,33 +52,35 @@ public class MooreLewisCorpusSelection {
   public static void usage() {
     System.err.println("Usage:\n\tjava ...MooreLewisCorpusSelection " +
         "(selectionSize) (inDomainKenLM) (outDomainKenLM) (data) (outPrefix) "
-        + "[lenThreshold] [isRemoveRepetition]");
+        + "[lenThreshold] [isRemoveRepetition] [numThreads]");
     System.err.println("  outPrefix: for each selectSize we will output three files outPrefix.data, "
         + "outPrefix.score (cross-entropy diff scores), and outPrefix.line (0-based line indices)");
     System.err.println("  lenThreshold: only select sentences with >= lenThreshold tokens (default=1)");
     System.err.println("  isRemoveRepetition: if set to true, only keep non-duplicated sentences (default=false)");
+    System.err.println("  numThreads: number of scoring threads (default=number of processors)");
   }
 
   public MooreLewisCorpusSelection(String inDomainKenLMFile, String outDomainKenLMFile, String dataFile){
-    // in-domain KenLM
-    System.err.println("# Loading in-domain KenLM " + inDomainKenLMFile);
-    inKenLM = new KenLanguageModel(inDomainKenLMFile);
+    this(inDomainKenLMFile, outDomainKenLMFile, dataFile, Runtime.getRuntime().availableProcessors());
+  }
 
-    // out-domain KenLM
-    System.err.println("# Loading out-domain KenLM " + outDomainKenLMFile);
-    outKenLM = new KenLanguageModel(outDomainKenLMFile);
+  public MooreLewisCorpusSelection(String inDomainKenLMFile, String outDomainKenLMFile, String dataFile,
+      int numThreads){
+    this(loadKenLM("in-domain", inDomainKenLMFile), loadKenLM("out-domain", outDomainKenLMFile), dataFile,
+        numThreads);
+  }
 
-    // data file
-    System.err.println("# Opening " + dataFile);
-    try {
-      data = new LineIndexedCorpus(dataFile);
-    } catch (IOException e) {
-      System.err.println("! Can't load data file " + dataFile);
-      e.printStackTrace();
-    }
+  /**
+   * Constructor for language models that are already loaded. The models must be threadsafe.
+   */
+  MooreLewisCorpusSelection(LanguageModel<IString> inDomainLM, LanguageModel<IString> outDomainLM,
+      String dataFile, int numThreads){
+    inKenLM = inDomainLM;
+    outKenLM = outDomainLM;
 
-    // cross-entropy diff scores
-    crossEntDiffScores = new double[data.size()];
+    // data file, which is streamed by select()
+    this.dataFile = dataFile;
+    this.numThreads = numThreads;
 
     // others
     startToken = inKenLM.getStartToken();
@@ -76,11 +93,70 @@ public class MooreLewisCorpusSelection {
     }
   }
 
-  // smallest values first
-  private class SentenceScoreComparator implements Comparator<Integer> {
-    @Override
-    public int compare(Integer o1, Integer o2) {
-       return (int)Math.signum(crossEntDiffScores[o1]-crossEntDiffScores[o2]);
+  private static KenLanguageModel loadKenLM(String domain, String filename) {
+    System.err.println("# Loading " + domain + " KenLM " + filename);
+    return new KenLanguageModel(filename);
+  }
+
+  private static class ScoredLine {
+    private final double score;
+    private int lineId;
+    private final String line;
+    private ScoredLine(double score, int lineId, String line) {
+      this.score = score;
+      this.lineId = lineId;
+      this.line = line;
+    }
+  }
+
+  // smallest values first, ties in corpus order
+  private static final Comparator<ScoredLine> SCORE_ORDER =
+      Comparator.<ScoredLine>comparingDouble(l -> l.score).thenComparingInt(l -> l.lineId);
+
+  /**
+   * Bounded set of the lines with the smallest scores. Chunks are scored out of order,
+   * so ties at the boundary are broken by line id. Duplicate lines have the same score,
+   * so a duplicate only moves the line to its first occurrence.
+   */
+  private static class TopK {
+    private final int k;
+    private final TreeSet<ScoredLine> lines = new TreeSet<>(SCORE_ORDER);
+    private final Map<String,ScoredLine> uniqueLines;
+
+    private TopK(int k, boolean isRemoveRepetition) {
+      this.k = k;
+      this.uniqueLines = isRemoveRepetition ? new HashMap<>() : null;
+    }
+
+    private synchronized void offer(List<ScoredLine> scoredLines) {
+      if (k <= 0) return;
+      for (ScoredLine scoredLine : scoredLines) {
+        if (lines.size() == k && SCORE_ORDER.compare(scoredLine, lines.last()) > 0) continue;
+        if (uniqueLines != null) {
+          ScoredLine existing = uniqueLines.get(scoredLine.line);
+          if (existing != null) {
+            if (scoredLine.lineId < existing.lineId) {
+              lines.remove(existing);
+              existing.lineId = scoredLine.lineId;
+              lines.add(existing);
+            }
+            continue;
+          }
+          uniqueLines.put(scoredLine.line, scoredLine);
+        }
+        lines.add(scoredLine);
+        if (lines.size() > k) {
+          ScoredLine evicted = lines.pollLast();
+          if (uniqueLines != null) uniqueLines.remove(evicted.line);
+        }
+      }
+    }
+
+    /**
+     * The lines in order of increasing score.
+     */
+    private List<ScoredLine> sorted() {
+      return new ArrayList<>(lines);
     }
   }
 
@@ -100,21 +176,38 @@ public class MooreLewisCorpusSelection {
 
 
   public void select(String outPrefix, int selectionSize, int lenThreshold, boolean isRemoveRepetition) throws IOException {
-    PriorityQueue<Integer> Q = new PriorityQueue<>(crossEntDiffScores.length, new SentenceScoreComparator());
-    int count=0;
+    final TopK topK = new TopK(selectionSize, isRemoveRepetition);
+    final ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    // bound the number of chunks in memory
+    final Semaphore inFlight = new Semaphore(2*numThreads);
 
-    for (String line : data) {
-      String[] tokens = line.split("\\s+");
-      if(tokens.length>=lenThreshold){ // >= lenThreshold tokens
-        crossEntDiffScores[count] = computeCrossEntDiff(tokens);
-        Q.add(count);
+    System.err.println("# Scoring " + dataFile + " with " + numThreads + " threads ...");
+    LineNumberReader reader = IOTools.getReaderFromFile(dataFile);
+    int count=0;
+    List<Future<?>> results = new ArrayList<>();
+    List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+    for (String line; (line = reader.readLine()) != null; ) {
+      chunk.add(line);
+      if (chunk.size() == CHUNK_SIZE) {
+        results.add(submit(workers, inFlight, topK, chunk, count - CHUNK_SIZE + 1, lenThreshold));
+        chunk = new ArrayList<>(CHUNK_SIZE);
       }
 
-
       if(++count % 100000 == 0){
         System.err.print(" (" + count/1000 + "K) ");
       }
     }
+    reader.close();
+    if (chunk.size() > 0) results.add(submit(workers, inFlight, topK, chunk, count - chunk.size(), lenThreshold));
+    try {
+      for (Future<?> result : results) result.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Could not score " + dataFile, e.getCause());
+    } finally {
+      workers.shutdownNow();
+    }
     System.err.println("Done! Num lines = " + count);
 
     // init print writers
@@ -127,22 +220,10 @@ public class MooreLewisCorpusSelection {
         new FileOutputStream(outPrefix + ".line"), "UTF-8"));
 
     // picking up smallest cross-entropy diff values first
-    count = 0;
-    Set<String> uniqueLines = new HashSet<>();
-    while(!Q.isEmpty()){
-      int lineId = Q.poll();
-      String line = data.get(lineId);
-      if(!isRemoveRepetition || !uniqueLines.contains(line)){ // if isRemoveRepetition=true, line must be unique
-        selectedDataPW.println(line);
-        selectedScorePW.println(crossEntDiffScores[lineId]);
-        selectedLinePW.println(lineId); // 0-based index
-        uniqueLines.add(line);
-
-        count++;
-        if(count==selectionSize){
-          break;
-        }
-      }
+    for (ScoredLine scoredLine : topK.sorted()) {
+      selectedDataPW.println(scoredLine.line);
+      selectedScorePW.println(scoredLine.score);
+      selectedLinePW.println(scoredLine.lineId); // 0-based index
     }
 
     selectedDataPW.close();
@@ -150,8 +231,30 @@ public class MooreLewisCorpusSelection {
     selectedLinePW.close();
   }
 
+  /**
+   * Score a chunk of lines on a worker thread. The KenLM models are threadsafe.
+   */
+  private Future<?> submit(ExecutorService workers, Semaphore inFlight, TopK topK, List<String> chunk,
+      int firstLineId, int lenThreshold) {
+    inFlight.acquireUninterruptibly();
+    return workers.submit(() -> {
+      try {
+        List<ScoredLine> scored = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); ++i) {
+          String[] tokens = chunk.get(i).trim().split("\\s+");
+          if(tokens.length>=lenThreshold){ // >= lenThreshold tokens
+            scored.add(new ScoredLine(computeCrossEntDiff(tokens), firstLineId + i, chunk.get(i)));
+          }
+        }
+        topK.offer(scored);
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
   public static void main(String[] args) throws IOException {
-    if (args.length<5 || args.length>7) {
+    if (args.length<5 || args.length>8) {
       System.err.print("Input arguments (count=" + args.length + "):");
       for (String string : args) { System.err.print(" " + string); }
       System.err.println();
@@ -165,9 +268,11 @@ public class MooreLewisCorpusSelection {
     String dataFile = args[3];
     String outPrefix = args[4];
     int lenThreshold = (args.length>=6)? Integer.parseInt(args[5]):1; // select sentences >= lenThreshold tokens
-    boolean isRemoveRepetition = args.length == 7 && Boolean.parseBoolean(args[6]);
+    boolean isRemoveRepetition = args.length >= 7 && Boolean.parseBoolean(args[6]);
+    int numThreads = (args.length==8)? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors();
 
-    MooreLewisCorpusSelection mlcs = new MooreLewisCorpusSelection(inDomainKenLMFile, outDomainKenLMFile, dataFile);
+    MooreLewisCorpusSelection mlcs = new MooreLewisCorpusSelection(inDomainKenLMFile, outDomainKenLMFile, dataFile,
+        numThreads);
 
     // MooreLewis selection
     mlcs.select(outPrefix, selectionSize, lenThreshold, isRemoveRepetition);
@@ -54,7 +54,7 @@ public final class TranslationModelComparator {
     Counter<String> weightsComp = args.length > 3 ? IOTools.readWeights(args[4]) : null;
     Scorer<String> scorer = weightsDyn == null ? null : new SparseScorer(weightsDyn);
     Scorer<String> scorerComp = weightsComp == null ? null : new SparseScorer(weightsComp);
-    RuleFeaturizer<IString,String> feat = new TranslationModelFeaturizer(6);
+    RuleFeaturizer<IString,String> feat = new TranslationModelFeaturizer();
     dynTM.setFeaturizer(feat);
     compiledTM.setFeaturizer(feat);
     
@@ -62,8 +62,8 @@ public final class TranslationModelComparator {
     int sourceId = 0;
     for (Sequence<IString> source : sourceSegments) {
       System.out.printf("SOURCE ID %d%n", sourceId);
-      RuleGrid<IString,String> dynRules = dynTM.getRuleGrid(source, null, null, sourceId, scorer);
-      RuleGrid<IString,String> compRules = compiledTM.getRuleGrid(source, null, null, sourceId, scorerComp);
+      RuleGrid<IString,String> dynRules = new RuleGrid<>(dynTM.getRules(source, null, sourceId, scorer), source);
+      RuleGrid<IString,String> compRules = new RuleGrid<>(compiledTM.getRules(source, null, sourceId, scorerComp), source);
       for (int order = 1; order < 5; ++order) {
         for (int i = 0, sz = source.size() - order; i < sz; ++i) {
           int j = i + order  - 1;
@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -31,6 +32,7 @@ import edu.stanford.nlp.mt.decoder.Inferer.NbestMode;
 import edu.stanford.nlp.mt.decoder.InfererBuilderFactory;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.Featurizer;
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerFactory;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
@@ -47,6 +49,7 @@ import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.OutputSpaceFactory;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.decoder.util.ScorerFactory;
+import edu.stanford.nlp.mt.decoder.util.TranslationHypergraph;
 import edu.stanford.nlp.mt.lm.LanguageModel;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
 import edu.stanford.nlp.mt.process.Postprocessor;
@@ -65,6 +68,7 @@ import edu.stanford.nlp.mt.tm.TranslationModelFactory;
 import edu.stanford.nlp.mt.tm.UnknownWordPhraseGenerator;
 import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
 import edu.stanford.nlp.mt.util.FactoryUtil;
+import edu.stanford.nlp.mt.util.FeatureValues;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
@@ -146,6 +150,8 @@ public class Phrasal {
             " filename [filename] : Phrase tables that cannot have associated reordering models. Optionally supports custom per-table prefixes for features (e.g., pref:filename).")
         .append(nl).append("  -").append(ALIGNMENT_OUTPUT_FILE)
         .append(" filename : Output word-word alignments to file for each translation.").append(nl).append("  -")
+        .append(HYPERGRAPH_OUTPUT_FILE)
+        .append(" filename : Output the search hypergraph instead of an n-best list (for hypergraph tuning).").append(nl).append("  -")
         .append(PREPROCESSOR_FILTER).append(" language [opts] : Pre-processor to apply to source input.").append(nl)
         .append("  -").append(POSTPROCESSOR_FILTER)
         .append(" language [opts] : Post-processor to apply to target output.").append(nl).append("  -")
@@ -153,6 +159,17 @@ public class Phrasal {
         .append(" filename : Feature API: Line-delimited source word->class mapping (TSV format).").append(nl)
         .append("  -").append(TARGET_CLASS_MAP)
         .append(" filename : Feature API: Line-delimited target word->class mapping (TSV format).").append(nl)
+        .append("  -").append(FEATURE_HASHING)
+        .append(" boolean : Feature API: Hashed 64-bit ids for sparse features (default: false).").append(nl)
+        .append("  -").append(FEATURE_DICTIONARY)
+        .append(" filename : Feature API: Write the hashed feature id->name dictionary to file.").append(nl)
+        .append("  -").append(FEATURE_DICTIONARY_SIZE)
+        .append(" num : Feature API: Maximum number of names in the hashed feature dictionary (default: ")
+        .append(FeatureHashing.DEFAULT_MAX_DICTIONARY_SIZE).append(").").append(nl)
+        .append("  -").append(RULE_FEATURE_CACHE)
+        .append(" num : Feature API: Cache the features of up to num rules across inputs (default: 0, i.e. disabled).").append(nl)
+        .append("  -").append(DEFER_RULE_FEATURES)
+        .append(" boolean : Feature API: Extract sparse rule features only for rules reached by cube pruning. The rules are ranked without them (default: false).").append(nl)
         .append("  -").append(GAPS_OPT).append(" options : DTU: Enable Galley and Manning (2010) gappy decoding.")
         .append(nl).append("  -").append(MAX_PENDING_PHRASES_OPT)
         .append(" num : DTU: Max number of pending phrases for decoding.").append(nl).append("  -")
@@ -205,10 +222,16 @@ public class Phrasal {
   public static final String FOREGROUND_TM = "foreground-tm-file";
   public static final String TERMBASE = "termbase-file";
   public static final String ALIGNMENT_OUTPUT_FILE = "alignment-output-file";
+  public static final String HYPERGRAPH_OUTPUT_FILE = "hypergraph-output-file";
   public static final String PREPROCESSOR_FILTER = "preprocessor-filter";
   public static final String POSTPROCESSOR_FILTER = "postprocessor-filter";
   public static final String SOURCE_CLASS_MAP = "source-class-map";
   public static final String TARGET_CLASS_MAP = "target-class-map";
+  public static final String FEATURE_HASHING = "feature-hashing";
+  public static final String FEATURE_DICTIONARY = "feature-dictionary";
+  public static final String FEATURE_DICTIONARY_SIZE = "feature-dictionary-size";
+  public static final String RULE_FEATURE_CACHE = "rule-feature-cache";
+  public static final String DEFER_RULE_FEATURES = "defer-rule-features";
   public static final String PRINT_MODEL_SCORES = "print-model-scores";
   public static final String INPUT_PROPERTIES = "input-properties";
   public static final String FEATURE_AUGMENTATION = "feature-augmentation";
@@ -229,8 +252,8 @@ public class Phrasal {
         FORCE_DECODE, PREFIX_ALIGN_COMPOUNDS, RECOMBINATION_MODE, SEARCH_ALGORITHM, BEAM_SIZE, WEIGHTS_FILE, MAX_SENTENCE_LENGTH, MIN_SENTENCE_LENGTH,
         USE_ITG_CONSTRAINTS, NUM_THREADS, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
         MAX_PENDING_PHRASES_OPT, DROP_UNKNOWN_WORDS, INDEPENDENT_PHRASE_TABLES, FOREGROUND_TM, TERMBASE, LANGUAGE_MODEL_OPT,
-        ALIGNMENT_OUTPUT_FILE, PREPROCESSOR_FILTER, POSTPROCESSOR_FILTER, SOURCE_CLASS_MAP, TARGET_CLASS_MAP,
-        PRINT_MODEL_SCORES, INPUT_PROPERTIES, FEATURE_AUGMENTATION, WRAP_BOUNDARY, KSR_NBEST_SIZE, WPA_NBEST_SIZE, ORACLE_NBEST_SIZE, REFERENCE));
+        ALIGNMENT_OUTPUT_FILE, HYPERGRAPH_OUTPUT_FILE, PREPROCESSOR_FILTER, POSTPROCESSOR_FILTER, SOURCE_CLASS_MAP, TARGET_CLASS_MAP,
+        FEATURE_HASHING, FEATURE_DICTIONARY, FEATURE_DICTIONARY_SIZE, RULE_FEATURE_CACHE, DEFER_RULE_FEATURES, PRINT_MODEL_SCORES, INPUT_PROPERTIES, FEATURE_AUGMENTATION, WRAP_BOUNDARY, KSR_NBEST_SIZE, WPA_NBEST_SIZE, ORACLE_NBEST_SIZE, REFERENCE));
     ALL_RECOGNIZED_FIELDS.addAll(REQUIRED_FIELDS);
     ALL_RECOGNIZED_FIELDS.addAll(OPTIONAL_FIELDS);
   }
@@ -327,6 +350,16 @@ public class Phrasal {
    * Internal alignment options
    */
   private PrintStream alignmentWriter;
+  
+  /**
+   * Search hypergraph output
+   */
+  private DataOutputStream hypergraphWriter;
+
+  /**
+   * Output file for the hashed feature dictionary.
+   */
+  private String featureDictionaryFile;
 
   /**
    * References for force decoding
@@ -563,6 +596,16 @@ public class Phrasal {
       }
     }
 
+    // Hashed sparse features. Must be set before the scorers are created.
+    final boolean featureHashing = config.containsKey(FEATURE_HASHING) ?
+        Boolean.parseBoolean(config.get(FEATURE_HASHING).get(0)) : false;
+    FeatureHashing.setEnabled(featureHashing);
+    featureDictionaryFile = config.containsKey(FEATURE_DICTIONARY) ? config.get(FEATURE_DICTIONARY).get(0) : null;
+    if (config.containsKey(FEATURE_DICTIONARY_SIZE)) {
+      FeatureHashing.setMaxDictionarySize(Integer.parseInt(config.get(FEATURE_DICTIONARY_SIZE).get(0)));
+    }
+    logger.info("Feature hashing: {}", featureHashing);
+
     final boolean forceDecode = config.containsKey(FORCE_DECODE);
     if (forceDecode) {
       forceDecodeReferences = MetricUtils
@@ -807,6 +850,20 @@ public class Phrasal {
       featurizer.setFeatureAugmentationMode(featureAugmentationMode);
     }
 
+    // Cross-input rule feature cache. Shared by the featurizer clones of each decoding thread.
+    final int ruleFeatureCacheSize = config.containsKey(RULE_FEATURE_CACHE) ?
+        Integer.parseInt(config.get(RULE_FEATURE_CACHE).get(0)) : 0;
+    if (ruleFeatureCacheSize > 0) {
+      logger.info("Rule feature cache size: {}", ruleFeatureCacheSize);
+      featurizer.setRuleFeatureCache(ruleFeatureCacheSize);
+    }
+    final boolean deferRuleFeatures = config.containsKey(DEFER_RULE_FEATURES) ?
+        Boolean.parseBoolean(config.get(DEFER_RULE_FEATURES).get(0)) : false;
+    if (deferRuleFeatures) {
+      logger.info("Deferred extraction of sparse rule features");
+      featurizer.setDeferRuleFeatures(true);
+    }
+
     // Link the final featurizer and the phrase table
     translationModel.setFeaturizer(featurizer);
     if(foregroundModel != null) foregroundModel.setFeaturizer(featurizer);
@@ -950,6 +1007,13 @@ public class Phrasal {
       alignmentWriter = IOTools.getWriterFromFile(alignmentOpt.get(0));
     }
     
+    // Determine if we need to generate a hypergraph file
+    final List<String> hypergraphOpt = config.get(HYPERGRAPH_OUTPUT_FILE);
+    if (hypergraphOpt != null && hypergraphOpt.size() == 1) {
+      hypergraphWriter = TranslationHypergraph.getWriter(hypergraphOpt.get(0));
+      logger.info("Hypergraph output: {}", hypergraphOpt.get(0));
+    }
+    
     ksr_nbest_size = config.containsKey(KSR_NBEST_SIZE) ?
         Integer.valueOf(config.get(KSR_NBEST_SIZE).get(0)) : 0;
     wpa_nbest_size = config.containsKey(WPA_NBEST_SIZE) ?
@@ -1055,9 +1119,10 @@ public class Phrasal {
 
     @Override
     public DecoderOutput process(DecoderInput input) {
-      // Generate n-best list
-      final List<RichTranslation<IString, String>> translations = decode(input.source, input.sourceInputId, infererId,
-          nbestListSize, input.targets, input.inputProps);
+      // Generate n-best list, or the Viterbi translation in hypergraph mode
+      final List<RichTranslation<IString, String>> translations = hypergraphWriter == null ? 
+          decode(input.source, input.sourceInputId, infererId, nbestListSize, input.targets, input.inputProps) :
+          decodeViterbiWithHypergraph(input.source, input.sourceInputId, infererId, input.targets, input.inputProps);
 
       // Select and process the best translation
       Sequence<IString> bestTranslation = null;
@@ -1150,6 +1215,16 @@ public class Phrasal {
     public ThreadsafeProcessor<DecoderInput, DecoderOutput> newInstance() {
       return new PhrasalProcessor(childInfererId++);
     }
+    
+    private List<RichTranslation<IString, String>> decodeViterbiWithHypergraph(Sequence<IString> source, 
+        int sourceInputId, int threadId, List<Sequence<IString>> targets, InputProperties inputProperties) {
+      TranslationHypergraph<IString, String> hypergraph = decodeHypergraph(source, sourceInputId, threadId, 
+          targets, inputProperties);
+      if (hypergraph == null) return Collections.emptyList();
+      Derivation<IString, String> best = hypergraph.bestDerivation;
+      return Collections.singletonList(new RichTranslation<>(best.featurizable, best.score, 
+          FeatureValues.combine(best), 0));
+    }
   }
 
   /**
@@ -1391,6 +1466,87 @@ public class Phrasal {
         targetsArePrefixes, translationModel.maxLengthSource(), translationModel.maxLengthTarget(), 
         wrapBoundary, allowIncompletePrefix);
 
+    configureModels(threadId, inputProperties);
+    timer.mark("setup");
+    
+    // Decode
+    List<RichTranslation<IString, String>> translations = new ArrayList<>(1);
+    if (numTranslations > 1) {
+      translations = inferers.get(threadId).nbest(source, sourceInputId, inputProperties, outputSpace,
+          outputSpace.getAllowableSequences(), numTranslations, distinctNbest, nbestMode);
+
+      // Decoder failure
+      if (translations == null) translations = Collections.emptyList();
+
+    } else {
+      // The 1-best translation in this case is potentially different from
+      // calling nbest() with a list size of 1. Therefore, this call is *not* a
+      // special case of the condition above.
+      final RichTranslation<IString, String> translation = inferers.get(threadId).translate(source, sourceInputId,
+          inputProperties, outputSpace, outputSpace.getAllowableSequences());
+      if (translation != null) translations.add(translation);
+    }
+    timer.mark("decode");
+    logger.info("Decode timing: {}", timer);
+    return translations;
+  }
+
+  /**
+   * Decode a tokenized input string and return the recombination hypergraph of the
+   * search instead of an n-best list. The hypergraph is written to the hypergraph
+   * output file if one is configured.
+   *
+   * NOTE: This call is threadsafe.
+   *
+   * @param source
+   * @param sourceInputId
+   * @param threadId
+   *          -- Inferer object to use (one per thread)
+   * @param targets
+   * @param inputProperties
+   * @return The hypergraph or null on decoder failure.
+   */
+  public TranslationHypergraph<IString, String> decodeHypergraph(Sequence<IString> source, int sourceInputId, 
+      int threadId, List<Sequence<IString>> targets, InputProperties inputProperties) {
+    Objects.requireNonNull(source);
+    if (threadId < 0 || threadId >= numThreads)
+      throw new IndexOutOfBoundsException("Thread id out of bounds: " + String.valueOf(threadId));
+    if (sourceInputId < 0)
+      throw new IndexOutOfBoundsException("Source id must be non-negative: " + String.valueOf(sourceInputId));
+
+    if (wrapBoundary) source = Sequences.wrapStartEnd(source, TokenUtils.START_TOKEN, 
+        TokenUtils.END_TOKEN);
+    final boolean targetsArePrefixes = inputProperties.containsKey(InputProperty.TargetPrefix)
+        ? (boolean) inputProperties.get(InputProperty.TargetPrefix) : false;
+    final boolean allowIncompletePrefix = (inputProperties.containsKey(InputProperty.AllowIncompletePrefix)) 
+        ?  (boolean) inputProperties.get(InputProperty.AllowIncompletePrefix) : false;
+    final OutputSpace<IString, String> outputSpace = OutputSpaceFactory.getOutputSpace(sourceInputId, targets,
+        targetsArePrefixes, translationModel.maxLengthSource(), translationModel.maxLengthTarget(), 
+        wrapBoundary, allowIncompletePrefix);
+    configureModels(threadId, inputProperties);
+    
+    final TranslationHypergraph<IString, String> hypergraph = inferers.get(threadId).hypergraph(source, 
+        sourceInputId, inputProperties, outputSpace, outputSpace.getAllowableSequences());
+    if (hypergraph != null && hypergraphWriter != null) {
+      synchronized(hypergraphWriter) {
+        try {
+          hypergraph.write(hypergraphWriter);
+        } catch (IOException e) {
+          logger.error("Could not write hypergraph for input {}", sourceInputId, e);
+        }
+      }
+    }
+    return hypergraph;
+  }
+  
+  /**
+   * Configure the translation models and weights of a decoder thread for an input.
+   * 
+   * @param threadId
+   * @param inputProperties
+   */
+  @SuppressWarnings("unchecked")
+  private void configureModels(int threadId, InputProperties inputProperties) {
     // Configure the translation model
     if (inputProperties.containsKey(InputProperty.ForegroundTM)) {
       final TranslationModel<IString, String> tm = (TranslationModel<IString, String>) inputProperties
@@ -1417,28 +1573,6 @@ public class Phrasal {
     if (! inputProperties.containsKey(InputProperty.RuleQueryLimit)) {
       inputProperties.put(InputProperty.RuleQueryLimit, ruleQueryLimit);
     }
-    timer.mark("setup");
-    
-    // Decode
-    List<RichTranslation<IString, String>> translations = new ArrayList<>(1);
-    if (numTranslations > 1) {
-      translations = inferers.get(threadId).nbest(source, sourceInputId, inputProperties, outputSpace,
-          outputSpace.getAllowableSequences(), numTranslations, distinctNbest, nbestMode);
-
-      // Decoder failure
-      if (translations == null) translations = Collections.emptyList();
-
-    } else {
-      // The 1-best translation in this case is potentially different from
-      // calling nbest() with a list size of 1. Therefore, this call is *not* a
-      // special case of the condition above.
-      final RichTranslation<IString, String> translation = inferers.get(threadId).translate(source, sourceInputId,
-          inputProperties, outputSpace, outputSpace.getAllowableSequences());
-      if (translation != null) translations.add(translation);
-    }
-    timer.mark("decode");
-    logger.info("Decode timing: {}", timer);
-    return translations;
   }
 
   /**
@@ -1517,6 +1651,24 @@ public class Phrasal {
       logger.info("Closing alignment writer");
       alignmentWriter.close();
     }
+    
+    if (hypergraphWriter != null) {
+      logger.info("Closing hypergraph writer");
+      try {
+        hypergraphWriter.close();
+      } catch (IOException e) {
+        logger.error("Could not close hypergraph writer", e);
+      }
+    }
+
+    if (featurizer != null && featurizer.getRuleFeatureCache() != null) {
+      logger.info("Rule feature cache: {}", featurizer.getRuleFeatureCache());
+    }
+
+    if (featureDictionaryFile != null && FeatureHashing.isEnabled()) {
+      logger.info("Writing {} hashed features to {}", FeatureHashing.dictionarySize(), featureDictionaryFile);
+      FeatureHashing.writeDictionary(featureDictionaryFile);
+    }
   }
 
   /**
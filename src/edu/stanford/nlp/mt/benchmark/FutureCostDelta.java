@@ -0,0 +1,97 @@
+package edu.stanford.nlp.mt.benchmark;
+
+import java.util.Random;
+
+import edu.stanford.nlp.mt.decoder.h.SpanScores;
+import edu.stanford.nlp.mt.util.CoverageMask;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+
+/**
+ * Per-hypothesis cost of the future cost estimate: full gap walk vs.
+ * incremental delta from the parent, on coverage sets and on coverage masks.
+ */
+public class FutureCostDelta {
+
+  public static void main(String[] args) {
+    final int sourceLength = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+    final int numDerivations = 200000;
+    final Random random = new Random(1);
+
+    SpanScores scores = new SpanScores(sourceLength);
+    for (int i = 0; i < sourceLength; ++i) {
+      for (int j = i; j < sourceLength; ++j) {
+        scores.setScore(i, j, -random.nextDouble() * (j - i + 1));
+      }
+    }
+
+    // Random parent coverages and rules. Each rule is a phrase of up to 7 words
+    // inside a gap of the parent.
+    CoverageSet[] parents = new CoverageSet[numDerivations];
+    CoverageSet[] rules = new CoverageSet[numDerivations];
+    CoverageSet[] children = new CoverageSet[numDerivations];
+    for (int i = 0; i < numDerivations; ++i) {
+      CoverageSet parent = new CoverageSet(sourceLength);
+      for (int j = 0, sz = random.nextInt(sourceLength); j < sz; ++j) {
+        parent.set(random.nextInt(sourceLength));
+      }
+      if (parent.cardinality() == sourceLength) parent.clear(random.nextInt(sourceLength));
+      int start = parent.nextClearBit(random.nextInt(sourceLength));
+      if (start >= sourceLength) start = parent.nextClearBit(0);
+      int gapEnd = parent.nextSetBit(start);
+      if (gapEnd < 0) gapEnd = sourceLength;
+      CoverageSet rule = new CoverageSet(sourceLength);
+      rule.set(start, Math.min(gapEnd, start + 1 + random.nextInt(7)));
+      CoverageSet child = parent.clone();
+      child.or(rule);
+      parents[i] = parent;
+      rules[i] = rule;
+      children[i] = child;
+    }
+
+    double[] parentH = new double[numDerivations];
+    for (int i = 0; i < numDerivations; ++i) parentH[i] = scores.futureCost(parents[i]);
+
+    final int numIters = 20;
+    double sum = 0.0;
+    TimeKeeper timer = TimingUtils.start();
+    for (int iter = 0; iter < numIters; ++iter) {
+      for (int i = 0; i < numDerivations; ++i) {
+        sum += scores.futureCost(children[i]) - parentH[i];
+      }
+    }
+    timer.mark("full");
+    double deltaSum = 0.0;
+    for (int iter = 0; iter < numIters; ++iter) {
+      for (int i = 0; i < numDerivations; ++i) {
+        deltaSum += scores.futureCostDelta(parents[i], rules[i], children[i]);
+      }
+    }
+    timer.mark("delta");
+
+    double maskSum = 0.0;
+    if (CoverageMask.fits(sourceLength)) {
+      long[] masks = new long[6 * numDerivations];
+      for (int i = 0; i < numDerivations; ++i) {
+        masks[6*i] = CoverageMask.word(parents[i], 0);
+        masks[6*i+1] = CoverageMask.word(parents[i], 1);
+        masks[6*i+2] = CoverageMask.word(rules[i], 0);
+        masks[6*i+3] = CoverageMask.word(rules[i], 1);
+        masks[6*i+4] = CoverageMask.word(children[i], 0);
+        masks[6*i+5] = CoverageMask.word(children[i], 1);
+      }
+      timer.mark("masks");
+      for (int iter = 0; iter < numIters; ++iter) {
+        for (int i = 0, j = 0; i < numDerivations; ++i, j += 6) {
+          maskSum += scores.futureCostDelta(masks[j], masks[j+1], masks[j+2], masks[j+3],
+              masks[j+4], masks[j+5]);
+        }
+      }
+      timer.mark("delta-mask");
+    }
+
+    System.out.printf("Checksum: %.6f %.6f %.6f%n", sum, deltaSum, maskSum);
+    System.out.println("Timing: " + timer.toString());
+  }
+}
@@ -20,9 +20,12 @@ import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.DiverseNbestDecoder;
 import edu.stanford.nlp.mt.decoder.util.NbestListUtils;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryCache;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.decoder.util.StateLatticeDecoder;
 import edu.stanford.nlp.mt.decoder.util.SyntheticRules;
+import edu.stanford.nlp.mt.decoder.util.TranslationHypergraph;
+import edu.stanford.nlp.mt.tm.CombinedTranslationModel;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.tm.DTURule;
 import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
@@ -111,9 +114,48 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
       InputProperties sourceInputProperties, List<Sequence<TK>> targets,
       int sourceInputId, Scorer<FV> scorer) {
     
+    // Re-use the query result from a previous decoding pass over this input
+    @SuppressWarnings("unchecked")
+    final RuleQueryCache<TK,FV> ruleCache = (RuleQueryCache<TK,FV>) 
+        sourceInputProperties.get(InputProperty.RuleQueryCache);
+    if (ruleCache != null) {
+      // The rule query limit depends on the weights, so cache the unpruned query
+      // and re-apply the limit after re-scoring.
+      final int queryLimit = phraseGenerator instanceof CombinedTranslationModel ?
+          ((CombinedTranslationModel<TK,FV>) phraseGenerator).getRuleQueryLimit() : -1;
+      RuleQueryCache.CachedQuery<TK,FV> cachedQuery = ruleCache.get(sourceInputId, source);
+      if (cachedQuery != null) {
+        return new PhraseQuery<>(cachedQuery.filteredSource, cachedQuery.rescore(scorer, queryLimit));
+      }
+      PhraseQuery<TK,FV> query = queryRules(source, sourceInputProperties, sourceInputId, scorer, 
+          queryLimit >= 0);
+      ruleCache.put(sourceInputId, source, query.filteredSource, query.ruleList);
+      return queryLimit < 0 ? query : new PhraseQuery<>(query.filteredSource, 
+          CombinedTranslationModel.selectRules(query.ruleList, queryLimit));
+    }
+    return queryRules(source, sourceInputProperties, sourceInputId, scorer, false);
+  }
+  
+  /**
+   * Query the translation model.
+   */
+  private List<ConcreteRule<TK,FV>> queryModel(Sequence<TK> source,
+      InputProperties sourceInputProperties, int sourceInputId, Scorer<FV> scorer, boolean unpruned) {
+    return unpruned ? ((CombinedTranslationModel<TK,FV>) phraseGenerator).getRules(source, 
+        sourceInputProperties, sourceInputId, scorer, -1) : 
+          phraseGenerator.getRules(source, sourceInputProperties, sourceInputId, scorer);
+  }
+  
+  /**
+   * Query the phrase table and the unknown word model.
+   * 
+   * @param unpruned If true, do not apply the rule query limit of the translation model.
+   */
+  private PhraseQuery<TK,FV> queryRules(Sequence<TK> source,
+      InputProperties sourceInputProperties, int sourceInputId, Scorer<FV> scorer, boolean unpruned) {
     // Initial query
-    List<ConcreteRule<TK,FV>> ruleList = phraseGenerator.getRules(source, sourceInputProperties, 
-        sourceInputId, scorer);
+    List<ConcreteRule<TK,FV>> ruleList = queryModel(source, sourceInputProperties, 
+        sourceInputId, scorer, unpruned);
     
     // Compute coverage
     final CoverageSet coverage = new CoverageSet(source.size());
@@ -131,7 +173,7 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
         }
         Sequence<TK> sourceFiltered = filteredToks.size() > 0 ? 
             new ArraySequence<TK>(filteredToks) : Sequences.emptySequence();
-        ruleList = phraseGenerator.getRules(sourceFiltered, sourceInputProperties, sourceInputId, scorer);
+        ruleList = queryModel(sourceFiltered, sourceInputProperties, sourceInputId, scorer, unpruned);
         return new PhraseQuery<>(sourceFiltered, ruleList);
         
       } else {
@@ -406,6 +448,24 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
     return new RichTranslation<>(best.featurizable, best.score, FeatureValues.combine(best), 0);
   }
 
+  @Override
+  public TranslationHypergraph<TK, FV> hypergraph(Sequence<TK> source, int sourceInputId,
+      InputProperties sourceInputProperties, OutputSpace<TK, FV> outputSpace,
+      List<Sequence<TK>> targets) {
+    if (outputSpace != null) outputSpace.setSourceSequence(source);
+    final TimeKeeper timer = TimingUtils.start();
+    RecombinationHistory<Derivation<TK, FV>> recombinationHistory = new RecombinationHistory<>();
+    Beam<Derivation<TK, FV>> beam = decode(scorer, source, sourceInputId, sourceInputProperties,
+        recombinationHistory, outputSpace, targets, Phrasal.MAX_NBEST_SIZE);
+    if (beam == null) return null; // Decoder failure
+    timer.mark("Decode");
+    TranslationHypergraph<TK, FV> hypergraph = TranslationHypergraph.fromBeam(sourceInputId, beam, 
+        recombinationHistory, TranslationHypergraph.DEFAULT_CONTEXT_SIZE);
+    timer.mark("Hypergraph");
+    logger.info("Input {}: {} timing {}", sourceInputId, hypergraph, timer);
+    return hypergraph;
+  }
+
   /**
 	 * 
 	 */
@@ -13,6 +13,7 @@ import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
 import edu.stanford.nlp.mt.decoder.util.Beam;
 import edu.stanford.nlp.mt.decoder.util.BundleBeam;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
+import edu.stanford.nlp.mt.decoder.util.PrefixDecodingState;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.HyperedgeBundle;
 import edu.stanford.nlp.mt.decoder.util.HyperedgeBundle.Consequent;
@@ -120,6 +121,12 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     if(termbaseModel != null && !inputProperties.containsKey(InputProperty.TermbaseTM)) {
       inputProperties.put(InputProperty.TermbaseTM, termbaseModel);
     }
+    final PrefixDecodingState<TK,FV> prefixState = (PrefixDecodingState<TK,FV>) 
+        inputProperties.get(InputProperty.PrefixDecodingState);
+    if (prefixState != null && ! inputProperties.containsKey(InputProperty.RuleQueryCache)) {
+      // Re-use the TM query of the previous prefix
+      inputProperties.put(InputProperty.RuleQueryCache, prefixState.getRuleQueryCache());
+    }
     
     final int localBeamCapacity = sourceInputProperties.containsKey(InputProperty.BeamSize) ?
         (int) sourceInputProperties.get(InputProperty.BeamSize) :
@@ -179,7 +186,7 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     if (inputProperties.containsKey(InputProperty.TargetPrefix) && targets != null && targets.size() > 0) {
       if (targets.size() > 1) logger.warn("Decoding to multiple prefixes is not supported. Choosing the first one.");
       minSourceCoverage = decodePrefix(source, ruleList, inputProperties, targets.get(0), 
-          scorer, beams, sourceInputId, outputSpace, recombinationHistory, timer);
+          scorer, beams, sourceInputId, outputSpace, recombinationHistory, prefixState, timer);
       if (minSourceCoverage < 0) {
         logger.warn("input {}: PREFIX DECODING FAILURE", sourceInputId);
         return null;
@@ -251,6 +258,8 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     logger.info("input {}: Decoding time: {}", sourceInputId, timer);
     logger.info("input {}: #derivations generated: {}  pruned: {}  recombined: {}", sourceInputId, 
         totalHypothesesGenerated, numPruned, numRecombined);
+    logger.info("input {}: #rules expanded: {}/{} in {} spans", sourceInputId, 
+        ruleGrid.numExpandedRules(), ruleGrid.size(), ruleGrid.numSortedSpans());
 
     // Return the best beam, which should be the goal beam
     boolean isGoalBeam = true;
@@ -301,7 +310,7 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     List<Item> successors = new ArrayList<>(2);
     for(Consequent<TK, FV> successor : bundle.nextSuccessors(antecedent)) {
       boolean buildDerivation = outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)
-          && (!checkSourceCoverage || (!successor.antecedent.sourceCoverage.intersects(successor.rule.sourceCoverage) ));
+          && (!checkSourceCoverage || (!successor.antecedent.coverageIntersects(successor.rule) ));
       Derivation<TK, FV> derivation = buildDerivation ? new Derivation<>(sourceInputId,
           successor.rule, successor.antecedent.length, successor.antecedent, featurizer, scorer, 
           heuristic, outputSpace) : null;
@@ -366,13 +375,15 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
    * @param prefix
    * @param scorer
    * @param beams
+   * @param prefixState Search state from the previous prefix of this input. May be null.
    * @return The beam at which standard decoding should begin.
    */
   @SuppressWarnings("unchecked")
   private int decodePrefix(Sequence<TK> source, List<ConcreteRule<TK,FV>> ruleList, 
       InputProperties sourceInputProperties, Sequence<TK> prefix, Scorer<FV> scorer, 
       List<Beam<Derivation<TK,FV>>> beams, int sourceInputId, OutputSpace<TK, FV> outputSpace,
-      RecombinationHistory<Derivation<TK, FV>> recombinationHistory, TimeKeeper timer) {
+      RecombinationHistory<Derivation<TK, FV>> recombinationHistory, 
+      PrefixDecodingState<TK,FV> prefixState, TimeKeeper timer) {
     if (source == null || source.size() == 0 || prefix == null || prefix.size() == 0) return 0;
 
     //System.err.println("start prefix decoding");
@@ -413,10 +424,26 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       tgtBeams.add(new BundleBeam<>(localBeamCapacity, filter, prefixGrid, recombinationHistory, maxDistortion, i, true));
     }
     
+    // Re-use the beams of the previous prefix up to the first word that changed.
+    // The re-used derivations do not complete the prefix, so only the prefix length changes.
+    final int numReusedBeams = prefixState == null ? 0 : 
+      prefixState.numReusableBeams(sourceInputId, source, prefix);
+    if (numReusedBeams > 0) {
+      List<List<Derivation<TK,FV>>> reusedBeams = prefixState.copyBeams(numReusedBeams, 
+          sourceInputProperties, prefixLength);
+      for (int i = 1; i <= numReusedBeams; ++i) {
+        BundleBeam<TK,FV> beam = (BundleBeam<TK,FV>) tgtBeams.get(i);
+        for (Derivation<TK,FV> d : reusedBeams.get(i)) beam.put(d, false);
+      }
+    }
+    if (numReusedBeams > 0) {
+      logger.info("input {}: re-used {} prefix beams", sourceInputId, numReusedBeams);
+    }
+    
     final int maxTgtPhraseLength = prefixGrid.maxTargetLength();
     int totalHypothesesGenerated = 1, numRecombined = 0, numPruned = 0;
     int lastRecoveredCardinality = 0;
-    for (int i = 1; i <= prefixLength; ++i) {
+    for (int i = numReusedBeams + 1; i <= prefixLength; ++i) {
       //System.err.println("i = " + i);
       int rootBeam = 0;
       int minCoverage = i - maxTgtPhraseLength;
@@ -501,6 +528,9 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     logger.info("input {}: #derivations generated: {}  pruned: {}  recombined: {}", sourceInputId, 
         totalHypothesesGenerated, numPruned, numRecombined);
     
+    if (prefixState != null) {
+      prefixState.update(sourceInputId, source, prefix, tgtBeams, numReusedBeams);
+    }
     return populateSourceBeams(tgtBeams, beams);
   }
   
@@ -518,8 +548,8 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       
       minSrcCard = Integer.MAX_VALUE;
       for(Derivation<TK, FV> d : tgtBeam) {
-        minSrcCard = Math.min(minSrcCard, d.sourceCoverage.cardinality());
-        BundleBeam<TK,FV> srcBeam = (BundleBeam<TK,FV>) srcBeams.get(d.sourceCoverage.cardinality());
+        minSrcCard = Math.min(minSrcCard, d.coveredSourceTokens());
+        BundleBeam<TK,FV> srcBeam = (BundleBeam<TK,FV>) srcBeams.get(d.coveredSourceTokens());
         if(srcBeam.size() < srcBeam.capacity()) srcBeam.put(d, false);
       }
       break;
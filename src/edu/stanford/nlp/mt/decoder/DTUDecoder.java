@@ -329,7 +329,7 @@ public class DTUDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
                 hyp.featurizable.targetPosition);
           }
         }
-        System.err.printf("\tCoverage: %s%n", hyp.sourceCoverage);
+        System.err.printf("\tCoverage: %s%n", hyp.getSourceCoverage());
         if (hyp.rule != null) {
           System.err.printf("\tConcrete option:coverage: %s%n",
               hyp.rule.sourceCoverage);
@@ -431,7 +431,7 @@ public class DTUDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
         // System.err.printf("%nExpanding hyp: %s%n", hyp);
         // System.err.printf("%nCoverage: %s%n", hyp.foreignCoverage);
         int localOptionsApplied = 0;
-        int firstCoverageGap = hyp.sourceCoverage.nextClearBit(0);
+        int firstCoverageGap = hyp.nextUncoveredSourceIndex(0);
         assert (firstCoverageGap <= sourceSz);
 
         if (firstCoverageGap == sourceSz) {
@@ -463,7 +463,7 @@ public class DTUDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
               continue;
 
             for (ConcreteRule<TK,FV> option : applicableOptions) {
-              if (hyp.sourceCoverage.intersects(option.sourceCoverage)) {
+              if (hyp.coverageIntersects(option)) {
                 continue;
               }
 
@@ -486,11 +486,11 @@ public class DTUDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
                       newHyp.id, hyp.id);
                   System.err.printf("hyp: %s%n",
                       newHyp.featurizable.targetSequence);
-                  System.err.printf("coverage: %s%n", newHyp.sourceCoverage);
+                  System.err.printf("coverage: %s%n", newHyp.getSourceCoverage());
                   if (hyp.featurizable != null) {
                     System.err.printf("par: %s%n",
                         hyp.featurizable.targetSequence);
-                    System.err.printf("coverage: %s%n", hyp.sourceCoverage);
+                    System.err.printf("coverage: %s%n", hyp.getSourceCoverage());
                   }
                   System.err.printf("\tbase score: %.3f%n", hyp.score);
                   System.err.printf("\tcovering: %s%n",
@@ -524,7 +524,7 @@ public class DTUDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
                 }
 
                 if (!hyp.hasExpired()) {
-                  int beamIdx = newHyp.sourceCoverage.cardinality();
+                  int beamIdx = newHyp.coveredSourceTokens();
                   if (0 == newHyp.untranslatedSourceTokens && newHyp.isDone()) {
                     ++beamIdx;
                   }
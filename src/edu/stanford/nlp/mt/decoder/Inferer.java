@@ -4,6 +4,7 @@ import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.decoder.util.TranslationHypergraph;
 import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.RichTranslation;
@@ -96,4 +97,19 @@ public interface Inferer<TK, FV> {
       int sourceInputId, InputProperties sourceInputProperties,
       OutputSpace<TK, FV> outputSpace, List<Sequence<TK>> targets,
       int size, boolean distinct, NbestMode nbestMode);
+
+  /**
+   * Produce the recombination hypergraph of the search instead of extracting
+   * an n-best list.
+   * 
+   * @param source
+   * @param sourceInputId
+   * @param sourceInputProperties
+   * @param outputSpace
+   * @param targets
+   * @return The hypergraph or null on decoder failure.
+   */
+  public TranslationHypergraph<TK, FV> hypergraph(Sequence<TK> source, int sourceInputId,
+      InputProperties sourceInputProperties, OutputSpace<TK, FV> outputSpace,
+      List<Sequence<TK>> targets);
 }
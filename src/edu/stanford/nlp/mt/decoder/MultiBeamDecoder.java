@@ -252,7 +252,7 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
               hyp.rule.abstractRule.target,
               hyp.featurizable.targetPosition);
         }
-        System.err.printf("\tCoverage: %s\n", hyp.sourceCoverage);
+        System.err.printf("\tCoverage: %s\n", hyp.getSourceCoverage());
         System.err.printf("\tFeatures: %s\n", hyp.features);
         if (hyp.features != null) {
           for (FeatureValue<FV> featureValue : hyp.features) {
@@ -303,7 +303,7 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
       if (hyp == null)
         continue;
       int localOptionsApplied = 0;
-      int firstCoverageGap = hyp.sourceCoverage.nextClearBit(0);
+      int firstCoverageGap = hyp.nextUncoveredSourceIndex(0);
       int priorStartPos = (hyp.featurizable == null ? 0
           : hyp.featurizable.sourcePosition);
       int priorEndPos = (hyp.featurizable == null ? 0
@@ -313,7 +313,7 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
       // Loop over coverage gaps
       // Left edge
       for (int startPos = firstCoverageGap; startPos < sourceSz; startPos++) {
-        int endPosMax = hyp.sourceCoverage.nextSetBit(startPos);
+        int endPosMax = hyp.nextCoveredSourceIndex(startPos);
         if (DETAILED_DEBUG)
           System.err.printf("Current startPos: %d, endPosMax: %d\n", startPos, endPosMax);
 
@@ -334,16 +334,16 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
           boolean ITGOK = true;
           if (startPos > priorStartPos) {
             for (int pos = priorEndPos + 1; pos < startPos; pos++) {
-              if (hyp.sourceCoverage.get(pos)
-                  && !hyp.sourceCoverage.get(pos - 1)) {
+              if (hyp.isSourceCovered(pos)
+                  && !hyp.isSourceCovered(pos - 1)) {
                 ITGOK = false;
                 break;
               }
             }
           } else {
             for (int pos = startPos; pos < priorStartPos; pos++) {
-              if (hyp.sourceCoverage.get(pos)
-                  && !hyp.sourceCoverage.get(pos + 1)) {
+              if (hyp.isSourceCovered(pos)
+                  && !hyp.isSourceCovered(pos + 1)) {
                 ITGOK = false;
                 break;
               }
@@ -379,11 +379,11 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
                   newHyp.id, hyp.id);
               System.err.printf("hyp: %s\n",
                   newHyp.featurizable.targetSequence);
-              System.err.printf("coverage: %s\n", newHyp.sourceCoverage);
+              System.err.printf("coverage: %s\n", newHyp.getSourceCoverage());
               if (hyp.featurizable != null) {
                 System.err.printf("par: %s\n",
                     hyp.featurizable.targetSequence);
-                System.err.printf("coverage: %s\n", hyp.sourceCoverage);
+                System.err.printf("coverage: %s\n", hyp.getSourceCoverage());
               }
               System.err.printf("\tbase score: %.3f\n", hyp.score);
               System.err.printf("\tcovering: %s\n",
@@ -413,7 +413,7 @@ public class MultiBeamDecoder<TK, FV> extends AbstractBeamInferer<TK, FV> {
             }
 
             // Insert new hypothesis into sloppy beam.
-            int sourceWordsCovered = newHyp.sourceCoverage.cardinality();
+            int sourceWordsCovered = newHyp.coveredSourceTokens();
             beams[sourceWordsCovered].put(newHyp);
 
             optionsApplied++;
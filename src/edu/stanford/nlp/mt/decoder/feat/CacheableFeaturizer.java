@@ -0,0 +1,11 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+/**
+ * Indicates that the features extracted by a <code>RuleFeaturizer</code> depend only on
+ * the translation rule (source, target, alignment, scores, and phrase table name) and
+ * not on the input. The features can then be cached across inputs (see
+ * {@link RuleFeatureCache}).
+ */
+public interface CacheableFeaturizer {
+
+}
@@ -0,0 +1,11 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+/**
+ * Indicates that the features extracted by a <code>RuleFeaturizer</code> are not needed
+ * to rank the rules of a span. When deferred rule featurization is enabled (see
+ * {@link FeatureExtractor#setDeferRuleFeatures(boolean)}), these features are only
+ * extracted for rules that the search actually reaches.
+ */
+public interface DeferrableFeaturizer {
+
+}
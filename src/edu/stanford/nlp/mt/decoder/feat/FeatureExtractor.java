@@ -1,12 +1,15 @@
 package edu.stanford.nlp.mt.decoder.feat;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.tm.DTURule;
+import edu.stanford.nlp.mt.util.DTUFeaturizable;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperty;
@@ -31,6 +34,12 @@ public class FeatureExtractor<TK, FV> extends
   private ConcurrentHashMap<String, String> prefixFeatMap = null;
   private ConcurrentHashMap<String, String> straddleFeatMap = null;
   private ConcurrentHashMap<String, String> afterPrefixFeatMap = null;
+
+  // Shared by all clones of this feature extractor
+  private RuleFeatureCache<FV> ruleFeatureCache = null;
+
+  // Extract the features of DeferrableFeaturizers only for rules that the search reaches
+  private boolean deferRuleFeatures = false;
   
   /**
    * Constructor.
@@ -86,6 +95,48 @@ public class FeatureExtractor<TK, FV> extends
     return false;
   }
   
+  /**
+   * Cache the features of <code>CacheableFeaturizer</code>s across inputs.
+   * 
+   * @param maxSize Maximum number of cached rules. Set to 0 to disable the cache.
+   */
+  public void setRuleFeatureCache(int maxSize) {
+    this.ruleFeatureCache = maxSize > 0 ? new RuleFeatureCache<>(maxSize) : null;
+  }
+  
+  /**
+   * Get the rule feature cache.
+   * 
+   * @return The cache or null if caching is disabled.
+   */
+  public RuleFeatureCache<FV> getRuleFeatureCache() {
+    return ruleFeatureCache;
+  }
+  
+  /**
+   * Extract the features of <code>DeferrableFeaturizer</code>s only for rules that the
+   * search reaches (see <code>ConcreteRule.extractDeferredFeatures()</code>). The isolation
+   * score of a rule, which ranks the rules of a span and feeds the future cost heuristic,
+   * then only includes the features of the other rule featurizers.
+   * 
+   * @param b
+   */
+  public void setDeferRuleFeatures(boolean b) {
+    this.deferRuleFeatures = b;
+    // The cache holds different features in the two modes
+    if (ruleFeatureCache != null) ruleFeatureCache.clear();
+  }
+  
+  /**
+   * True if the features of <code>DeferrableFeaturizer</code>s are extracted separately by
+   * <code>deferredRuleFeaturize()</code>.
+   * 
+   * @return
+   */
+  public boolean defersRuleFeatures() {
+    return deferRuleFeatures;
+  }
+  
   private void initPrefixFeatMaps() {
     prefixFeatMap = new ConcurrentHashMap<>();
     straddleFeatMap = new ConcurrentHashMap<>();
@@ -117,6 +168,7 @@ public class FeatureExtractor<TK, FV> extends
       if (!foundFeaturizers.contains(f))
         System.err.println("No featurizer to disable for class: " + f);
     featurizers = filteredFeaturizers;
+    if (ruleFeatureCache != null) ruleFeatureCache.clear();
   }
 
   @Override
@@ -184,13 +236,46 @@ public class FeatureExtractor<TK, FV> extends
   }
 
   /**
-   * Extract rule features.
+   * Extract rule features. If rule features are deferred, then the features of
+   * <code>DeferrableFeaturizer</code>s are not extracted.
    */
   @Override
   public List<FeatureValue<FV>> ruleFeaturize(Featurizable<TK, FV> f) {
+    return ruleFeaturize(f, false);
+  }
+  
+  /**
+   * Extract the features of <code>DeferrableFeaturizer</code>s, which <code>ruleFeaturize()</code>
+   * skips when rule features are deferred.
+   * 
+   * @param f
+   * @return
+   */
+  public List<FeatureValue<FV>> deferredRuleFeaturize(Featurizable<TK, FV> f) {
+    return ruleFeaturize(f, true);
+  }
+  
+  private List<FeatureValue<FV>> ruleFeaturize(Featurizable<TK, FV> f, boolean deferred) {
     List<FeatureValue<FV>> featureValues = new ArrayList<>();
+    
+    // Discontinuous rules are featurized in parts, so they are not cached. With deferred
+    // rule features, only the deferred features are cached.
+    final boolean useCache = ruleFeatureCache != null && ! (f instanceof DTUFeaturizable) 
+        && ! (f.rule.abstractRule instanceof DTURule) && (deferred || ! deferRuleFeatures);
+    final List<List<FeatureValue<FV>>> cachedFeatures = useCache ? ruleFeatureCache.get(f.rule.abstractRule) : null;
+    final List<List<FeatureValue<FV>>> newCachedFeatures = useCache && cachedFeatures == null ? 
+        new ArrayList<>() : null;
+    int cacheIndex = 0;
+    
     for (Featurizer<TK, FV> featurizer : featurizers) {
       if (featurizer instanceof RuleFeaturizer) {
+        if (deferRuleFeatures && (featurizer instanceof DeferrableFeaturizer) != deferred) continue;
+        final boolean cacheable = useCache && featurizer instanceof CacheableFeaturizer;
+        if (cacheable && cachedFeatures != null) {
+          // Shared across rules. Do not modify.
+          featureValues.addAll(cachedFeatures.get(cacheIndex++));
+          continue;
+        }
         RuleFeaturizer<TK, FV> ruleFeaturizer = (RuleFeaturizer<TK, FV>) featurizer;
         List<FeatureValue<FV>> listFeatureValues = 
             ((RuleFeaturizer<TK, FV>) featurizer).ruleFeaturize(f);
@@ -201,8 +286,11 @@ public class FeatureExtractor<TK, FV> extends
             featureValues.add(fv);
           }
         }
+        if (cacheable) newCachedFeatures.add(listFeatureValues == null ? 
+            Collections.emptyList() : listFeatureValues);
       }
     }
+    if (newCachedFeatures != null) ruleFeatureCache.put(f.rule.abstractRule, newCachedFeatures);
     
     if(featureAugmentationMode >= 0) augmentFeatures(f, featureValues);
     
@@ -0,0 +1,299 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.PrintStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.HashedFeatureValue;
+import edu.stanford.nlp.mt.util.IOTools;
+
+/**
+ * Hashed 64-bit feature ids for the sparse feature templates.
+ *
+ * The id of a feature is the 64-bit FNV-1a hash of its name, which can be computed
+ * incrementally while the featurizer walks the rule. When hashing is enabled, the
+ * feature name is materialized only the first time that an id is seen. Subsequent
+ * occurrences are served from a reverse dictionary (id to name) without allocating
+ * a string. Tuning and the weight files still see the usual feature names.
+ *
+ * Usage:
+ * <pre>
+ *   features.add(FeatureHashing.builder(FEATURE_NAME).append(':').append(token).toFeature(1.0));
+ *   features.add(FeatureHashing.toFeature(FEATURE_NAME, 1.0));
+ * </pre>
+ */
+public final class FeatureHashing {
+
+  private static final Logger logger = LogManager.getLogger(FeatureHashing.class);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  // The reverse dictionary is sharded to reduce contention among decoding threads.
+  private static final int NUM_SHARDS = 64;
+  private static final Shard[] dictionary = new Shard[NUM_SHARDS];
+  static {
+    for (int i = 0; i < NUM_SHARDS; ++i) dictionary[i] = new Shard();
+  }
+
+  /**
+   * Default maximum number of names in the reverse dictionary.
+   */
+  public static final int DEFAULT_MAX_DICTIONARY_SIZE = 1 << 22;
+  private static volatile int maxShardSize = DEFAULT_MAX_DICTIONARY_SIZE / NUM_SHARDS;
+
+  private static final ThreadLocal<Builder> builders = ThreadLocal.withInitial(Builder::new);
+
+  private static volatile boolean enabled = false;
+
+  private FeatureHashing() {}
+
+  private static final class Shard extends Long2ObjectOpenHashMap<String> {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Enable or disable feature hashing. When disabled, the builders return
+   * plain string-valued features.
+   *
+   * @param enable
+   */
+  public static void setEnabled(boolean enable) { enabled = enable; }
+
+  /**
+   * True if feature hashing is enabled.
+   *
+   * @return
+   */
+  public static boolean isEnabled() { return enabled; }
+
+  /**
+   * Bound the number of names in the reverse dictionary. Once a shard of the
+   * dictionary is full, the names of unseen ids are built for each occurrence
+   * instead of being stored. Names that are already stored are kept.
+   *
+   * @param maxSize
+   */
+  public static void setMaxDictionarySize(int maxSize) {
+    if (maxSize < 0) throw new IllegalArgumentException("Negative dictionary size: " + maxSize);
+    maxShardSize = (maxSize + NUM_SHARDS - 1) / NUM_SHARDS;
+  }
+
+  /**
+   * Hash of a feature name.
+   *
+   * @param name
+   * @return
+   */
+  public static long hash(CharSequence name) {
+    return hash(FNV_OFFSET_BASIS, name);
+  }
+
+  /**
+   * Extend a hash with a string. hash(hash(a), b) == hash(a + b).
+   *
+   * @param h
+   * @param s
+   * @return
+   */
+  public static long hash(long h, CharSequence s) {
+    for (int i = 0, sz = s.length(); i < sz; ++i) {
+      h = hash(h, s.charAt(i));
+    }
+    return h;
+  }
+
+  /**
+   * Extend a hash with a character.
+   *
+   * @param h
+   * @param c
+   * @return
+   */
+  public static long hash(long h, char c) {
+    return (h ^ c) * FNV_PRIME;
+  }
+
+  private static Shard shard(long id) {
+    return dictionary[(int) (id ^ (id >>> 32)) & (NUM_SHARDS - 1)];
+  }
+
+  /**
+   * Lookup a feature name in the reverse dictionary.
+   *
+   * @param id
+   * @return The feature name or null if the id has not been seen.
+   */
+  public static String name(long id) {
+    final Shard shard = shard(id);
+    synchronized(shard) {
+      return shard.get(id);
+    }
+  }
+
+  /**
+   * Add a feature name to the reverse dictionary unless the dictionary is full.
+   *
+   * @param id
+   * @param name
+   * @return The canonical name for this id.
+   */
+  public static String register(long id, String name) {
+    final Shard shard = shard(id);
+    synchronized(shard) {
+      String canonicalName = shard.get(id);
+      if (canonicalName == null) {
+        if (shard.size() < maxShardSize) shard.put(id, name);
+        return name;
+      } else if ( ! canonicalName.equals(name)) {
+        logger.warn("Hash collision: {} {} {}", Long.toHexString(id), canonicalName, name);
+      }
+      return canonicalName;
+    }
+  }
+
+  /**
+   * Number of features in the reverse dictionary.
+   *
+   * @return
+   */
+  public static int dictionarySize() {
+    int size = 0;
+    for (Shard shard : dictionary) {
+      synchronized(shard) {
+        size += shard.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Write the reverse dictionary to file. Each line has the format
+   * <code>id (hex)\tname</code>. Features that did not fit in the dictionary
+   * are omitted.
+   *
+   * @param filename
+   */
+  public static void writeDictionary(String filename) {
+    try (PrintStream ps = IOTools.getWriterFromFile(filename)) {
+      for (Shard shard : dictionary) {
+        synchronized(shard) {
+          for (Long2ObjectMap.Entry<String> entry : shard.long2ObjectEntrySet()) {
+            ps.printf("%016x\t%s%n", entry.getLongKey(), entry.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a feature with a fixed name. Unlike the builder, this does not copy
+   * the name when hashing is disabled.
+   *
+   * @param name
+   * @param value
+   * @return
+   */
+  public static FeatureValue<String> toFeature(String name, double value) {
+    if ( ! enabled) return new FeatureValue<>(name, value);
+    final long id = hash(name);
+    String canonicalName = name(id);
+    if (canonicalName == null) canonicalName = register(id, name);
+    return new HashedFeatureValue(canonicalName, id, value);
+  }
+
+  /**
+   * Get the builder of the current thread, initialized with a feature prefix. The
+   * feature must be completed with <code>toFeature()</code> before the next call
+   * to this method on the same thread.
+   *
+   * @param prefix
+   * @return
+   */
+  public static Builder builder(String prefix) {
+    Builder builder = builders.get();
+    builder.reset();
+    return builder.append(prefix);
+  }
+
+  /**
+   * Builds a feature name and its hashed id in parallel. The underlying buffer is
+   * reused, so the only allocation is the feature value itself when the id is
+   * already in the dictionary.
+   */
+  public static final class Builder {
+    private final StringBuilder sb = new StringBuilder();
+    private long id;
+
+    private Builder() {}
+
+    private void reset() {
+      sb.setLength(0);
+      id = FNV_OFFSET_BASIS;
+    }
+
+    public Builder append(CharSequence s) {
+      sb.append(s);
+      id = hash(id, s);
+      return this;
+    }
+
+    public Builder append(char c) {
+      sb.append(c);
+      id = hash(id, c);
+      return this;
+    }
+
+    public Builder append(Object o) {
+      return append(o.toString());
+    }
+
+    /**
+     * Append the decimal representation of an integer.
+     *
+     * @param i
+     * @return
+     */
+    public Builder append(int i) {
+      long n = i;
+      if (n < 0) {
+        append('-');
+        n = -n;
+      }
+      long divisor = 1;
+      while (divisor * 10 <= n) divisor *= 10;
+      for (; divisor > 0; divisor /= 10) {
+        append((char) ('0' + (n / divisor) % 10));
+      }
+      return this;
+    }
+
+    /**
+     * The hashed id of the current feature name.
+     *
+     * @return
+     */
+    public long id() { return id; }
+
+    /**
+     * Create the feature.
+     *
+     * @param value
+     * @return
+     */
+    public FeatureValue<String> toFeature(double value) {
+      if ( ! enabled) return new FeatureValue<>(sb.toString(), value);
+      String name = name(id);
+      if (name == null) name = register(id, sb.toString());
+      return new HashedFeatureValue(name, id, value);
+    }
+
+    @Override
+    public String toString() { return sb.toString(); }
+  }
+}
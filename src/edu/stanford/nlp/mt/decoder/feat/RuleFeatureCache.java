@@ -0,0 +1,123 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.FeatureValue;
+
+/**
+ * Bounded cache of rule features across inputs. Only the features of
+ * featurizers that implement {@link CacheableFeaturizer} are cached, with one
+ * list per featurizer so that lookups can keep the featurizer order.
+ *
+ * Cached lists are unmodifiable, and the cached <code>FeatureValue</code>s are shared
+ * by every lookup of a rule. Callers must not modify them.
+ *
+ * Rules from a phrase table are keyed by the phrase table name and the rule id.
+ * Synthetic rules (e.g., from the dynamic translation model) are keyed by a
+ * 64-bit hash of the rule content. The cache is threadsafe.
+ *
+ * @param <FV>
+ */
+public class RuleFeatureCache<FV> {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final Cache<Long,List<List<FeatureValue<FV>>>> cache;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize Maximum number of cached rules.
+   */
+  public RuleFeatureCache(int maxSize) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+  }
+
+  /**
+   * The cache key of a rule.
+   *
+   * @param rule
+   * @return
+   */
+  public static long key(Rule<?> rule) {
+    final int tableHash = rule.phraseTableName == null ? 0 : rule.phraseTableName.hashCode();
+    if (rule.hasUniqueId) {
+      return ((long) tableHash << 32) | (rule.id & 0xffffffffL);
+    }
+    long h = mix(FNV_OFFSET_BASIS, tableHash);
+    for (int i = 0, sz = rule.source.size(); i < sz; ++i) h = mix(h, rule.source.get(i).hashCode());
+    h = mix(h, -1);
+    for (int i = 0, sz = rule.target.size(); i < sz; ++i) h = mix(h, rule.target.get(i).hashCode());
+    h = mix(h, -1);
+    for (float score : rule.scores) h = mix(h, Float.floatToIntBits(score));
+    h = mix(h, rule.alignment == null ? 0 : rule.alignment.hashCode());
+    // Final avalanche (from MurmurHash3)
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static long mix(long h, int value) {
+    return (h ^ value) * FNV_PRIME;
+  }
+
+  /**
+   * Get the cached features of a rule.
+   *
+   * @param rule
+   * @return The cached features, one unmodifiable list per featurizer, or null if the
+   * rule is not in the cache.
+   */
+  public List<List<FeatureValue<FV>>> get(Rule<?> rule) {
+    return cache.getIfPresent(key(rule));
+  }
+
+  /**
+   * Cache the features of a rule. The lists are copied into unmodifiable lists.
+   *
+   * @param rule
+   * @param features One list per cacheable featurizer in featurizer order.
+   */
+  public void put(Rule<?> rule, List<List<FeatureValue<FV>>> features) {
+    List<List<FeatureValue<FV>>> lists = new ArrayList<>(features.size());
+    for (List<FeatureValue<FV>> list : features) {
+      lists.add(list.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(list)));
+    }
+    cache.put(key(rule), Collections.unmodifiableList(lists));
+  }
+
+  /**
+   * Remove all cached features, e.g., after the featurizers have changed.
+   */
+  public void clear() { cache.invalidateAll(); }
+
+  /**
+   * Number of cached rules.
+   *
+   * @return
+   */
+  public long size() { return cache.size(); }
+
+  /**
+   * Fraction of lookups that were cache hits.
+   *
+   * @return
+   */
+  public double hitRate() { return cache.stats().hitRate(); }
+
+  @Override
+  public String toString() {
+    CacheStats stats = cache.stats();
+    return String.format("size: %d  hits: %d  misses: %d  hit rate: %.3f  evictions: %d", cache.size(),
+        stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+  }
+}
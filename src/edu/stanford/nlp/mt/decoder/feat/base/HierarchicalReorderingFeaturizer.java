@@ -11,6 +11,7 @@ import java.util.List;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
 import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable.ReorderingTypes;
 import edu.stanford.nlp.mt.train.AlignmentGrid;
@@ -231,16 +232,17 @@ public class HierarchicalReorderingFeaturizer extends
         .length() == f.prior.sourcePosition);
     boolean discont2 = (f.prior != null && fEnd(f) <= fStart(f.prior));
 
-    float[] scores = mlrt == null ? f.rule.abstractRule.reoderingScores : 
-      mlrt.getReorderingScores(f.derivation.rule.abstractRule);
-    float[] priorScores = (f.prior == null ? null : 
-      (mlrt == null ? f.rule.abstractRule.reoderingScores : mlrt.getReorderingScores(f.prior.derivation.rule.abstractRule)));
+    final int reorderingId = mlrt == null ? -1 : mlrt.reorderingId(f.derivation.rule.abstractRule);
+    final int priorReorderingId = (f.prior == null || mlrt == null) ? -1 :
+      mlrt.reorderingId(f.prior.derivation.rule.abstractRule);
+    final boolean hasScores = hasScores(f, reorderingId);
+    final boolean hasPriorScores = f.prior != null && hasScores(f, priorReorderingId);
 
     ReorderingTypes forwardOrientation = ReorderingTypes.discontinuousWithPrevious, 
         backwardOrientation = ReorderingTypes.discontinuousWithNext;
 
     if (DETAILED_DEBUG) {
-      CoverageSet fCoverage = f.derivation.sourceCoverage;
+      CoverageSet fCoverage = f.derivation.getSourceCoverage();
       System.err.printf("----\n");
       System.err.printf("Partial translation (pos=%d): %s\n",
           f.targetPosition, f.targetSequence);
@@ -258,6 +260,10 @@ public class HierarchicalReorderingFeaturizer extends
             f.prior.targetPosition);
       System.err.printf("Monotone: %s\nSwap: %s\n", locallyMonotone,
           locallySwapping);
+      float[] scores = mlrt == null ? f.rule.abstractRule.reoderingScores : 
+        mlrt.getReorderingScores(f.derivation.rule.abstractRule);
+      float[] priorScores = (f.prior == null ? null : 
+        (mlrt == null ? f.rule.abstractRule.reoderingScores : mlrt.getReorderingScores(f.prior.derivation.rule.abstractRule)));
       System.err.printf("PriorScores: %s\nScores: %s\n",
           (priorScores == null ? "null" : Arrays.toString(priorScores)),
           (scores == null ? "null" : Arrays.toString(scores)));
@@ -357,15 +363,15 @@ public class HierarchicalReorderingFeaturizer extends
       if (type == forwardOrientation || type == backwardOrientation) {
         if (!usePrior(positionalMapping[i])) {
           boolean firstInDTU = f.getSegmentIdx() == 0;
-          if (scores != null && firstInDTU) {
-            values.add(new FeatureValue<String>(featureTags[i], scores[i], true));
+          if (hasScores && firstInDTU) {
+            values.add(new FeatureValue<String>(featureTags[i], getScore(f, reorderingId, i), true));
           }
         } else {
           boolean lastInDTU = (f.prior == null)
               || f.prior.getSegmentIdx() + 1 == f.prior.getSegmentNumber();
-          if (priorScores != null && lastInDTU) {
+          if (hasPriorScores && lastInDTU) {
             values
-                .add(new FeatureValue<String>(featureTags[i], priorScores[i], true));
+                .add(new FeatureValue<String>(featureTags[i], getScore(f, priorReorderingId, i), true));
           }
         }
       }
@@ -403,16 +409,14 @@ public class HierarchicalReorderingFeaturizer extends
       ReorderingTypes finalBackwardOrientation = (fEndPos == fLen) ? ReorderingTypes.monotoneWithNext
           : ReorderingTypes.discontinuousWithNext;
 
-      float[] finalScores = mlrt == null ? f.rule.abstractRule.reoderingScores : 
-        mlrt.getReorderingScores(f.derivation.rule.abstractRule);
       // Create feature functions:
       for (int i = 0; i < positionalMapping.length; ++i) {
         ReorderingTypes type = positionalMapping[i];
         if (type == finalBackwardOrientation) {
           if (usePrior(positionalMapping[i])) {
-            if (finalScores != null)
+            if (hasScores)
               values.add(new FeatureValue<String>(featureTags[i],
-                  finalScores[i], true));
+                  getScore(f, reorderingId, i), true));
           }
         }
       }
@@ -421,6 +425,22 @@ public class HierarchicalReorderingFeaturizer extends
     return values;
   }
 
+  /**
+   * True if there are scores for a lookup id of the reordering table, or dynamic
+   * scores for the rule when there is no table.
+   */
+  private boolean hasScores(Featurizable<IString, String> f, int reorderingId) {
+    return mlrt == null ? f.rule.abstractRule.reoderingScores != null : mlrt.contains(reorderingId);
+  }
+
+  /**
+   * Score of a reordering class. Reads a single class so that quantized tables
+   * are not decoded per rule.
+   */
+  private float getScore(Featurizable<IString, String> f, int reorderingId, int classId) {
+    return mlrt == null ? f.rule.abstractRule.reoderingScores[classId] : mlrt.getScore(reorderingId, classId);
+  }
+
   private static boolean usePrior(
       ExtendedLexicalReorderingTable.ReorderingTypes type) {
     switch (type) { // returns true if dealing with backward model:
@@ -476,7 +496,7 @@ public class HierarchicalReorderingFeaturizer extends
 
         prevBlock = (HierBlock) curF.prior.getState(this);
         // Check if new Block should contain curBlock:
-        if (isBinarizable(curCS, prevBlock.cs, f.derivation.sourceCoverage)) {
+        if (isBinarizable(curCS, prevBlock.cs, f.derivation.getSourceCoverage())) {
           if (DETAILED_DEBUG)
             System.err.printf(
                 "HierarchicalReorderingFeaturizer: merged (%s) with (%s)\n",
@@ -554,9 +574,9 @@ public class HierarchicalReorderingFeaturizer extends
       }
       return false;
     }
-    CoverageSet fCoverage = nextF.derivation.sourceCoverage;
+    Derivation<IString,String> derivation = nextF.derivation;
     for (int i = fEnd(currentF) + 1; i < fStart(nextF); ++i)
-      if (fCoverage.get(i))
+      if (derivation.isSourceCovered(i))
         return false;
     // AlignmentGrid.printDecoderGrid(nextF,System.err);
     return true;
@@ -572,7 +592,7 @@ public class HierarchicalReorderingFeaturizer extends
       Featurizable<IString, String> nextF) {
     if (nextF.prior == null)
       return false;
-    CoverageSet fCoverage = nextF.derivation.sourceCoverage;
+    Derivation<IString,String> derivation = nextF.derivation;
     Featurizable<IString, String> currentF = nextF.prior;
     if (fStart(currentF) <= fEnd(nextF)) {
       if (fEnd(currentF) >= fStart(nextF)) {
@@ -587,7 +607,7 @@ public class HierarchicalReorderingFeaturizer extends
       return false;
     }
     for (int i = fEnd(nextF) + 1; i < fStart(currentF); ++i)
-      if (fCoverage.get(i))
+      if (derivation.isSourceCovered(i))
         return false;
     return true;
   }
@@ -656,7 +676,7 @@ public class HierarchicalReorderingFeaturizer extends
    * infer that the current phrase is globally monotone with what comes next.
    */
   static boolean isStronglyMonotone(Featurizable<IString, String> f) {
-    CoverageSet fCoverage = f.derivation.sourceCoverage;
+    CoverageSet fCoverage = f.derivation.getSourceCoverage();
     return (fCoverage.length() - fCoverage.cardinality() == 0);
   }
 
@@ -692,16 +712,16 @@ public class HierarchicalReorderingFeaturizer extends
 
     // Case 4: Analyze gap between previous and current phrase. If any
     // untranslated word, monotone is impossible.
-    CoverageSet fCoverage = f.derivation.sourceCoverage;
+    Derivation<IString,String> derivation = f.derivation;
     for (int i = indexRightPreviousPhrase; i <= indexLeftCurrentPhrase; ++i) {
-      if (!fCoverage.get(i))
+      if (!derivation.isSourceCovered(i))
         return false;
     }
 
     // Case 5: If first uncovered word is after indexLeftCurrentPhrase, it must
     // be monotone:
-    if (fCoverage.nextClearBit(0) > indexLeftCurrentPhrase
-        && fCoverage.nextSetBit(fEnd(f) + 1) < 0)
+    if (derivation.nextUncoveredSourceIndex(0) > indexLeftCurrentPhrase
+        && derivation.nextCoveredSourceIndex(fEnd(f) + 1) < 0)
       return true;
 
     // Otherwise, traverse previous blocks until we reach the one translating
@@ -753,9 +773,9 @@ public class HierarchicalReorderingFeaturizer extends
 
     // Case 4: Analyze gap between previous and current phrase. If any
     // untranslated word, monotone is impossible.
-    CoverageSet fCoverage = f.derivation.sourceCoverage;
+    Derivation<IString,String> derivation = f.derivation;
     for (int i = indexRightCurrentPhrase; i <= indexLeftPreviousPhrase; ++i) {
-      if (!fCoverage.get(i))
+      if (!derivation.isSourceCovered(i))
         return false;
     }
 
@@ -800,8 +820,8 @@ public class HierarchicalReorderingFeaturizer extends
 
     // If previous foreign isn't yet translated, current block can't be monotone
     // with what comes before:
-    CoverageSet fCoverage = f.derivation.sourceCoverage;
-    if (!fCoverage.get(indexPreviousForeign)) {
+    Derivation<IString,String> derivation = f.derivation;
+    if (!derivation.isSourceCovered(indexPreviousForeign)) {
       return false;
     }
 
@@ -827,7 +847,7 @@ public class HierarchicalReorderingFeaturizer extends
     // (even if this loop does not return false, the result may still be
     // "false")
     for (int i = indexLeftmostForeign; i <= indexPreviousForeign; ++i) {
-      if (!fCoverage.get(i))
+      if (!derivation.isSourceCovered(i))
         return false;
     }
     return true;
@@ -842,8 +862,8 @@ public class HierarchicalReorderingFeaturizer extends
     int indexNextForeign = fEnd(f) + 1;
     // If next foreign isn't yet translated, current block can't be swapping
     // with what comes next:
-    CoverageSet fCoverage = f.derivation.sourceCoverage;
-    if (!fCoverage.get(indexNextForeign))
+    Derivation<IString,String> derivation = f.derivation;
+    if (!derivation.isSourceCovered(indexNextForeign))
       return false;
     // Traverse previous blocks until we reach the one translating
     // indexNextForeign.
@@ -865,7 +885,7 @@ public class HierarchicalReorderingFeaturizer extends
     // Check all foreign words between indexNextForeign and
     // indexRightmostForeign are translated:
     for (int i = indexNextForeign; i <= indexRightmostForeign; ++i) {
-      if (!fCoverage.get(i))
+      if (!derivation.isSourceCovered(i))
         return false;
     }
     return true;
@@ -13,7 +13,6 @@ import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.tm.LexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.LexicalReorderingTable.ReorderingTypes;
 import edu.stanford.nlp.mt.tm.Rule;
-import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -170,12 +169,18 @@ public class LexicalReorderingFeaturizer extends
 
     // Generative model
     if (mlrt != null) {
-      float[] scores = mlrt
-          .getReorderingScores(f.derivation.rule.abstractRule);
-      float[] priorScores = (f.prior == null ? null : mlrt
-          .getReorderingScores(f.prior.derivation.rule.abstractRule));
+      // Read the scores by class so that quantized tables are not decoded per rule
+      final int reorderingId = mlrt.reorderingId(f.derivation.rule.abstractRule);
+      final int priorReorderingId = f.prior == null ? -1 : mlrt
+          .reorderingId(f.prior.derivation.rule.abstractRule);
+      final boolean hasScores = mlrt.contains(reorderingId);
+      final boolean hasPriorScores = f.prior != null && mlrt.contains(priorReorderingId);
 
       if (DETAILED_DEBUG) {
+        float[] scores = mlrt
+            .getReorderingScores(f.derivation.rule.abstractRule);
+        float[] priorScores = (f.prior == null ? null : mlrt
+            .getReorderingScores(f.prior.derivation.rule.abstractRule));
         System.err.printf("%s(%d) => %s(%d)\n", f.sourcePhrase,
             f.sourcePosition, f.targetPhrase, f.targetPosition);
         if (f.prior == null)
@@ -192,12 +197,13 @@ public class LexicalReorderingFeaturizer extends
       for (int i = 0; i < mlrt.positionalMapping.length; i++) {
         boolean ff = featureFunction(monotone, swap, mlrt.positionalMapping[i]);
         if (!usePrior(mlrt.positionalMapping[i])) {
-          if (scores != null && ff)
-            features.add(new FeatureValue<>(featureTags[i], scores[i], true));
+          if (hasScores && ff)
+            features.add(new FeatureValue<>(featureTags[i],
+                mlrt.getScore(reorderingId, i), true));
         } else {
-          if (priorScores != null && ff)
-            features
-                .add(new FeatureValue<>(featureTags[i], priorScores[i], true));
+          if (hasPriorScores && ff)
+            features.add(new FeatureValue<>(featureTags[i],
+                mlrt.getScore(priorReorderingId, i), true));
         }
       }
     }
@@ -234,7 +240,7 @@ public class LexicalReorderingFeaturizer extends
     // Create the state
     int rightEdge = lastOptionRightEdge(f.derivation);
     int leftEdge = lastOptionLeftEdge(f.derivation);
-    f.setState(this, new MSDState(leftEdge, rightEdge, f.derivation.sourceCoverage));
+    f.setState(this, new MSDState(leftEdge, rightEdge, f.derivation));
 
     return features;
   }
@@ -336,12 +342,12 @@ public class LexicalReorderingFeaturizer extends
 
     private final int leftEdge;
     private final int rightEdge;
-    private final CoverageSet sourceCoverage;
+    private final Derivation<IString,String> derivation;
 
-    public MSDState(int leftEdge, int rightEdge, CoverageSet sourceCoverage) {
+    public MSDState(int leftEdge, int rightEdge, Derivation<IString,String> derivation) {
       this.leftEdge = leftEdge;
       this.rightEdge = rightEdge;
-      this.sourceCoverage = sourceCoverage;
+      this.derivation = derivation;
     }
     
     @Override
@@ -398,14 +404,14 @@ public class LexicalReorderingFeaturizer extends
         // Nothing to the left of either hypA or hypB, so (D) is impossible:
         return true;
 
-      if (!stateA.sourceCoverage.get(leftA) && !stateB.sourceCoverage.get(leftA)) {
+      if (!stateA.derivation.isSourceCovered(leftA) && !stateB.derivation.isSourceCovered(leftA)) {
         // (D) is possible as shown here:
         // hypA: y y . . n x x x . . . z z
         // hypB: y y y . n . x x . . . z z
         return false;
       }
 
-      if (!stateA.sourceCoverage.get(leftB) && !stateB.sourceCoverage.get(leftB)) {
+      if (!stateA.derivation.isSourceCovered(leftB) && !stateB.derivation.isSourceCovered(leftB)) {
         // (D) is possible as shown here:
         // hypA: y y . . n . x x . . . z z
         // hypB: y y y . n x x x . . . z z
@@ -100,7 +100,7 @@ public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, St
 
   static int futureCost(Featurizable<IString, String> f) {
     int nextWordIndex = f.derivation.rule.sourceCoverage.length();
-    int firstGapIndex = f.derivation.sourceCoverage.nextClearBit(0);
+    int firstGapIndex = f.derivation.nextUncoveredSourceIndex(0);
     if (firstGapIndex > nextWordIndex)
       firstGapIndex = nextWordIndex;
     int futureCost = nextWordIndex - firstGapIndex;
@@ -117,7 +117,7 @@ public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, St
     // j i
     int p = firstGapIndex - 1;
     while (true) {
-      p = f.derivation.sourceCoverage.nextSetBit(p + 1);
+      p = f.derivation.nextCoveredSourceIndex(p + 1);
       if (p < 0)
         break;
       ++futureCost;
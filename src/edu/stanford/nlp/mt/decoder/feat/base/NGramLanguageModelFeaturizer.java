@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Properties;
 
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.lm.LMState;
@@ -29,7 +30,7 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * @author Spence Green
  */
 public class NGramLanguageModelFeaturizer extends DerivationFeaturizer<IString, String> implements
-RuleFeaturizer<IString, String> {
+RuleFeaturizer<IString, String>, CacheableFeaturizer {
   private static final boolean DEBUG = false;
   public static final String DEFAULT_FEATURE_NAME = "LM";
 
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -17,7 +18,7 @@ import edu.stanford.nlp.mt.util.Featurizable;
  * @param <TK>
  */
 public class PhrasePenaltyFeaturizer<TK> implements
-    RuleFeaturizer<TK, String> {
+    RuleFeaturizer<TK, String>, CacheableFeaturizer {
   public static final String FEATURE_NAME = "PhrasePenalty";
 
   // Cache since this value will simply be aggregated by the feature API
@@ -195,7 +195,7 @@ public class SourceGapFeaturizer extends
 
       CoverageSet phraseCS = f.derivation.rule.sourceCoverage; // e.g.
                                                                    // .x...x...
-      CoverageSet hypCS = f.derivation.sourceCoverage; // e.g. xxx..xx..
+      CoverageSet hypCS = f.derivation.getSourceCoverage(); // e.g. xxx..xx..
 
       int phraseStartIdx = phraseCS.nextSetBit(0);
       int phraseEndIdx = phraseCS.length();
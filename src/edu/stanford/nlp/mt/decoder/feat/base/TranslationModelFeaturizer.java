@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -18,7 +19,7 @@ import edu.stanford.nlp.mt.util.IString;
  * 
  * @param <T>
  */
-public class TranslationModelFeaturizer implements RuleFeaturizer<IString, String> {
+public class TranslationModelFeaturizer implements RuleFeaturizer<IString, String>, CacheableFeaturizer {
   
   public static final String FEATURE_PREFIX = "TM";
 
@@ -3,6 +3,7 @@ package edu.stanford.nlp.mt.decoder.feat.base;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.tm.UnknownWordPhraseGenerator;
 import edu.stanford.nlp.mt.util.FeatureValue;
@@ -16,7 +17,7 @@ import edu.stanford.nlp.mt.util.Featurizable;
  *
  * @param <TK>
  */
-public class UnknownWordFeaturizer<TK> implements RuleFeaturizer<TK, String> {
+public class UnknownWordFeaturizer<TK> implements RuleFeaturizer<TK, String>, CacheableFeaturizer {
 
   public static final String FEATURE_NAME = "UnknownWord";
   private static final List<FeatureValue<String>> FEATURE = 
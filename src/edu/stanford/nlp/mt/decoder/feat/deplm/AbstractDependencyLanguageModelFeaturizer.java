@@ -1,7 +1,9 @@
 package edu.stanford.nlp.mt.decoder.feat.deplm;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -18,6 +20,7 @@ import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
 import edu.stanford.nlp.mt.decoder.feat.NeedsCloneable;
 import edu.stanford.nlp.mt.lm.LMState;
 import edu.stanford.nlp.mt.tools.deplm.DependencyUtils;
+import edu.stanford.nlp.mt.util.CoreNLPAnnotationStore;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -46,6 +49,8 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   public static Map<Integer, Map<Integer, Set<Integer>>> reachableNodesCache;
   public static Map<Integer, Map<Integer, HashSet<Integer>>> forwardDependenciesCache;
   public static Map<Integer, Map<Integer,Integer>> reverseDependenciesCache;
+  // Read dependencies lazily when the parses are in an annotation store
+  public static CoreNLPAnnotationStore dependencyStore;
   
   public Map<Integer, HashSet<Integer>> head2Dependent;
   public Map<Integer,Integer> dependent2Head;
@@ -78,7 +83,7 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
       int tgtIndex, Featurizable<IString, String> f,
       CoverageSet alignedSourceIndices) {
     
-    if ( ! f.derivation.sourceCoverage.get(sourceHeadIndex))
+    if ( ! f.derivation.isSourceCovered(sourceHeadIndex))
       return false;
     
     if (alignedSourceIndices.get(sourceHeadIndex))
@@ -162,31 +167,48 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   
   
   public void loadDependencies(String filename) throws IOException {
+    reachableNodesCache = new HashMap<Integer, Map<Integer, Set<Integer>>>();
+    // Release the store of a previous call
+    if (dependencyStore != null) {
+      dependencyStore.close();
+      dependencyStore = null;
+    }
+    if (CoreNLPAnnotationStore.isStore(filename)) {
+      dependencyStore = new CoreNLPAnnotationStore(filename, CoreNLPAnnotationStore.DEFAULT_CACHE_SIZE);
+      forwardDependenciesCache = null;
+      reverseDependenciesCache = null;
+      return;
+    }
+    
     LineNumberReader reader = IOTools.getReaderFromFile(filename);
     forwardDependenciesCache = new HashMap<Integer, Map<Integer, HashSet<Integer>>>();
     reverseDependenciesCache = new HashMap<Integer, Map<Integer, Integer>>();
-    reachableNodesCache = new HashMap<Integer, Map<Integer, Set<Integer>>>();
 
     
     HashMap<Integer, Pair<IndexedWord, List<Integer>>> deps;
     int i = 0;
     while ((deps = DependencyUtils.getDependenciesFromCoNLLFileReader(reader, true, true)) != null) {
       reverseDependenciesCache.put(i,DependencyUtils.getReverseDependencies(deps));
-      Map<Integer, HashSet<Integer>> forwardDeps = new HashMap<Integer, HashSet<Integer>>();
-      for (Integer gov : deps.keySet()) {
-        List<Integer> children = deps.get(gov).second;
-        forwardDeps.put(gov, new HashSet<Integer>());
-        for (Integer child : children) {
-          forwardDeps.get(gov).add(child);
-        }
-      }
-      forwardDependenciesCache.put(i, forwardDeps);
+      forwardDependenciesCache.put(i, getForwardDependencies(deps));
       i++;
     }
     
     reader.close();
   }
   
+  private static Map<Integer, HashSet<Integer>> getForwardDependencies(
+      HashMap<Integer, Pair<IndexedWord, List<Integer>>> deps) {
+    Map<Integer, HashSet<Integer>> forwardDeps = new HashMap<Integer, HashSet<Integer>>();
+    for (Integer gov : deps.keySet()) {
+      List<Integer> children = deps.get(gov).second;
+      forwardDeps.put(gov, new HashSet<Integer>());
+      for (Integer child : children) {
+        forwardDeps.get(gov).add(child);
+      }
+    }
+    return forwardDeps;
+  }
+  
   /**
    * Clean up the state by scoring or attaching all left children of a substate
    * that corresponds to an unaligned source token
@@ -250,8 +272,16 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
   
   @Override
   public void initialize(int sourceInputId, Sequence<IString> source) {
-    this.head2Dependent = forwardDependenciesCache.get(sourceInputId);
-    this.dependent2Head = reverseDependenciesCache.get(sourceInputId);
+    if (dependencyStore != null) {
+      String conll = dependencyStore.getCoNLL(sourceInputId);
+      HashMap<Integer, Pair<IndexedWord, List<Integer>>> deps = conll == null ? null :
+        DependencyUtils.getDependenciesFromCoNLLFileReader(new BufferedReader(new StringReader(conll)), true, true);
+      this.head2Dependent = deps == null ? null : getForwardDependencies(deps);
+      this.dependent2Head = DependencyUtils.getReverseDependencies(deps);
+    } else {
+      this.head2Dependent = forwardDependenciesCache.get(sourceInputId);
+      this.dependent2Head = reverseDependenciesCache.get(sourceInputId);
+    }
     if (reachableNodesCache.get(sourceInputId) == null)
       reachableNodesCache.put(sourceInputId, new HashMap<Integer, Set<Integer>>());
     this.reachableNodes = reachableNodesCache.get(sourceInputId);
@@ -412,10 +442,10 @@ public abstract class AbstractDependencyLanguageModelFeaturizer extends Derivati
       if (state.getSubState(i) == null)
         continue;
       HashSet<Integer> deps = this.head2Dependent.get(i);
-      boolean del = f.derivation.sourceCoverage.get(i);
+      boolean del = f.derivation.isSourceCovered(i);
       if (del && deps != null) {
         for (Integer j : this.reachableNodes(i)) {
-          if (!f.derivation.sourceCoverage.get(j)) {
+          if (!f.derivation.isSourceCovered(j)) {
             del = false;
             break;
           }
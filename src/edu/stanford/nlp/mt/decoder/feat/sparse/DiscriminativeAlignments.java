@@ -9,7 +9,10 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -25,7 +28,7 @@ import edu.stanford.nlp.mt.util.TargetClassMap;
  * @author Spence Green
  *
  */
-public class DiscriminativeAlignments implements RuleFeaturizer<IString,String> {
+public class DiscriminativeAlignments implements RuleFeaturizer<IString,String>, CacheableFeaturizer, DeferrableFeaturizer {
   private static final String FEATURE_NAME = "ALN";
   private static final String FEATURE_NAME_TGT = "ALNT";
   private static final String FEATURE_NAME_SRC = "ALNS";
@@ -85,8 +88,8 @@ public class DiscriminativeAlignments implements RuleFeaturizer<IString,String>
       if (alignments == null) {
         if (addTargetInsertions) {
           IString tgtWord = f.targetPhrase.get(i);
-          String featureString = FEATURE_NAME_TGT + ":" + targetRepresentation(tgtWord);
-          features.add(new FeatureValue<String>(featureString, 1.0));
+          features.add(FeatureHashing.builder(FEATURE_NAME_TGT).append(':')
+              .append(targetRepresentation(tgtWord)).toFeature(1.0));
         }
 
       } else {
@@ -105,8 +108,8 @@ public class DiscriminativeAlignments implements RuleFeaturizer<IString,String>
       IString srcWord = f.sourcePhrase.get(i);
       if (alignments.size() == 0) {
         if (addSourceDeletions) {
-          String featureString = FEATURE_NAME_SRC + ":" + sourceRepresentation(srcWord);
-          features.add(new FeatureValue<String>(featureString, 1.0));
+          features.add(FeatureHashing.builder(FEATURE_NAME_SRC).append(':')
+              .append(sourceRepresentation(srcWord)).toFeature(1.0));
         }
         
       } else {
@@ -125,21 +128,22 @@ public class DiscriminativeAlignments implements RuleFeaturizer<IString,String>
           }
         }
         
-        // Construct the feature string
-        StringBuilder sb = new StringBuilder();
+        // Construct the feature
+        FeatureHashing.Builder feature = FeatureHashing.builder(FEATURE_NAME).append(':');
+        boolean seenFirst = false;
         for (String token : alignedSourceWords) {
-          if (sb.length() > 0) sb.append("-");
-          sb.append(token);
+          if (seenFirst) feature.append('-');
+          feature.append(token);
+          seenFirst = true;
         }
-        sb.append(">");
-        boolean seenFirst = false;
+        feature.append('>');
+        seenFirst = false;
         for (String token : alignedTargetWords) {
-          if (seenFirst) sb.append("-");
-          sb.append(token);
+          if (seenFirst) feature.append('-');
+          feature.append(token);
           seenFirst = true;
         }
-        String featureString = FEATURE_NAME + ":" + sb.toString();
-        features.add(new FeatureValue<String>(featureString, 1.0));
+        features.add(feature.toFeature(1.0));
       }
     }
     return features;
@@ -77,7 +77,7 @@ private void loadProbabilities(String filename) throws IOException {
   @Override
   public void initialize(int sourceInputId,
       Sequence<IString> source) {
-      Tree parseTree = CoreNLPCache.get(sourceInputId).get(TreeAnnotation.class);
+      Tree parseTree = CoreNLPCache.get(sourceInputId, TreeAnnotation.class);
       this.posTags = parseTree.preTerminalYield();
       
       
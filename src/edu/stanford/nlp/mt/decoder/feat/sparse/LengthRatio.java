@@ -3,6 +3,8 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -14,7 +16,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class LengthRatio implements RuleFeaturizer<IString, String> {
+public class LengthRatio implements RuleFeaturizer<IString, String>, DeferrableFeaturizer {
 
   public static final String FEATURE_NAME = "LRA";
   
@@ -25,7 +27,7 @@ public class LengthRatio implements RuleFeaturizer<IString, String> {
   @Override
   public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString, String> f) {
     double ratio = (double) f.targetPhrase.size() / (double) f.sourceSentence.size();
-    return Collections.singletonList(new FeatureValue<>(FEATURE_NAME, ratio));
+    return Collections.singletonList(FeatureHashing.toFeature(FEATURE_NAME, ratio));
   }
 
   @Override
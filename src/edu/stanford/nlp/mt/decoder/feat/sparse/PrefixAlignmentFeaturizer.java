@@ -5,8 +5,10 @@ import java.util.BitSet;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -22,7 +24,7 @@ import edu.stanford.nlp.mt.util.Sequence;
  *
  */
 public class PrefixAlignmentFeaturizer extends DerivationFeaturizer<IString, String> 
-implements RuleFeaturizer<IString,String>{
+implements RuleFeaturizer<IString,String>, DeferrableFeaturizer {
 
   public static final String FEATURE_PREFIX = "PRF";
   
@@ -66,9 +68,9 @@ implements RuleFeaturizer<IString,String>{
     // Exact match
     if (srcSize == 1 && tgtSize == 1 && source.get(0).id == target.get(0).id) {
       // Optimization for unigrams
-      features.add(new FeatureValue<>(EXACT_MATCH, 1.0));
+      features.add(FeatureHashing.toFeature(EXACT_MATCH, 1.0));
     } else if (source.equals(target)) {
-      features.add(new FeatureValue<>(EXACT_MATCH, 1.0));
+      features.add(FeatureHashing.toFeature(EXACT_MATCH, 1.0));
     }
     return features;
   }
@@ -80,9 +82,9 @@ implements RuleFeaturizer<IString,String>{
   private List<FeatureValue<String>> diagonalDistance(Featurizable<IString, String> f) {
     final int distortion = Math.abs(f.sourcePosition - f.targetPosition);
     List<FeatureValue<String>> features = new ArrayList<>(3);
-    features.add(new FeatureValue<>(DIAG_DISTANCE, distortion));
-    features.add(new FeatureValue<>(DIAG_DISTANCE_SQ, distortion*distortion));
-    features.add(new FeatureValue<>(DIAG_DISTANCE_SQRT, Math.sqrt(distortion)));
+    features.add(FeatureHashing.toFeature(DIAG_DISTANCE, distortion));
+    features.add(FeatureHashing.toFeature(DIAG_DISTANCE_SQ, distortion*distortion));
+    features.add(FeatureHashing.toFeature(DIAG_DISTANCE_SQRT, Math.sqrt(distortion)));
     return features;
   }
 
@@ -100,9 +102,8 @@ implements RuleFeaturizer<IString,String>{
     List<FeatureValue<String>> features = new ArrayList<>();
     if (rUnaligned) features.addAll(unalignedWords(f));
     if (rShape) {
-      String srcLen = Integer.toString(f.sourcePhrase.size());
-      String tgtLen = Integer.toString(f.targetPhrase.size());
-      features.add(new FeatureValue<>(RULE_SHAPE + ":" + srcLen + "-" + tgtLen, 1.0));
+      features.add(FeatureHashing.builder(RULE_SHAPE).append(':').append(f.sourcePhrase.size())
+          .append('-').append(f.targetPhrase.size()).toFeature(1.0));
     }
     if (dOrthoSim) features.addAll(orthoSimilarity(f));
     
@@ -124,8 +125,8 @@ implements RuleFeaturizer<IString,String>{
       }
     }
     List<FeatureValue<String>> features = new ArrayList<>(2);
-    features.add(new FeatureValue<>(UAL_SRC, f.sourcePhrase.size() - sourceAligned.cardinality()));
-    features.add(new FeatureValue<>(UAL_TGT, numTargetInsertions));
+    features.add(FeatureHashing.toFeature(UAL_SRC, f.sourcePhrase.size() - sourceAligned.cardinality()));
+    features.add(FeatureHashing.toFeature(UAL_TGT, numTargetInsertions));
     return features;
   }
 
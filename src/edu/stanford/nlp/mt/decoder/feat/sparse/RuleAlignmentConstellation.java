@@ -3,6 +3,7 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -27,8 +28,8 @@ public class RuleAlignmentConstellation implements
   @Override
   public List<FeatureValue<String>> ruleFeaturize(
       Featurizable<IString, String> f) {
-    return Collections.singletonList(new FeatureValue<String>(FEATURE_PREFIX
-        + f.rule.abstractRule.alignment, 1.0));
+    return Collections.singletonList(FeatureHashing.builder(FEATURE_PREFIX)
+        .append(f.rule.abstractRule.alignment.toString()).toFeature(1.0));
   }
 
   @Override
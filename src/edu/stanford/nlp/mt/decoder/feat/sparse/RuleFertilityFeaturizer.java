@@ -3,6 +3,9 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -14,7 +17,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class RuleFertilityFeaturizer implements RuleFeaturizer<IString, String> {
+public class RuleFertilityFeaturizer implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   public static final String FEATURE_NAME = "FRT";
   
@@ -24,7 +27,7 @@ public class RuleFertilityFeaturizer implements RuleFeaturizer<IString, String>
   @Override
   public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString, String> f) {
     int fertility = Math.abs(f.targetPhrase.size() - f.sourcePhrase.size());
-    return fertility > 0 ? Collections.singletonList(new FeatureValue<>(FEATURE_NAME, Math.log(fertility)))
+    return fertility > 0 ? Collections.singletonList(FeatureHashing.toFeature(FEATURE_NAME, Math.log(fertility)))
         : null;
   }
 
@@ -4,7 +4,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.util.FeatureValue;
@@ -21,7 +24,7 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * @author Spence Green
  * 
  */
-public class RuleIndicator implements RuleFeaturizer<IString, String> {
+public class RuleIndicator implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   private static final String FEATURE_NAME = "DPT";
 
@@ -68,28 +71,31 @@ public class RuleIndicator implements RuleFeaturizer<IString, String> {
   public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString, String> f) {
     List<FeatureValue<String>> features = new ArrayList<>();
     if (addLexicalizedRule && aboveLexicalThreshold(f.rule)) {
-      String sourcePhrase = f.sourcePhrase.toString("-");
-      String targetPhrase = f.targetPhrase.toString("-");
-      String featureString = FEATURE_NAME + ":" + String.format("%s>%s", sourcePhrase, targetPhrase);
-      features.add(new FeatureValue<String>(featureString, 1.0));
+      // Sequence.toString(String) delimits tokens with spaces
+      FeatureHashing.Builder feature = FeatureHashing.builder(FEATURE_NAME).append(':');
+      for (int i = 0, sz = f.sourcePhrase.size(); i < sz; ++i) {
+        if (i > 0) feature.append(' ');
+        feature.append(f.sourcePhrase.get(i));
+      }
+      feature.append('>');
+      for (int i = 0, sz = f.targetPhrase.size(); i < sz; ++i) {
+        if (i > 0) feature.append(' ');
+        feature.append(f.targetPhrase.get(i));
+      }
+      features.add(feature.toFeature(1.0));
     }
     if (addClassBasedRule) {
-      StringBuilder sb = new StringBuilder();
-      for (IString token : f.sourcePhrase) {
-        if (sb.length() > 0) sb.append("-");
-        String tokenClass = sourceMap.get(token).toString();
-        sb.append(tokenClass);
+      FeatureHashing.Builder feature = FeatureHashing.builder(FEATURE_NAME).append(':');
+      for (int i = 0, sz = f.sourcePhrase.size(); i < sz; ++i) {
+        if (i > 0) feature.append('-');
+        feature.append(sourceMap.get(f.sourcePhrase.get(i)));
       }
-      sb.append(">");
-      boolean seenFirst = false;
-      for (IString token : f.targetPhrase) {
-        if (seenFirst) sb.append("-");
-        String tokenClass = targetMap.get(token).toString();
-        sb.append(tokenClass);
-        seenFirst = true;
+      feature.append('>');
+      for (int i = 0, sz = f.targetPhrase.size(); i < sz; ++i) {
+        if (i > 0) feature.append('-');
+        feature.append(targetMap.get(f.targetPhrase.get(i)));
       }
-      String featureString = FEATURE_NAME + ":" + sb.toString();
-      features.add(new FeatureValue<String>(featureString, 1.0));
+      features.add(feature.toFeature(1.0));
     }
     return features;
   }
@@ -6,7 +6,10 @@ import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -18,7 +21,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class RuleProvenanceFeaturizer implements RuleFeaturizer<IString, String> {
+public class RuleProvenanceFeaturizer implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   public static final String FEATURE_NAME = "PRV";
   public static final String SOURCE_WORDS = FEATURE_NAME + ":srcWrd";  
@@ -76,18 +79,18 @@ public class RuleProvenanceFeaturizer implements RuleFeaturizer<IString, String>
     if(f.phraseTableName.equals(Phrasal.TM_BACKGROUND_NAME) || f.phraseTableName.equals(UNK_TM)) return null;
     
     List<FeatureValue<String>> features = new ArrayList<>();
-    features.add(new FeatureValue<>(getFeatureName(f.phraseTableName, phraseFeatMap, FEATURE_NAME), 1.0));
+    features.add(FeatureHashing.toFeature(getFeatureName(f.phraseTableName, phraseFeatMap, FEATURE_NAME), 1.0));
     
     if(wordFeatures) {
-      features.add(new FeatureValue<>(getFeatureName(f.phraseTableName, srcWordsFeatMap, SOURCE_WORDS), f.sourcePhrase.size()));
-      features.add(new FeatureValue<>(getFeatureName(f.phraseTableName, tgtWordsFeatMap, TARGET_WORDS), f.targetPhrase.size()));
+      features.add(FeatureHashing.toFeature(getFeatureName(f.phraseTableName, srcWordsFeatMap, SOURCE_WORDS), f.sourcePhrase.size()));
+      features.add(FeatureHashing.toFeature(getFeatureName(f.phraseTableName, tgtWordsFeatMap, TARGET_WORDS), f.targetPhrase.size()));
     }
     
     if(fullSegmentFeature && 
         (f.phraseTableName.equals(Phrasal.TM_FOREGROUND_NAME) || f.phraseTableName.equals(Phrasal.TM_TERMBASE_NAME)) &&
         f.rule.abstractRule.scores.length >= 10 && // i.e. using DENSE_EXT_GREEN feature template
         f.rule.abstractRule.scores[8] != 0.0) { // i.e. phrase is a full segment
-      features.add(new FeatureValue<>(getFeatureName(f.phraseTableName, fullSegmentFeatMap, FULL_SEGMENT), 1.0));
+      features.add(FeatureHashing.toFeature(getFeatureName(f.phraseTableName, fullSegmentFeatMap, FULL_SEGMENT), 1.0));
     }
     
     return features;
@@ -4,7 +4,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -18,7 +21,7 @@ import edu.stanford.nlp.mt.util.TokenUtils;
  * @author Spence Green
  *
  */
-public class RulePunctuation implements RuleFeaturizer<IString, String> {
+public class RulePunctuation implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   public static final String FEATURE_PREFIX = "RPN";
   public static final String INCONSISTENT = FEATURE_PREFIX + ":inconsistent";
@@ -60,20 +63,21 @@ public class RulePunctuation implements RuleFeaturizer<IString, String> {
       if (TokenUtils.isPunctuation(token.toString())) ++numTargetPunc;
     final int puncDiff = Math.abs(numTargetPunc - numSourcePunc); 
     List<FeatureValue<String>> features = new ArrayList<>(2);
-    if (puncDiff > 0) features.add(new FeatureValue<>(FEATURE_PREFIX, Math.log(puncDiff)));
+    if (puncDiff > 0) features.add(FeatureHashing.toFeature(FEATURE_PREFIX, Math.log(puncDiff)));
     if (shape && (numSourcePunc > 0 || numTargetPunc > 0)) features.add(
-        new FeatureValue<>(FEATURE_PREFIX + ":" + numSourcePunc + "-" + numTargetPunc, 1.0));
+        FeatureHashing.builder(FEATURE_PREFIX).append(':').append(numSourcePunc).append('-')
+        .append(numTargetPunc).toFeature(1.0));
     if(consistency && (puncDiff == 0 || !checkConsistent(f.sourcePhrase, f.targetPhrase)) ) {
-      features.add(new FeatureValue<>(INCONSISTENT, 1.0));
+      features.add(FeatureHashing.toFeature(INCONSISTENT, 1.0));
     }
     // only fires if one side contains only punctuation
     if(excessWords) {
       if(numSourcePunc == f.sourcePhrase.size()) {
         if(f.targetPhrase.size() > numTargetPunc)
-          features.add(new FeatureValue<>(TGT_EXC, f.targetPhrase.size() - numTargetPunc));
+          features.add(FeatureHashing.toFeature(TGT_EXC, f.targetPhrase.size() - numTargetPunc));
       }
       else if(numTargetPunc == f.targetPhrase.size()) {
-        features.add(new FeatureValue<>(SRC_EXC, f.sourcePhrase.size() - numSourcePunc));
+        features.add(FeatureHashing.toFeature(SRC_EXC, f.sourcePhrase.size() - numSourcePunc));
       }
     }
     return features;
@@ -3,6 +3,9 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -15,7 +18,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class RuleShape implements RuleFeaturizer<IString, String> {
+public class RuleShape implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   private static final String FEATURE_NAME = "RSHP";
 
@@ -24,8 +27,8 @@ public class RuleShape implements RuleFeaturizer<IString, String> {
 
   @Override
   public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString, String> f) {
-    return Collections.singletonList(new FeatureValue<>(
-        FEATURE_NAME + ":" + f.sourcePhrase.size() + "-" + f.targetPhrase.size(), 1.0));
+    return Collections.singletonList(FeatureHashing.builder(FEATURE_NAME).append(':')
+        .append(f.sourcePhrase.size()).append('-').append(f.targetPhrase.size()).toFeature(1.0));
   }
 
   @Override
@@ -3,6 +3,9 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -15,7 +18,7 @@ import edu.stanford.nlp.mt.util.IString;
  * @author Spence Green
  *
  */
-public class RuleTargetDimension implements RuleFeaturizer<IString, String> {
+public class RuleTargetDimension implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   private static final String FEATURE_NAME = "TGTD";
   
@@ -25,8 +28,8 @@ public class RuleTargetDimension implements RuleFeaturizer<IString, String> {
   @Override
   public List<FeatureValue<String>> ruleFeaturize(
       Featurizable<IString, String> f) {
-    String featureString = String.format("%s:%d",FEATURE_NAME, f.targetPhrase.size());
-    return Collections.singletonList(new FeatureValue<>(featureString, 1.0));
+    return Collections.singletonList(FeatureHashing.builder(FEATURE_NAME).append(':')
+        .append(f.targetPhrase.size()).toFeature(1.0));
   }
 
   @Override
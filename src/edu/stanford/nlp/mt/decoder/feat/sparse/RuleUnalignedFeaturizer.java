@@ -5,7 +5,10 @@ import java.util.BitSet;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -18,7 +21,7 @@ import edu.stanford.nlp.mt.util.PhraseAlignment;
  * @author Spence Green
  *
  */
-public class RuleUnalignedFeaturizer implements RuleFeaturizer<IString, String> {
+public class RuleUnalignedFeaturizer implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   public static final String FEATURE_PREFIX = "UAL";
   private static final String SRC_FEAT = FEATURE_PREFIX + ":src";
@@ -55,8 +58,8 @@ public class RuleUnalignedFeaturizer implements RuleFeaturizer<IString, String>
       }
     }
     List<FeatureValue<String>> features = new ArrayList<>(2);
-    if (sourceDel) features.add(new FeatureValue<>(SRC_FEAT, f.sourcePhrase.size() - sourceAligned.cardinality()));
-    if (targetIns) features.add(new FeatureValue<>(TGT_FEAT, numTargetInsertions));
+    if (sourceDel) features.add(FeatureHashing.toFeature(SRC_FEAT, f.sourcePhrase.size() - sourceAligned.cardinality()));
+    if (targetIns) features.add(FeatureHashing.toFeature(TGT_FEAT, numTargetInsertions));
     return features;
   }
 
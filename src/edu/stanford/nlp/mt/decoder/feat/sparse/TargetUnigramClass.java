@@ -3,6 +3,9 @@ package edu.stanford.nlp.mt.decoder.feat.sparse;
 import java.util.LinkedList;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureHashing;
+import edu.stanford.nlp.mt.decoder.feat.CacheableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
@@ -16,7 +19,7 @@ import edu.stanford.nlp.mt.util.TargetClassMap;
  * @author Spence Green
  *
  */
-public class TargetUnigramClass implements RuleFeaturizer<IString, String> {
+public class TargetUnigramClass implements RuleFeaturizer<IString, String>, CacheableFeaturizer, DeferrableFeaturizer {
 
   private static final String FEATURE_NAME = "TGTCLS";
 
@@ -30,9 +33,7 @@ public class TargetUnigramClass implements RuleFeaturizer<IString, String> {
       Featurizable<IString, String> f) {
     List<FeatureValue<String>> features = new LinkedList<>();
     for (IString token : f.targetPhrase) {
-      String tokenClass = targetMap.get(token).toString();
-      String featureString = String.format("%s:%s",FEATURE_NAME,tokenClass);
-      features.add(new FeatureValue<String>(featureString, 1.0));
+      features.add(FeatureHashing.builder(FEATURE_NAME).append(':').append(targetMap.get(token)).toFeature(1.0));
     }
     return features;
   }
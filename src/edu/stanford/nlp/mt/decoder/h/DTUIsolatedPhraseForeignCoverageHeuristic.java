@@ -68,42 +68,20 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       CoverageSet newCoverage) {
 
     double oldH = hyp.parent.h;
-    double newH = 0.0;
-
-    CoverageSet coverage = hyp.sourceCoverage;
-    int startEdge = coverage.nextClearBit(0);
 
     if (Double.isNaN(oldH)) {
       System.err.printf("getHeuristicDelta:\n");
-      System.err.printf("coverage: %s\n", hyp.sourceCoverage);
+      System.err.printf("coverage: %s\n", hyp.getSourceCoverage());
       System.err.println("old H: " + oldH);
       throw new RuntimeException();
     }
 
-    int foreignSize = hyp.sourceSequence.size();
-    for (int endEdge; startEdge < foreignSize; startEdge = coverage
-        .nextClearBit(endEdge)) {
-      endEdge = coverage.nextSetBit(startEdge);
-
-      if (endEdge == -1) {
-        endEdge = hyp.sourceSequence.size();
-      }
-
-      double localH = hSpanScores.getScore(startEdge, endEdge - 1);
-
-      if (Double.isNaN(localH)) {
-        System.err.printf("Bad retrieved score for %d:%d ==> %f\n", startEdge,
-            endEdge - 1, localH);
-        throw new RuntimeException();
-      }
-
-      newH += localH;
-      if (Double.isNaN(newH)) {
-        System.err.printf(
-            "Bad total retrieved score for %d:%d ==> %f (localH=%f)\n",
-            startEdge, endEdge - 1, newH, localH);
-        throw new RuntimeException();
-      }
+    // Only visit the gaps of the parent that the new rule falls into
+    double gapDelta = hSpanScores.futureCostDelta(hyp, newCoverage);
+    double newH = Double.isNaN(gapDelta) ? hSpanScores.futureCost(hyp) : oldH + gapDelta;
+    if (Double.isNaN(newH)) {
+      System.err.printf("Bad total retrieved score for %s ==> %f\n", hyp.getSourceCoverage(), newH);
+      throw new RuntimeException();
     }
     if ((Double.isInfinite(newH) || newH == MINUS_INF)
         && (Double.isInfinite(oldH) || oldH == MINUS_INF))
@@ -298,23 +276,4 @@ public class DTUIsolatedPhraseForeignCoverageHeuristic<TK, FV> implements
       }
     }
   }
-
-  protected static class SpanScores {
-    final double[] spanValues;
-    final int terminalPositions;
-
-    public SpanScores(int length) {
-      terminalPositions = length + 1;
-      spanValues = new double[terminalPositions * terminalPositions];
-      Arrays.fill(spanValues, Double.NEGATIVE_INFINITY);
-    }
-
-    public double getScore(int startPosition, int endPosition) {
-      return spanValues[startPosition * terminalPositions + endPosition];
-    }
-
-    public void setScore(int startPosition, int endPosition, double score) {
-      spanValues[startPosition * terminalPositions + endPosition] = score;
-    }
-  }
 }
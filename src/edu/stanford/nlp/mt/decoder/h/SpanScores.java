@@ -0,0 +1,193 @@
+package edu.stanford.nlp.mt.decoder.h;
+
+import java.util.Arrays;
+
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.util.CoverageMask;
+import edu.stanford.nlp.mt.util.CoverageSet;
+
+/**
+ * Future cost table for the source spans of an input, stored in a flattened
+ * array. The future cost of a coverage set is the sum of the future costs of
+ * its gaps (Koehn et al. 2003).
+ */
+public class SpanScores {
+  private final double[] spanValues;
+  private final int terminalPositions;
+  private final int sourceLength;
+
+  /**
+   * Constructor. All spans are initialized to negative infinity.
+   *
+   * @param length The source length.
+   */
+  public SpanScores(int length) {
+    sourceLength = length;
+    terminalPositions = length + 1;
+    spanValues = new double[terminalPositions * terminalPositions];
+    Arrays.fill(spanValues, Double.NEGATIVE_INFINITY);
+  }
+
+  /**
+   * Score of the span [startPosition,endPosition] (inclusive).
+   *
+   * @param startPosition
+   * @param endPosition
+   * @return
+   */
+  public double getScore(int startPosition, int endPosition) {
+    return spanValues[startPosition * terminalPositions + endPosition];
+  }
+
+  /**
+   * Set the score of the span [startPosition,endPosition] (inclusive).
+   *
+   * @param startPosition
+   * @param endPosition
+   * @param score
+   */
+  public void setScore(int startPosition, int endPosition, double score) {
+    spanValues[startPosition * terminalPositions + endPosition] = score;
+  }
+
+  /**
+   * Sum of the scores of the gaps in a coverage set. Linear in the number
+   * of gaps.
+   *
+   * @param coverage
+   * @return
+   */
+  public double futureCost(CoverageSet coverage) {
+    double h = 0.0;
+    for (int startEdge = coverage.nextClearBit(0), endEdge; startEdge < sourceLength;
+        startEdge = coverage.nextClearBit(endEdge)) {
+      endEdge = coverage.nextSetBit(startEdge);
+      if (endEdge < 0) endEdge = sourceLength;
+      h += getScore(startEdge, endEdge - 1);
+    }
+    return h;
+  }
+
+  /**
+   * Change in future cost when a rule is added to a derivation. Only the gaps
+   * of the parent coverage that intersect the rule are visited: the score of each
+   * such gap is replaced by the scores of the gaps that remain after the rule is
+   * applied. For a contiguous rule, this is a single gap and at most two remainders.
+   *
+   * @param parentCoverage Coverage of the parent derivation.
+   * @param ruleCoverage Source coverage of the rule.
+   * @param coverage Coverage of the new derivation (parent and rule).
+   * @return
+   */
+  public double futureCostDelta(CoverageSet parentCoverage, CoverageSet ruleCoverage,
+      CoverageSet coverage) {
+    double delta = 0.0;
+    for (int pos = nextUncovered(ruleCoverage, parentCoverage, 0); pos >= 0; ) {
+      // Gap of the parent that contains pos
+      final int gapStart = parentCoverage.previousSetBit(pos) + 1;
+      int gapEnd = parentCoverage.nextSetBit(pos);
+      if (gapEnd < 0) gapEnd = sourceLength;
+      delta -= getScore(gapStart, gapEnd - 1);
+
+      // Remainders of the gap
+      for (int startEdge = coverage.nextClearBit(gapStart), endEdge; startEdge < gapEnd;
+          startEdge = coverage.nextClearBit(endEdge)) {
+        endEdge = coverage.nextSetBit(startEdge);
+        if (endEdge < 0) endEdge = sourceLength;
+        delta += getScore(startEdge, endEdge - 1);
+      }
+      pos = gapEnd < sourceLength ? nextUncovered(ruleCoverage, parentCoverage, gapEnd) : -1;
+    }
+    return delta;
+  }
+
+  /**
+   * Same as <code>futureCost(CoverageSet)</code> for a coverage mask.
+   *
+   * @param low
+   * @param high
+   * @return
+   */
+  public double futureCost(long low, long high) {
+    double h = 0.0;
+    for (int startEdge = CoverageMask.nextClearBit(low, high, 0), endEdge; startEdge < sourceLength;
+        startEdge = CoverageMask.nextClearBit(low, high, endEdge)) {
+      endEdge = CoverageMask.nextSetBit(low, high, startEdge);
+      if (endEdge < 0 || endEdge > sourceLength) endEdge = sourceLength;
+      h += getScore(startEdge, endEdge - 1);
+    }
+    return h;
+  }
+
+  /**
+   * Same as <code>futureCostDelta(CoverageSet, CoverageSet, CoverageSet)</code>
+   * for coverage masks.
+   *
+   * @param parentLow
+   * @param parentHigh
+   * @param ruleLow
+   * @param ruleHigh
+   * @param low
+   * @param high
+   * @return
+   */
+  public double futureCostDelta(long parentLow, long parentHigh, long ruleLow, long ruleHigh,
+      long low, long high) {
+    // Positions of the rule that are not covered by the parent
+    final long newLow = ruleLow & ~parentLow;
+    final long newHigh = ruleHigh & ~parentHigh;
+    double delta = 0.0;
+    for (int pos = CoverageMask.nextSetBit(newLow, newHigh, 0); pos >= 0; ) {
+      final int gapStart = CoverageMask.previousSetBit(parentLow, parentHigh, pos) + 1;
+      int gapEnd = CoverageMask.nextSetBit(parentLow, parentHigh, pos);
+      if (gapEnd < 0) gapEnd = sourceLength;
+      delta -= getScore(gapStart, gapEnd - 1);
+
+      for (int startEdge = CoverageMask.nextClearBit(low, high, gapStart), endEdge; startEdge < gapEnd;
+          startEdge = CoverageMask.nextClearBit(low, high, endEdge)) {
+        endEdge = CoverageMask.nextSetBit(low, high, startEdge);
+        if (endEdge < 0 || endEdge > gapEnd) endEdge = gapEnd;
+        delta += getScore(startEdge, endEdge - 1);
+      }
+      pos = gapEnd < sourceLength ? CoverageMask.nextSetBit(newLow, newHigh, gapEnd) : -1;
+    }
+    return delta;
+  }
+
+  /**
+   * Future cost of a derivation. Uses the coverage mask when it is available.
+   *
+   * @param derivation
+   * @return
+   */
+  public double futureCost(Derivation<?,?> derivation) {
+    return derivation.hasCoverageMask ? futureCost(derivation.coverageLow, derivation.coverageHigh) :
+      futureCost(derivation.getSourceCoverage());
+  }
+
+  /**
+   * Change in future cost from the parent of a derivation. Uses the coverage masks
+   * when they are available.
+   *
+   * @param derivation
+   * @param ruleCoverage Source coverage of the rule applied to the parent.
+   * @return
+   */
+  public double futureCostDelta(Derivation<?,?> derivation, CoverageSet ruleCoverage) {
+    final Derivation<?,?> parent = derivation.parent;
+    return derivation.hasCoverageMask ? futureCostDelta(parent.coverageLow, parent.coverageHigh,
+        derivation.rule.coverageLow, derivation.rule.coverageHigh, derivation.coverageLow, derivation.coverageHigh) :
+          futureCostDelta(parent.getSourceCoverage(), ruleCoverage, derivation.getSourceCoverage());
+  }
+
+  /**
+   * Next position of the rule that is not covered by the parent. Rules with
+   * discontinuous targets can be applied in several steps, in which case the
+   * parent already covers the source of the rule.
+   */
+  private static int nextUncovered(CoverageSet ruleCoverage, CoverageSet parentCoverage, int fromIndex) {
+    int pos = ruleCoverage.nextSetBit(fromIndex);
+    while (pos >= 0 && parentCoverage.get(pos)) pos = ruleCoverage.nextSetBit(pos + 1);
+    return pos;
+  }
+}
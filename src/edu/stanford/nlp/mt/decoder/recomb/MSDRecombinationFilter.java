@@ -112,14 +112,14 @@ public class MSDRecombinationFilter implements
       // Nothing to the left of either hypA or hypB, so (D) is impossible:
       return true;
 
-    if (!hypA.sourceCoverage.get(leftA) && !hypB.sourceCoverage.get(leftA)) {
+    if (!hypA.isSourceCovered(leftA) && !hypB.isSourceCovered(leftA)) {
       // (D) is possible as shown here:
       // hypA: y y . . n x x x . . . z z
       // hypB: y y y . n . x x . . . z z
       return false;
     }
 
-    if (!hypA.sourceCoverage.get(leftB) && !hypB.sourceCoverage.get(leftB)) {
+    if (!hypA.isSourceCovered(leftB) && !hypB.isSourceCovered(leftB)) {
       // (D) is possible as shown here:
       // hypA: y y . . n . x x . . . z z
       // hypB: y y y . n x x x . . . z z
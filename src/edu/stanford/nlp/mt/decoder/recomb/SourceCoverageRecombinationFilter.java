@@ -1,6 +1,7 @@
 package edu.stanford.nlp.mt.decoder.recomb;
 
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.util.CoverageMask;
 
 /**
  * 
@@ -19,11 +20,15 @@ public class SourceCoverageRecombinationFilter<TK, FV> implements
 
   @Override
   public boolean combinable(Derivation<TK, FV> hypA, Derivation<TK, FV> hypB) {
-    return hypA.sourceCoverage.equals(hypB.sourceCoverage);
+    if (hypA.hasCoverageMask && hypB.hasCoverageMask) {
+      return hypA.coverageLow == hypB.coverageLow && hypA.coverageHigh == hypB.coverageHigh;
+    }
+    return hypA.getSourceCoverage().equals(hypB.getSourceCoverage());
   }
 
   @Override
   public long recombinationHashCode(Derivation<TK, FV> hyp) {
-    return hyp.sourceCoverage.hashCode();
+    return hyp.hasCoverageMask ? CoverageMask.hashCode(hyp.coverageLow, hyp.coverageHigh) :
+      hyp.getSourceCoverage().hashCode();
   }
 }
@@ -104,7 +104,7 @@ public class BundleBeam<TK,FV> implements Beam<Derivation<TK,FV>> {
     
   public Derivation<TK,FV> put(Derivation<TK,FV> derivation, boolean logRecombination) {
     if (!isTargetCardinalityBeam) {
-      if(derivation.sourceCoverage.cardinality() != coverageCardinality )
+      if(derivation.coveredSourceTokens() != coverageCardinality )
         throw new RuntimeException("Derivation cardinality does not match beam cardinality");
     }
     else if(sequenceLength > coverageCardinality) {
@@ -145,10 +145,10 @@ public class BundleBeam<TK,FV> implements Beam<Derivation<TK,FV>> {
       // Group hypotheses by source coverage
       final Map<CoverageSet,List<Derivation<TK,FV>>> coverageGroups = new HashMap<>(derivationList.size() / 2);
       for (Derivation<TK,FV> derivation : derivationList) {
-        List<Derivation<TK,FV>> hypList = coverageGroups.get(derivation.sourceCoverage);
+        List<Derivation<TK,FV>> hypList = coverageGroups.get(derivation.getSourceCoverage());
         if (hypList == null) {
           hypList = new ArrayList<>(32);
-          coverageGroups.put(derivation.sourceCoverage, hypList);
+          coverageGroups.put(derivation.getSourceCoverage(), hypList);
         }
         hypList.add(derivation);
       }
@@ -7,6 +7,7 @@ import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.h.SearchHeuristic;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.CoverageMask;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.DTUFeaturizable;
 import edu.stanford.nlp.mt.util.FeatureValue;
@@ -62,9 +63,17 @@ State<Derivation<TK, FV>> {
   public Derivation<TK, FV> parent;
 
   // non-primitives created anew for each hypothesis
-  public final CoverageSet sourceCoverage;
   public Featurizable<TK, FV> featurizable;
 
+  // Source coverage. Only created on demand from the mask (see getSourceCoverage())
+  // for inputs of up to CoverageMask.MAX_LENGTH tokens.
+  private CoverageSet sourceCoverage;
+
+  // Source coverage as a mask for inputs of up to CoverageMask.MAX_LENGTH tokens.
+  public final boolean hasCoverageMask;
+  public final long coverageLow;
+  public final long coverageHigh;
+
   // Features extracted to score this derivation
   public List<FeatureValue<FV>> features;
 
@@ -123,7 +132,10 @@ State<Derivation<TK, FV>> {
     parent = null;
     featurizable = null;
     untranslatedSourceTokens = sourceSequence.size();
-    sourceCoverage = new CoverageSet(sourceSequence.size());
+    hasCoverageMask = CoverageMask.fits(sourceSequence.size());
+    sourceCoverage = hasCoverageMask ? null : new CoverageSet(sourceSequence.size());
+    coverageLow = 0L;
+    coverageHigh = 0L;
     features = null;
     depth = 0;
     linearDistortion = 0;
@@ -152,22 +164,30 @@ State<Derivation<TK, FV>> {
     this.rule = rule;
     this.parent = base;
     this.sourceInputProperties = base.sourceInputProperties;
-    this.sourceCoverage = base.sourceCoverage.clone();
-    this.sourceCoverage.or(rule.sourceCoverage);
+    this.hasCoverageMask = base.hasCoverageMask;
+    this.coverageLow = base.coverageLow | rule.coverageLow;
+    this.coverageHigh = base.coverageHigh | rule.coverageHigh;
+    if (hasCoverageMask) {
+      this.sourceCoverage = null;
+    } else {
+      this.sourceCoverage = base.sourceCoverage.clone();
+      this.sourceCoverage.or(rule.sourceCoverage);
+    }
     assert insertionPosition >= base.length : String.format("Invalid insertion position %d %d", insertionPosition, base.length);
     this.length = insertionPosition + rule.abstractRule.target.size();
     this.prefixCompleted = outputSpace == null ? true : (this.length >= outputSpace.getPrefixLength());
     this.prefixLength = outputSpace == null ? 0 : outputSpace.getPrefixLength();
     sourceSequence = base.sourceSequence;
     targetSequence = base.targetSequence.concat(rule.abstractRule.target);
-    untranslatedSourceTokens = this.sourceSequence.size()
-    - this.sourceCoverage.cardinality();
+    untranslatedSourceTokens = this.sourceSequence.size() - (hasCoverageMask ?
+        CoverageMask.cardinality(coverageLow, coverageHigh) : this.sourceCoverage.cardinality());
     linearDistortion = (base.rule == null ? rule.sourcePosition
         : base.rule.linearDistortion(rule));
     
     featurizable = new Featurizable<>(this, sourceInputId, featurizer.getNumDerivationFeaturizers());
     
     features = featurizer.featurize(featurizable);
+    rule.extractDeferredFeatures();
     features.addAll(rule.cachedFeatureList);
     
     List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
@@ -211,14 +231,21 @@ State<Derivation<TK, FV>> {
     this.rule = rule;
     this.parent = base;
     this.sourceInputProperties = base.sourceInputProperties;
-    this.sourceCoverage = base.sourceCoverage.clone();
-    this.sourceCoverage.or(rule.sourceCoverage);
+    this.hasCoverageMask = base.hasCoverageMask;
+    this.coverageLow = base.coverageLow | rule.coverageLow;
+    this.coverageHigh = base.coverageHigh | rule.coverageHigh;
+    if (hasCoverageMask) {
+      this.sourceCoverage = null;
+    } else {
+      this.sourceCoverage = base.sourceCoverage.clone();
+      this.sourceCoverage.or(rule.sourceCoverage);
+    }
     this.length = (insertionPosition < base.length) ? base.length
         : insertionPosition + targetPhrase.size();
     sourceSequence = base.sourceSequence;
     targetSequence = base.targetSequence.concat(targetPhrase);
-    untranslatedSourceTokens = this.sourceSequence.size()
-    - this.sourceCoverage.cardinality();
+    untranslatedSourceTokens = this.sourceSequence.size() - (hasCoverageMask ?
+        CoverageMask.cardinality(coverageLow, coverageHigh) : this.sourceCoverage.cardinality());
     linearDistortion = (base.rule == null ? rule.sourcePosition
         : base.rule.linearDistortion(rule));
 
@@ -227,6 +254,7 @@ State<Derivation<TK, FV>> {
         hasPendingPhrases, segmentIdx);
 
     features = featurizer.featurize(featurizable);
+    rule.extractDeferredFeatures();
     features.addAll(rule.cachedFeatureList);
     
     List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
@@ -242,6 +270,108 @@ State<Derivation<TK, FV>> {
     prefixLength = outputSpace == null ? 0 : outputSpace.getPrefixLength();
   }
 
+  /**
+   * Copy constructor for re-using a derivation in a later search over the same
+   * input, e.g., prefix decoding with a longer prefix. The n-best bookkeeping is
+   * reset.
+   * 
+   * @param d
+   * @param parent The copy of the parent of d.
+   * @param sourceInputProperties The properties of the new search.
+   * @param prefixLength The prefix length of the new search.
+   */
+  public Derivation(Derivation<TK,FV> d, Derivation<TK,FV> parent, 
+      InputProperties sourceInputProperties, int prefixLength) {
+    this.id = nextId.incrementAndGet();
+    this.h = d.h;
+    this.insertionPosition = d.insertionPosition;
+    this.untranslatedSourceTokens = d.untranslatedSourceTokens;
+    this.depth = d.depth;
+    this.linearDistortion = d.linearDistortion;
+    this.length = d.length;
+    this.prefixLength = prefixLength;
+    this.prefixCompleted = d.length >= prefixLength;
+    this.score = d.score;
+    this.sourceInputProperties = sourceInputProperties;
+    this.rule = d.rule;
+    this.sourceSequence = d.sourceSequence;
+    this.targetSequence = d.targetSequence;
+    this.parent = parent;
+    this.sourceCoverage = d.hasCoverageMask ? null : d.sourceCoverage;
+    this.featurizable = d.featurizable;
+    this.hasCoverageMask = d.hasCoverageMask;
+    this.coverageLow = d.coverageLow;
+    this.coverageHigh = d.coverageHigh;
+    this.features = d.features;
+  }
+
+  /**
+   * The source coverage of this derivation. For inputs that fit in a mask, the
+   * coverage set is created from the mask on the first call. Callers must not
+   * modify the result.
+   * 
+   * @return
+   */
+  public CoverageSet getSourceCoverage() {
+    if (sourceCoverage == null) {
+      sourceCoverage = CoverageMask.toCoverageSet(coverageLow, coverageHigh, sourceSequence.size());
+    }
+    return sourceCoverage;
+  }
+
+  /**
+   * True if source position i is covered by this derivation.
+   * 
+   * @param i
+   * @return
+   */
+  public boolean isSourceCovered(int i) {
+    return hasCoverageMask ? CoverageMask.get(coverageLow, coverageHigh, i) : sourceCoverage.get(i);
+  }
+
+  /**
+   * Index of the first covered source position at or after fromIndex, or -1 if
+   * there is none.
+   * 
+   * @param fromIndex
+   * @return
+   */
+  public int nextCoveredSourceIndex(int fromIndex) {
+    return hasCoverageMask ? CoverageMask.nextSetBit(coverageLow, coverageHigh, fromIndex) : 
+      sourceCoverage.nextSetBit(fromIndex);
+  }
+
+  /**
+   * Index of the first uncovered source position at or after fromIndex.
+   * 
+   * @param fromIndex
+   * @return
+   */
+  public int nextUncoveredSourceIndex(int fromIndex) {
+    return hasCoverageMask ? CoverageMask.nextClearBit(coverageLow, coverageHigh, fromIndex) : 
+      sourceCoverage.nextClearBit(fromIndex);
+  }
+
+  /**
+   * Number of source tokens covered by this derivation.
+   * 
+   * @return
+   */
+  public int coveredSourceTokens() {
+    return sourceSequence.size() - untranslatedSourceTokens;
+  }
+
+  /**
+   * True if this derivation covers any of the source tokens of the rule.
+   * 
+   * @param rule
+   * @return
+   */
+  public boolean coverageIntersects(ConcreteRule<TK,FV> rule) {
+    return hasCoverageMask ? ((coverageLow & rule.coverageLow) | (coverageHigh & rule.coverageHigh)) != 0 :
+      sourceCoverage.intersects(rule.sourceCoverage);
+  }
+
   /**
    * Extend this derivation with a target insertion rule.
    * 
@@ -266,6 +396,7 @@ State<Derivation<TK, FV>> {
     targetSequence = targetSequence.concat(targetSpan);
     featurizable = new Featurizable<>(this, sourceInputId, featurizer.getNumDerivationFeaturizers());
     features = featurizer.featurize(featurizable);
+    rule.extractDeferredFeatures();
     features.addAll(rule.cachedFeatureList);
     
     List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
@@ -278,7 +409,7 @@ State<Derivation<TK, FV>> {
   @Override
   public String toString() {
     return String.format("%s %s [%.3f h: %.3f]", targetSequence.toString(), 
-        sourceCoverage.toString(), score + h, h);
+        getSourceCoverage().toString(), score + h, h);
   }
 
   @Override
@@ -50,7 +50,7 @@ public class HyperedgeBundle<TK,FV> {
       // Top-left corner of the grid
       assert antecedent == null || (antecedent.itemId < 0 && antecedent.ruleId < 0);
       //System.err.println("top left corner " + itemList.size() + " " + ruleList.size());
-      consequentList.add(new Consequent<TK,FV>(itemList.get(0), ruleList.get(0), this, 0, 0));
+      consequentList.add(new Consequent<TK,FV>(itemList.get(0), RuleGrid.expand(ruleList, 0), this, 0, 0));
       expandedItems.set(0);
 
     } else if (antecedent != null) {
@@ -66,7 +66,7 @@ public class HyperedgeBundle<TK,FV> {
       // Move right in the grid (rules)
       int nextRule = getIndex(lastItem, lastRule+1);
       if ( ! expandedItems.get(nextRule) && lastRule+1 < ruleList.size()) {
-        consequentList.add(new Consequent<TK,FV>(itemList.get(lastItem), ruleList.get(lastRule+1), 
+        consequentList.add(new Consequent<TK,FV>(itemList.get(lastItem), RuleGrid.expand(ruleList, lastRule+1), 
             this, lastItem, lastRule+1));
         expandedItems.set(nextRule);
       }
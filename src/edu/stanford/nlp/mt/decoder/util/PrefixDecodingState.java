@@ -0,0 +1,145 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Search state of prefix-constrained decoding that carries over between
+ * requests for the same input, e.g., successive keystrokes in interactive MT.
+ *
+ * The translation model query is re-used through a <code>RuleQueryCache</code>.
+ * The target-cardinality beams of prefix decoding are re-used up to the longest
+ * common prefix of the previous and the current target prefix: the contents of
+ * beam i depend only on the first i words of the prefix. Beams that contain
+ * derivations that complete the previous prefix are always recomputed. Re-used
+ * derivations are copied for the new search, so the saved beams are not modified.
+ *
+ * The state is only valid for a fixed model and source input id. It is not
+ * thread-safe, so a state must be used by one decoding thread at a time.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public class PrefixDecodingState<TK,FV> {
+
+  private final RuleQueryCache<TK,FV> ruleQueryCache = new RuleQueryCache<>();
+  private Sequence<TK> source;
+  private Sequence<TK> prefix;
+  private int sourceInputId = -1;
+  private List<List<Derivation<TK,FV>>> prefixBeams;
+  private boolean isCopyable = false;
+  private long numReusedBeams = 0;
+  private long numBeams = 0;
+
+  /**
+   * The TM query cache for this input.
+   *
+   * @return
+   */
+  public RuleQueryCache<TK,FV> getRuleQueryCache() { return ruleQueryCache; }
+
+  /**
+   * The number of target-cardinality beams (excluding the null beam) that can be
+   * re-used for a new prefix.
+   *
+   * @param sourceInputId
+   * @param source
+   * @param newPrefix
+   * @return
+   */
+  public int numReusableBeams(int sourceInputId, Sequence<TK> source, Sequence<TK> newPrefix) {
+    if (prefixBeams == null || ! isCopyable || sourceInputId != this.sourceInputId 
+        || ! source.equals(this.source)) {
+      return 0;
+    }
+    final int maxBeam = Math.min(prefix.size(), newPrefix.size()) - 1;
+    int i = 0;
+    while (i < maxBeam && prefix.get(i).equals(newPrefix.get(i))) ++i;
+    return i;
+  }
+
+  /**
+   * Copies of the derivations in the first <code>numBeams</code> target-cardinality
+   * beams of the previous search, indexed by target cardinality. The antecedents are
+   * copied too, so the derivations of the previous search are never modified.
+   *
+   * @param numBeams
+   * @param sourceInputProperties The properties of the new search.
+   * @param prefixLength The prefix length of the new search.
+   * @return
+   */
+  public List<List<Derivation<TK,FV>>> copyBeams(int numBeams, InputProperties sourceInputProperties,
+      int prefixLength) {
+    final Map<Derivation<TK,FV>,Derivation<TK,FV>> copies = new IdentityHashMap<>();
+    List<List<Derivation<TK,FV>>> beams = new ArrayList<>(numBeams + 1);
+    beams.add(Collections.emptyList());
+    for (int i = 1; i <= numBeams; ++i) {
+      List<Derivation<TK,FV>> beam = new ArrayList<>(prefixBeams.get(i).size());
+      for (Derivation<TK,FV> d : prefixBeams.get(i)) {
+        beam.add(copy(d, copies, sourceInputProperties, prefixLength));
+      }
+      beams.add(beam);
+    }
+    return beams;
+  }
+
+  private Derivation<TK,FV> copy(Derivation<TK,FV> d, Map<Derivation<TK,FV>,Derivation<TK,FV>> copies,
+      InputProperties sourceInputProperties, int prefixLength) {
+    if (d == null) return null;
+    Derivation<TK,FV> copy = copies.get(d);
+    if (copy == null) {
+      copy = new Derivation<>(d, copy(d.parent, copies, sourceInputProperties, prefixLength),
+          sourceInputProperties, prefixLength);
+      copies.put(d, copy);
+    }
+    return copy;
+  }
+
+  /**
+   * Save the target-cardinality beams after prefix decoding.
+   *
+   * @param sourceInputId
+   * @param source
+   * @param prefix
+   * @param beams
+   * @param numReused
+   */
+  public void update(int sourceInputId, Sequence<TK> source, Sequence<TK> prefix,
+      List<Beam<Derivation<TK,FV>>> beams, int numReused) {
+    this.sourceInputId = sourceInputId;
+    this.source = source;
+    this.prefix = prefix;
+    this.prefixBeams = new ArrayList<>(beams.size());
+    this.isCopyable = true;
+    for (Beam<Derivation<TK,FV>> beam : beams) {
+      List<Derivation<TK,FV>> derivations = new ArrayList<>(beam.size());
+      for (Derivation<TK,FV> d : beam) {
+        // Gappy derivations carry additional state
+        isCopyable &= d.getClass() == Derivation.class;
+        derivations.add(d);
+      }
+      prefixBeams.add(derivations);
+    }
+    this.numReusedBeams += numReused;
+    this.numBeams += beams.size() - 1;
+  }
+
+  /**
+   * The total number of beams re-used from previous searches.
+   *
+   * @return
+   */
+  long numReusedBeams() { return numReusedBeams; }
+
+  @Override
+  public String toString() {
+    return String.format("prefix beams reused: %d / %d  TM cache: %s", numReusedBeams, numBeams,
+        ruleQueryCache);
+  }
+}
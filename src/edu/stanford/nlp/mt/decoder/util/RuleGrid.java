@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt.decoder.util;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
@@ -20,8 +21,12 @@ import edu.stanford.nlp.mt.util.Sequence;
  * Grid of ConcreteRules (translation rules) for a given
  * source sentence.
  * 
- * Optionally implements lazy sorting of translation rules according
- * to isolation scores.
+ * Implements lazy sorting of translation rules according
+ * to isolation scores. The rules for a span are heapified when the span is
+ * first queried, and a rule is only popped into sorted order when a caller
+ * (e.g., the cube pruning frontier) reaches its rank. The search reaches rules
+ * through <code>expand()</code>, which also extracts their deferred features
+ * (see <code>FeatureExtractor.setDeferRuleFeatures()</code>).
  * 
  * @author danielcer
  * @author Spence Green
@@ -46,6 +51,8 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
   Sequence<TK> prefix = null;
   int maxTargetLength = 0;
   int maxSourceLength = 0;
+  private int numSortedSpans = 0;
+  private int numExpandedRules = 0;
   
   /**
    * Constructor.
@@ -164,8 +171,7 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
     if(sourceLength > maxSourceLength) maxSourceLength = sourceLength;
 
     int offset = getIndex(startPos, endPos);
-    if (grid[offset] == null) grid[offset] = new ArrayList<>();
-    grid[offset].add(rule);
+    mutableList(offset).add(rule);
     isSorted.clear(offset);
     coverage.or(rule.sourceCoverage);
   }
@@ -196,8 +202,7 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
       assert startPos <= endPos : String.format("Illegal span: [%d,%d]", startPos, endPos);
       assert endPos < sequenceLength : String.format("End index out of bounds: [%d,%d] >= %d", startPos, endPos, sequenceLength);
       int offset = getIndex(startPos, endPos);
-      if (grid[offset] == null) grid[offset] = new ArrayList<>();
-      grid[offset].add(rule);
+      mutableList(offset).add(rule);
       isSorted.clear(offset);
       ++rv;
       
@@ -206,6 +211,22 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
     return rv;
   }
   
+  /**
+   * Get the rule list for a span so that a rule can be added. If the span has already
+   * been queried, then the rules that survived the query limit are copied out.
+   * 
+   * @param offset
+   * @return
+   */
+  private List<ConcreteRule<TK,FV>> mutableList(int offset) {
+    if (grid[offset] == null) {
+      grid[offset] = new ArrayList<>();
+    } else if (grid[offset] instanceof RuleGrid<?,?>.LazySortedList) {
+      grid[offset] = new ArrayList<>(grid[offset]);
+    }
+    return grid[offset];
+  }
+  
   /**
    * Find all matching positions for target phrase.
    * Targets can match past the end of the prefix.
@@ -251,6 +272,20 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
    */
   public int size() { return size; }
   
+  /**
+   * Return the number of spans that have been queried.
+   * 
+   * @return
+   */
+  public int numSortedSpans() { return numSortedSpans; }
+  
+  /**
+   * Return the number of rules that the search has reached through <code>expand()</code>.
+   * 
+   * @return
+   */
+  public int numExpandedRules() { return numExpandedRules; }
+  
   /**
    * One dimension of the option grid. This corresponds to length of the source
    * sentence that corresponds to this option grid.
@@ -273,14 +308,105 @@ public class RuleGrid<TK,FV> implements Iterable<ConcreteRule<TK,FV>> {
     }
     if (! isSorted.get(offset)) {
       if (grid[offset] != null) {
-        Collections.sort(grid[offset]);
-        if (grid[offset].size() > ruleQueryLimit) grid[offset] = grid[offset].subList(0, ruleQueryLimit);
+        grid[offset] = new LazySortedList(grid[offset], ruleQueryLimit);
+        ++numSortedSpans;
       }
       isSorted.set(offset);
     } 
     return grid[offset] == null ? Collections.emptyList() : grid[offset];
   }
 
+  /**
+   * Get a rule from a list returned by <code>get()</code> when the search reaches it,
+   * e.g., when the cube pruning frontier moves to the rule. Extracts the deferred
+   * features of the rule and counts it as expanded.
+   * 
+   * @param rules
+   * @param index
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public static <TK,FV> ConcreteRule<TK,FV> expand(List<ConcreteRule<TK,FV>> rules, int index) {
+    if (rules instanceof RuleGrid<?,?>.LazySortedList) {
+      return ((RuleGrid<TK,FV>.LazySortedList) rules).expand(index);
+    }
+    ConcreteRule<TK,FV> rule = rules.get(index);
+    rule.extractDeferredFeatures();
+    return rule;
+  }
+
+  /**
+   * The top-k rules of a span in sorted order. Construction heapifies the rules
+   * in linear time. Each call to get() pops rules from the heap until the requested
+   * rank has been sorted, so selecting the first k of n rules costs O(n + k log n).
+   * 
+   * Ties are broken by insertion order, so the result is the same as a stable sort.
+   * 
+   * Not thread-safe: get() mutates the heap and the sorted prefix, and expand()
+   * mutates the rules and the numExpandedRules counter of the enclosing grid, so
+   * reads of a span must be confined to one thread or externally synchronized.
+   */
+  private class LazySortedList extends AbstractList<ConcreteRule<TK,FV>> {
+    private final List<ConcreteRule<TK,FV>> rules;
+    private final int[] heap;
+    private int heapSize;
+    private final List<ConcreteRule<TK,FV>> sorted;
+    private final int size;
+    private int numExpanded = 0;
+    
+    public LazySortedList(List<ConcreteRule<TK,FV>> rules, int limit) {
+      this.rules = rules;
+      this.size = Math.min(rules.size(), limit);
+      this.sorted = new ArrayList<>(Math.min(size, 16));
+      this.heapSize = rules.size();
+      this.heap = new int[heapSize];
+      for (int i = 0; i < heapSize; ++i) heap[i] = i;
+      for (int i = heapSize / 2 - 1; i >= 0; --i) siftDown(i);
+    }
+
+    @Override
+    public ConcreteRule<TK,FV> get(int index) {
+      if (index < 0 || index >= size) throw new IndexOutOfBoundsException(String.valueOf(index));
+      while (sorted.size() <= index) {
+        sorted.add(rules.get(heap[0]));
+        heap[0] = heap[--heapSize];
+        siftDown(0);
+      }
+      return sorted.get(index);
+    }
+    
+    /**
+     * Get a rule that the search has reached. The search moves through the list
+     * in rank order, so the expanded rules are a prefix of the sorted rules.
+     */
+    public ConcreteRule<TK,FV> expand(int index) {
+      final ConcreteRule<TK,FV> rule = get(index);
+      for (; numExpanded <= index; ++numExpanded) {
+        sorted.get(numExpanded).extractDeferredFeatures();
+        ++numExpandedRules;
+      }
+      return rule;
+    }
+
+    @Override
+    public int size() { return size; }
+    
+    private boolean precedes(int i, int j) {
+      int cmp = rules.get(i).compareTo(rules.get(j));
+      return cmp < 0 || (cmp == 0 && i < j);
+    }
+    
+    private void siftDown(int pos) {
+      final int item = heap[pos];
+      for (int child; (child = 2*pos + 1) < heapSize; pos = child) {
+        if (child + 1 < heapSize && precedes(heap[child+1], heap[child])) ++child;
+        if ( ! precedes(heap[child], item)) break;
+        heap[pos] = heap[child];
+      }
+      heap[pos] = item;
+    }
+  }
+  
   /**
    * 
    * @param startPos
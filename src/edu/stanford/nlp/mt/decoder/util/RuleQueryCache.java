@@ -0,0 +1,162 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.stanford.nlp.mt.tm.CombinedTranslationModel;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.DTURule;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Cache of translation model query results for inputs that are decoded
+ * repeatedly under different weight vectors, e.g., the tuning set in
+ * <code>OnlineTuner</code>.
+ *
+ * The rule lists and their extracted feature values (including isolation-only
+ * features like the LM score of the rule target) do not depend on the weights.
+ * On a cache hit the rules are re-scored under the current weights, so the
+ * RuleGrid and future cost heuristic are rebuilt without querying the
+ * translation model or the featurizers.
+ *
+ * The rule query limit of <code>CombinedTranslationModel</code> selects rules by
+ * isolation score, so callers should cache the unpruned query result and
+ * re-apply the limit with <code>rescore(scorer, queryLimit)</code>.
+ *
+ * Entries are keyed by source input id. Each entry keeps the unpruned rule
+ * list of an input with the feature values of every rule, so the cache is
+ * bounded by the total number of cached rules. Least recently used inputs are
+ * evicted first. The cache is thread-safe.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public class RuleQueryCache<TK,FV> {
+
+  // Default bound on the number of cached rules.
+  public static final long DEFAULT_MAX_RULES = 2000000;
+
+  private final Cache<Integer,CachedQuery<TK,FV>> cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * A cached TM query.
+   *
+   * @param <TK>
+   * @param <FV>
+   */
+  public static class CachedQuery<TK,FV> {
+    public final Sequence<TK> source;
+    public final Sequence<TK> filteredSource;
+    public final List<ConcreteRule<TK,FV>> ruleList;
+    private CachedQuery(Sequence<TK> source, Sequence<TK> filteredSource, List<ConcreteRule<TK,FV>> ruleList) {
+      this.source = source;
+      this.filteredSource = filteredSource;
+      this.ruleList = ruleList;
+    }
+
+    /**
+     * Re-score the cached rules under new weights.
+     *
+     * @param scorer
+     * @return A new list of rules that may be modified by the caller.
+     */
+    public List<ConcreteRule<TK,FV>> rescore(Scorer<FV> scorer) {
+      List<ConcreteRule<TK,FV>> rescored = new ArrayList<>(ruleList.size());
+      for (ConcreteRule<TK,FV> rule : ruleList) rescored.add(new ConcreteRule<>(rule, scorer));
+      return rescored;
+    }
+
+    /**
+     * Re-score the cached rules under new weights and select the best
+     * <code>queryLimit</code> rules of each source span.
+     *
+     * @param scorer
+     * @param queryLimit Maximum number of rules per span. Unlimited if negative.
+     * @return A new list of rules that may be modified by the caller.
+     */
+    public List<ConcreteRule<TK,FV>> rescore(Scorer<FV> scorer, int queryLimit) {
+      List<ConcreteRule<TK,FV>> rescored = rescore(scorer);
+      return queryLimit < 0 ? rescored : CombinedTranslationModel.selectRules(rescored, queryLimit);
+    }
+  }
+
+  /**
+   * Constructor. Holds at most <code>DEFAULT_MAX_RULES</code> rules.
+   */
+  public RuleQueryCache() {
+    this(DEFAULT_MAX_RULES);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxRules Maximum number of rules summed over the cached inputs.
+   */
+  public RuleQueryCache(long maxRules) {
+    this.cache = CacheBuilder.newBuilder().maximumWeight(maxRules)
+        .weigher((Integer id, CachedQuery<TK,FV> query) -> Math.max(1, query.ruleList.size()))
+        .build();
+  }
+
+  /**
+   * Lookup a query result.
+   *
+   * @param sourceInputId
+   * @param source
+   * @return The cached query or null if the input has not been cached.
+   */
+  public CachedQuery<TK,FV> get(int sourceInputId, Sequence<TK> source) {
+    CachedQuery<TK,FV> query = cache.getIfPresent(sourceInputId);
+    if (query == null || ! query.source.equals(source)) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return query;
+  }
+
+  /**
+   * Add a query result to the cache. Rules with discontinuous phrases are not
+   * cached since their isolation scores depend on additional featurization.
+   *
+   * @param sourceInputId
+   * @param source
+   * @param filteredSource
+   * @param ruleList
+   */
+  public void put(int sourceInputId, Sequence<TK> source, Sequence<TK> filteredSource,
+      List<ConcreteRule<TK,FV>> ruleList) {
+    for (ConcreteRule<TK,FV> rule : ruleList) {
+      if (rule.abstractRule instanceof DTURule) return;
+    }
+    // Copy since the decoder may filter the rule list in place.
+    cache.put(sourceInputId, new CachedQuery<>(source, filteredSource, new ArrayList<>(ruleList)));
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() { cache.invalidateAll(); }
+
+  /**
+   * Number of cached inputs.
+   *
+   * @return
+   */
+  public long size() { return cache.size(); }
+
+  public long hits() { return hits.get(); }
+
+  public long misses() { return misses.get(); }
+
+  @Override
+  public String toString() {
+    return String.format("size: %d hits: %d misses: %d", size(), hits(), misses());
+  }
+}
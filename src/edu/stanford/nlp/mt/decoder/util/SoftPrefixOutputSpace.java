@@ -71,7 +71,7 @@ public class SoftPrefixOutputSpace implements OutputSpace<IString, String> {
     DynamicTranslationModel<String> backgroundModel = (DynamicTranslationModel<String>) inferer.phraseGenerator;
     
 
-    final String[] featureNames = (String[]) backgroundModel.getFeatureNames().toArray();
+    final String[] featureNames = backgroundModel.getFeatureNames().toArray(new String[0]);
 
     // Target OOVs, Target insertions, target unigrams
     for (int j = 0, tgtLength = allowablePrefix.size(); j < tgtLength; ++j) {
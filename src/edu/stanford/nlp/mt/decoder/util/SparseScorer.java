@@ -1,9 +1,12 @@
 package edu.stanford.nlp.mt.decoder.util;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+
 import java.io.IOException;
 import java.util.Collection;
 
 import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.HashedFeatureValue;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.Index;
@@ -14,12 +17,20 @@ import edu.stanford.nlp.util.Index;
  * NOTE: This class is not threadsafe, which is okay for the current implementation
  * in which each Inferer has its own scorer.
  * 
+ * When feature hashing is enabled, the scorer caches the weights of hashed feature ids.
+ * The cache is filled on demand from the names carried by the features, and it is
+ * kept as long as updateWeights() is called with the same weight vector. Weight vectors
+ * should therefore be replaced, not modified in place.
+ * 
  * @author Spence Green
  *
  */
 public class SparseScorer implements Scorer<String> {
 
   private Counter<String> weights;
+
+  // Weights indexed by hashed feature id. Only used when feature hashing is enabled.
+  private final Long2DoubleOpenHashMap hashedWeights = new Long2DoubleOpenHashMap();
   
   public SparseScorer(Counter<String> featureWts) {
     this(featureWts, null);
@@ -32,6 +43,7 @@ public class SparseScorer implements Scorer<String> {
    * @param featureIndex
    */
   public SparseScorer(Counter<String> featureWts, Index<String> featureIndex) {
+    hashedWeights.defaultReturnValue(Double.NaN);
     updateWeights(featureWts);
   }
   
@@ -39,15 +51,28 @@ public class SparseScorer implements Scorer<String> {
   public double getIncrementalScore(Collection<FeatureValue<String>> features) {
     double score = 0.0;
     for (FeatureValue<String> feature : features) {
-      score += feature.value * weights.getCount(feature.name);
+      score += feature.value * (feature instanceof HashedFeatureValue ?
+          hashedWeight((HashedFeatureValue) feature) : weights.getCount(feature.name));
     }
     return score;
   }
 
+  private double hashedWeight(HashedFeatureValue feature) {
+    double weight = hashedWeights.get(feature.id);
+    if (Double.isNaN(weight)) {
+      weight = weights.getCount(feature.name);
+      hashedWeights.put(feature.id, weight);
+    }
+    return weight;
+  }
+
   @Override
   public void updateWeights(Counter<String> weights) {
     // Do not copy the weights vector.
-    this.weights = weights;
+    if (weights != this.weights) {
+      this.weights = weights;
+      hashedWeights.clear();
+    }
   }
 
   @Override
@@ -228,7 +228,7 @@ public final class SyntheticRules {
     if (inputProperties.containsKey(InputProperty.TermbaseTM)) {
       tmList.add((DynamicTranslationModel<FV>) inputProperties.get(InputProperty.TermbaseTM));
     }
-    final String[] featureNames = (String[]) inferer.phraseGenerator.getFeatureNames().toArray();
+    final String[] featureNames = inferer.phraseGenerator.getFeatureNames().toArray(new String[0]);
     int numRules = 0;
 
     int[][] e2f = {{ 0 }};
@@ -331,7 +331,7 @@ public final class SyntheticRules {
     if (inputProperties.containsKey(InputProperty.TermbaseTM)) {
       tmList.add((DynamicTranslationModel<FV>) inputProperties.get(InputProperty.TermbaseTM));
     }
-    final String[] featureNames = (String[]) inferer.phraseGenerator.getFeatureNames().toArray();
+    final String[] featureNames = inferer.phraseGenerator.getFeatureNames().toArray(new String[0]);
 
     // Symmetrization
     final SymmetricalWordAlignment sym = bidirAlign((Sequence<IString>) sourceSequence, 
@@ -0,0 +1,299 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+
+/**
+ * The recombination hypergraph of a phrase-based search. Since derivations are built
+ * left-to-right, each hyperedge has a single tail, so this is really a lattice.
+ *
+ * Nodes are the derivations that survived recombination. Each node has one incoming edge
+ * for itself and one for each derivation that was recombined into it. Nodes are numbered
+ * in topological order, with the root (the null hypothesis) as node 0, and the edges are
+ * sorted by their head node.
+ *
+ * Each edge stores the target phrase, a short left context from the target prefix of the tail
+ * node, and the local features of the derivation step. The context allows n-gram statistics
+ * of the edge to be computed without the full target prefix. When the LM order exceeds the
+ * n-gram order of the metric, these statistics are exact since recombination only merges
+ * derivations with the same LM history.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public class TranslationHypergraph<TK,FV> {
+
+  // Length of the left context of each edge. This is the maximum n-gram order of BLEU minus one.
+  public static final int DEFAULT_CONTEXT_SIZE = 3;
+
+  public final int sourceInputId;
+  public final int numNodes;
+  public final int[] goalNodes;
+  public final int[] tails;
+  public final int[] heads;
+  public final List<Sequence<TK>> targets;
+  public final List<Sequence<TK>> contexts;
+  public final List<List<FeatureValue<FV>>> features;
+
+  /**
+   * The Viterbi derivation. Only set when the hypergraph is built by the decoder.
+   */
+  public transient Derivation<TK,FV> bestDerivation;
+
+  /**
+   * Constructor.
+   */
+  private TranslationHypergraph(int sourceInputId, int numNodes, int[] goalNodes, int[] tails, int[] heads,
+      List<Sequence<TK>> targets, List<Sequence<TK>> contexts, List<List<FeatureValue<FV>>> features) {
+    this.sourceInputId = sourceInputId;
+    this.numNodes = numNodes;
+    this.goalNodes = goalNodes;
+    this.tails = tails;
+    this.heads = heads;
+    this.targets = targets;
+    this.contexts = contexts;
+    this.features = features;
+  }
+
+  /**
+   * Number of edges in the hypergraph.
+   *
+   * @return
+   */
+  public int numEdges() { return heads.length; }
+
+  /**
+   * Build the hypergraph from the final beam of the decoder.
+   *
+   * @param sourceInputId
+   * @param goalBeam
+   * @param recombinationHistory
+   * @param contextSize
+   * @return
+   */
+  public static <TK,FV> TranslationHypergraph<TK,FV> fromBeam(int sourceInputId, Beam<Derivation<TK,FV>> goalBeam,
+      RecombinationHistory<Derivation<TK,FV>> recombinationHistory, int contextSize) {
+    // Backward traversal from the goal nodes
+    final List<Derivation<TK,FV>> nodes = new ArrayList<>();
+    final Map<Derivation<TK,FV>,Integer> visited = new HashMap<>();
+    final Deque<Derivation<TK,FV>> agenda = new ArrayDeque<>();
+    Derivation<TK,FV> best = null;
+    for (Derivation<TK,FV> goal : goalBeam) {
+      if (best == null) best = goal;
+      agenda.push(goal);
+    }
+    while ( ! agenda.isEmpty()) {
+      Derivation<TK,FV> node = agenda.pop();
+      if (visited.containsKey(node)) continue;
+      visited.put(node, -1);
+      nodes.add(node);
+      if (node.parent != null) agenda.push(node.parent);
+      for (Derivation<TK,FV> recombined : recombinationHistory.recombinations(node)) {
+        if (recombined.parent != null) agenda.push(recombined.parent);
+      }
+    }
+
+    // Source coverage strictly increases along each edge, which yields a topological order.
+    Collections.sort(nodes, Comparator.comparingInt((Derivation<TK,FV> d) -> d.coveredSourceTokens())
+        .thenComparingLong(d -> d.id));
+    for (int i = 0, sz = nodes.size(); i < sz; ++i) visited.put(nodes.get(i), i);
+
+    final List<Integer> tailList = new ArrayList<>();
+    final List<Integer> headList = new ArrayList<>();
+    final List<Sequence<TK>> targets = new ArrayList<>();
+    final List<Sequence<TK>> contexts = new ArrayList<>();
+    final List<List<FeatureValue<FV>>> features = new ArrayList<>();
+    for (int head = 0, sz = nodes.size(); head < sz; ++head) {
+      Derivation<TK,FV> node = nodes.get(head);
+      List<Derivation<TK,FV>> incoming = new ArrayList<>(recombinationHistory.recombinations(node));
+      incoming.add(0, node);
+      for (Derivation<TK,FV> edge : incoming) {
+        if (edge.parent == null) continue;
+        tailList.add(visited.get(edge.parent));
+        headList.add(head);
+        targets.add(edge.rule.abstractRule.target);
+        Sequence<TK> prefix = edge.parent.targetSequence;
+        contexts.add(prefix.subsequence(Math.max(0, prefix.size() - contextSize), prefix.size()));
+        features.add(edge.features == null ? Collections.emptyList() : edge.features);
+      }
+    }
+    int[] goalNodes = new int[goalBeam.size()];
+    int i = 0;
+    for (Derivation<TK,FV> goal : goalBeam) goalNodes[i++] = visited.get(goal);
+
+    TranslationHypergraph<TK,FV> hypergraph = new TranslationHypergraph<>(sourceInputId, nodes.size(), goalNodes,
+        tailList.stream().mapToInt(Integer::intValue).toArray(), headList.stream().mapToInt(Integer::intValue).toArray(),
+        targets, contexts, features);
+    hypergraph.bestDerivation = best;
+    return hypergraph;
+  }
+
+  /**
+   * Serialize the hypergraph. Tokens and feature names are written once to a table
+   * per hypergraph and then referenced by index.
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void write(DataOutputStream out) throws IOException {
+    final Map<String,Integer> tokenIndex = new HashMap<>();
+    final Map<String,Integer> featureIndex = new HashMap<>();
+    final List<String> tokens = new ArrayList<>();
+    final List<String> featureNames = new ArrayList<>();
+    for (int e = 0; e < heads.length; ++e) {
+      for (TK token : contexts.get(e)) addToTable(token.toString(), tokenIndex, tokens);
+      for (TK token : targets.get(e)) addToTable(token.toString(), tokenIndex, tokens);
+      for (FeatureValue<FV> f : features.get(e)) addToTable(f.name.toString(), featureIndex, featureNames);
+    }
+    out.writeInt(sourceInputId);
+    out.writeInt(tokens.size());
+    for (String token : tokens) out.writeUTF(token);
+    out.writeInt(featureNames.size());
+    for (String name : featureNames) out.writeUTF(name);
+    out.writeInt(numNodes);
+    out.writeInt(goalNodes.length);
+    for (int goal : goalNodes) out.writeInt(goal);
+    out.writeInt(heads.length);
+    for (int e = 0; e < heads.length; ++e) {
+      out.writeInt(tails[e]);
+      out.writeInt(heads[e]);
+      writeTokens(out, contexts.get(e), tokenIndex);
+      writeTokens(out, targets.get(e), tokenIndex);
+      List<FeatureValue<FV>> edgeFeatures = features.get(e);
+      out.writeShort(edgeFeatures.size());
+      for (FeatureValue<FV> f : edgeFeatures) {
+        out.writeInt(featureIndex.get(f.name.toString()));
+        out.writeFloat((float) f.value);
+      }
+    }
+  }
+
+  private static void addToTable(String item, Map<String,Integer> index, List<String> table) {
+    if ( ! index.containsKey(item)) {
+      index.put(item, table.size());
+      table.add(item);
+    }
+  }
+
+  private static <TK> void writeTokens(DataOutputStream out, Sequence<TK> seq, Map<String,Integer> tokenIndex)
+      throws IOException {
+    out.writeShort(seq.size());
+    for (TK token : seq) out.writeInt(tokenIndex.get(token.toString()));
+  }
+
+  /**
+   * Read a hypergraph written by <code>write()</code>.
+   *
+   * @param in
+   * @return The hypergraph or null at the end of the stream.
+   * @throws IOException
+   */
+  public static TranslationHypergraph<IString,String> read(DataInputStream in) throws IOException {
+    final int sourceInputId;
+    try {
+      sourceInputId = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    final IString[] tokens = new IString[in.readInt()];
+    for (int i = 0; i < tokens.length; ++i) tokens[i] = new IString(in.readUTF());
+    final String[] featureNames = new String[in.readInt()];
+    for (int i = 0; i < featureNames.length; ++i) featureNames[i] = in.readUTF().intern();
+    final int numNodes = in.readInt();
+    final int[] goalNodes = new int[in.readInt()];
+    for (int i = 0; i < goalNodes.length; ++i) goalNodes[i] = in.readInt();
+    final int numEdges = in.readInt();
+    final int[] tails = new int[numEdges];
+    final int[] heads = new int[numEdges];
+    final List<Sequence<IString>> targets = new ArrayList<>(numEdges);
+    final List<Sequence<IString>> contexts = new ArrayList<>(numEdges);
+    final List<List<FeatureValue<String>>> features = new ArrayList<>(numEdges);
+    for (int e = 0; e < numEdges; ++e) {
+      tails[e] = in.readInt();
+      heads[e] = in.readInt();
+      contexts.add(readTokens(in, tokens));
+      targets.add(readTokens(in, tokens));
+      final int numFeatures = in.readShort();
+      List<FeatureValue<String>> edgeFeatures = new ArrayList<>(numFeatures);
+      for (int i = 0; i < numFeatures; ++i) {
+        String name = featureNames[in.readInt()];
+        edgeFeatures.add(new FeatureValue<>(name, in.readFloat()));
+      }
+      features.add(edgeFeatures);
+    }
+    return new TranslationHypergraph<>(sourceInputId, numNodes, goalNodes, tails, heads,
+        targets, contexts, features);
+  }
+
+  private static Sequence<IString> readTokens(DataInputStream in, IString[] tokens) throws IOException {
+    final int size = in.readShort();
+    if (size == 0) return Sequences.emptySequence();
+    IString[] seq = new IString[size];
+    for (int i = 0; i < size; ++i) seq[i] = tokens[in.readInt()];
+    return new ArraySequence<>(true, seq);
+  }
+
+  /**
+   * Open a (gzipped) hypergraph file for writing.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static DataOutputStream getWriter(String filename) throws IOException {
+    OutputStream os = new FileOutputStream(filename);
+    if (filename.endsWith(".gz")) os = new GZIPOutputStream(os);
+    return new DataOutputStream(new BufferedOutputStream(os));
+  }
+
+  /**
+   * Read all hypergraphs from a (gzipped) file.
+   *
+   * @param filename
+   * @return A list of hypergraphs sorted by source input id.
+   * @throws IOException
+   */
+  public static List<TranslationHypergraph<IString,String>> readAll(String filename) throws IOException {
+    InputStream is = new FileInputStream(filename);
+    if (filename.endsWith(".gz")) is = new GZIPInputStream(is);
+    List<TranslationHypergraph<IString,String>> hypergraphs = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+      for (TranslationHypergraph<IString,String> h; (h = read(in)) != null;) {
+        hypergraphs.add(h);
+      }
+    }
+    Collections.sort(hypergraphs, Comparator.comparingInt(h -> h.sourceInputId));
+    return hypergraphs;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("input %d: %d nodes %d edges %d goals", sourceInputId, numNodes,
+        heads.length, goalNodes.length);
+  }
+}
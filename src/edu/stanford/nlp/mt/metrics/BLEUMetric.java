@@ -27,7 +27,8 @@ import static java.util.stream.Collectors.toList;
  *
  * @param <TK>
  */
-public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
+public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> implements
+    SufficientStatisticsMetric<TK> {
   public static final int DEFAULT_MAX_NGRAM_ORDER = 4;
 
   public static final double LENGTH_BIAS = Double.parseDouble(System
@@ -222,6 +223,101 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
     }
   }
 
+  private double localSmoothScore(Sequence<TK> seq, int pos) {
+    Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(seq,
+        order);
+    MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(pos));
+    int seqSz = seq.size();
+    int[] localPossibleMatchCounts = new int[order];
+    for (int i = 0; i < order; i++) {
+      localPossibleMatchCounts[i] = possibleMatchCounts(i, seqSz);
+    }
+
+    double[] localCounts = localMatchCounts(candidateCounts,order);
+    int localC = seq.size();
+    int localR = bestMatchLength(refLengths[pos], seq.size());
+
+    double localLogBP;
+    if (localC < localR) {
+      localLogBP = 1 - localR / (1.0 * localC);
+    } else {
+      localLogBP = 0.0;
+    }
+
+    double[] localPrecisions = new double[order];
+    for (int i = 0; i < order; i++) {
+      if (i == 0) {
+        localPrecisions[i] = (1.0 * localCounts[i])
+            / localPossibleMatchCounts[i];
+      } else {
+        localPrecisions[i] = (localCounts[i] + 1.0)
+            / (localPossibleMatchCounts[i] + 1.0);
+      }
+    }
+    double localNgramPrecisionScore = 0;
+    for (int i = 0; i < order; i++) {
+      localNgramPrecisionScore += (1.0 / order)
+          * Math.log(localPrecisions[i]);
+    }
+
+    // System.err.printf("BLEUS: %e logbp %e logPrec %e Prec %e\n",
+    // Math.exp(localLogBP + localNgramPrecisionScore), localLogBP,
+    // localNgramPrecisionScore, Math.exp(localNgramPrecisionScore));
+    return Math.exp(localLogBP + localNgramPrecisionScore);
+  }
+
+  @Override
+  public int numStatistics() {
+    return smooth ? 2 : 2 * order + 2;
+  }
+
+  /**
+   * Clipped n-gram matches, possible matches, candidate length, and effective
+   * reference length. When smoothing, the sentence-level score and a count.
+   */
+  @Override
+  public double[] sufficientStatistics(int sourceId, Sequence<TK> translation) {
+    double[] stats = new double[numStatistics()];
+    if (translation == null) return stats;
+    if (smooth) {
+      stats[0] = localSmoothScore(translation, sourceId);
+      stats[1] = 1.0;
+      return stats;
+    }
+    Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(
+        translation, order);
+    MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(sourceId));
+    double[] localCounts = localMatchCounts(candidateCounts, order);
+    int seqSz = translation.size();
+    for (int i = 0; i < order; i++) {
+      stats[i] = localCounts[i];
+      stats[order + i] = possibleMatchCounts(i, seqSz);
+    }
+    stats[2 * order] = seqSz;
+    stats[2 * order + 1] = bestMatchLength(refLengths[sourceId], seqSz);
+    return stats;
+  }
+
+  @Override
+  public double scoreStatistics(double[] statistics) {
+    double s;
+    if (smooth) {
+      s = statistics[0] / statistics[1];
+    } else {
+      double logScore = 0.0;
+      for (int i = 0; i < order; i++) {
+        logScore += (1.0 / order) * Math.log(statistics[i] / statistics[order + i]);
+      }
+      double c = statistics[2 * order];
+      double r = statistics[2 * order + 1];
+      if (c < r) {
+        logScore += 1 - r / c;
+      }
+      s = multiplier * Math.exp(logScore);
+    }
+    return (Double.isNaN(s) ? 0 : s);
+  }
+
   @Override
   public BLEUIncrementalMetric getIncrementalMetric() {
     return new BLEUIncrementalMetric();
@@ -409,46 +505,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
     }
 
     public double computeLocalSmoothScore(Sequence<TK> seq, int pos) {
-      Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(seq,
-          order);
-      MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(pos));
-      int seqSz = seq.size();
-      int[] localPossibleMatchCounts = new int[order];
-      for (int i = 0; i < order; i++) {
-        localPossibleMatchCounts[i] = possibleMatchCounts(i, seqSz);
-      }
-
-      double[] localCounts = localMatchCounts(candidateCounts,order);
-      int localC = seq.size();
-      int localR = bestMatchLength(refLengths[pos], seq.size());
-
-      double localLogBP;
-      if (localC < localR) {
-        localLogBP = 1 - localR / (1.0 * localC);
-      } else {
-        localLogBP = 0.0;
-      }
-
-      double[] localPrecisions = new double[order];
-      for (int i = 0; i < order; i++) {
-        if (i == 0) {
-          localPrecisions[i] = (1.0 * localCounts[i])
-              / localPossibleMatchCounts[i];
-        } else {
-          localPrecisions[i] = (localCounts[i] + 1.0)
-              / (localPossibleMatchCounts[i] + 1.0);
-        }
-      }
-      double localNgramPrecisionScore = 0;
-      for (int i = 0; i < order; i++) {
-        localNgramPrecisionScore += (1.0 / order)
-            * Math.log(localPrecisions[i]);
-      }
-
-      // System.err.printf("BLEUS: %e logbp %e logPrec %e Prec %e\n",
-      // Math.exp(localLogBP + localNgramPrecisionScore), localLogBP,
-      // localNgramPrecisionScore, Math.exp(localNgramPrecisionScore));
-      final double localScore = Math.exp(localLogBP + localNgramPrecisionScore);
+      final double localScore = localSmoothScore(seq, pos);
       if (printLocalScores)
         System.out.printf("%d %f\n", pos, localScore);
       return localScore;
@@ -7,9 +7,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import com.bbn.mt.terp.TERalignment;
-import com.bbn.mt.terp.TERcalc;
-import com.bbn.mt.terp.TERcost;
+import com.bbn.mt.terp.NormalizeText;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 import edu.stanford.nlp.mt.tools.NISTTokenizer;
 import edu.stanford.nlp.mt.util.IString;
@@ -26,9 +27,12 @@ import edu.stanford.nlp.mt.util.Sequence;
 public class SLTERGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
 
   public static final int DEFAULT_BEAM_SIZE = 20;
+  private static final int MAX_CACHED_REFERENCES = 50000;
 
-  private final TERcost terCost = new TERcost();
-  private final int beamSize = DEFAULT_BEAM_SIZE;
+  private final TERKernel terKernel = new TERKernel(DEFAULT_BEAM_SIZE);
+  private final LoadingCache<Sequence<TK>,TERKernel.Reference> referenceCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_REFERENCES).build(
+          CacheLoader.from(ref -> new TERKernel.Reference(NormalizeText.process(ref.toString()))));
   
   @Override
   public double score(int sourceId, Sequence<TK> source,
@@ -45,16 +49,12 @@ public class SLTERGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
      * absolute edits is required. Combining these two recommendations amounts to
      * simply ignoring the denominator for the TER calculation.
      */
-    TERcalc terCalc = new TERcalc(terCost);
-    terCalc.BEAM_WIDTH = beamSize;
-    final String hyp = translation.toString();
+    final String[] hyp = NormalizeText.process(translation.toString());
     double bestTER = Double.POSITIVE_INFINITY;
     int refLen = 0;
     for (Sequence<TK> refSeq : uniqRefs) {
-      String ref = refSeq.toString();
-      TERalignment align = terCalc.TER(hyp, ref);
-      //        ter = align.numEdits / align.numWords;
-      double ter = align.numEdits;
+      //        ter = numEdits / numWords;
+      double ter = terKernel.numEdits(hyp, referenceCache.getUnchecked(refSeq));
       if (ter < bestTER) {
         bestTER = ter;
         refLen = refSeq.size();
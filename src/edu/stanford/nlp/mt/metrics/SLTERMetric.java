@@ -4,16 +4,19 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import com.bbn.mt.terp.TERalignment;
-import com.bbn.mt.terp.TERcost;
-import com.bbn.mt.terp.TERcalc;
+import com.bbn.mt.terp.NormalizeText;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 import edu.stanford.nlp.mt.util.Sequence;
 
 /**
  * Sentence-level TER metric. Even though this package calls the TERp jar,
  * it is equiavalent to vanilla TER. We don't use the original TER jar, which
- * is not threadsafe.
+ * is not threadsafe. The edits are computed by <code>TERKernel</code>, which gives
+ * the same scores as <code>TERcalc</code>. References are cached since each is
+ * scored against every entry of an n-best list.
  *
  * @author danielcer
  * @author Spence Green
@@ -25,9 +28,10 @@ public class SLTERMetric<TK,FV> implements SentenceLevelMetric<TK, FV> {
 
   public static final int DEFAULT_BEAM_SIZE = 20;
   public static final boolean VERBOSE = false;
+  private static final int MAX_CACHED_REFERENCES = 50000;
 
-  private final TERcost terCost;
-  private final int beamSize;
+  private final TERKernel terKernel;
+  private final LoadingCache<Sequence<TK>,TERKernel.Reference> referenceCache;
   
   /**
    * Constructor.
@@ -42,15 +46,13 @@ public class SLTERMetric<TK,FV> implements SentenceLevelMetric<TK, FV> {
    * @param beamSize
    */
   public SLTERMetric(int beamSize) {
-    terCost = new TERcost();
-    this.beamSize = beamSize; 
+    terKernel = new TERKernel(beamSize);
+    referenceCache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_REFERENCES).build(
+        CacheLoader.from(ref -> new TERKernel.Reference(NormalizeText.process(ref.toString()))));
   }
 
   @Override
   public double score(int sourceId, Sequence<TK> source, List<Sequence<TK>> references, Sequence<TK> translation) {
-    TERcalc terCalc = new TERcalc(terCost);
-    terCalc.BEAM_WIDTH = beamSize;
-    
     // uniq references to prevent (expensive) redundant calculation.
     Set<Sequence<TK>> uniqRefs = new HashSet<Sequence<TK>>(references);
 
@@ -62,20 +64,19 @@ public class SLTERMetric<TK,FV> implements SentenceLevelMetric<TK, FV> {
      * absolute edits is required. Combining these two recommendations amounts to
      * simply ignoring the denominator for the TER calculation.
      */
-    final String hyp = translation.toString();
+    final String[] hyp = NormalizeText.process(translation.toString());
     double bestTER = Double.POSITIVE_INFINITY;
     for (Sequence<TK> refSeq : uniqRefs) {
-      String ref = refSeq.toString();
-      TERalignment align = terCalc.TER(hyp, ref);
-      //        ter = align.numEdits / align.numWords;
-      double ter = align.numEdits;
+      TERKernel.Reference ref = referenceCache.getUnchecked(refSeq);
+      //        ter = numEdits / numWords;
+      double ter = terKernel.numEdits(hyp, ref);
       if (ter < bestTER) {
         bestTER = ter;
       }
       if (VERBOSE) {
-        System.err.printf("ref: %s%n", ref);
-        System.err.printf("numEdits: %f%n", align.numEdits);
-        System.err.printf("numWords: %f%n", align.numWords);
+        System.err.printf("ref: %s%n", refSeq.toString());
+        System.err.printf("numEdits: %f%n", ter);
+        System.err.printf("numWords: %d%n", ref.size());
       }        
     }
     
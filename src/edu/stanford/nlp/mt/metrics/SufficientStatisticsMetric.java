@@ -0,0 +1,34 @@
+package edu.stanford.nlp.mt.metrics;
+
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * A corpus-level metric whose score is a function of the element-wise sum of
+ * per-segment sufficient statistics. Resampling tests can then compute the
+ * statistics once and rescore a sample by summation.
+ *
+ * @param <TK>
+ */
+public interface SufficientStatisticsMetric<TK> {
+
+  /**
+   * The number of sufficient statistics per segment.
+   */
+  public int numStatistics();
+
+  /**
+   * Compute the sufficient statistics of a single translation.
+   *
+   * @param sourceId The index of the segment in the reference list.
+   * @param translation The candidate translation.
+   * @return A vector of length <code>numStatistics()</code>.
+   */
+  public double[] sufficientStatistics(int sourceId, Sequence<TK> translation);
+
+  /**
+   * Compute the corpus-level score from summed sufficient statistics.
+   *
+   * @param statistics The element-wise sum of per-segment statistics.
+   */
+  public double scoreStatistics(double[] statistics);
+}
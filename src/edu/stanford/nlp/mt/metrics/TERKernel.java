@@ -0,0 +1,526 @@
+package edu.stanford.nlp.mt.metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translation edit rate (Snover et al., 2006) over integer arrays. Computes the same number
+ * of edits as <code>TERcalc</code> in the TERp jar with the default (unit) costs and without
+ * stemming, synonyms, or paraphrases, which is how the sentence-level TER metrics use it.
+ *
+ * The shift search is the greedy search of <code>TERcalc</code>, which computes an edit
+ * distance for every candidate shift. Here a bit-parallel edit distance (Myers, 1999; Hyyro,
+ * 2003) gives a lower bound that rules out most candidates before the beam search. The
+ * reference-side data (token positions and match bit vectors) are computed once per
+ * <code>Reference</code>. Scratch buffers are reused per thread, so one instance can be
+ * shared by all threads.
+ *
+ */
+public class TERKernel {
+
+  public static final int DEFAULT_BEAM_WIDTH = 20;
+  public static final int DEFAULT_MAX_SHIFT_SIZE = 10;
+  public static final int DEFAULT_MAX_SHIFT_DIST = 50;
+
+  private static final int INF = 999999;
+
+  // Backpointers of the beam search
+  private static final byte NONE = 0;
+  private static final byte MATCH = 1;
+  private static final byte SUB = 2;
+  private static final byte INS = 3;
+  private static final byte DEL = 4;
+
+  private final int beamWidth;
+  private final int maxShiftSize;
+  private final int maxShiftDist;
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  /**
+   * Constructor.
+   */
+  public TERKernel() {
+    this(DEFAULT_BEAM_WIDTH);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param beamWidth
+   */
+  public TERKernel(int beamWidth) {
+    this(beamWidth, DEFAULT_MAX_SHIFT_SIZE, DEFAULT_MAX_SHIFT_DIST);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param beamWidth Beam width of the edit distance search.
+   * @param maxShiftSize Maximum number of tokens in a shift.
+   * @param maxShiftDist Maximum distance of a shift.
+   */
+  public TERKernel(int beamWidth, int maxShiftSize, int maxShiftDist) {
+    this.beamWidth = beamWidth;
+    this.maxShiftSize = maxShiftSize;
+    this.maxShiftDist = maxShiftDist;
+  }
+
+  /**
+   * A reference translation. Tokens are compared with <code>equals()</code>.
+   */
+  public static class Reference {
+    private final int[] tokens;
+    private final Map<Object,Integer> symbols;
+    // Positions of each symbol in the reference
+    private final int[][] positions;
+    // Match bit vectors of each symbol for the bit-parallel edit distance
+    private final long[][] peq;
+    private final int numBlocks;
+
+    /**
+     * Constructor.
+     *
+     * @param tokens
+     */
+    public Reference(Object[] tokens) {
+      this.tokens = new int[tokens.length];
+      this.symbols = new HashMap<>(2*tokens.length);
+      for (int i = 0; i < tokens.length; ++i) {
+        Integer id = symbols.get(tokens[i]);
+        if (id == null) {
+          id = symbols.size();
+          symbols.put(tokens[i], id);
+        }
+        this.tokens[i] = id;
+      }
+      final int numSymbols = symbols.size();
+      int[] counts = new int[numSymbols];
+      for (int id : this.tokens) ++counts[id];
+      positions = new int[numSymbols][];
+      for (int s = 0; s < numSymbols; ++s) positions[s] = new int[counts[s]];
+      Arrays.fill(counts, 0);
+      numBlocks = (tokens.length + 63) >>> 6;
+      peq = new long[numSymbols][numBlocks];
+      for (int i = 0; i < this.tokens.length; ++i) {
+        final int id = this.tokens[i];
+        positions[id][counts[id]++] = i;
+        peq[id][i >>> 6] |= 1L << (i & 63);
+      }
+    }
+
+    /**
+     * Number of tokens.
+     *
+     * @return
+     */
+    public int size() { return tokens.length; }
+
+    /**
+     * Map hypothesis tokens to reference symbols. Tokens that do not appear in the
+     * reference map to -1.
+     */
+    private int[] encode(Object[] hyp, int[] out) {
+      for (int i = 0; i < hyp.length; ++i) {
+        Integer id = symbols.get(hyp[i]);
+        out[i] = id == null ? -1 : id;
+      }
+      return out;
+    }
+  }
+
+  /**
+   * Number of edits, including shifts, to turn the hypothesis into the reference.
+   *
+   * @param hyp
+   * @param ref
+   * @return
+   */
+  public double numEdits(Object[] hyp, Reference ref) {
+    if (hyp.length == 0 || ref.size() == 0) {
+      // Insert or delete every token
+      return hyp.length + ref.size();
+    }
+    final Scratch s = scratch.get();
+    s.ensureCapacity(hyp.length, ref.size(), ref.numBlocks, maxShiftSize);
+    ref.encode(hyp, s.cur);
+    return numEdits(hyp.length, ref, s);
+  }
+
+  /**
+   * TER with the greedy shift search.
+   */
+  private int numEdits(int hypLength, Reference ref, Scratch s) {
+    int edits = beamEditDistance(s.cur, hypLength, ref, s, s.path);
+    s.pathLength = s.candidatePathLength;
+    int numShifts = 0;
+    for (int shiftedEdits; (shiftedEdits = bestShift(hypLength, edits, ref, s)) >= 0; ) {
+      edits = shiftedEdits;
+      ++numShifts;
+    }
+    // Unit shift cost
+    return edits + numShifts;
+  }
+
+  /**
+   * Find and apply the best shift of the current hypothesis. Returns the number of edits of
+   * the shifted hypothesis, or -1 if no shift reduces the number of edits.
+   */
+  private int bestShift(int hypLength, int curEdits, Reference ref, Scratch s) {
+    if (maxShiftSize <= 0 || maxShiftDist <= 0) return -1;
+    findAlignmentErrors(s);
+    gatherShifts(hypLength, ref, s);
+
+    int bestShiftCost = 0;
+    int bestEdits = curEdits;
+    boolean anyGain = false;
+    for (int i = maxShiftSize; i >= 0; --i) {
+      final int maxFix = 2 * (1 + i);
+      int curFix = curEdits - (bestShiftCost + bestEdits);
+      if (curFix > maxFix || (bestShiftCost != 0 && curFix == maxFix)) break;
+      final long[] bucket = s.shifts[i];
+      for (int k = 0, sz = s.numShifts[i]; k < sz; ++k) {
+        curFix = curEdits - (bestShiftCost + bestEdits);
+        if (curFix > maxFix || (bestShiftCost != 0 && curFix == maxFix)) break;
+        final int start = (int) (bucket[k] >>> 32);
+        final int newLoc = (int) bucket[k] - 1;
+        performShift(s.cur, hypLength, start, start + i, newLoc, s.next);
+
+        // A shift is accepted only if it saves at least one edit. The edit distance without
+        // beam pruning is a lower bound on the edits.
+        if (levenshtein(s.next, hypLength, ref, s) >= bestEdits) continue;
+
+        final int edits = beamEditDistance(s.next, hypLength, ref, s, s.candidatePath);
+        final int gain = (bestEdits + bestShiftCost) - (edits + 1);
+        if (gain > 0 || (bestShiftCost == 0 && gain == 0)) {
+          anyGain = true;
+          bestShiftCost = 1;
+          bestEdits = edits;
+          int[] tmp = s.best; s.best = s.next; s.next = tmp;
+          byte[] tmpPath = s.bestPath; s.bestPath = s.candidatePath; s.candidatePath = tmpPath;
+          s.bestPathLength = s.candidatePathLength;
+        }
+      }
+    }
+    if ( ! anyGain) return -1;
+    int[] tmp = s.cur; s.cur = s.best; s.best = tmp;
+    byte[] tmpPath = s.path; s.path = s.bestPath; s.bestPath = tmpPath;
+    s.pathLength = s.bestPathLength;
+    return bestEdits;
+  }
+
+  /**
+   * Mark the hypothesis and reference positions that are not matched by the alignment,
+   * and the hypothesis position aligned to each reference position.
+   */
+  private static void findAlignmentErrors(Scratch s) {
+    int hpos = -1;
+    int rpos = -1;
+    for (int i = 0; i < s.pathLength; ++i) {
+      switch (s.path[i]) {
+      case MATCH:
+        s.herr[++hpos] = false;
+        s.rerr[++rpos] = false;
+        s.ralign[rpos] = hpos;
+        break;
+      case SUB:
+        s.herr[++hpos] = true;
+        s.rerr[++rpos] = true;
+        s.ralign[rpos] = hpos;
+        break;
+      case INS:
+        s.herr[++hpos] = true;
+        break;
+      case DEL:
+        s.rerr[++rpos] = true;
+        s.ralign[rpos] = hpos;
+        break;
+      default:
+        throw new IllegalStateException("Invalid alignment operation: " + s.path[i]);
+      }
+    }
+  }
+
+  /**
+   * Collect the candidate shifts, which move a phrase that matches the reference but
+   * contains an alignment error. Shifts are bucketed by length and sorted by start and
+   * destination. Only reference positions that start with the same token are considered.
+   */
+  private void gatherShifts(int hypLength, Reference ref, Scratch s) {
+    Arrays.fill(s.numShifts, 0);
+    final int refLength = ref.size();
+    for (int hstart = 0; hstart < hypLength; ++hstart) {
+      final int symbol = s.cur[hstart];
+      if (symbol < 0) continue;
+      for (int rstart : ref.positions[symbol]) {
+        final int moveTo = s.ralign[rstart];
+        boolean anyHypErr = false;
+        boolean anyRefErr = false;
+        for (int k = 0; k < maxShiftSize; ++k) {
+          final int hpos = hstart + k;
+          final int rpos = rstart + k;
+          if (hpos >= hypLength || rpos >= refLength || s.cur[hpos] != ref.tokens[rpos]) break;
+          anyHypErr |= s.herr[hpos];
+          anyRefErr |= s.rerr[rpos];
+          if ( ! (anyHypErr && anyRefErr)) continue;
+          if (moveTo >= hstart && moveTo <= hpos) continue;
+          if (moveTo - hstart > maxShiftDist || hstart - moveTo > maxShiftDist) continue;
+          for (int roff = -1; roff <= k; ++roff) {
+            final int r = rstart + roff;
+            if (roff == -1 && rstart == 0) {
+              s.addShift(k, hstart, -1);
+            } else if (r >= 0 && r < refLength && hstart != s.ralign[r]
+                && (roff == 0 || s.ralign[r] != moveTo)) {
+              s.addShift(k, hstart, s.ralign[r]);
+            }
+          }
+        }
+      }
+    }
+    for (int i = 0; i < s.numShifts.length; ++i) {
+      final long[] bucket = s.shifts[i];
+      int size = s.numShifts[i];
+      if (size < 2) continue;
+      Arrays.sort(bucket, 0, size);
+      int unique = 1;
+      for (int k = 1; k < size; ++k) {
+        if (bucket[k] != bucket[unique-1]) bucket[unique++] = bucket[k];
+      }
+      s.numShifts[i] = unique;
+    }
+  }
+
+  /**
+   * Move the tokens in [start,end] after position newLoc, or to the front if newLoc is -1.
+   */
+  private static void performShift(int[] hyp, int length, int start, int end, int newLoc, int[] out) {
+    int c = 0;
+    if (newLoc == -1) {
+      for (int i = start; i <= end; ++i) out[c++] = hyp[i];
+      for (int i = 0; i < start; ++i) out[c++] = hyp[i];
+      for (int i = end + 1; i < length; ++i) out[c++] = hyp[i];
+    } else if (newLoc < start) {
+      for (int i = 0; i <= newLoc; ++i) out[c++] = hyp[i];
+      for (int i = start; i <= end; ++i) out[c++] = hyp[i];
+      for (int i = newLoc + 1; i < start; ++i) out[c++] = hyp[i];
+      for (int i = end + 1; i < length; ++i) out[c++] = hyp[i];
+    } else if (newLoc > end) {
+      for (int i = 0; i < start; ++i) out[c++] = hyp[i];
+      for (int i = end + 1; i <= newLoc; ++i) out[c++] = hyp[i];
+      for (int i = start; i <= end; ++i) out[c++] = hyp[i];
+      for (int i = newLoc + 1; i < length; ++i) out[c++] = hyp[i];
+    } else {
+      // Moving inside of itself
+      final int offset = end + (newLoc - start);
+      for (int i = 0; i < start; ++i) out[c++] = hyp[i];
+      for (int i = end + 1; i < length && i <= offset; ++i) out[c++] = hyp[i];
+      for (int i = start; i <= end; ++i) out[c++] = hyp[i];
+      for (int i = offset + 1; i < length; ++i) out[c++] = hyp[i];
+    }
+  }
+
+  /**
+   * Unit cost edit distance with the block-based bit-parallel algorithm of Myers (1999).
+   * The reference is the pattern.
+   */
+  private static int levenshtein(int[] hyp, int hypLength, Reference ref, Scratch s) {
+    final int numBlocks = ref.numBlocks;
+    final long[] pv = s.pv;
+    final long[] mv = s.mv;
+    Arrays.fill(pv, 0, numBlocks, -1L);
+    Arrays.fill(mv, 0, numBlocks, 0L);
+    final long lastBit = 1L << ((ref.size() - 1) & 63);
+    int score = ref.size();
+    for (int j = 0; j < hypLength; ++j) {
+      final long[] eqs = hyp[j] < 0 ? null : ref.peq[hyp[j]];
+      // The top row increases by one in each column
+      int carry = 1;
+      for (int b = 0; b < numBlocks; ++b) {
+        long eq = eqs == null ? 0L : eqs[b];
+        final long p = pv[b];
+        final long m = mv[b];
+        final long xv = eq | m;
+        if (carry < 0) eq |= 1L;
+        final long xh = (((eq & p) + p) ^ p) | eq;
+        long ph = m | ~(xh | p);
+        long mh = p & xh;
+        final long highBit = b == numBlocks - 1 ? lastBit : Long.MIN_VALUE;
+        final int hout = (ph & highBit) != 0 ? 1 : ((mh & highBit) != 0 ? -1 : 0);
+        ph <<= 1;
+        mh <<= 1;
+        if (carry < 0) {
+          mh |= 1L;
+        } else if (carry > 0) {
+          ph |= 1L;
+        }
+        pv[b] = mh | ~(xv | ph);
+        mv[b] = ph & xv;
+        carry = hout;
+      }
+      score += carry;
+    }
+    return score;
+  }
+
+  /**
+   * The beam search edit distance of <code>TERcalc</code>. Writes the alignment to path
+   * and its length to <code>Scratch.candidatePathLength</code>.
+   */
+  private int beamEditDistance(int[] hyp, int hypLength, Reference ref, Scratch s, byte[] path) {
+    final int[] refTokens = ref.tokens;
+    final int refLength = refTokens.length;
+    final int width = hypLength + 1;
+    final int[] score = s.score;
+    final byte[] back = s.back;
+    final int numCells = (refLength + 1) * width;
+    Arrays.fill(score, 0, numCells, -1);
+    Arrays.fill(back, 0, numCells, NONE);
+    score[0] = 0;
+
+    int currentBest = INF;
+    int lastBest;
+    int firstGood;
+    int currentFirstGood = 0;
+    int lastGood;
+    int currentLastGood = 0;
+    for (int j = 0; j <= hypLength; ++j) {
+      lastBest = currentBest;
+      currentBest = INF;
+      firstGood = Math.max(0, currentFirstGood);
+      currentFirstGood = -1;
+      lastGood = currentLastGood;
+      currentLastGood = -1;
+      for (int i = firstGood; i <= refLength; ++i) {
+        if (j != hypLength && i > lastGood) break;
+        final int cell = i * width + j;
+        final int cellScore = score[cell];
+        if (cellScore < 0) continue;
+        if (j < hypLength && cellScore > lastBest + beamWidth) continue;
+        if (currentFirstGood == -1) currentFirstGood = i;
+        if (i < refLength && j < hypLength) {
+          final int diag = cell + width + 1;
+          if (refTokens[i] == hyp[j]) {
+            final int cost = cellScore;
+            if (score[diag] == -1 || cost < score[diag]) {
+              score[diag] = cost;
+              back[diag] = MATCH;
+            }
+            if (cost < currentBest) currentBest = cost;
+          } else {
+            final int cost = cellScore + 1;
+            if (score[diag] < 0 || cost < score[diag]) {
+              score[diag] = cost;
+              back[diag] = SUB;
+              if (cost < currentBest) currentBest = cost;
+            }
+          }
+        }
+        currentLastGood = i + 1;
+        if (j < hypLength) {
+          final int cost = cellScore + 1;
+          final int ins = cell + 1;
+          if (score[ins] < 0 || score[ins] > cost) {
+            score[ins] = cost;
+            back[ins] = INS;
+          }
+        }
+        if (i < refLength) {
+          final int cost = cellScore + 1;
+          final int del = cell + width;
+          if (score[del] < 0 || score[del] > cost) {
+            score[del] = cost;
+            back[del] = DEL;
+            if (i >= lastGood) lastGood = i + 1;
+          }
+        }
+      }
+    }
+
+    // Backtrace
+    int length = 0;
+    for (int i = refLength, j = hypLength; i > 0 || j > 0; ++length) {
+      final byte op = back[i * width + j];
+      path[length] = op;
+      if (op == MATCH || op == SUB) {
+        --i;
+        --j;
+      } else if (op == DEL) {
+        --i;
+      } else if (op == INS) {
+        --j;
+      } else {
+        throw new IllegalStateException(String.format("Invalid path at (%d,%d)", i, j));
+      }
+    }
+    for (int lo = 0, hi = length - 1; lo < hi; ++lo, --hi) {
+      final byte tmp = path[lo];
+      path[lo] = path[hi];
+      path[hi] = tmp;
+    }
+    s.candidatePathLength = length;
+    return score[refLength * width + hypLength];
+  }
+
+  /**
+   * Per-thread buffers.
+   */
+  private static class Scratch {
+    int[] cur = new int[0];
+    int[] next = new int[0];
+    int[] best = new int[0];
+    byte[] path = new byte[0];
+    byte[] candidatePath = new byte[0];
+    byte[] bestPath = new byte[0];
+    int pathLength;
+    int candidatePathLength;
+    int bestPathLength;
+    int[] score = new int[0];
+    byte[] back = new byte[0];
+    boolean[] herr = new boolean[0];
+    boolean[] rerr = new boolean[0];
+    int[] ralign = new int[0];
+    long[] pv = new long[0];
+    long[] mv = new long[0];
+    long[][] shifts = new long[0][];
+    int[] numShifts = new int[0];
+
+    void ensureCapacity(int hypLength, int refLength, int numBlocks, int maxShiftSize) {
+      if (cur.length < hypLength) {
+        cur = new int[hypLength];
+        next = new int[hypLength];
+        best = new int[hypLength];
+        herr = new boolean[hypLength];
+      }
+      if (path.length < hypLength + refLength) {
+        path = new byte[hypLength + refLength];
+        candidatePath = new byte[hypLength + refLength];
+        bestPath = new byte[hypLength + refLength];
+      }
+      final int numCells = (hypLength + 1) * (refLength + 1);
+      if (score.length < numCells) {
+        score = new int[numCells];
+        back = new byte[numCells];
+      }
+      if (rerr.length < refLength) {
+        rerr = new boolean[refLength];
+        ralign = new int[refLength];
+      }
+      if (pv.length < numBlocks) {
+        pv = new long[numBlocks];
+        mv = new long[numBlocks];
+      }
+      if (shifts.length != maxShiftSize + 1) {
+        shifts = new long[Math.max(0, maxShiftSize + 1)][16];
+        numShifts = new int[shifts.length];
+      }
+    }
+
+    void addShift(int bucket, int start, int newLoc) {
+      if (numShifts[bucket] == shifts[bucket].length) {
+        shifts[bucket] = Arrays.copyOf(shifts[bucket], 2 * shifts[bucket].length);
+      }
+      // Sorts by start, then destination
+      shifts[bucket][numShifts[bucket]++] = ((long) start << 32) | (newLoc + 1);
+    }
+  }
+}
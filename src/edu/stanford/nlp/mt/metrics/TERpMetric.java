@@ -28,13 +28,16 @@ import com.bbn.mt.terp.NormalizeText;
  * @param <TK>
  * @param <FV>
  */
-public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> {
+public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> implements
+    SufficientStatisticsMetric<TK> {
   final List<List<Sequence<TK>>> referencesList;
 
   enum EditType {
     ins, del, sub, sft
   }
 
+  private static final TERKernel localTERKernel = new TERKernel(20);
+
   private boolean countEdits = false;
   private int beamWidth = 20;
   private int maxShiftDist = 50;
@@ -103,18 +106,14 @@ public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> {
    * @return
    */
   public static <TK> double computeLocalTERScore(Sequence<TK> translation, List<Sequence<TK>> references) {
-    TERcalc terCalc = new TERcalc(new TERcost());
-    terCalc.BEAM_WIDTH = 20;
-    
     // uniq references to prevent (expensive) redundant calculation.
     Set<Sequence<TK>> uniqRefs = new HashSet<Sequence<TK>>(references);
 
-    final String hyp = translation.toString();
+    final String[] hyp = NormalizeText.process(translation.toString());
     double bestTER = Double.POSITIVE_INFINITY;
     for (Sequence<TK> refSeq : uniqRefs) {
-      String ref = refSeq.toString();
-      TERalignment align = terCalc.TER(hyp, ref);
-      double ter = align.numEdits / align.numWords;
+      TERKernel.Reference ref = new TERKernel.Reference(NormalizeText.process(refSeq.toString()));
+      double ter = localTERKernel.numEdits(hyp, ref) / ref.size();
       if (ter < bestTER) {
         bestTER = ter;
       }
@@ -186,6 +185,30 @@ public class TERpMetric<TK, FV> extends AbstractMetric<TK, FV> {
     return bestAl;
   }
 
+  @Override
+  public int numStatistics() {
+    return 2;
+  }
+
+  /**
+   * The number of edits and the average reference length.
+   */
+  @Override
+  public double[] sufficientStatistics(int sourceId, Sequence<TK> translation) {
+    double[] stats = new double[2];
+    if (translation != null) {
+      TERalignment align = calcTER(translation, sourceId, null);
+      stats[0] = align.numEdits;
+      stats[1] = align.numWords;
+    }
+    return stats;
+  }
+
+  @Override
+  public double scoreStatistics(double[] statistics) {
+    return -statistics[0] / statistics[1];
+  }
+
   public class TERpIncrementalMetric implements
       IncrementalEvaluationMetric<TK, FV> {
     TERalignment[] aligns = new TERalignment[referencesList.size()];
@@ -0,0 +1,82 @@
+package edu.stanford.nlp.mt.process;
+
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Memoizes the tokenization and alignment of another preprocessor. The key is the
+ * trimmed raw input. Only <code>processAndAlign()</code> is cached. Concurrent calls
+ * with the same input share a single call to the wrapped preprocessor, which is
+ * useful for expensive CRF segmenters.
+ *
+ * Cached alignments are shared among callers and must not be modified.
+ */
+public class CachingPreprocessor implements Preprocessor {
+
+  private final Preprocessor preprocessor;
+  private final Cache<String,SymmetricalWordAlignment> cache;
+
+  /**
+   * Constructor.
+   *
+   * @param preprocessor The wrapped preprocessor, which must be threadsafe.
+   * @param maxSize Maximum number of cached inputs.
+   */
+  public CachingPreprocessor(Preprocessor preprocessor, long maxSize) {
+    this.preprocessor = preprocessor;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+  }
+
+  @Override
+  public SymmetricalWordAlignment processAndAlign(String input) {
+    final String key = input.trim();
+    try {
+      return cache.get(key, () -> preprocessor.processAndAlign(key));
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  @Override
+  public Sequence<IString> process(String input) {
+    return preprocessor.process(input);
+  }
+
+  @Override
+  public String toUncased(String input) {
+    return preprocessor.toUncased(input);
+  }
+
+  /**
+   * The wrapped preprocessor.
+   *
+   * @return
+   */
+  public Preprocessor getPreprocessor() { return preprocessor; }
+
+  /**
+   * Fraction of calls that were served from the cache.
+   *
+   * @return
+   */
+  public double hitRate() { return cache.stats().hitRate(); }
+
+  /**
+   * Number of cached inputs.
+   *
+   * @return
+   */
+  public long size() { return cache.size(); }
+
+  @Override
+  public String toString() {
+    return String.format("%s size: %d hit rate: %.3f", preprocessor.getClass().getSimpleName(),
+        cache.size(), hitRate());
+  }
+}
@@ -1,5 +1,7 @@
 package edu.stanford.nlp.mt.stats;
 
+import java.util.Arrays;
+
 /**
  * Functions for computing various confidence intervals.
  * 
@@ -20,5 +22,21 @@ public final class ConfidenceIntervals {
     // TODO(spenceg) Implement R code
     return ci;
   }
-  
+
+  /**
+   * Percentile confidence interval of a set of bootstrap samples.
+   *
+   * @param samples
+   * @param confidence e.g., 0.95
+   * @return The lower and upper bounds.
+   */
+  public static double[] percentileInterval(double[] samples, double confidence) {
+    if (samples.length == 0) throw new IllegalArgumentException("No samples");
+    double[] sorted = samples.clone();
+    Arrays.sort(sorted);
+    final double tail = (1.0 - confidence) / 2.0;
+    int lo = (int) Math.floor(tail * (sorted.length - 1));
+    int hi = (int) Math.ceil((1.0 - tail) * (sorted.length - 1));
+    return new double[] { sorted[lo], sorted[hi] };
+  }
 }
@@ -0,0 +1,160 @@
+package edu.stanford.nlp.mt.stats;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Paired resampling tests for comparing two systems on the same test set.
+ *
+ * Each sample gets its own generator split from a seeded root, so results do
+ * not depend on the number of threads. When the metric decomposes into
+ * per-segment sufficient statistics, a sample is scored by summation instead
+ * of re-scoring the corpus.
+ */
+public final class Resampling {
+
+  private Resampling() {}
+
+  /**
+   * Scores two systems on a resampled corpus.
+   */
+  @FunctionalInterface
+  public static interface PairedScorer {
+
+    /**
+     * Position <code>i</code> of the resampled corpus holds segment
+     * <code>segments[i]</code>, with the outputs of the two systems exchanged
+     * if <code>swapped[i]</code> is set.
+     *
+     * @return The scores of the two (pseudo-)systems.
+     */
+    public double[] score(int[] segments, boolean[] swapped);
+  }
+
+  /**
+   * Build a scorer that sums per-segment sufficient statistics.
+   *
+   * @param stats1 Statistics of the first system, one vector per segment.
+   * @param stats2 Statistics of the second system, one vector per segment.
+   * @param score Corpus score from summed statistics.
+   */
+  public static PairedScorer sufficientStatisticsScorer(double[][] stats1, double[][] stats2,
+      ToDoubleFunction<double[]> score) {
+    if (stats1.length != stats2.length) throw new IllegalArgumentException("Mismatched test set sizes");
+    final int dim = stats1.length == 0 ? 0 : stats1[0].length;
+    return (segments, swapped) -> {
+      double[] sum1 = new double[dim];
+      double[] sum2 = new double[dim];
+      for (int i = 0; i < segments.length; ++i) {
+        final int j = segments[i];
+        final double[] s1 = swapped[i] ? stats2[j] : stats1[j];
+        final double[] s2 = swapped[i] ? stats1[j] : stats2[j];
+        for (int k = 0; k < dim; ++k) {
+          sum1[k] += s1[k];
+          sum2[k] += s2[k];
+        }
+      }
+      return new double[] { score.applyAsDouble(sum1), score.applyAsDouble(sum2) };
+    };
+  }
+
+  /**
+   * Approximate randomization: each segment's outputs are exchanged with
+   * probability 0.5.
+   *
+   * @return The score differences (system1 - system2) of the samples.
+   */
+  public static double[] approximateRandomization(int numSegments, PairedScorer scorer,
+      int numSamples, long seed, int numThreads) {
+    return sample(numSamples, seed, numThreads, r -> {
+      int[] segments = new int[numSegments];
+      boolean[] swapped = new boolean[numSegments];
+      for (int i = 0; i < numSegments; ++i) {
+        segments[i] = i;
+        swapped[i] = r.nextBoolean();
+      }
+      double[] scores = scorer.score(segments, swapped);
+      return scores[0] - scores[1];
+    });
+  }
+
+  /**
+   * Paired bootstrap (Koehn, 2004): segments are drawn with replacement and
+   * both systems are scored on the same draw.
+   *
+   * @return The score differences (system1 - system2) of the samples.
+   */
+  public static double[] pairedBootstrap(int numSegments, PairedScorer scorer,
+      int numSamples, long seed, int numThreads) {
+    return sample(numSamples, seed, numThreads, r -> {
+      int[] segments = new int[numSegments];
+      boolean[] swapped = new boolean[numSegments];
+      for (int i = 0; i < numSegments; ++i) {
+        segments[i] = r.nextInt(numSegments);
+      }
+      double[] scores = scorer.score(segments, swapped);
+      return scores[0] - scores[1];
+    });
+  }
+
+  /**
+   * p-value of an approximate randomization test: the fraction of samples whose
+   * absolute difference matches or exceeds the observed one.
+   */
+  public static double approximateRandomizationPValue(double observedDiff, double[] sampleDiffs) {
+    return (numMatchedOrExceeded(observedDiff, sampleDiffs) + 1.0) / (sampleDiffs.length + 1.0);
+  }
+
+  /**
+   * Number of samples whose absolute difference matches or exceeds the
+   * observed one.
+   */
+  public static int numMatchedOrExceeded(double observedDiff, double[] sampleDiffs) {
+    final double trueDiff = Math.abs(observedDiff);
+    return (int) Arrays.stream(sampleDiffs).filter(d -> Math.abs(d) >= trueDiff).count();
+  }
+
+  /**
+   * p-value of a paired bootstrap test: the fraction of samples in which the
+   * system that is better on the full test set does not win.
+   */
+  public static double pairedBootstrapPValue(double observedDiff, double[] sampleDiffs) {
+    return numLosses(observedDiff, sampleDiffs) / (double) sampleDiffs.length;
+  }
+
+  /**
+   * Number of samples in which the system that is better on the full test set
+   * does not win.
+   */
+  public static int numLosses(double observedDiff, double[] sampleDiffs) {
+    final double sign = observedDiff < 0.0 ? -1.0 : 1.0;
+    return (int) Arrays.stream(sampleDiffs).filter(d -> sign * d <= 0.0).count();
+  }
+
+  private static double[] sample(int numSamples, long seed, int numThreads,
+      ToDoubleFunction<SplittableRandom> sampler) {
+    // Split the generators up front so that sample i is the same for any number of threads
+    SplittableRandom root = new SplittableRandom(seed);
+    SplittableRandom[] generators = new SplittableRandom[numSamples];
+    for (int i = 0; i < numSamples; ++i) generators[i] = root.split();
+    double[] diffs = new double[numSamples];
+    if (numThreads <= 1) {
+      for (int i = 0; i < numSamples; ++i) diffs[i] = sampler.applyAsDouble(generators[i]);
+      return diffs;
+    }
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      pool.submit(() -> IntStream.range(0, numSamples).parallel().forEach(i ->
+        diffs[i] = sampler.applyAsDouble(generators[i]))).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdown();
+    }
+    return diffs;
+  }
+}
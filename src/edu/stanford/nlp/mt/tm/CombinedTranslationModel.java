@@ -170,11 +170,58 @@ public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV>
   public void setName(String name) {}
 
   
-  @SuppressWarnings({ "rawtypes", "unchecked" })
+  /**
+   * The maximum number of rules returned per source span.
+   * 
+   * @return
+   */
+  public int getRuleQueryLimit() { return ruleQueryLimit; }
+
+  /**
+   * Select the best <code>queryLimit</code> rules of each source span, as
+   * <code>getRules()</code> does, from a list of rules that has been re-scored.
+   * 
+   * @param rules
+   * @param queryLimit
+   * @return
+   */
+  public static <TK,FV> List<ConcreteRule<TK,FV>> selectRules(List<ConcreteRule<TK,FV>> rules,
+      int queryLimit) {
+    final Map<CoverageSet, List<ConcreteRule<TK,FV>>> ruleLists = new HashMap<>();
+    for (ConcreteRule<TK,FV> rule : rules) {
+      ruleLists.computeIfAbsent(rule.sourceCoverage, k -> new ArrayList<>()).add(rule);
+    }
+    List<ConcreteRule<TK, FV>> selectedList = new ArrayList<>();
+    for (List<ConcreteRule<TK,FV>> ruleList : ruleLists.values()) {
+      Collections.sort(ruleList);
+      selectedList.addAll(ruleList.size() > queryLimit ? ruleList.subList(0, queryLimit) : ruleList);
+    }
+    return selectedList;
+  }
+
   @Override
   public List<ConcreteRule<TK, FV>> getRules(Sequence<TK> source,
       InputProperties sourceInputProperties, int sourceInputId,
       Scorer<FV> scorer) {
+    return getRules(source, sourceInputProperties, sourceInputId, scorer, ruleQueryLimit);
+  }
+
+  /**
+   * Query all models and select the best <code>queryLimit</code> rules of each
+   * source span.
+   * 
+   * @param source
+   * @param sourceInputProperties
+   * @param sourceInputId
+   * @param scorer
+   * @param queryLimit Maximum number of rules per span. Unlimited if negative.
+   * @return
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public List<ConcreteRule<TK, FV>> getRules(Sequence<TK> source,
+      InputProperties sourceInputProperties, int sourceInputId,
+      Scorer<FV> scorer, int queryLimit) {
+    final int maxRules = queryLimit < 0 ? Integer.MAX_VALUE : queryLimit;
 
     // Support for decoder-local translation models
     List<TranslationModel<TK,FV>> translationModels = models;
@@ -208,6 +255,10 @@ public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV>
     List<ConcreteRule<TK, FV>> mergedList = new ArrayList<>();
     for (CoverageSet coverage : ruleLists.keySet()) {
       List<List<ConcreteRule<TK,FV>>> ruleList = ruleLists.get(coverage);
+      if (maxRules == Integer.MAX_VALUE) {
+        for (List<ConcreteRule<TK,FV>> list : ruleList) mergedList.addAll(list);
+        continue;
+      }
 
       // Effectively cube pruning!
       Queue<Item<TK,FV>> pq = new PriorityQueue<Item<TK,FV>>(3);
@@ -218,7 +269,7 @@ public class CombinedTranslationModel<TK,FV> implements TranslationModel<TK,FV>
         }
       }
       int numSelectedRules = 0;
-      while (numSelectedRules < ruleQueryLimit && ! pq.isEmpty()) {
+      while (numSelectedRules < maxRules && ! pq.isEmpty()) {
         Item<TK, FV> item = pq.poll();
         mergedList.add(item.rule);
         ++numSelectedRules;
@@ -4,13 +4,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.util.CoverageMask;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.DTUFeaturizable;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.Phrasal;
 
@@ -34,6 +37,13 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
    * The source coverage of this rule.
    */
   public final CoverageSet sourceCoverage;
+
+  /**
+   * The source coverage as a mask (see <code>CoverageMask</code>). Only valid
+   * for inputs of up to <code>CoverageMask.MAX_LENGTH</code> tokens.
+   */
+  public final long coverageLow;
+  public final long coverageHigh;
     
   /**
    * The left edge in the source sequence of the source side
@@ -52,6 +62,20 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
    */
   public List<FeatureValue<FV>> cachedFeatureList;
 
+  /**
+   * Features that only contribute to the isolation score. These are only
+   * retained when the query result is cached for re-scoring (see
+   * <code>InputProperty.RuleQueryCache</code>). Otherwise null.
+   */
+  public List<FeatureValue<FV>> isolationFeatureList;
+
+  /**
+   * Input of the deferred rule features (see <code>FeatureExtractor.setDeferRuleFeatures()</code>).
+   * Null if no features were deferred.
+   */
+  private DeferredFeatures<TK,FV> deferredFeatures;
+  private boolean hasDeferredFeatures = false;
+
   public enum LinearDistortionType {
     standard, first_contiguous_segment, last_contiguous_segment, closest_contiguous_segment, min_first_last_contiguous_segment, average_distance
   }
@@ -82,6 +106,9 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
       Sequence<TK> sourceSequence, int sourceInputId, InputProperties sourceInputProperties) {
     this.abstractRule = abstractRule;
     this.sourceCoverage = sourceCoverage;
+    final boolean hasCoverageMask = sourceSequence == null || CoverageMask.fits(sourceSequence.size());
+    this.coverageLow = hasCoverageMask ? CoverageMask.word(sourceCoverage, 0) : 0L;
+    this.coverageHigh = hasCoverageMask ? CoverageMask.word(sourceCoverage, 1) : 0L;
     this.sourcePosition = sourceCoverage.nextSetBit(0);
     
     // Extract rule features
@@ -90,15 +117,53 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
     List<FeatureValue<FV>> features = phraseFeaturizer == null ? 
         Collections.emptyList() : phraseFeaturizer.ruleFeaturize(f);
     
+    if (phraseFeaturizer instanceof FeatureExtractor && 
+        ((FeatureExtractor<TK,FV>) phraseFeaturizer).defersRuleFeatures()) {
+      this.deferredFeatures = new DeferredFeatures<>((FeatureExtractor<TK,FV>) phraseFeaturizer, 
+          sourceSequence, sourceInputId, sourceInputProperties);
+    }
+    
     // Cache selected features
+    final boolean retainIsolationFeatures = sourceInputProperties != null && 
+        sourceInputProperties.containsKey(InputProperty.RuleQueryCache);
     cachedFeatureList = new ArrayList<>(features.size());
     for (FeatureValue<FV> feature : features) {
       if ( ! feature.doNotCache) {
         cachedFeatureList.add(feature);
+      } else if (retainIsolationFeatures) {
+        if (isolationFeatureList == null) isolationFeatureList = new ArrayList<>();
+        isolationFeatureList.add(feature);
       }
     }
+    if (deferredFeatures != null) deferredFeatures.featureList = cachedFeatureList;
     this.isolationScore = scorer == null ? -199.0 : scorer.getIncrementalScore(features);
   }
+  
+  /**
+   * Copy constructor that re-scores an existing rule, e.g., after the model
+   * weights have changed. Features are not extracted again.
+   * 
+   * @param rule
+   * @param scorer
+   */
+  public ConcreteRule(ConcreteRule<TK,FV> rule, Scorer<FV> scorer) {
+    this.abstractRule = rule.abstractRule;
+    this.sourceCoverage = rule.sourceCoverage;
+    this.coverageLow = rule.coverageLow;
+    this.coverageHigh = rule.coverageHigh;
+    this.sourcePosition = rule.sourcePosition;
+    // The deferred features do not contribute to the isolation score
+    this.deferredFeatures = rule.deferredFeatures;
+    this.cachedFeatureList = deferredFeatures == null ? rule.cachedFeatureList : deferredFeatures.featureList;
+    this.isolationFeatureList = rule.isolationFeatureList;
+    if (scorer == null) {
+      this.isolationScore = -199.0;
+    } else {
+      double score = scorer.getIncrementalScore(cachedFeatureList);
+      if (isolationFeatureList != null) score += scorer.getIncrementalScore(isolationFeatureList);
+      this.isolationScore = score;
+    }
+  }
 
   /**
    * TODO(spenceg): Merge with the constructor above. This is kludgey, and the DTU part
@@ -121,6 +186,9 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
     assert (hasTargetGap);
     this.abstractRule = abstractRule;
     this.sourceCoverage = sourceCoverage;
+    final boolean hasCoverageMask = sourceSequence == null || CoverageMask.fits(sourceSequence.size());
+    this.coverageLow = hasCoverageMask ? CoverageMask.word(sourceCoverage, 0) : 0L;
+    this.coverageHigh = hasCoverageMask ? CoverageMask.word(sourceCoverage, 1) : 0L;
     this.sourcePosition = sourceCoverage.nextSetBit(0);
 
     cachedFeatureList = new ArrayList<>();
@@ -161,6 +229,48 @@ public class ConcreteRule<TK,FV> implements Comparable<ConcreteRule<TK,FV>> {
     // this.isolationScore);
   }
 
+  /**
+   * Extract the deferred features of this rule and add them to <code>cachedFeatureList</code>.
+   * The isolation score is not changed. Not thread-safe.
+   * 
+   * @return True if features were extracted by this call. False if there were no 
+   * deferred features, or if they have already been extracted.
+   */
+  public boolean extractDeferredFeatures() {
+    if (deferredFeatures == null || hasDeferredFeatures) return false;
+    Featurizable<TK, FV> f = new Featurizable<>(deferredFeatures.sourceSequence, 
+        deferredFeatures.sourceInputProperties, this, deferredFeatures.sourceInputId);
+    List<FeatureValue<FV>> features = deferredFeatures.featurizer.deferredRuleFeaturize(f);
+    List<FeatureValue<FV>> featureList = new ArrayList<>(cachedFeatureList.size() + features.size());
+    featureList.addAll(cachedFeatureList);
+    for (FeatureValue<FV> feature : features) {
+      if ( ! feature.doNotCache) featureList.add(feature);
+    }
+    cachedFeatureList = featureList;
+    hasDeferredFeatures = true;
+    return true;
+  }
+  
+  /**
+   * Input of the deferred rule features.
+   */
+  private static class DeferredFeatures<TK,FV> {
+    private final FeatureExtractor<TK,FV> featurizer;
+    private final Sequence<TK> sourceSequence;
+    private final int sourceInputId;
+    private final InputProperties sourceInputProperties;
+    // The cached features without the deferred features
+    private List<FeatureValue<FV>> featureList;
+    
+    public DeferredFeatures(FeatureExtractor<TK,FV> featurizer, Sequence<TK> sourceSequence,
+        int sourceInputId, InputProperties sourceInputProperties) {
+      this.featurizer = featurizer;
+      this.sourceSequence = sourceSequence;
+      this.sourceInputId = sourceInputId;
+      this.sourceInputProperties = sourceInputProperties;
+    }
+  }
+
   @Override
   public String toString() {
     return String.format("%s ==> %s (%s) %f", abstractRule.source,
@@ -121,6 +121,7 @@ public class LexicalReorderingTable {
 
   final String filetype;
   private List<float[]> reorderingScores;
+  private QuantizedReorderingTable quantizedScores;
 
   public final ReorderingTypes[] positionalMapping;
   public final ConditionTypes conditionType;
@@ -128,22 +129,77 @@ public class LexicalReorderingTable {
   private final PhraseTable<IString> phraseTable;
 
   public float[] getReorderingScores(Rule<IString> rule) {
+    return getReorderingScores(reorderingId(rule));
+  }
+
+  /**
+   * Lookup id of a rule for {@link #contains(int)} and {@link #getScore(int, int)}.
+   * 
+   * @param rule
+   * @return
+   */
+  public int reorderingId(Rule<IString> rule) {
     int reorderingId = -1;
     if (conditionType == ConditionTypes.fe) {
       reorderingId = rule.id;
     }
-    reorderingId -= phraseTable.minRuleIndex();
-    reorderingId -= phraseTable.minRuleIndex();
+    return reorderingId - phraseTable.minRuleIndex();
+  }
+
+  /**
+   * True if the model has scores for this lookup id.
+   * 
+   * @param reorderingId
+   * @return
+   */
+  public boolean contains(int reorderingId) {
+    if (quantizedScores != null) return quantizedScores.contains(reorderingId);
+    return reorderingId >= 0 && reorderingId < reorderingScores.size() && reorderingScores.get(reorderingId) != null;
+  }
+
+  /**
+   * Score of a reordering class. Unlike {@link #getReorderingScores(Rule)}, this does
+   * not decode the other classes of a quantized model. The lookup id must be in the model.
+   * 
+   * @param reorderingId
+   * @param classId
+   * @return
+   */
+  public float getScore(int reorderingId, int classId) {
+    if (quantizedScores != null) return quantizedScores.getScore(reorderingId, classId);
+    return reorderingScores.get(reorderingId)[classId];
+  }
+
+  /**
+   * Lookup by rule id relative to the minimum rule index of the phrase table.
+   * 
+   * @param reorderingId
+   * @return
+   */
+  float[] getReorderingScores(int reorderingId) {
+    if (quantizedScores != null) return quantizedScores.getReorderingScores(reorderingId);
     return reorderingId >= 0 && reorderingId < reorderingScores.size() ? reorderingScores.get(reorderingId) : null;
   }
 
   public LexicalReorderingTable(String filename, PhraseTable<IString> phraseTable, String desiredFileType)
       throws IOException {
     this.phraseTable = phraseTable;
-    this.reorderingScores = new ArrayList<>(phraseTable.size());
-    for (int i = 0, sz = phraseTable.size(); i < sz; ++i) this.reorderingScores.add(null);
-    
-    String filetype = init(filename, desiredFileType);
+    final String filetype;
+    if (QuantizedReorderingTable.isBinary(filename)) {
+      // Quantized scores are mapped, not loaded
+      this.reorderingScores = null;
+      this.quantizedScores = QuantizedReorderingTable.load(filename);
+      if (quantizedScores.size() > phraseTable.size() - phraseTable.minRuleIndex()) {
+        throw new RuntimeException(String.format(
+            "Reordering file '%s' has more rules than the phrase table", filename));
+      }
+      filetype = quantizedScores.getFiletype();
+    } else {
+      this.quantizedScores = null;
+      this.reorderingScores = new ArrayList<>(phraseTable.size());
+      for (int i = 0, sz = phraseTable.size(); i < sz; ++i) this.reorderingScores.add(null);
+      filetype = init(filename, desiredFileType);
+    }
     if (!desiredFileType.equals(filetype)) {
       throw new RuntimeException(String.format(
           "Reordering file '%s' of type %s not %s\n", filename, filetype,
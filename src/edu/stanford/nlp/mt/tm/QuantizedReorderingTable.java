@@ -0,0 +1,346 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.IntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.util.StringUtils;
+
+/**
+ * Binary, quantized scores of a lexicalized reordering model. The scores of
+ * each reordering class are quantized to 8 bits with a per-class codebook, and
+ * the codes are memory-mapped and indexed by rule id (relative to the
+ * <code>minRuleIndex()</code> of the phrase table). No per-rule objects are
+ * created.
+ *
+ * A class with at most 255 distinct scores is stored losslessly. Otherwise the
+ * sorted scores are split into 255 equal-frequency bins, and each score is
+ * replaced by the nearest bin mean.
+ *
+ * Binary format:
+ * <pre>
+ *   int magic, int version, long codesOffset, UTF filetype, int numClasses,
+ *   int numRules, numClasses x 255 float codebook, numRules x numClasses byte code
+ * </pre>
+ *
+ * A rule that is not in the reordering model has code 255 for the first class.
+ * Both {@link LexicalReorderingTable} and {@link ExtendedLexicalReorderingTable}
+ * load this format transparently. Use <code>main()</code> to convert a text
+ * reordering model.
+ */
+public class QuantizedReorderingTable {
+
+  private static final Logger logger = LogManager.getLogger(QuantizedReorderingTable.class);
+
+  private static final int MAGIC = 0x514c5231;
+  private static final int VERSION = 1;
+
+  public static final int NUM_LEVELS = 255;
+  private static final int ABSENT = 0xff;
+
+  private final String filetype;
+  private final int numClasses;
+  private final int numRules;
+  private final float[][] codebooks;
+  private final ByteBuffer codes;
+
+  private QuantizedReorderingTable(String filetype, int numClasses, int numRules, float[][] codebooks,
+      ByteBuffer codes) {
+    this.filetype = filetype;
+    this.numClasses = numClasses;
+    this.numRules = numRules;
+    this.codebooks = codebooks;
+    this.codes = codes;
+  }
+
+  /**
+   * True if the file is in the binary format.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isBinary(String filename) {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Map a binary reordering model.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static QuantizedReorderingTable load(String filename) throws IOException {
+    final long codesOffset;
+    final String filetype;
+    final int numClasses;
+    final int numRules;
+    final float[][] codebooks;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(filename)))) {
+      if (in.readInt() != MAGIC) throw new IOException("Not a quantized reordering model: " + filename);
+      if (in.readInt() != VERSION) throw new IOException("Unsupported reordering model version: " + filename);
+      codesOffset = in.readLong();
+      filetype = in.readUTF();
+      numClasses = in.readInt();
+      numRules = in.readInt();
+      codebooks = new float[numClasses][NUM_LEVELS];
+      for (float[] codebook : codebooks) {
+        for (int i = 0; i < NUM_LEVELS; ++i) codebook[i] = in.readFloat();
+      }
+    }
+    final long numCodes = (long) numRules * numClasses;
+    if (numCodes > Integer.MAX_VALUE) throw new IOException("Too many entries to map: " + filename);
+    try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+      // The mapping stays valid after the file is closed
+      ByteBuffer codes = file.getChannel().map(FileChannel.MapMode.READ_ONLY, codesOffset, numCodes);
+      logger.info("Mapped reordering model {} ({} rules, type {})", filename, numRules, filetype);
+      return new QuantizedReorderingTable(filetype, numClasses, numRules, codebooks, codes);
+    }
+  }
+
+  /**
+   * Quantize and write a reordering model.
+   *
+   * @param filename
+   * @param filetype The reordering model type, e.g., msd-bidirectional-fe.
+   * @param numClasses Number of reordering classes.
+   * @param numRules Number of rule ids.
+   * @param scores The scores of a rule id, or null if the rule is not in the model.
+   * @throws IOException
+   */
+  public static void write(String filename, String filetype, int numClasses, int numRules,
+      IntFunction<float[]> scores) throws IOException {
+    // Collect the scores of each class to build the codebooks
+    int numEntries = 0;
+    for (int i = 0; i < numRules; ++i) {
+      if (scores.apply(i) != null) ++numEntries;
+    }
+    final float[][] codebooks = new float[numClasses][];
+    for (int c = 0; c < numClasses; ++c) {
+      float[] values = new float[numEntries];
+      for (int i = 0, j = 0; i < numRules; ++i) {
+        float[] s = scores.apply(i);
+        if (s != null) values[j++] = s[c];
+      }
+      codebooks[c] = codebook(values);
+    }
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerOut = new DataOutputStream(header);
+    headerOut.writeUTF(filetype);
+    headerOut.writeInt(numClasses);
+    headerOut.writeInt(numRules);
+    for (float[] codebook : codebooks) {
+      for (float level : codebook) headerOut.writeFloat(level);
+    }
+    headerOut.close();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(filename)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(16L + header.size());
+      header.writeTo(out);
+      for (int i = 0; i < numRules; ++i) {
+        float[] s = scores.apply(i);
+        for (int c = 0; c < numClasses; ++c) {
+          if (s == null) {
+            out.writeByte(ABSENT);
+          } else {
+            if (s.length != numClasses) {
+              throw new IllegalArgumentException(String.format("Rule %d has %d scores, not %d", i, s.length, numClasses));
+            }
+            out.writeByte(encode(codebooks[c], s[c]));
+          }
+        }
+      }
+    }
+    logger.info("Wrote reordering model {} ({} of {} rules)", filename, numEntries, numRules);
+  }
+
+  /**
+   * Build the sorted codebook for the scores of one class.
+   *
+   * @param values
+   * @return
+   */
+  static float[] codebook(float[] values) {
+    final float[] codebook = new float[NUM_LEVELS];
+    if (values.length == 0) return codebook;
+    final float[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int numDistinct = 1;
+    for (int i = 1; i < sorted.length; ++i) {
+      if (Float.compare(sorted[i], sorted[i-1]) != 0) ++numDistinct;
+    }
+    if (numDistinct <= NUM_LEVELS) {
+      // Lossless
+      codebook[0] = sorted[0];
+      for (int i = 1, j = 1; i < sorted.length; ++i) {
+        if (Float.compare(sorted[i], sorted[i-1]) != 0) codebook[j++] = sorted[i];
+      }
+      Arrays.fill(codebook, numDistinct, NUM_LEVELS, sorted[sorted.length - 1]);
+    } else {
+      // Equal-frequency bins
+      for (int b = 0; b < NUM_LEVELS; ++b) {
+        final int start = (int) ((long) b * sorted.length / NUM_LEVELS);
+        final int end = (int) ((long) (b + 1) * sorted.length / NUM_LEVELS);
+        double sum = 0.0;
+        for (int i = start; i < end; ++i) sum += sorted[i];
+        codebook[b] = (float) (sum / (end - start));
+      }
+    }
+    return codebook;
+  }
+
+  /**
+   * Index of the nearest level in a sorted codebook.
+   *
+   * @param codebook
+   * @param value
+   * @return
+   */
+  static int encode(float[] codebook, float value) {
+    int i = Arrays.binarySearch(codebook, value);
+    if (i >= 0) return i;
+    i = -i - 1;
+    if (i == 0) return 0;
+    if (i == codebook.length) return codebook.length - 1;
+    return value - codebook[i-1] <= codebook[i] - value ? i - 1 : i;
+  }
+
+  /**
+   * The reordering model type, e.g., msd-bidirectional-fe.
+   *
+   * @return
+   */
+  public String getFiletype() { return filetype; }
+
+  /**
+   * Number of reordering classes.
+   *
+   * @return
+   */
+  public int numClasses() { return numClasses; }
+
+  /**
+   * Number of rule ids.
+   *
+   * @return
+   */
+  public int size() { return numRules; }
+
+  /**
+   * True if the model has scores for this rule id.
+   *
+   * @param reorderingId
+   * @return
+   */
+  public boolean contains(int reorderingId) {
+    return reorderingId >= 0 && reorderingId < numRules
+        && (codes.get(reorderingId * numClasses) & 0xff) != ABSENT;
+  }
+
+  /**
+   * Score of a reordering class. The rule id must be in the model.
+   *
+   * @param reorderingId
+   * @param classId
+   * @return
+   */
+  public float getScore(int reorderingId, int classId) {
+    return codebooks[classId][codes.get(reorderingId * numClasses + classId) & 0xff];
+  }
+
+  /**
+   * Decode the scores of a rule id.
+   *
+   * @param reorderingId
+   * @return The scores, or null if the rule is not in the model.
+   */
+  public float[] getReorderingScores(int reorderingId) {
+    if ( ! contains(reorderingId)) return null;
+    float[] scores = new float[numClasses];
+    for (int c = 0; c < numClasses; ++c) scores[c] = getScore(reorderingId, c);
+    return scores;
+  }
+
+  private static Map<String, Integer> optionDefs() {
+    Map<String,Integer> optionDefs = new HashMap<>();
+    optionDefs.put("type", 1);
+    return optionDefs;
+  }
+
+  private static String usage() {
+    StringBuilder sb = new StringBuilder();
+    String nl = System.getProperty("line.separator");
+    sb.append("Usage: java ").append(QuantizedReorderingTable.class.getName())
+    .append(" OPTS phrase-table reordering-table filetype out-file").append(nl);
+    sb.append(nl).append(" Options:").append(nl)
+    .append("   -type type     : classic or hierarchical. (default: classic)").append(nl);
+    return sb.toString();
+  }
+
+  /**
+   * Convert a text reordering model. Rule ids are assigned by the phrase table,
+   * so the binary model must be used with the same phrase table.
+   *
+   * @param args
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4 || args[0].equals("-h") || args[0].equals("-help")) {
+      System.err.print(usage());
+      System.exit(-1);
+    }
+    Properties options = StringUtils.argsToProperties(args, optionDefs());
+    String[] positionalArgs = options.getProperty("").split("\\s+");
+    if (positionalArgs.length != 4) {
+      System.err.print(usage());
+      System.exit(-1);
+    }
+    final String modelType = options.getProperty("type", "classic");
+    final String phraseTableFile = positionalArgs[0];
+    final String reorderingFile = positionalArgs[1];
+    final String filetype = positionalArgs[2];
+    final String outputFile = positionalArgs[3];
+
+    final PhraseTable<IString> phraseTable = (PhraseTable<IString>) TranslationModelFactory
+        .<String> factory(phraseTableFile);
+    final int numRules = phraseTable.size() - phraseTable.minRuleIndex();
+    if (modelType.equals("classic")) {
+      LexicalReorderingTable table = new LexicalReorderingTable(reorderingFile, phraseTable, filetype);
+      write(outputFile, table.filetype, table.positionalMapping.length, numRules, table::getReorderingScores);
+
+    } else if (modelType.equals("hierarchical")) {
+      ExtendedLexicalReorderingTable table = new ExtendedLexicalReorderingTable(reorderingFile, phraseTable, filetype);
+      write(outputFile, table.filetype, table.positionalMapping.length, numRules, table::getReorderingScores);
+
+    } else {
+      System.err.print(usage());
+      System.exit(-1);
+    }
+  }
+}
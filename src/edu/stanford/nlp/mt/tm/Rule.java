@@ -20,6 +20,12 @@ public class Rule<T> implements Comparable<Rule<T>>{
    * The id of this rule in the phrase table.
    */
   public final int id;
+
+  /**
+   * True if <code>id</code> identifies this rule in its phrase table. False
+   * for synthetic rules.
+   */
+  public final boolean hasUniqueId;
   
   /**
    * The phrase table rule scores.
@@ -72,7 +78,7 @@ public class Rule<T> implements Comparable<Rule<T>>{
   public Rule(float[] scores, String[] phraseScoreNames,
       Sequence<T> target, Sequence<T> source,
       PhraseAlignment alignment, String phraseTableName) {
-    this(0, scores, phraseScoreNames, target, source, alignment, phraseTableName);
+    this(0, false, scores, phraseScoreNames, target, source, alignment, phraseTableName);
   }
 
   /**
@@ -89,7 +95,14 @@ public class Rule<T> implements Comparable<Rule<T>>{
   public Rule(int id, float[] scores, String[] phraseScoreNames,
       Sequence<T> target, Sequence<T> source,
       PhraseAlignment alignment, String phraseTableName) {
+    this(id, true, scores, phraseScoreNames, target, source, alignment, phraseTableName);
+  }
+
+  private Rule(int id, boolean hasUniqueId, float[] scores, String[] phraseScoreNames,
+      Sequence<T> target, Sequence<T> source,
+      PhraseAlignment alignment, String phraseTableName) {
     this.id = id;
+    this.hasUniqueId = hasUniqueId;
     this.alignment = alignment;
     this.scores = Arrays.copyOf(scores, scores.length);
     this.target = target;
@@ -0,0 +1,384 @@
+package edu.stanford.nlp.mt.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import edu.stanford.nlp.mt.util.LineIndexedCorpus;
+import edu.stanford.nlp.util.Triple;
+import it.unimi.dsi.fastutil.ints.Int2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Feature Decay Algorithm (FDA) bi-text selection over a pre-indexed pool.
+ *
+ * Same selection as <code>FDACorpusSelection</code>, but the pool is tokenized
+ * once. Each sentence is stored as a list of (feature id, count) postings over the
+ * test set n-grams. Feature values and counts are kept in primitive arrays. Stale
+ * candidates at the top of the queue are re-scored in parallel batches (lazy greedy).
+ * A candidate is selected when it is at the top of the queue and its score is current,
+ * which is the selection of the sequential algorithm. Exact score ties are broken
+ * by line number.
+ */
+public class IndexedFDACorpusSelection {
+  static final int NGRAM_ORDER = FDACorpusSelection.NGRAM_ORDER;
+  static final int VERBOSE = 1;
+  static final boolean LENGTH_NORM = FDACorpusSelection.LENGTH_NORM;
+
+  static final int DEFAULT_BATCH_SIZE = 64;
+  private static final int INDEX_CHUNK_SIZE = 100000;
+
+  // Test set vocabulary and n-gram trie. A node is keyed on (parent node, token id).
+  private final Object2IntOpenHashMap<String> vocabulary = new Object2IntOpenHashMap<>();
+  private final Long2IntOpenHashMap features = new Long2IntOpenHashMap();
+
+  // Pool index: interleaved (feature id, count) postings and lengths
+  private final int[][] postings;
+  private final int[] lengths;
+
+  private final long sizeU;
+  private final double[] cntfU;
+  private final int[] cntfL;
+  private final double[] fvalue;
+
+  // Lazy greedy state. A score is current if it was computed after the last selection.
+  private final double[] score;
+  private final int[] scoreVersion;
+  private final int[] heap;
+  private int heapSize;
+  private int numSelected = 0;
+
+  private final ForkJoinPool pool;
+  private final int batchSize;
+  private final int[] batch;
+  private final LineIndexedCorpus bitextFr;
+  private final LineIndexedCorpus bitextEn;
+
+  long rescoredCount = 0;
+
+  static public void usage() {
+    System.err.printf("Usage: java %s [-threads num] [-batch num] selection_size bitext_tgt bitext_src test_src selected_tgt selected_src [selected_lines]%n",
+        IndexedFDACorpusSelection.class.getName());
+  }
+
+  /**
+   * Constructor. Indexes the pool and computes the initial scores.
+   *
+   * @param bitextEn Target side of the pool, or null for monolingual selection.
+   * @param bitextFr Source side of the pool.
+   * @param testFr
+   * @param numThreads
+   * @param batchSize Number of candidates to re-score in parallel.
+   */
+  public IndexedFDACorpusSelection(LineIndexedCorpus bitextEn, LineIndexedCorpus bitextFr,
+      LineIndexedCorpus testFr, int numThreads, int batchSize) {
+    this.bitextEn = bitextEn;
+    this.bitextFr = bitextFr;
+    this.pool = new ForkJoinPool(numThreads);
+    this.batchSize = batchSize;
+    this.batch = new int[batchSize];
+    vocabulary.defaultReturnValue(-1);
+    features.defaultReturnValue(-1);
+
+    // construct F
+    if (VERBOSE>=1) { System.err.println("# Constructing test set features ..."); }
+    for (String line : testFr) {
+      int[] ids = tokenize(line, true);
+      for (int i = 0; i < ids.length; ++i) {
+        for (int j = 0, node = -1; j < NGRAM_ORDER && i+j < ids.length; ++j) {
+          long key = key(node, ids[i+j]);
+          node = features.get(key);
+          if (node < 0) {
+            node = features.size();
+            features.put(key, node);
+          }
+        }
+      }
+    }
+    final int numFeatures = features.size();
+    if (VERBOSE>=1) { System.err.println("Done. Feature size = " + numFeatures); }
+
+    // index the pool
+    if (VERBOSE>=1) { System.err.println("# Indexing the pool ..."); }
+    final int numLines = bitextFr.size();
+    postings = new int[numLines][];
+    lengths = new int[numLines];
+    String[] chunk = new String[INDEX_CHUNK_SIZE];
+    int chunkStart = 0, chunkSize = 0;
+    for (String line : bitextFr) {
+      chunk[chunkSize++] = line;
+      if (chunkSize == chunk.length) {
+        indexChunk(chunk, chunkStart, chunkSize);
+        chunkStart += chunkSize;
+        chunkSize = 0;
+        if (VERBOSE>=1) { System.err.print(" (" + chunkStart/1000 + "K) "); }
+      }
+    }
+    indexChunk(chunk, chunkStart, chunkSize);
+
+    // collect cnt(f,U) values and |U|
+    cntfU = new double[numFeatures];
+    long sizeU = 0;
+    for (int i = 0; i < numLines; ++i) {
+      sizeU += lengths[i];
+      for (int k = 0; k < postings[i].length; k += 2) cntfU[postings[i][k]] += postings[i][k+1];
+    }
+    this.sizeU = sizeU;
+    if (VERBOSE>=1) { System.err.println("Done. Num lines = " + numLines + ". Num total tokens = " + sizeU + "."); }
+
+    // initial feature weights
+    fvalue = new double[numFeatures];
+    cntfL = new int[numFeatures];
+    for (int f = 0; f < numFeatures; ++f) fvalue[f] = init(f);
+
+    // score sentences using initial feature weights
+    if (VERBOSE>=1) { System.err.println("# Computing sent scores ..."); }
+    score = new double[numLines];
+    scoreVersion = new int[numLines];
+    run(() -> IntStream.range(0, numLines).parallel().forEach(i -> score[i] = score(i)));
+    heap = new int[numLines];
+    for (int i = 0; i < numLines; ++i) push(i);
+    if (VERBOSE>=1) { System.err.println("Done."); }
+  }
+
+  private static long key(int parent, int tokenId) {
+    return ((long) (parent + 1) << 32) | tokenId;
+  }
+
+  /**
+   * Map the tokens of a line to vocabulary ids. Tokens are split as in
+   * <code>CoverageChecker.countNgrams()</code>. Unknown tokens are -1 unless they are added.
+   */
+  private int[] tokenize(String line, boolean addToVocabulary) {
+    String[] toks = line.split("\\s");
+    int[] ids = new int[toks.length];
+    for (int i = 0; i < toks.length; ++i) {
+      ids[i] = vocabulary.getInt(toks[i]);
+      if (ids[i] < 0 && addToVocabulary) {
+        ids[i] = vocabulary.size();
+        vocabulary.put(toks[i], ids[i]);
+      }
+    }
+    return ids;
+  }
+
+  private void indexChunk(String[] chunk, int chunkStart, int chunkSize) {
+    run(() -> IntStream.range(0, chunkSize).parallel().forEach(k -> {
+      final String line = chunk[k];
+      lengths[chunkStart + k] = line.split("\\s+").length;
+      postings[chunkStart + k] = index(line);
+    }));
+  }
+
+  /**
+   * Postings of the test set n-grams in a line in order of first occurrence.
+   */
+  private int[] index(String line) {
+    final int[] ids = tokenize(line, false);
+    Int2IntLinkedOpenHashMap counts = new Int2IntLinkedOpenHashMap();
+    for (int i = 0; i < ids.length; ++i) {
+      for (int j = 0, node = -1; j < NGRAM_ORDER && i+j < ids.length; ++j) {
+        if (ids[i+j] < 0) break;
+        node = features.get(key(node, ids[i+j]));
+        // The test set n-grams are closed under prefixes
+        if (node < 0) break;
+        counts.addTo(node, 1);
+      }
+    }
+    int[] posting = new int[2*counts.size()];
+    int k = 0;
+    for (int f : counts.keySet()) {
+      posting[k++] = f;
+      posting[k++] = counts.get(f);
+    }
+    return posting;
+  }
+
+  // Bicici and Yuret found that log inverse initialization, log(|U|/cnt(f,U)),
+  // improved run time performance by decreasing the number of tied segment
+  // scores
+  private double init(int f) {
+    return Math.log(sizeU) - Math.log(cntfU[f]);
+  }
+
+  // Bicici and Yuret found that reducing the feature weights by 1/n produced
+  // the best expected test set coverage
+  private double decay(int f) {
+    return init(f)/(1+cntfL[f]);
+  }
+
+  private double score(int id) {
+    final int[] posting = postings[id];
+    double s = 0.0;
+    for (int k = 0; k < posting.length; k += 2) s += fvalue[posting[k]] * posting[k+1];
+    return LENGTH_NORM ? s / lengths[id] : s;
+  }
+
+  /**
+   * Run a parallel task in the selection thread pool.
+   */
+  private void run(Runnable task) {
+    try {
+      pool.submit(task).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Select the next segment.
+   *
+   * @return (source, target, line number), or null if the pool is empty.
+   */
+  public Triple<String,String,Integer> getNextBest() {
+    while (heapSize > 0) {
+      final int top = heap[0];
+      if (scoreVersion[top] == numSelected) {
+        pop();
+        select(top);
+        return new Triple<String,String,Integer>(bitextFr.get(top), bitextEn == null ? null : bitextEn.get(top), top);
+      }
+
+      // re-score the stale candidates at the top of the queue
+      int n = 0;
+      while (n < batchSize && heapSize > 0 && scoreVersion[heap[0]] != numSelected) {
+        batch[n++] = pop();
+      }
+      final int batchLength = n;
+      if (batchLength == 1) {
+        score[batch[0]] = score(batch[0]);
+      } else {
+        run(() -> IntStream.range(0, batchLength).parallel().forEach(k -> score[batch[k]] = score(batch[k])));
+      }
+      for (int k = 0; k < batchLength; ++k) {
+        scoreVersion[batch[k]] = numSelected;
+        push(batch[k]);
+      }
+      rescoredCount += batchLength;
+    }
+    return null;
+  }
+
+  private void select(int id) {
+    final int[] posting = postings[id];
+    for (int k = 0; k < posting.length; k += 2) {
+      final int f = posting[k];
+      cntfL[f] += posting[k+1];
+      fvalue[f] = decay(f);
+    }
+    ++numSelected;
+  }
+
+  /**
+   * Queue order: higher score first, then lower line number.
+   */
+  private boolean before(int a, int b) {
+    return score[a] > score[b] || (score[a] == score[b] && a < b);
+  }
+
+  private void push(int id) {
+    int pos = heapSize++;
+    while (pos > 0) {
+      final int parent = (pos - 1) >>> 1;
+      if ( ! before(id, heap[parent])) break;
+      heap[pos] = heap[parent];
+      pos = parent;
+    }
+    heap[pos] = id;
+  }
+
+  private int pop() {
+    final int top = heap[0];
+    final int last = heap[--heapSize];
+    int pos = 0;
+    while (true) {
+      int child = 2*pos + 1;
+      if (child >= heapSize) break;
+      if (child + 1 < heapSize && before(heap[child+1], heap[child])) ++child;
+      if ( ! before(heap[child], last)) break;
+      heap[pos] = heap[child];
+      pos = child;
+    }
+    if (heapSize > 0) heap[pos] = last;
+    return top;
+  }
+
+  static public void main(String[] args) throws IOException {
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    int batchSize = DEFAULT_BATCH_SIZE;
+    List<String> positional = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("-threads") && i+1 < args.length) {
+        numThreads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-batch") && i+1 < args.length) {
+        batchSize = Integer.parseInt(args[++i]);
+      } else {
+        positional.add(args[i]);
+      }
+    }
+    if (positional.size() != 7 && positional.size() != 6) {
+      usage();
+      System.exit(-1);
+    }
+
+    int selectionSize = Integer.parseInt(positional.get(0));
+    String bitextEnFn = positional.get(1); // could be "" for monolingual
+    String bitextFrFn = positional.get(2);
+    String testFn = positional.get(3);
+    String selectedEnFn = positional.get(4); // could be "" for monolingual
+    String selectedFrFn = positional.get(5);
+    String selectedLines = (positional.size() == 7 ? positional.get(6) : null);
+
+    System.err.printf("# Opening %s\n", bitextFrFn);
+    LineIndexedCorpus bitextFr = new LineIndexedCorpus(bitextFrFn);
+    System.err.printf("# Opening %s\n", testFn);
+    LineIndexedCorpus testFr = new LineIndexedCorpus(testFn);
+
+    LineIndexedCorpus bitextEn = null;
+    PrintWriter selectedEn = null;
+    boolean isMono = bitextEnFn.equals("");
+    if (!isMono) {
+      System.err.printf("Opening %s\n", bitextEnFn);
+      bitextEn = new LineIndexedCorpus(bitextEnFn);
+      if (bitextEn.size() != bitextFr.size()) {
+        System.err.printf("Bitext files %s and %s are of different lengths (%d vs %d)",
+            bitextEnFn, bitextFrFn, bitextEn.size(), bitextFr.size());
+      }
+      selectedEn = new PrintWriter(new OutputStreamWriter(
+          new FileOutputStream(selectedEnFn), "UTF-8"));
+    }
+
+    selectionSize = Math.min(selectionSize, bitextFr.size());
+    PrintWriter selectedFr = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(selectedFrFn), "UTF-8"));
+    PrintWriter selectedLn = (selectedLines == null ? null :
+      new PrintWriter(new OutputStreamWriter(new FileOutputStream(
+          selectedLines), "UTF-8")));
+
+    IndexedFDACorpusSelection fdacs = new IndexedFDACorpusSelection(bitextEn, bitextFr,
+        testFr, numThreads, batchSize);
+    if (VERBOSE>=1) { System.err.println("# Start selecting training instances ..."); }
+    for (int n = 0; n < selectionSize; n++) {
+      Triple<String,String,Integer> frEn = fdacs.getNextBest();
+      selectedFr.println(frEn.first());
+      if (!isMono) { selectedEn.println(frEn.second()); }
+      if (selectedLn != null) selectedLn.println(frEn.third());
+
+      if (VERBOSE>=1 && ((n+1)%1000==0)) { System.err.print(" (" + (n+1)/1000 + "K, rescored=" +
+          fdacs.rescoredCount + ")"); }
+    }
+    if (VERBOSE>=1) { System.err.println("Done! Num training instances selected = " + selectionSize +
+        ". Rescored count = " + fdacs.rescoredCount + "."); }
+
+    selectedFr.close();
+    if (!isMono) { selectedEn.close(); }
+    if (selectedLn != null) selectedLn.close();
+  }
+}
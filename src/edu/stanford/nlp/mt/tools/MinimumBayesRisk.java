@@ -9,21 +9,29 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
 import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.mt.metrics.BLEUMetric;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.util.BasicNBestList;
 import edu.stanford.nlp.mt.util.BasicNBestEntry;
 import edu.stanford.nlp.mt.util.IString;
-import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 
 /**
  * Minimum Bayes Risk decoding.
+ * 
+ * For BLEU, the n-gram counts of each hypothesis are extracted once per n-best list
+ * and the pairwise gains are computed from the count vectors. The gains are the same
+ * as those of the (smoothed, sentence-level) <code>BLEUMetric</code>. Two O(n)
+ * approximations are also supported: BLEU against the expected n-gram counts
+ * (DeNero et al. 2009) and linear BLEU (Tromble et al. 2008).
  *
  * @author danielcer
  *
@@ -34,6 +42,11 @@ public class MinimumBayesRisk {
 
   private static final double DEFAULT_SCALE = 0.1;
   private static final String DEFAULT_METRIC = "bleu";
+  private static final String DEFAULT_APPROXIMATION = "none";
+  // Linear BLEU parameters: unigram precision and precision decay ratio
+  private static final double DEFAULT_LINEAR_P = 0.85;
+  private static final double DEFAULT_LINEAR_R = 0.72;
+  private static final int BLEU_ORDER = BLEUMetric.DEFAULT_MAX_NGRAM_ORDER;
 
   private static String usage() {
     String nl = System.getProperty("line.separator");
@@ -43,7 +56,11 @@ public class MinimumBayesRisk {
     .append(" Options:").append(nl)
     .append("   -o str     : Orientation of the scores [risk|utility] (default: utility)").append(nl)
     .append("   -m str     : Metric (default: ").append(DEFAULT_METRIC).append(")").append(nl)
-    .append("   -s num     : Scale parameter (default: ").append(DEFAULT_SCALE).append(")").append(nl);
+    .append("   -s num     : Scale parameter (default: ").append(DEFAULT_SCALE).append(")").append(nl)
+    .append("   -a str     : BLEU approximation [none|expected|linear] (default: ").append(DEFAULT_APPROXIMATION).append(")").append(nl)
+    .append("   -p num     : Linear BLEU unigram precision (default: ").append(DEFAULT_LINEAR_P).append(")").append(nl)
+    .append("   -r num     : Linear BLEU precision ratio (default: ").append(DEFAULT_LINEAR_R).append(")").append(nl)
+    .append("   -t num     : Number of threads (default: all cores)").append(nl);
     return sb.toString();
   }
 
@@ -52,6 +69,10 @@ public class MinimumBayesRisk {
     argDefs.put("o", 1);
     argDefs.put("m", 1);
     argDefs.put("s", 1);
+    argDefs.put("a", 1);
+    argDefs.put("p", 1);
+    argDefs.put("r", 1);
+    argDefs.put("t", 1);
     return argDefs;
   }
 
@@ -59,11 +80,18 @@ public class MinimumBayesRisk {
     private final String metricName;
     private final boolean risk;
     private final double scale;
+    private final String approximation;
+    private final double linearP;
+    private final double linearR;
 
-    Processor(String in_metricName, boolean in_risk, double in_scale) {
+    Processor(String in_metricName, boolean in_risk, double in_scale, String in_approximation,
+        double in_linearP, double in_linearR) {
       metricName = in_metricName;
       risk = in_risk;
       scale = in_scale;
+      approximation = in_approximation;
+      linearP = in_linearP;
+      linearR = in_linearR;
     }
 
     // Class is threadsafe for concurrent calls.
@@ -72,6 +100,38 @@ public class MinimumBayesRisk {
     }
 
     public List<Pair<Double, String>> process(List<BasicNBestEntry> nbestlist) {
+      double[] nbestScores;
+      if (approximation.equals("expected")) {
+        nbestScores = new NgramStatistics(nbestlist).expectedBLEUGains(posteriors(nbestlist, scale));
+      } else if (approximation.equals("linear")) {
+        nbestScores = new NgramStatistics(nbestlist).linearBLEUGains(posteriors(nbestlist, scale), linearP, linearR);
+      } else if (isBLEU(metricName)) {
+        double[] weights = new double[nbestlist.size()];
+        for (int i = 0; i < weights.length; ++i) weights[i] = Math.exp(scale*nbestlist.get(i).getScore());
+        nbestScores = new NgramStatistics(nbestlist).pairwiseBLEUGains(weights);
+      } else {
+        nbestScores = pairwiseGains(nbestlist);
+      }
+      
+      int hypI = -1;
+      List<Pair<Double,String>>
+      rescoredNBestList = new ArrayList<Pair<Double,String>>(nbestlist.size());
+      for (BasicNBestEntry hyp : nbestlist) {
+        hypI++;
+        rescoredNBestList.add(new Pair<Double,String>(nbestScores[hypI], hyp.getLine()));
+      }
+      Collections.sort(rescoredNBestList);
+      if (!risk) {
+        Collections.reverse(rescoredNBestList);
+      }
+      return rescoredNBestList;
+    }
+
+    /**
+     * Expected gain of each hypothesis with a full metric evaluation for each pair
+     * of hypotheses.
+     */
+    private double[] pairwiseGains(List<BasicNBestEntry> nbestlist) {
       double[] nbestScores = new double[nbestlist.size()];
 
       for (BasicNBestEntry refTrans : nbestlist) 
@@ -100,21 +160,189 @@ public class MinimumBayesRisk {
         }
         }
       }
-      int hypI = -1;
-      List<Pair<Double,String>>
-      rescoredNBestList = new ArrayList<Pair<Double,String>>(nbestlist.size());
-      for (BasicNBestEntry hyp : nbestlist) {
-        hypI++;
-        rescoredNBestList.add(new Pair<Double,String>(nbestScores[hypI], hyp.getLine()));
+      return nbestScores;
+    }
+  }
+
+  /**
+   * The metrics that are computed by <code>NgramStatistics</code>. With a single
+   * reference, both are the smoothed sentence-level BLEU.
+   */
+  private static boolean isBLEU(String metricName) {
+    return metricName.equals("bleu") || metricName.equals("smoothbleu");
+  }
+
+  /**
+   * Normalized posterior distribution over an n-best list.
+   */
+  static double[] posteriors(List<BasicNBestEntry> nbestlist, double scale) {
+    double[] p = new double[nbestlist.size()];
+    double max = Double.NEGATIVE_INFINITY;
+    for (BasicNBestEntry entry : nbestlist) max = Math.max(max, scale*entry.getScore());
+    double z = 0.0;
+    for (int i = 0; i < p.length; ++i) {
+      p[i] = Math.exp(scale*nbestlist.get(i).getScore() - max);
+      z += p[i];
+    }
+    for (int i = 0; i < p.length; ++i) p[i] /= z;
+    return p;
+  }
+
+  /**
+   * N-gram count vectors of the hypotheses in an n-best list. N-grams are mapped to
+   * integer ids, and each vector is sorted by id so that the clipped counts of two
+   * hypotheses can be computed with a merge.
+   */
+  static class NgramStatistics {
+    private final int numHyps;
+    private final int[][] ids;
+    private final int[][] counts;
+    private final int[] lengths;
+    // N-gram order minus one of each id
+    private final int[] ngramOrder;
+
+    NgramStatistics(List<BasicNBestEntry> nbestlist) {
+      numHyps = nbestlist.size();
+      ids = new int[numHyps][];
+      counts = new int[numHyps][];
+      lengths = new int[numHyps];
+      Object2IntOpenHashMap<Sequence<IString>> index = new Object2IntOpenHashMap<>();
+      index.defaultReturnValue(-1);
+      List<Integer> orders = new ArrayList<>();
+      for (int h = 0; h < numHyps; ++h) {
+        Sequence<IString> tokens = nbestlist.get(h).getTokens();
+        lengths[h] = tokens.size();
+        Int2IntOpenHashMap hypCounts = new Int2IntOpenHashMap();
+        for (int i = 0; i < tokens.size(); ++i) {
+          for (int n = 1; n <= BLEU_ORDER && i + n <= tokens.size(); ++n) {
+            Sequence<IString> ngram = tokens.subsequence(i, i + n);
+            int id = index.getInt(ngram);
+            if (id < 0) {
+              id = index.size();
+              index.put(ngram, id);
+              orders.add(n - 1);
+            }
+            hypCounts.addTo(id, 1);
+          }
+        }
+        ids[h] = hypCounts.keySet().toIntArray();
+        Arrays.sort(ids[h]);
+        counts[h] = new int[ids[h].length];
+        for (int k = 0; k < ids[h].length; ++k) counts[h][k] = hypCounts.get(ids[h][k]);
       }
-      Collections.sort(rescoredNBestList);
-      if (!risk) {
-        Collections.reverse(rescoredNBestList);
+      ngramOrder = new int[orders.size()];
+      for (int i = 0; i < ngramOrder.length; ++i) ngramOrder[i] = orders.get(i);
+    }
+
+    /**
+     * Exact MBR: gain(h) = sum_r w_r BLEU(h; r). O(n^2) merges of count vectors.
+     *
+     * @param weights Posterior weight of each hypothesis as a reference.
+     * @return
+     */
+    double[] pairwiseBLEUGains(double[] weights) {
+      double[] gains = new double[numHyps];
+      double[] matches = new double[BLEU_ORDER];
+      for (int r = 0; r < numHyps; ++r) {
+        final double refLength = (int) (BLEUMetric.LENGTH_BIAS * lengths[r]);
+        for (int h = 0; h < numHyps; ++h) {
+          Arrays.fill(matches, 0.0);
+          final int[] hIds = ids[h], rIds = ids[r];
+          for (int i = 0, j = 0; i < hIds.length && j < rIds.length; ) {
+            if (hIds[i] < rIds[j]) {
+              ++i;
+            } else if (hIds[i] > rIds[j]) {
+              ++j;
+            } else {
+              matches[ngramOrder[hIds[i]]] += Math.min(counts[h][i], counts[r][j]);
+              ++i;
+              ++j;
+            }
+          }
+          gains[h] += smoothBLEU(matches, lengths[h], refLength) * weights[r];
+        }
       }
-      return rescoredNBestList;
+      return gains;
+    }
+
+    /**
+     * BLEU of each hypothesis against the expected n-gram counts and the expected
+     * length. O(n).
+     *
+     * @param posteriors Normalized posterior distribution.
+     * @return
+     */
+    double[] expectedBLEUGains(double[] posteriors) {
+      double[] expectedCounts = new double[ngramOrder.length];
+      double expectedLength = 0.0;
+      for (int e = 0; e < numHyps; ++e) {
+        expectedLength += posteriors[e] * lengths[e];
+        for (int k = 0; k < ids[e].length; ++k) expectedCounts[ids[e][k]] += posteriors[e] * counts[e][k];
+      }
+      final double refLength = BLEUMetric.LENGTH_BIAS * expectedLength;
+      double[] gains = new double[numHyps];
+      double[] matches = new double[BLEU_ORDER];
+      for (int h = 0; h < numHyps; ++h) {
+        Arrays.fill(matches, 0.0);
+        for (int k = 0; k < ids[h].length; ++k) {
+          matches[ngramOrder[ids[h][k]]] += Math.min(counts[h][k], expectedCounts[ids[h][k]]);
+        }
+        gains[h] = smoothBLEU(matches, lengths[h], refLength);
+      }
+      return gains;
+    }
+
+    /**
+     * Linear BLEU: gain(h) = theta_0 |h| + sum_w theta_|w| c_w(h) p(w), where p(w)
+     * is the posterior probability that n-gram w occurs in the translation. O(n).
+     *
+     * @param posteriors Normalized posterior distribution.
+     * @param p Unigram precision.
+     * @param r Ratio of the precisions of successive n-gram orders.
+     * @return
+     */
+    double[] linearBLEUGains(double[] posteriors, double p, double r) {
+      double[] ngramPosteriors = new double[ngramOrder.length];
+      for (int e = 0; e < numHyps; ++e) {
+        for (int id : ids[e]) ngramPosteriors[id] += posteriors[e];
+      }
+      final double theta0 = -1.0;
+      double[] theta = new double[BLEU_ORDER];
+      for (int n = 0; n < BLEU_ORDER; ++n) theta[n] = 1.0 / (BLEU_ORDER * p * Math.pow(r, n));
+      double[] gains = new double[numHyps];
+      for (int h = 0; h < numHyps; ++h) {
+        double gain = theta0 * lengths[h];
+        for (int k = 0; k < ids[h].length; ++k) {
+          final int id = ids[h][k];
+          gain += theta[ngramOrder[id]] * counts[h][k] * ngramPosteriors[id];
+        }
+        gains[h] = gain;
+      }
+      return gains;
     }
   }
 
+  /**
+   * Smoothed sentence-level BLEU from clipped match counts, as in
+   * <code>BLEUMetric</code>.
+   * 
+   * @param matches Clipped match counts by n-gram order.
+   * @param length Hypothesis length.
+   * @param refLength Effective reference length.
+   * @return
+   */
+  static double smoothBLEU(double[] matches, int length, double refLength) {
+    final double logBP = length < refLength ? 1 - refLength / length : 0.0;
+    double logPrecision = 0.0;
+    for (int i = 0; i < BLEU_ORDER; ++i) {
+      final int possible = Math.max(length - i, 0);
+      final double precision = i == 0 ? matches[i] / possible : (matches[i] + 1.0) / (possible + 1.0);
+      logPrecision += (1.0 / BLEU_ORDER) * Math.log(precision);
+    }
+    final double score = Math.exp(logBP + logPrecision);
+    return Double.isNaN(score) ? 0.0 : score;
+  }
+
   /**
    * 
    * @param args
@@ -131,11 +359,20 @@ public class MinimumBayesRisk {
     final String orientation = options.getProperty("o", "utility");
     final boolean risk = "risk".equals(orientation);
     final String metricName = options.getProperty("m", DEFAULT_METRIC);
+    final String approximation = options.getProperty("a", DEFAULT_APPROXIMATION);
+    final double linearP = PropertiesUtils.getDouble(options, "p", DEFAULT_LINEAR_P);
+    final double linearR = PropertiesUtils.getDouble(options, "r", DEFAULT_LINEAR_R);
+    final int numThreads = PropertiesUtils.getInt(options, "t", 0);
+    if ( ! approximation.equals(DEFAULT_APPROXIMATION) && ! isBLEU(metricName)) {
+      System.err.println("BLEU approximations require the bleu metric");
+      System.exit(-1);
+    }
 
     final String filename = options.getProperty("");
     BasicNBestList nbestlists = new BasicNBestList(filename);
     MulticoreWrapper<List<BasicNBestEntry>, List<Pair<Double, String>>> wrapper = 
-      new MulticoreWrapper<List<BasicNBestEntry>, List<Pair<Double, String>>>(0, new Processor(metricName, risk, scale), true);
+      new MulticoreWrapper<List<BasicNBestEntry>, List<Pair<Double, String>>>(numThreads, 
+          new Processor(metricName, risk, scale, approximation, linearP, linearR), true);
     for (List<BasicNBestEntry> nbestlist : nbestlists) {
       wrapper.put(nbestlist);
       while (wrapper.peek()) {
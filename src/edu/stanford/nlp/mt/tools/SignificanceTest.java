@@ -1,18 +1,26 @@
 package edu.stanford.nlp.mt.tools;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
 
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.IncrementalEvaluationMetric;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
+import edu.stanford.nlp.mt.metrics.SufficientStatisticsMetric;
+import edu.stanford.nlp.mt.stats.ConfidenceIntervals;
+import edu.stanford.nlp.mt.stats.Resampling;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
 
 
 /**
@@ -22,6 +30,12 @@ import edu.stanford.nlp.mt.util.Sequence;
  * Evaluation and Significance Testing for MT, in the Workshop on Intrinsic 
  * and Extrinsic Evaluation Measures for Machine Translation
  * 
+ * Also supports the paired bootstrap test of Koehn (2004). Metrics that
+ * implement {@link SufficientStatisticsMetric} are scored once per segment and
+ * the samples are scored in parallel by summing statistics. Other metrics
+ * re-score each sample on a single thread; for the bootstrap, the metric is
+ * rebuilt over the references of each sample.
+ * 
  * @author danielcer
  * 
  */
@@ -30,6 +44,8 @@ public class SignificanceTest {
   // Smallest possible p-value is 1/5000, which is well below p<0.001
   static public final int SAMPLES = 5000;
 
+  private static final long DEFAULT_SEED = 8682522807148012L;
+
   static double scoreList(List<Sequence<IString>> transList,
       EvaluationMetric<IString, String> eval) {
     IncrementalEvaluationMetric<IString, String> incEval = eval
@@ -41,6 +57,68 @@ public class SignificanceTest {
     return incEval.score();
   }
 
+  /**
+   * Per-segment sufficient statistics of a system output.
+   */
+  static double[][] sufficientStatistics(List<Sequence<IString>> transList,
+      SufficientStatisticsMetric<IString> metric) {
+    double[][] stats = new double[transList.size()][];
+    for (int i = 0; i < stats.length; ++i) {
+      stats[i] = metric.sufficientStatistics(i, transList.get(i));
+    }
+    return stats;
+  }
+
+  /**
+   * Scorer that re-scores both resampled corpora with the incremental metric.
+   * Position <code>i</code> of a bootstrap sample holds segment
+   * <code>segments[i]</code>, so a metric over the references of that sample is
+   * built whenever the segments are not in their original order.
+   */
+  static Resampling.PairedScorer rescoringScorer(List<Sequence<IString>> system1Trans,
+      List<Sequence<IString>> system2Trans, List<List<Sequence<IString>>> references,
+      EvaluationMetric<IString, String> eval,
+      Function<List<List<Sequence<IString>>>, EvaluationMetric<IString, String>> metricFactory) {
+    return (segments, swapped) -> {
+      List<Sequence<IString>> sample1Trans = new ArrayList<>(segments.length);
+      List<Sequence<IString>> sample2Trans = new ArrayList<>(segments.length);
+      List<List<Sequence<IString>>> sampleReferences = new ArrayList<>(segments.length);
+      boolean isIdentity = true;
+      for (int i = 0; i < segments.length; i++) {
+        Sequence<IString> trans1 = system1Trans.get(segments[i]);
+        Sequence<IString> trans2 = system2Trans.get(segments[i]);
+        sample1Trans.add(swapped[i] ? trans2 : trans1);
+        sample2Trans.add(swapped[i] ? trans1 : trans2);
+        sampleReferences.add(references.get(segments[i]));
+        isIdentity &= segments[i] == i;
+      }
+      EvaluationMetric<IString, String> sampleEval = isIdentity ? eval : metricFactory.apply(sampleReferences);
+      return new double[] { scoreList(sample1Trans, sampleEval), scoreList(sample2Trans, sampleEval) };
+    };
+  }
+
+  private static String usage() {
+    String nl = System.getProperty("line.separator");
+    StringBuilder sb = new StringBuilder();
+    sb.append("Usage: java ").append(SignificanceTest.class.getName()).append(" [OPTIONS] metric_name reference_prefix system1 system2").append(nl)
+    .append(nl)
+    .append(" Options:").append(nl)
+    .append("   -b         : Paired bootstrap instead of approximate randomization").append(nl)
+    .append("   -n num     : Number of samples (default: ").append(SAMPLES).append(")").append(nl)
+    .append("   -s num     : Random seed (default: ").append(DEFAULT_SEED).append(")").append(nl)
+    .append("   -t num     : Number of threads (default: all cores)").append(nl);
+    return sb.toString();
+  }
+
+  private static Map<String,Integer> argDefs() {
+    Map<String,Integer> argDefs = new HashMap<>();
+    argDefs.put("b", 0);
+    argDefs.put("n", 1);
+    argDefs.put("s", 1);
+    argDefs.put("t", 1);
+    return argDefs;
+  }
+
   /**
    * Runs the significance test, applying NIST tokenization to the input.
    * 
@@ -48,15 +126,20 @@ public class SignificanceTest {
    * @throws Exception
    */
   static public void main(String[] args) throws Exception {
-    if (args.length != 4) {
-      System.err
-          .printf("Usage: java %s metric_name reference_prefix system1 system2%n", SignificanceTest.class.getName());
+    Properties options = StringUtils.argsToProperties(args, argDefs());
+    String[] positionalArgs = options.getProperty("", "").trim().split("\\s+");
+    if (positionalArgs.length != 4) {
+      System.err.print(usage());
       System.exit(-1);
     }
-    String evalMetricName = args[0];
-    String referencePrefix = args[1];
-    String system1TransFilename = args[2];
-    String system2TransFilename = args[3];
+    final boolean bootstrap = PropertiesUtils.getBool(options, "b", false);
+    final int numSamples = PropertiesUtils.getInt(options, "n", SAMPLES);
+    final long seed = PropertiesUtils.getLong(options, "s", DEFAULT_SEED);
+    final int numThreads = PropertiesUtils.getInt(options, "t", Runtime.getRuntime().availableProcessors());
+    String evalMetricName = positionalArgs[0];
+    String referencePrefix = positionalArgs[1];
+    String system1TransFilename = positionalArgs[2];
+    String system2TransFilename = positionalArgs[3];
 
     // Load everything we need
     boolean doNIST = true;
@@ -86,31 +169,33 @@ public class SignificanceTest {
     System.out.printf("System1 Eval: %f System2 Eval: %f abs(Diff): %f%n",
         system1Eval, system2Eval, trueSystemDiff);
     System.out.printf("Sampling...");
-    Random r = new Random(8682522807148012L);
-    int matchedOrExceededDiffs = 0;
-    for (int i = 0; i < SAMPLES; i++) {
-      if ((i % 10) == 0)
-        System.out.printf(".");
-      List<Sequence<IString>> sample1Trans = new ArrayList<>(system1Trans.size());
-      List<Sequence<IString>> sample2Trans = new ArrayList<>(system2Trans.size());
-      int sz = system1Trans.size();
-      for (int ii = 0; ii < sz; ii++) {
-        if (r.nextDouble() >= 0.5) {
-          sample1Trans.add(system1Trans.get(ii));
-          sample2Trans.add(system2Trans.get(ii));
-        } else {
-          sample1Trans.add(system2Trans.get(ii));
-          sample2Trans.add(system1Trans.get(ii));
-        }
-      }
-      double sample1Eval = scoreList(sample1Trans, eval);
-      double sample2Eval = scoreList(sample2Trans, eval);
-      double sampleDiff = Math.abs(sample1Eval - sample2Eval);
-      if (sampleDiff >= trueSystemDiff)
-        matchedOrExceededDiffs++;
+    Resampling.PairedScorer scorer;
+    int threads = numThreads;
+    if (eval instanceof SufficientStatisticsMetric) {
+      @SuppressWarnings("unchecked")
+      SufficientStatisticsMetric<IString> metric = (SufficientStatisticsMetric<IString>) eval;
+      scorer = Resampling.sufficientStatisticsScorer(sufficientStatistics(system1Trans, metric),
+          sufficientStatistics(system2Trans, metric), metric::scoreStatistics);
+    } else {
+      // Incremental metrics are not guaranteed to be threadsafe
+      scorer = rescoringScorer(system1Trans, system2Trans, references, eval,
+          sampleReferences -> CorpusLevelMetricFactory.newMetric(evalMetricName, sampleReferences));
+      threads = 1;
+    }
+    final int sz = system1Trans.size();
+    if (bootstrap) {
+      double[] sampleDiffs = Resampling.pairedBootstrap(sz, scorer, numSamples, seed, threads);
+      int losses = Resampling.numLosses(system1Eval - system2Eval, sampleDiffs);
+      double p = losses / (double) numSamples;
+      double[] ci = ConfidenceIntervals.percentileInterval(sampleDiffs, 0.95);
+      System.out.printf("%np = %f %d/%d 95%% CI of Diff (System1 - System2): [%f, %f]%n", p, losses,
+          numSamples, ci[0], ci[1]);
+    } else {
+      double[] sampleDiffs = Resampling.approximateRandomization(sz, scorer, numSamples, seed, threads);
+      int matchedOrExceededDiffs = Resampling.numMatchedOrExceeded(trueSystemDiff, sampleDiffs);
+      double p = (matchedOrExceededDiffs + 1.0) / (numSamples + 1.0);
+      System.out.printf("%np = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs,
+          numSamples);
     }
-    double p = (matchedOrExceededDiffs + 1.0) / (SAMPLES + 1.0);
-    System.out.printf("%np = %f (%d+1)/(%d+1)%n", p, matchedOrExceededDiffs,
-        SAMPLES);
   }
 }
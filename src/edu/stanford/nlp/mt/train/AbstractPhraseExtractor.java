@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The preferred way of instantiating PhraseExtractor is to extend
  * AbstractPhraseExtractor. Its constructor takes a list of
- * AbstractFeatureExtractor as argument, which are then used in
+ * PhraseFeaturizer as argument, which are then used in
  * {@link #addPhraseToIndex(WordAlignment,int,int,int,int,boolean,float)}. where
  * each feature extractor is executed on earch phrase pair.
  * 
@@ -60,13 +60,13 @@ public abstract class AbstractPhraseExtractor implements PhraseExtractor {
   static boolean onlyTightPhrases = false;
 
   final boolean extractBoundaryPhrases;
-  final List<AbstractFeatureExtractor> extractors;
+  final List<? extends PhraseFeaturizer> extractors;
   final AlignmentTemplates alTemps;
   AlignmentTemplateInstance alTemp;
   AlignmentGrid alGrid;
 
   protected AbstractPhraseExtractor(Properties prop,
-      AlignmentTemplates alTemps, List<AbstractFeatureExtractor> extractors) {
+      AlignmentTemplates alTemps, List<? extends PhraseFeaturizer> extractors) {
 
     // System.err.println("AbstractPhraseExtractor: "+maxPhraseLenF);
     this.alTemps = alTemps;
@@ -122,7 +122,7 @@ public abstract class AbstractPhraseExtractor implements PhraseExtractor {
     int esize = sent.e().size();
     // Features are extracted only once all phrases for a given
     // sentence pair are in memory
-    for (AbstractFeatureExtractor e : extractors) {
+    for (PhraseFeaturizer e : extractors) {
       for (AlignmentTemplateInstance alTemp : alGrid.getAlTemps()) {
         e.featurizePhrase(alTemp, alGrid);
         if (PRINT_PHRASAL_GRID && fsize < PRINT_GRID_MAX_LEN
@@ -57,7 +57,7 @@ public class DTUPhraseExtractor extends AbstractPhraseExtractor {
   FlatPhraseExtractor substringExtractor;
 
   public DTUPhraseExtractor(Properties prop, AlignmentTemplates alTemps,
-      List<AbstractFeatureExtractor> extractors) {
+      List<? extends PhraseFeaturizer> extractors) {
     super(prop, alTemps, extractors);
     substringExtractor = new FlatPhraseExtractor(prop, alTemps, extractors);
     substringExtractor.alGrid = alGrid;
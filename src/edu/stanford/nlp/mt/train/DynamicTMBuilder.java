@@ -1,7 +1,9 @@
 package edu.stanford.nlp.mt.train;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -9,17 +11,23 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
 import edu.stanford.nlp.mt.tm.DynamicTranslationModel;
 import edu.stanford.nlp.mt.train.AlignmentSymmetrizer.SymmetrizationType;
 import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IOTools.SerializationMode;
 import edu.stanford.nlp.mt.util.ParallelCorpus;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray;
 import edu.stanford.nlp.mt.util.TimingUtils;
 import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
 
 /**
@@ -33,6 +41,7 @@ public class DynamicTMBuilder {
   private static final Logger logger = LogManager.getLogger(DynamicTMBuilder.class);
 
   private ParallelSuffixArray sa;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
   
   /**
    * Constructor. Build a dynamic translation model from a ParallelCorpus.
@@ -65,11 +74,25 @@ public class DynamicTMBuilder {
    * @param sourceFile
    * @param targetFile
    * @param alignFile
-   * @param expectedSize
    * @throws IOException 
    */
   public DynamicTMBuilder(String sourceFile, String targetFile, String alignFile) throws IOException {
-    sa = new ParallelSuffixArray(sourceFile, targetFile, alignFile);
+    this(sourceFile, targetFile, alignFile, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor. The corpus is encoded in chunks, and the suffix arrays
+   * are sorted in chunks that are then merged.
+   * 
+   * @param sourceFile
+   * @param targetFile
+   * @param alignFile
+   * @param numThreads
+   * @throws IOException 
+   */
+  public DynamicTMBuilder(String sourceFile, String targetFile, String alignFile, int numThreads) throws IOException {
+    this.numThreads = numThreads;
+    sa = new ParallelSuffixArray(sourceFile, targetFile, alignFile, numThreads);
   }
     
   /**
@@ -78,9 +101,41 @@ public class DynamicTMBuilder {
    * @return
    */
   public DynamicTranslationModel<String> build() {
-    sa.build();
+    sa.build(numThreads);
     return new DynamicTranslationModel<>(sa);
   }
+
+  /**
+   * Build the model and write it to a file. For the Kryo formats, the arrays are
+   * written as they are created and released once written, so the complete model is
+   * never held in memory. The builder cannot be used after this call.
+   * 
+   * @param filename
+   * @throws IOException 
+   */
+  public void build(String filename) throws IOException {
+    SerializationMode mode;
+    try {
+      mode = SerializationMode.fromFileName(filename);
+    } catch (IllegalArgumentException e) {
+      logger.warn("Serialization mode could not be inferred from {}. Choosing {}", filename, IOTools.GZ_BIN_EXTENSION);
+      mode = SerializationMode.BIN_GZ;
+    }
+    logger.info("Serializing to: {}", filename);
+    if (mode == SerializationMode.BIN || mode == SerializationMode.BIN_GZ) {
+      // Same layout as IOTools.serialize() of a DynamicTranslationModel
+      Kryo kryo = new Kryo();
+      kryo.setReferences(false);
+      OutputStream outStream = new FileOutputStream(filename);
+      if (mode == SerializationMode.BIN_GZ) outStream = new GZIPOutputStream(outStream);
+      try (Output output = new Output(outStream)) {
+        sa.buildAndWrite(kryo, output, numThreads);
+      }
+    } else {
+      IOTools.serialize(filename, build(), mode);
+    }
+    sa = null;
+  }
   
   /**
    * Symmetrize the alignments and create a corpus.
@@ -168,6 +223,7 @@ public class DynamicTMBuilder {
     Map<String,Integer> optionDefs = new HashMap<>();
     optionDefs.put("o", 1);
     optionDefs.put("s", 1);
+    optionDefs.put("t", 1);
     return optionDefs;
   }  
 
@@ -177,7 +233,8 @@ public class DynamicTMBuilder {
     sb.append("Usage: java ").append(DynamicTMBuilder.class.getName()).append(" OPTS src target alignf2e [aligne2f]").append(nl);
     sb.append(nl).append(" Options:").append(nl)
     .append("   -o file-name   : Output file name.").append(nl)
-    .append("   -s type        : Symmetrization type.").append(nl);
+    .append("   -s type        : Symmetrization type.").append(nl)
+    .append("   -t num         : Number of threads. (default: all cores)").append(nl);
     return sb.toString();
   }
   
@@ -200,6 +257,7 @@ public class DynamicTMBuilder {
     String outputFileName = options.getProperty("o", "tm" + IOTools.BIN_EXTENSION);
     SymmetrizationType type = options.containsKey("s") ? SymmetrizationType.valueOf(options.getProperty("s"))
         : SymmetrizationType.valueOf("grow_diag_final_and");
+    int numThreads = PropertiesUtils.getInt(options, "t", Runtime.getRuntime().availableProcessors());
     
     String sourceFile = positionalArgs[0];
     String targetFile = positionalArgs[1];
@@ -214,18 +272,14 @@ public class DynamicTMBuilder {
     try {
       TimeKeeper timer = TimingUtils.start();
       // Load corpus
-      DynamicTMBuilder tmBuilder = alignEFfile == null ? new DynamicTMBuilder(sourceFile, targetFile, alignFEfile) :
-        new DynamicTMBuilder(sourceFile, targetFile, alignFEfile, alignEFfile, type);
+      String alignFile = alignEFfile == null ? alignFEfile : 
+        symmetrize(sourceFile, targetFile, alignFEfile, alignEFfile, type);
+      DynamicTMBuilder tmBuilder = new DynamicTMBuilder(sourceFile, targetFile, alignFile, numThreads);
       timer.mark("Corpus Loading");
       
-      // Build TM
-      DynamicTranslationModel<String> tm = tmBuilder.build();
-      timer.mark("Model construction");
-          
-      // Serialize
-      logger.info("Serializing to: " + outputFileName);
-      IOTools.serialize(outputFileName, tm);
-      timer.mark("Serialization");
+      // Build TM and serialize
+      tmBuilder.build(outputFileName);
+      timer.mark("Model construction and serialization");
       
       logger.info("Timing summary: {}", timer);
       logger.info("Success! Shutting down...");
@@ -0,0 +1,675 @@
+package edu.stanford.nlp.mt.train;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.train.AlignmentSymmetrizer.SymmetrizationType;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.Vocabulary;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
+
+/**
+ * Unsupervised word aligner trained with EM. Training runs IBM Model 1 with the
+ * diagonal alignment prior of fast_align (Dyer et al., 2013), and then the HMM
+ * model (Vogel et al., 1996) with null states (Och and Ney, 2003), in both
+ * directions. The two Viterbi alignments are symmetrized with
+ * {@link AlignmentSymmetrizer} and written as zero-indexed f-e pairs, the format
+ * read by {@link PhraseExtract} and {@link DynamicTMBuilder}.
+ *
+ * The E-step is sharded by sentence across threads. The shards add expected
+ * counts to one shared primitive array, which is allocated once per model and
+ * locked by row stripes, so memory does not grow with the number of threads.
+ * Translation tables are stored as sorted rows of co-occurring target ids, one
+ * row per source word.
+ *
+ * Call {@link #close()} to stop the worker threads.
+ */
+public class EMWordAligner implements AutoCloseable {
+
+  private static final Logger logger = LogManager.getLogger(EMWordAligner.class);
+
+  public static final int DEFAULT_MODEL1_ITERATIONS = 5;
+  public static final int DEFAULT_HMM_ITERATIONS = 5;
+  public static final double DEFAULT_TENSION = 4.0;
+  public static final double DEFAULT_NULL_PROB = 0.08;
+  public static final int MAX_SENTENCE_LENGTH = ParallelCorpus.MAX_SENTENCE_LENGTH;
+
+  // Jumps are bucketed in [-MAX_JUMP, MAX_JUMP]
+  private static final int MAX_JUMP = 10;
+  private static final double JUMP_SMOOTHING = 0.1;
+  private static final int ALIGN_BLOCK_SIZE = 10000;
+  private static final int NUM_LOCK_STRIPES = 1024;
+
+  private final Vocabulary vocabulary;
+  private final int[][] source;
+  private final int[][] target;
+  private final int numThreads;
+  private final ForkJoinPool pool;
+  private final double tension;
+  private final double nullProb;
+
+  private Model sourceToTarget;
+  private Model targetToSource;
+
+  /**
+   * Constructor.
+   *
+   * @param source Source sentences encoded with the vocabulary.
+   * @param target Target sentences encoded with the vocabulary.
+   * @param vocabulary
+   * @param tension Strength of the diagonal prior. 0 gives IBM Model 1.
+   * @param nullProb Probability of aligning to the null word.
+   * @param numThreads
+   */
+  public EMWordAligner(int[][] source, int[][] target, Vocabulary vocabulary,
+      double tension, double nullProb, int numThreads) {
+    if (source.length != target.length) {
+      throw new IllegalArgumentException(String.format("Source and target sizes differ: %d vs. %d",
+          source.length, target.length));
+    }
+    this.source = source;
+    this.target = target;
+    this.vocabulary = vocabulary;
+    this.tension = tension;
+    this.nullProb = nullProb;
+    this.numThreads = numThreads;
+    this.pool = new ForkJoinPool(numThreads);
+  }
+
+  /**
+   * Load and encode a bitext.
+   *
+   * @param sourceFile
+   * @param targetFile
+   * @param tension
+   * @param nullProb
+   * @param numThreads
+   * @return
+   * @throws IOException
+   */
+  public static EMWordAligner fromFiles(String sourceFile, String targetFile,
+      double tension, double nullProb, int numThreads) throws IOException {
+    Vocabulary vocabulary = new Vocabulary();
+    List<int[]> source = new ArrayList<>();
+    List<int[]> target = new ArrayList<>();
+    try (LineNumberReader srcReader = IOTools.getReaderFromFile(sourceFile);
+        LineNumberReader tgtReader = IOTools.getReaderFromFile(targetFile)) {
+      for (String srcLine; (srcLine = srcReader.readLine()) != null;) {
+        String tgtLine = tgtReader.readLine();
+        if (tgtLine == null) {
+          throw new IOException("Target file is shorter than the source file: " + targetFile);
+        }
+        source.add(encode(srcLine, vocabulary));
+        target.add(encode(tgtLine, vocabulary));
+        if (srcReader.getLineNumber() % 100000 == 0)
+          logger.info("Reading corpus line {}...", srcReader.getLineNumber());
+      }
+    }
+    return new EMWordAligner(source.toArray(new int[source.size()][]),
+        target.toArray(new int[target.size()][]), vocabulary, tension, nullProb, numThreads);
+  }
+
+  private static int[] encode(String line, Vocabulary vocabulary) {
+    line = line.trim();
+    return line.isEmpty() ? new int[0] :
+      Arrays.stream(line.split("\\s+")).mapToInt(vocabulary::add).toArray();
+  }
+
+  /**
+   * Number of sentence pairs.
+   *
+   * @return
+   */
+  public int size() { return source.length; }
+
+  /**
+   * Train both directions.
+   *
+   * @param model1Iterations
+   * @param hmmIterations
+   */
+  public void train(int model1Iterations, int hmmIterations) {
+    logger.info("Training source-to-target model");
+    sourceToTarget = train(source, target, model1Iterations, hmmIterations);
+    logger.info("Training target-to-source model");
+    targetToSource = train(target, source, model1Iterations, hmmIterations);
+  }
+
+  private Model train(int[][] src, int[][] tgt, int model1Iterations, int hmmIterations) {
+    Model model = new Model(src, tgt, vocabulary.size(), tension, nullProb);
+    logger.info("Translation table: {} entries", model.numPairs());
+    for (int i = 0; i < model1Iterations; ++i) {
+      double ll = expectationMaximization(model, false);
+      logger.info("Model 1 iteration {}: log-likelihood {}", i + 1, ll);
+    }
+    for (int i = 0; i < hmmIterations; ++i) {
+      double ll = expectationMaximization(model, true);
+      logger.info("HMM iteration {}: log-likelihood {}", i + 1, ll);
+    }
+    model.hmm = hmmIterations > 0;
+    return model;
+  }
+
+  /**
+   * One EM iteration. Each shard adds the expected counts of a contiguous range
+   * of sentences to the shared counts of the model, and keeps its own jump counts.
+   */
+  private double expectationMaximization(Model model, boolean hmm) {
+    final int numShards = Math.min(numThreads, Math.max(1, size()));
+    final double[][] jumpCounts = new double[numShards][2 * MAX_JUMP + 1];
+    final double[] logLikelihood = new double[numShards];
+    Arrays.fill(model.counts, 0.0);
+    run(() -> IntStream.range(0, numShards).parallel().forEach(shard -> {
+      final int end = (int) ((long) size() * (shard + 1) / numShards);
+      for (int n = (int) ((long) size() * shard / numShards); n < end; ++n) {
+        logLikelihood[shard] += hmm ? model.hmmExpectation(n, jumpCounts[shard]) :
+          model.model1Expectation(n);
+      }
+    }));
+    for (int shard = 1; shard < numShards; ++shard) {
+      for (int d = 0; d < jumpCounts[0].length; ++d) jumpCounts[0][d] += jumpCounts[shard][d];
+    }
+    model.maximize(hmm ? jumpCounts[0] : null);
+    return Arrays.stream(logLikelihood).sum();
+  }
+
+  private void run(Runnable task) {
+    try {
+      pool.submit(task).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Stop the worker threads.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * Symmetrized Viterbi alignment of a sentence pair.
+   *
+   * @param sentenceId
+   * @param type
+   * @return
+   */
+  public SymmetricalWordAlignment align(int sentenceId, SymmetrizationType type) {
+    if (sourceToTarget == null) throw new IllegalStateException("Call train() first");
+    GIZAWordAlignment giza = new GIZAWordAlignment(
+        IStrings.toIStringSequence(source[sentenceId], vocabulary),
+        IStrings.toIStringSequence(target[sentenceId], vocabulary));
+    int[] e2f = sourceToTarget.viterbi(sentenceId);
+    for (int j = 0; j < e2f.length; ++j) {
+      if (e2f[j] >= 0) giza.adde2f(e2f[j], j);
+    }
+    int[] f2e = targetToSource.viterbi(sentenceId);
+    for (int i = 0; i < f2e.length; ++i) {
+      if (f2e[i] >= 0) giza.addf2e(i, f2e[i]);
+    }
+    return AlignmentSymmetrizer.symmetrize(giza, type);
+  }
+
+  /**
+   * Write one line of symmetrized alignments per sentence pair.
+   *
+   * @param out
+   * @param type
+   */
+  public void writeAlignments(PrintStream out, SymmetrizationType type) {
+    forEachAlignment(type, (n, alignment) -> out.println(alignment));
+  }
+
+  /**
+   * Build a corpus from the symmetrized alignments, e.g., for
+   * {@link DynamicTMBuilder}. Unaligned sentence pairs are skipped.
+   *
+   * @param type
+   * @return
+   */
+  public ParallelCorpus toParallelCorpus(SymmetrizationType type) {
+    ParallelCorpus corpus = new ParallelCorpus(size());
+    forEachAlignment(type, (n, alignment) -> corpus.add(toString(source[n]), toString(target[n]), alignment));
+    return corpus;
+  }
+
+  private String toString(int[] sentence) {
+    StringBuilder sb = new StringBuilder();
+    for (int id : sentence) {
+      if (sb.length() > 0) sb.append(" ");
+      sb.append(vocabulary.get(id));
+    }
+    return sb.toString();
+  }
+
+  @FunctionalInterface
+  private static interface AlignmentConsumer {
+    public void accept(int sentenceId, String alignment);
+  }
+
+  /**
+   * Align blocks of sentences in parallel and pass them on in order.
+   */
+  private void forEachAlignment(SymmetrizationType type, AlignmentConsumer consumer) {
+    final String[] block = new String[ALIGN_BLOCK_SIZE];
+    for (int start = 0; start < size(); start += ALIGN_BLOCK_SIZE) {
+      final int blockStart = start;
+      final int blockSize = Math.min(ALIGN_BLOCK_SIZE, size() - start);
+      run(() -> IntStream.range(0, blockSize).parallel().forEach(k ->
+        block[k] = align(blockStart + k, type).toString()));
+      for (int k = 0; k < blockSize; ++k) consumer.accept(blockStart + k, block[k]);
+    }
+  }
+
+  /**
+   * Alignment model that generates the target words of a sentence pair from its
+   * source words. Row <code>nullWord</code> of the translation table holds the
+   * null word.
+   */
+  private static class Model {
+    final int[][] src;
+    final int[][] tgt;
+    final int nullWord;
+    final double tension;
+    final double nullProb;
+    // Row r of the translation table is [rowStart[r], rowStart[r+1])
+    final int[] rowStart;
+    final int[] cols;
+    final double[] t;
+    // Expected counts of the E-step, shared by all shards
+    final double[] counts;
+    final Object[] rowLocks = new Object[NUM_LOCK_STRIPES];
+    final double[] jump = new double[2 * MAX_JUMP + 1];
+    boolean hmm = false;
+
+    Model(int[][] src, int[][] tgt, int vocabSize, double tension, double nullProb) {
+      this.src = src;
+      this.tgt = tgt;
+      this.nullWord = vocabSize;
+      this.tension = tension;
+      this.nullProb = nullProb;
+
+      // Co-occurrence pairs as (row << 32 | target)
+      LongOpenHashSet pairs = new LongOpenHashSet();
+      for (int n = 0; n < src.length; ++n) {
+        if (!trainable(n)) continue;
+        for (int e : tgt[n]) {
+          pairs.add(((long) nullWord << 32) | e);
+          for (int f : src[n]) pairs.add(((long) f << 32) | e);
+        }
+      }
+      long[] sorted = pairs.toLongArray();
+      Arrays.parallelSort(sorted);
+      this.rowStart = new int[vocabSize + 2];
+      this.cols = new int[sorted.length];
+      for (int k = 0; k < sorted.length; ++k) {
+        rowStart[(int) (sorted[k] >>> 32) + 1]++;
+        cols[k] = (int) sorted[k];
+      }
+      for (int r = 0; r <= vocabSize; ++r) rowStart[r + 1] += rowStart[r];
+
+      // Uniform initialization
+      this.t = new double[cols.length];
+      this.counts = new double[cols.length];
+      for (int l = 0; l < rowLocks.length; ++l) rowLocks[l] = new Object();
+      for (int r = 0; r <= vocabSize; ++r) {
+        for (int k = rowStart[r]; k < rowStart[r + 1]; ++k) t[k] = 1.0 / (rowStart[r + 1] - rowStart[r]);
+      }
+      for (int d = -MAX_JUMP; d <= MAX_JUMP; ++d) {
+        jump[d + MAX_JUMP] = 1.0 / (1 + Math.abs(d - 1));
+      }
+      normalize(jump);
+    }
+
+    int numPairs() { return cols.length; }
+
+    boolean trainable(int n) {
+      return src[n].length > 0 && tgt[n].length > 0 &&
+          src[n].length <= MAX_SENTENCE_LENGTH && tgt[n].length <= MAX_SENTENCE_LENGTH;
+    }
+
+    private int pairIndex(int row, int e) {
+      int k = Arrays.binarySearch(cols, rowStart[row], rowStart[row + 1], e);
+      assert k >= 0;
+      return k;
+    }
+
+    /**
+     * Translation table indices of a sentence pair: entry i*J + j for source
+     * position i, and I*J + j for the null word.
+     */
+    private int[] pairIndices(int n) {
+      final int[] f = src[n], e = tgt[n];
+      final int I = f.length, J = e.length;
+      int[] idx = new int[(I + 1) * J];
+      for (int i = 0; i <= I; ++i) {
+        final int row = i < I ? f[i] : nullWord;
+        for (int j = 0; j < J; ++j) idx[i * J + j] = pairIndex(row, e[j]);
+      }
+      return idx;
+    }
+
+    /**
+     * Unnormalized diagonal prior of source position i for target position j.
+     */
+    private double diagonal(int i, int j, int I, int J) {
+      return Math.exp(-tension * Math.abs((i + 1) / (double) I - (j + 1) / (double) J));
+    }
+
+    private static int jumpBucket(int d) {
+      return Math.max(-MAX_JUMP, Math.min(MAX_JUMP, d)) + MAX_JUMP;
+    }
+
+    /**
+     * Transition probabilities to word states: row p+1 holds the distribution
+     * over source positions after position p, where row 0 is the sentence start.
+     */
+    private double[] transitions(int I) {
+      double[] trans = new double[(I + 1) * I];
+      for (int p = -1; p < I; ++p) {
+        double z = 0.0;
+        for (int i = 0; i < I; ++i) z += jump[jumpBucket(i - p)];
+        for (int i = 0; i < I; ++i) {
+          trans[(p + 1) * I + i] = (1.0 - nullProb) * jump[jumpBucket(i - p)] / z;
+        }
+      }
+      return trans;
+    }
+
+    /**
+     * Add the posteriors of a sentence pair, indexed like <code>pairIndices()</code>,
+     * to the shared counts. Each row is updated under the lock of its stripe.
+     */
+    private void addCounts(int n, int[] idx, double[] posteriors) {
+      final int I = src[n].length, J = tgt[n].length;
+      for (int i = 0; i <= I; ++i) {
+        final int row = i < I ? src[n][i] : nullWord;
+        synchronized(rowLocks[row % rowLocks.length]) {
+          for (int j = 0; j < J; ++j) counts[idx[i * J + j]] += posteriors[i * J + j];
+        }
+      }
+    }
+
+    double model1Expectation(int n) {
+      if (!trainable(n)) return 0.0;
+      final int I = src[n].length, J = tgt[n].length;
+      final int[] idx = pairIndices(n);
+      final double[] post = new double[I + 1];
+      final double[] posteriors = new double[(I + 1) * J];
+      double ll = 0.0;
+      for (int j = 0; j < J; ++j) {
+        double z = 0.0;
+        for (int i = 0; i < I; ++i) z += diagonal(i, j, I, J);
+        double sum = 0.0;
+        for (int i = 0; i < I; ++i) {
+          post[i] = (1.0 - nullProb) * diagonal(i, j, I, J) / z * t[idx[i * J + j]];
+          sum += post[i];
+        }
+        post[I] = nullProb * t[idx[I * J + j]];
+        sum += post[I];
+        ll += Math.log(sum);
+        for (int i = 0; i <= I; ++i) posteriors[i * J + j] = post[i] / sum;
+      }
+      addCounts(n, idx, posteriors);
+      return ll;
+    }
+
+    /**
+     * Scaled forward-backward. States 0..I-1 emit source words and states
+     * I..2I-1 emit the null word; null state I+i keeps position i for the next
+     * jump.
+     */
+    double hmmExpectation(int n, double[] jumpCounts) {
+      if (!trainable(n)) return 0.0;
+      final int I = src[n].length, J = tgt[n].length, S = 2 * I;
+      final int[] idx = pairIndices(n);
+      final double[] trans = transitions(I);
+      final double[] alpha = new double[J * S];
+      final double[] beta = new double[J * S];
+      final double[] scale = new double[J];
+      final double[] pos = new double[I];
+
+      // Forward
+      double ll = 0.0;
+      for (int j = 0; j < J; ++j) {
+        final int a = j * S;
+        final double tNull = t[idx[I * J + j]];
+        for (int i = 0; i < I; ++i) {
+          double in;
+          if (j == 0) {
+            in = trans[i];
+            alpha[a + I + i] = nullProb / (1.0 - nullProb) * trans[i] * tNull;
+          } else {
+            in = 0.0;
+            for (int p = 0; p < I; ++p) in += pos[p] * trans[(p + 1) * I + i];
+            alpha[a + I + i] = nullProb * pos[i] * tNull;
+          }
+          alpha[a + i] = in * t[idx[i * J + j]];
+        }
+        double c = 0.0;
+        for (int s = 0; s < S; ++s) c += alpha[a + s];
+        for (int s = 0; s < S; ++s) alpha[a + s] /= c;
+        scale[j] = c;
+        ll += Math.log(c);
+        for (int p = 0; p < I; ++p) pos[p] = alpha[a + p] + alpha[a + I + p];
+      }
+
+      // Backward
+      Arrays.fill(beta, (J - 1) * S, J * S, 1.0);
+      for (int j = J - 2; j >= 0; --j) {
+        final int b = j * S, next = (j + 1) * S;
+        final double tNull = t[idx[I * J + j + 1]];
+        for (int p = 0; p < I; ++p) {
+          double out = nullProb * tNull * beta[next + I + p];
+          for (int i = 0; i < I; ++i) {
+            out += trans[(p + 1) * I + i] * t[idx[i * J + j + 1]] * beta[next + i];
+          }
+          beta[b + p] = beta[b + I + p] = out / scale[j + 1];
+        }
+      }
+
+      // Expected counts
+      final double[] posteriors = new double[(I + 1) * J];
+      for (int j = 0; j < J; ++j) {
+        final int a = j * S;
+        double nullPosterior = 0.0;
+        for (int i = 0; i < I; ++i) {
+          posteriors[i * J + j] = alpha[a + i] * beta[a + i];
+          nullPosterior += alpha[a + I + i] * beta[a + I + i];
+        }
+        posteriors[I * J + j] = nullPosterior;
+        if (j == 0) {
+          for (int i = 0; i < I; ++i) jumpCounts[jumpBucket(i + 1)] += alpha[i] * beta[i];
+        } else {
+          final int prev = (j - 1) * S;
+          for (int p = 0; p < I; ++p) {
+            final double from = (alpha[prev + p] + alpha[prev + I + p]) / scale[j];
+            for (int i = 0; i < I; ++i) {
+              jumpCounts[jumpBucket(i - p)] += from * trans[(p + 1) * I + i] *
+                  t[idx[i * J + j]] * beta[a + i];
+            }
+          }
+        }
+      }
+      addCounts(n, idx, posteriors);
+      return ll;
+    }
+
+    void maximize(double[] jumpCounts) {
+      for (int r = 0; r < rowStart.length - 1; ++r) {
+        double z = 0.0;
+        for (int k = rowStart[r]; k < rowStart[r + 1]; ++k) z += counts[k];
+        if (z <= 0.0) continue;
+        for (int k = rowStart[r]; k < rowStart[r + 1]; ++k) t[k] = counts[k] / z;
+      }
+      if (jumpCounts != null) {
+        for (int d = 0; d < jump.length; ++d) jump[d] = jumpCounts[d] + JUMP_SMOOTHING;
+        normalize(jump);
+      }
+    }
+
+    private static void normalize(double[] v) {
+      double z = Arrays.stream(v).sum();
+      for (int i = 0; i < v.length; ++i) v[i] /= z;
+    }
+
+    /**
+     * Viterbi alignment.
+     *
+     * @return The source position of each target position, or -1 for null.
+     */
+    int[] viterbi(int n) {
+      final int I = src[n].length, J = tgt[n].length;
+      int[] alignment = new int[J];
+      Arrays.fill(alignment, -1);
+      if (!trainable(n)) return alignment;
+      final int[] idx = pairIndices(n);
+      if (!hmm) {
+        for (int j = 0; j < J; ++j) {
+          double best = nullProb * t[idx[I * J + j]];
+          for (int i = 0; i < I; ++i) {
+            // The prior normalizer is the same for all i
+            double score = (1.0 - nullProb) * diagonal(i, j, I, J) * t[idx[i * J + j]];
+            if (score > best) {
+              best = score;
+              alignment[j] = i;
+            }
+          }
+        }
+        return alignment;
+      }
+
+      final int S = 2 * I;
+      final double[] trans = transitions(I);
+      final double[] delta = new double[J * S];
+      final int[] backPointer = new int[J * S];
+      for (int j = 0; j < J; ++j) {
+        final int a = j * S, prev = (j - 1) * S;
+        final double tNull = t[idx[I * J + j]];
+        for (int i = 0; i < I; ++i) {
+          if (j == 0) {
+            delta[a + i] = trans[i] * t[idx[i * J + j]];
+            delta[a + I + i] = nullProb / (1.0 - nullProb) * trans[i] * tNull;
+            continue;
+          }
+          double best = -1.0;
+          for (int p = 0; p < I; ++p) {
+            final int s = delta[prev + p] >= delta[prev + I + p] ? p : I + p;
+            final double score = delta[prev + s] * trans[(p + 1) * I + i];
+            if (score > best) {
+              best = score;
+              backPointer[a + i] = s;
+            }
+          }
+          delta[a + i] = best * t[idx[i * J + j]];
+          final int s = delta[prev + i] >= delta[prev + I + i] ? i : I + i;
+          delta[a + I + i] = delta[prev + s] * nullProb * tNull;
+          backPointer[a + I + i] = s;
+        }
+        double max = 0.0;
+        for (int s = 0; s < S; ++s) max = Math.max(max, delta[a + s]);
+        if (max > 0.0) {
+          for (int s = 0; s < S; ++s) delta[a + s] /= max;
+        }
+      }
+      int state = 0;
+      for (int s = 1; s < S; ++s) {
+        if (delta[(J - 1) * S + s] > delta[(J - 1) * S + state]) state = s;
+      }
+      for (int j = J - 1; j >= 0; --j) {
+        alignment[j] = state < I ? state : -1;
+        if (j > 0) state = backPointer[j * S + state];
+      }
+      return alignment;
+    }
+  }
+
+  private static Map<String,Integer> optionDefs() {
+    Map<String,Integer> optionDefs = new HashMap<>();
+    optionDefs.put("model1", 1);
+    optionDefs.put("hmm", 1);
+    optionDefs.put("tension", 1);
+    optionDefs.put("null", 1);
+    optionDefs.put("s", 1);
+    optionDefs.put("o", 1);
+    optionDefs.put("threads", 1);
+    return optionDefs;
+  }
+
+  private static String usage() {
+    StringBuilder sb = new StringBuilder();
+    String nl = System.getProperty("line.separator");
+    sb.append("Usage: java ").append(EMWordAligner.class.getName()).append(" OPTS source target").append(nl);
+    sb.append(nl).append(" Options:").append(nl)
+    .append("   -model1 num    : Model 1 iterations (default: ").append(DEFAULT_MODEL1_ITERATIONS).append(")").append(nl)
+    .append("   -hmm num       : HMM iterations (default: ").append(DEFAULT_HMM_ITERATIONS).append(")").append(nl)
+    .append("   -tension num   : Diagonal prior strength, 0 for plain Model 1 (default: ").append(DEFAULT_TENSION).append(")").append(nl)
+    .append("   -null num      : Null alignment probability (default: ").append(DEFAULT_NULL_PROB).append(")").append(nl)
+    .append("   -s type        : Symmetrization type (default: grow_diag_final_and)").append(nl)
+    .append("   -o file-name   : Output file name (default: stdout)").append(nl)
+    .append("   -threads num   : Number of threads (default: all cores)").append(nl);
+    return sb.toString();
+  }
+
+  /**
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args[0].equals("-h") || args[0].equals("-help")) {
+      System.err.print(usage());
+      System.exit(-1);
+    }
+    Properties options = StringUtils.argsToProperties(args, optionDefs());
+    String[] positionalArgs = options.getProperty("", "").trim().split("\\s+");
+    if (positionalArgs.length != 2) {
+      System.err.print(usage());
+      System.exit(-1);
+    }
+    final int model1Iterations = PropertiesUtils.getInt(options, "model1", DEFAULT_MODEL1_ITERATIONS);
+    final int hmmIterations = PropertiesUtils.getInt(options, "hmm", DEFAULT_HMM_ITERATIONS);
+    final double tension = PropertiesUtils.getDouble(options, "tension", DEFAULT_TENSION);
+    final double nullProb = PropertiesUtils.getDouble(options, "null", DEFAULT_NULL_PROB);
+    final SymmetrizationType type = SymmetrizationType.valueOf(
+        options.getProperty("s", "grow_diag_final_and").replace('-', '_'));
+    final int numThreads = PropertiesUtils.getInt(options, "threads", Runtime.getRuntime().availableProcessors());
+    final String outputFile = options.getProperty("o");
+
+    TimeKeeper timer = TimingUtils.start();
+    try (EMWordAligner aligner = fromFiles(positionalArgs[0], positionalArgs[1], tension, nullProb, numThreads)) {
+      logger.info("Loaded {} sentence pairs", aligner.size());
+      timer.mark("Corpus loading");
+      aligner.train(model1Iterations, hmmIterations);
+      timer.mark("Training");
+      PrintStream out = outputFile == null ? System.out : IOTools.getWriterFromFile(outputFile);
+      aligner.writeAlignments(out, type);
+      out.flush();
+      if (outputFile != null) out.close();
+      timer.mark("Alignment");
+    }
+    logger.info("Timing summary: {}", timer);
+  }
+}
@@ -0,0 +1,605 @@
+package edu.stanford.nlp.mt.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequences;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
+
+/**
+ * External-memory phrase extraction in the style of map-reduce.
+ *
+ * In the map phase, each worker thread extracts phrase pairs and their orientations,
+ * aggregates the counts in a local buffer, and spills the buffer to a sorted, compressed
+ * run on disk whenever its share of the memory budget is exhausted. The reduce phase
+ * consists of three k-way merges of the runs:
+ * <ol>
+ * <li>by source phrase, which yields c(f,e), c(f), the most frequent alignment and the orientation counts,</li>
+ * <li>by target phrase, which yields c(e) and the final scores,</li>
+ * <li>by rule, which writes the phrase table and reordering model in source order.</li>
+ * </ol>
+ * Only the lexical translation counts are kept in memory. These are proportional to
+ * the number of aligned word types.
+ *
+ * Supports the default feature set ({@link MosesPharoahFeatureExtractor} and
+ * {@link LexicalReorderingFeatureExtractor}) with contiguous phrases.
+ */
+public class ExternalPhraseExtract {
+
+  // Maximum number of runs that are merged at once.
+  private static final int MAX_FAN_IN = 128;
+
+  // Rough size of an aggregated record in memory, excluding the characters of the key.
+  private static final int RECORD_OVERHEAD = 96;
+
+  private static final String FIELD_DELIM = "\t";
+
+  private final Properties prop;
+  private final List<AbstractFeatureExtractor> extractors;
+  private final MosesPharoahFeatureExtractor phraseScorer;
+  private final LexicalReorderingFeatureExtractor reorderingScorer;
+  private final AlignmentTemplates filterTemplates;
+  private final File tmpDir;
+  private final long memoryBudget;
+  private final int numOrientationCounts;
+  private final boolean exactTargetCounts;
+
+  private final List<Mapper> mappers = Collections.synchronizedList(new ArrayList<>());
+  private final List<File> pairRuns = Collections.synchronizedList(new ArrayList<>());
+  private final List<File> targetRuns = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * Constructor.
+   *
+   * @param prop
+   * @param extractors Initialized feature extractors.
+   * @param sourceFilter
+   * @param tmpDir Directory for the sorted runs.
+   * @param memoryBudget Memory budget in bytes for buffered records.
+   */
+  public ExternalPhraseExtract(Properties prop, List<AbstractFeatureExtractor> extractors,
+      SourceFilter sourceFilter, File tmpDir, long memoryBudget) {
+    if (PropertiesUtils.getBool(prop, PhraseExtract.WITH_GAPS_OPT, false) ||
+        prop.containsKey(PhraseExtract.PHRASE_EXTRACTOR_OPT)) {
+      throw new UnsupportedOperationException("External-memory extraction only supports contiguous phrases");
+    }
+    MosesPharoahFeatureExtractor phraseScorer = null;
+    LexicalReorderingFeatureExtractor reorderingScorer = null;
+    for (AbstractFeatureExtractor extractor : extractors) {
+      if (extractor instanceof MosesPharoahFeatureExtractor && phraseScorer == null) {
+        phraseScorer = (MosesPharoahFeatureExtractor) extractor;
+      } else if (extractor instanceof LexicalReorderingFeatureExtractor && reorderingScorer == null) {
+        reorderingScorer = (LexicalReorderingFeatureExtractor) extractor;
+      } else {
+        throw new UnsupportedOperationException("Unsupported extractor for external-memory extraction: "
+            + extractor.getClass().getName());
+      }
+    }
+    if (phraseScorer == null) {
+      throw new UnsupportedOperationException("External-memory extraction requires "
+          + MosesPharoahFeatureExtractor.class.getName());
+    }
+    if ( ! tmpDir.exists() && ! tmpDir.mkdirs()) {
+      throw new RuntimeException("Could not create directory: " + tmpDir.getPath());
+    }
+    this.prop = prop;
+    this.extractors = extractors;
+    this.phraseScorer = phraseScorer;
+    this.reorderingScorer = reorderingScorer;
+    this.filterTemplates = new FilteringAlignmentTemplates(prop, sourceFilter);
+    this.tmpDir = tmpDir;
+    this.memoryBudget = memoryBudget;
+    this.numOrientationCounts = reorderingScorer == null ? 0 : reorderingScorer.numOrientationCounts();
+    this.exactTargetCounts = phraseScorer.getRequiredPassNumber() > 1;
+    System.err.printf("External-memory extraction in %s with a budget of %dMB%n", tmpDir.getPath(),
+        memoryBudget >> 20);
+  }
+
+  /**
+   * Create a map worker for <code>MulticoreWrapper</code>.
+   */
+  ThreadsafeProcessor<PhraseExtract.ExtractorInput,Boolean> newMapper() {
+    return new Mapper();
+  }
+
+  /**
+   * Determines whether phrase pairs pass the source filter and the fertility
+   * limit without indexing them.
+   */
+  private static class FilteringAlignmentTemplates extends AlignmentTemplates {
+    private final double maxFertility;
+
+    public FilteringAlignmentTemplates(Properties prop, SourceFilter sourceFilter) {
+      super(prop, sourceFilter);
+      this.maxFertility = Double.parseDouble(prop.getProperty(
+          PhraseExtract.MAX_FERTILITY_OPT, Integer.toString(DEFAULT_MAX_FERTILITY)));
+    }
+
+    @Override
+    public void addToIndex(AlignmentTemplate alTemp) {
+      boolean add = ! getSourceFilter().isEnabled() || getSourceFilter().allows(alTemp);
+      double fertility = alTemp.e().size() / alTemp.f().size();
+      if (fertility > maxFertility) add = false;
+      alTemp.setKey(add ? 0 : -1);
+    }
+
+    @Override
+    public void incrementAlignmentCount(AlignmentTemplate alTemp) {}
+  }
+
+  /**
+   * Extracts the phrase pairs of a sentence and buffers their counts. Each
+   * instance is used by one thread at a time.
+   */
+  private class Mapper
+    implements PhraseFeaturizer, ThreadsafeProcessor<PhraseExtract.ExtractorInput,Boolean> {
+
+    private final SymmetricalWordAlignment sent;
+    private final FlatPhraseExtractor phraseExtractor;
+    private final Map<String,long[]> pairCounts = new HashMap<>();
+    private final Map<String,long[]> targetCounts = new HashMap<>();
+    private long bufferSize = 0;
+
+    public Mapper() {
+      this.sent = new SymmetricalWordAlignment(prop);
+      this.phraseExtractor = new FlatPhraseExtractor(prop, filterTemplates, Collections.singletonList(this));
+      mappers.add(this);
+    }
+
+    @Override
+    public Boolean process(PhraseExtract.ExtractorInput input) {
+      try {
+        sent.init(input.lineNb, input.fLine, input.eLine, input.aLine, false, false);
+      } catch (Exception e) {
+        System.err.println("Invalid line: " + input.toString());
+        throw new RuntimeException(e);
+      }
+      // Lexical counts are thread-safe and kept in memory.
+      phraseScorer.featurizeSentence(sent, null);
+      phraseExtractor.extractPhrases(sent);
+      if (bufferSize > memoryBudget / Math.max(1, mappers.size())) {
+        spill();
+      }
+      return true;
+    }
+
+    @Override
+    public void featurizePhrase(AlignmentTemplateInstance alTemp, AlignmentGrid alGrid) {
+      if (alTemp.getKey() < 0) {
+        // Filtered phrase pairs only contribute to the target counts.
+        if (exactTargetCounts) increment(targetCounts, alTemp.e().toString(), null);
+        return;
+      }
+      String key = alTemp.f().toString() + FIELD_DELIM + alTemp.e().toString() + FIELD_DELIM +
+          compactAlignmentToString(alTemp.getCompactAlignment());
+      increment(pairCounts, key, reorderingScorer == null ? null :
+        reorderingScorer.orientationIndices(alTemp, alGrid));
+    }
+
+    private void increment(Map<String,long[]> buffer, String key, int[] orientations) {
+      long[] counts = buffer.get(key);
+      if (counts == null) {
+        counts = new long[orientations == null ? 1 : 1 + numOrientationCounts];
+        buffer.put(key, counts);
+        bufferSize += RECORD_OVERHEAD + 2L*key.length() + 8L*counts.length;
+      }
+      ++counts[0];
+      if (orientations != null) {
+        for (int i : orientations) ++counts[i + 1];
+      }
+    }
+
+    /**
+     * Write the buffered counts to sorted runs.
+     */
+    public void spill() {
+      if ( ! pairCounts.isEmpty()) pairRuns.add(writeRun(pairCounts, "pairs"));
+      if ( ! targetCounts.isEmpty()) targetRuns.add(writeRun(targetCounts, "targets"));
+      bufferSize = 0;
+    }
+
+    @Override
+    public ThreadsafeProcessor<PhraseExtract.ExtractorInput,Boolean> newInstance() {
+      return new Mapper();
+    }
+  }
+
+  private static String compactAlignmentToString(int[] align) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < align.length; ++i) {
+      if (i > 0) sb.append(',');
+      sb.append(align[i]);
+    }
+    return sb.toString();
+  }
+
+  private static int[] compactAlignmentFromString(String str) {
+    if (str.isEmpty()) return new int[0];
+    String[] fields = str.split(",");
+    int[] align = new int[fields.length];
+    for (int i = 0; i < fields.length; ++i) align[i] = Integer.parseInt(fields[i]);
+    return align;
+  }
+
+  private static long[] parseCounts(String str) {
+    String[] fields = str.split(" ");
+    long[] counts = new long[fields.length];
+    for (int i = 0; i < fields.length; ++i) counts[i] = Long.parseLong(fields[i]);
+    return counts;
+  }
+
+  private File newRunFile(String prefix) {
+    try {
+      File file = File.createTempFile(prefix + ".", IOTools.GZ_EXTENSION, tmpDir);
+      file.deleteOnExit();
+      return file;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Sort a buffer of counts, write it to a compressed run, and clear the buffer.
+   */
+  private File writeRun(Map<String,long[]> buffer, String prefix) {
+    String[] keys = buffer.keySet().toArray(new String[buffer.size()]);
+    Arrays.sort(keys);
+    File file = newRunFile(prefix);
+    try (PrintStream ps = IOTools.getWriterFromFile(file)) {
+      StringBuilder sb = new StringBuilder();
+      for (String key : keys) {
+        sb.setLength(0);
+        sb.append(key).append(FIELD_DELIM);
+        long[] counts = buffer.get(key);
+        for (int i = 0; i < counts.length; ++i) {
+          if (i > 0) sb.append(' ');
+          sb.append(counts[i]);
+        }
+        ps.println(sb.toString());
+      }
+    }
+    buffer.clear();
+    return file;
+  }
+
+  /**
+   * Buffers lines and spills them to sorted runs.
+   */
+  private class SortedRunWriter {
+    private final String prefix;
+    private final long budget;
+    private final List<String> buffer = new ArrayList<>();
+    private final List<File> runs = new ArrayList<>();
+    private long bufferSize = 0;
+
+    public SortedRunWriter(String prefix, long budget) {
+      this.prefix = prefix;
+      this.budget = budget;
+    }
+
+    public void add(String line) {
+      buffer.add(line);
+      bufferSize += RECORD_OVERHEAD + 2L*line.length();
+      if (bufferSize > budget) spill();
+    }
+
+    private void spill() {
+      String[] lines = buffer.toArray(new String[buffer.size()]);
+      Arrays.parallelSort(lines);
+      File file = newRunFile(prefix);
+      try (PrintStream ps = IOTools.getWriterFromFile(file)) {
+        for (String line : lines) ps.println(line);
+      }
+      runs.add(file);
+      buffer.clear();
+      bufferSize = 0;
+    }
+
+    public List<File> finish() {
+      if ( ! buffer.isEmpty()) spill();
+      return runs;
+    }
+  }
+
+  /**
+   * k-way merge of sorted runs.
+   */
+  private static class RunMerger implements AutoCloseable {
+    private final PriorityQueue<RunReader> queue;
+
+    private static class RunReader {
+      final LineNumberReader reader;
+      String line;
+      RunReader(File file) throws IOException {
+        this.reader = IOTools.getReaderFromFile(file);
+        this.line = reader.readLine();
+      }
+    }
+
+    public RunMerger(List<File> runs) throws IOException {
+      queue = new PriorityQueue<>(Math.max(1, runs.size()), (a,b) -> a.line.compareTo(b.line));
+      for (File run : runs) {
+        RunReader reader = new RunReader(run);
+        if (reader.line == null) {
+          reader.reader.close();
+        } else {
+          queue.add(reader);
+        }
+      }
+    }
+
+    public boolean hasNext() { return ! queue.isEmpty(); }
+
+    public String next() throws IOException {
+      RunReader reader = queue.poll();
+      if (reader == null) throw new NoSuchElementException();
+      String line = reader.line;
+      reader.line = reader.reader.readLine();
+      if (reader.line == null) {
+        reader.reader.close();
+      } else {
+        queue.add(reader);
+      }
+      return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RunReader reader : queue) reader.reader.close();
+      queue.clear();
+    }
+  }
+
+  /**
+   * Merge runs until at most MAX_FAN_IN remain.
+   */
+  private List<File> reduceRuns(List<File> runs, String prefix) throws IOException {
+    List<File> remaining = new ArrayList<>(runs);
+    while (remaining.size() > MAX_FAN_IN) {
+      List<File> merged = new ArrayList<>();
+      for (int i = 0; i < remaining.size(); i += MAX_FAN_IN) {
+        List<File> group = remaining.subList(i, Math.min(remaining.size(), i + MAX_FAN_IN));
+        File file = newRunFile(prefix);
+        try (RunMerger merger = new RunMerger(group);
+            PrintStream ps = IOTools.getWriterFromFile(file)) {
+          while (merger.hasNext()) ps.println(merger.next());
+        }
+        for (File run : group) run.delete();
+        merged.add(file);
+      }
+      remaining = merged;
+    }
+    return remaining;
+  }
+
+  private static void deleteRuns(List<File> runs, List<File> reducedRuns) {
+    for (File run : runs) run.delete();
+    for (File run : reducedRuns) run.delete();
+  }
+
+  /**
+   * Statistics of a phrase pair collected during the merge by source phrase.
+   */
+  private static class PairStatistics {
+    final String e;
+    final long[] orientationCounts;
+    final Map<String,Long> alignmentCounts = new HashMap<>();
+    long count = 0;
+    PairStatistics(String e, int numOrientationCounts) {
+      this.e = e;
+      this.orientationCounts = new long[numOrientationCounts];
+    }
+    void add(String alignment, long[] counts) {
+      count += counts[0];
+      alignmentCounts.merge(alignment, counts[0], Long::sum);
+      for (int i = 1; i < counts.length; ++i) orientationCounts[i - 1] += counts[i];
+    }
+
+    /**
+     * The most frequent alignment. Ties are broken by lexicographic order as in
+     * {@link AlignmentTemplates}.
+     */
+    String bestAlignment() {
+      String best = null;
+      long bestCount = -1;
+      String bestString = null;
+      for (Map.Entry<String,Long> entry : alignmentCounts.entrySet()) {
+        if (entry.getValue() > bestCount) {
+          best = entry.getKey();
+          bestCount = entry.getValue();
+          bestString = null;
+        } else if (entry.getValue() == bestCount) {
+          if (bestString == null) bestString = AlignmentTemplate.alignmentToString(compactAlignmentFromString(best));
+          String str = AlignmentTemplate.alignmentToString(compactAlignmentFromString(entry.getKey()));
+          if (str.compareTo(bestString) < 0) {
+            best = entry.getKey();
+            bestString = str;
+          }
+        }
+      }
+      return best;
+    }
+  }
+
+  /**
+   * Merge the phrase pair runs by source phrase. Writes one record per phrase pair
+   * with the counts c(f,e) and c(f) to runs sorted by target phrase.
+   */
+  private List<File> mergeBySource(List<File> runs) throws IOException {
+    SortedRunWriter writer = new SortedRunWriter("target-sorted", memoryBudget);
+    List<PairStatistics> sourceGroup = new ArrayList<>();
+    String currentSource = null;
+    PairStatistics currentPair = null;
+    long numPairs = 0;
+    List<File> reducedRuns = reduceRuns(runs, "pairs");
+    try (RunMerger merger = new RunMerger(reducedRuns)) {
+      while (true) {
+        String line = merger.hasNext() ? merger.next() : null;
+        String[] fields = line == null ? null : line.split(FIELD_DELIM);
+        if (line == null || ! fields[0].equals(currentSource)) {
+          // Completed the source phrase
+          if (currentSource != null) {
+            long sourceCount = 0;
+            for (PairStatistics pair : sourceGroup) sourceCount += pair.count;
+            for (PairStatistics pair : sourceGroup) {
+              String alignment = pair.bestAlignment();
+              StringBuilder sb = new StringBuilder();
+              sb.append(pair.e).append(FIELD_DELIM).append(currentSource).append(FIELD_DELIM)
+                .append(alignment).append(FIELD_DELIM).append(pair.count).append(' ').append(sourceCount)
+                .append(' ').append(pair.alignmentCounts.get(alignment));
+              for (long count : pair.orientationCounts) sb.append(' ').append(count);
+              writer.add(sb.toString());
+              ++numPairs;
+            }
+          }
+          if (line == null) break;
+          currentSource = fields[0];
+          sourceGroup.clear();
+          currentPair = null;
+        }
+        if (currentPair == null || ! fields[1].equals(currentPair.e)) {
+          currentPair = new PairStatistics(fields[1], numOrientationCounts);
+          sourceGroup.add(currentPair);
+        }
+        currentPair.add(fields[2], parseCounts(fields[3]));
+      }
+    }
+    deleteRuns(runs, reducedRuns);
+    System.err.printf("Unique phrase pairs: %d%n", numPairs);
+    return writer.finish();
+  }
+
+  /**
+   * Merge by target phrase, score the phrase pairs, and buffer the output lines
+   * of each file.
+   */
+  private Map<String,SortedRunWriter> mergeByTarget(List<File> runs, PhrasePrinter phrasePrinter,
+      Map<AbstractFeatureExtractor,String> extractorToFile, List<String> files,
+      boolean withAlign, int minPhraseCount) throws IOException {
+    final Map<String,SortedRunWriter> writers = new HashMap<>();
+    for (String file : files) {
+      writers.put(file, new SortedRunWriter("rules", memoryBudget / files.size()));
+    }
+    List<String[]> targetGroup = new ArrayList<>();
+    String currentTarget = null;
+    long targetCount = 0;
+    int phrasesWritten = 0;
+    List<File> reducedRuns = reduceRuns(runs, "target-sorted");
+    try (RunMerger merger = new RunMerger(reducedRuns)) {
+      while (true) {
+        String line = merger.hasNext() ? merger.next() : null;
+        String[] fields = line == null ? null : line.split(FIELD_DELIM);
+        if (line == null || ! fields[0].equals(currentTarget)) {
+          for (String[] pair : targetGroup) {
+            if (writeRule(pair, targetCount, phrasePrinter, extractorToFile, files, writers,
+                withAlign, minPhraseCount)) {
+              ++phrasesWritten;
+            }
+          }
+          if (line == null) break;
+          currentTarget = fields[0];
+          targetGroup.clear();
+          targetCount = 0;
+        }
+        if (fields.length == 2) {
+          // Count of filtered phrase pairs
+          targetCount += Long.parseLong(fields[1]);
+        } else {
+          targetGroup.add(fields);
+          targetCount += Long.parseLong(fields[3].substring(0, fields[3].indexOf(' ')));
+        }
+      }
+    }
+    deleteRuns(runs, reducedRuns);
+    System.err.printf("Phrases written: %d%n", phrasesWritten);
+    return writers;
+  }
+
+  /**
+   * Score a phrase pair and add its output lines to the writers.
+   */
+  private boolean writeRule(String[] fields, long targetCount, PhrasePrinter phrasePrinter,
+      Map<AbstractFeatureExtractor,String> extractorToFile, List<String> files,
+      Map<String,SortedRunWriter> writers, boolean withAlign, int minPhraseCount) {
+    long[] counts = parseCounts(fields[3]);
+    final long pairCount = counts[0], sourceCount = counts[1], alignmentCount = counts[2];
+    if (alignmentCount < minPhraseCount) return false;
+
+    AlignmentTemplateInstance alTemp = new AlignmentTemplateInstance();
+    alTemp.init(Sequences.toIntArray(IStrings.tokenize(fields[1])),
+        Sequences.toIntArray(IStrings.tokenize(fields[0])), compactAlignmentFromString(fields[2]), false);
+
+    Map<String,StringBuilder> fileToScores = new HashMap<>();
+    for (String file : files) fileToScores.put(file, new StringBuilder());
+    for (AbstractFeatureExtractor extractor : extractors) {
+      final Object scores;
+      if (extractor == phraseScorer) {
+        scores = phraseScorer.score(alTemp, pairCount, sourceCount, targetCount);
+      } else {
+        // Orientation counts follow c(f,e), c(f), and the alignment count
+        scores = reorderingScorer.score(counts, 3);
+      }
+      if (scores == null) return false;
+      PhraseExtract.appendScores(scores, fileToScores.get(extractorToFile.get(extractor)));
+    }
+    String ruleStr = phrasePrinter.toString(alTemp, withAlign) + " " + AlignmentTemplate.DELIM + " ";
+    for (String file : files) {
+      writers.get(file).add(ruleStr + fileToScores.get(file).toString());
+    }
+    return true;
+  }
+
+  /**
+   * Flush the map workers, run the reduce phase, and write the rules in
+   * source order.
+   *
+   * @param phrasePrinter
+   * @param extractorToFile
+   * @param fileToWriter
+   * @param withAlign
+   * @param minPhraseCount
+   * @return
+   */
+  public boolean write(PhrasePrinter phrasePrinter, Map<AbstractFeatureExtractor,String> extractorToFile,
+      Map<String,PrintStream> fileToWriter, boolean withAlign, int minPhraseCount) {
+    final long startTime = System.nanoTime();
+    for (Mapper mapper : mappers) mapper.spill();
+    System.err.printf("Sorted runs: %d phrase pairs, %d filtered targets%n", pairRuns.size(), targetRuns.size());
+    try {
+      List<File> targetSortedRuns = new ArrayList<>(mergeBySource(new ArrayList<>(pairRuns)));
+      targetSortedRuns.addAll(targetRuns);
+      List<String> files = new ArrayList<>(fileToWriter.keySet());
+      Map<String,SortedRunWriter> writers = mergeByTarget(targetSortedRuns, phrasePrinter, extractorToFile,
+          files, withAlign, minPhraseCount);
+      for (String file : files) {
+        List<File> runs = writers.get(file).finish();
+        PrintStream ps = fileToWriter.get(file);
+        List<File> reducedRuns = reduceRuns(runs, "rules");
+        try (RunMerger merger = new RunMerger(reducedRuns)) {
+          while (merger.hasNext()) ps.println(merger.next());
+        }
+        deleteRuns(runs, reducedRuns);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    double elapsedTime = ((double) (System.nanoTime() - startTime)) / 1e9;
+    System.err.printf("Done generating phrase table. Elapsed time: %.3fs.%n", elapsedTime);
+    return true;
+  }
+}
@@ -6,7 +6,7 @@ package edu.stanford.nlp.mt.train;
  * 
  * @author Michel Galley
  */
-public interface FeatureExtractor {
+public interface FeatureExtractor extends PhraseFeaturizer {
 
   /**
    * Returns true if the feature extractor needs to have access to access to the
@@ -44,6 +44,7 @@ public interface FeatureExtractor {
    *          corners lying at (i,j) in the alignment grid. Not that if
    *          {@link #needAlGrid} returns false, alTemps is always null.
    */
+  @Override
   public void featurizePhrase(AlignmentTemplateInstance alTemp,
       AlignmentGrid alGrid);
 
@@ -19,7 +19,7 @@ public class FlatPhraseExtractor extends AbstractPhraseExtractor {
   }
 
   public FlatPhraseExtractor(Properties prop, AlignmentTemplates alTemps,
-      List<AbstractFeatureExtractor> extractors) {
+      List<? extends PhraseFeaturizer> extractors) {
     super(prop, alTemps, extractors);
   }
 
@@ -341,6 +341,46 @@ public class LexicalReorderingFeatureExtractor extends AbstractFeatureExtractor
     return scores;
   }
 
+  /**
+   * Number of orientation counts collected for each phrase pair.
+   */
+  int numOrientationCounts() {
+    return modelSize * numModels;
+  }
+
+  /**
+   * Indices of the orientation counts incremented by an instance of a phrase
+   * pair. Used by {@link ExternalPhraseExtract}, which collects the counts on disk.
+   */
+  int[] orientationIndices(AlignmentTemplateInstance alTemp, AlignmentGrid alGrid) {
+    ReorderingTypes type1 = getReorderingType(alTemp, alGrid, true);
+    ReorderingTypes type2 = getReorderingType(alTemp, alGrid, false);
+    switch (directionType) {
+    case forward:
+      return new int[] { typeToIdx[type1.ordinal()] };
+    case backward:
+      return new int[] { typeToIdx[type2.ordinal()] };
+    case bidirectional:
+      return new int[] { typeToIdx[type1.ordinal()], modelSize + typeToIdx[type2.ordinal()] };
+    default:
+      return new int[] { typeToIdx[type1.ordinal()] * modelSize + typeToIdx[type2.ordinal()] };
+    }
+  }
+
+  /**
+   * Score a phrase pair given its orientation counts in the layout of
+   * {@link #orientationIndices(AlignmentTemplateInstance, AlignmentGrid)},
+   * starting at <code>countsOffset</code>. The counts are merged across the
+   * whole corpus, so they are not narrowed to int.
+   */
+  float[] score(long[] counts, int countsOffset) {
+    float[] scores = new float[modelSize * numModels];
+    for (int i = 0; i < numModels; ++i) {
+      fillProbDist(counts, countsOffset + i * modelSize, scores, i * modelSize);
+    }
+    return scores;
+  }
+
   private int initTypeToIdx() {
     int curOrd = -1, curIdx = -1;
     for (int i = 0; i < enabledTypes.length; ++i) {
@@ -431,6 +471,19 @@ public class LexicalReorderingFeatureExtractor extends AbstractFeatureExtractor
         }
   }
 
+  private void fillProbDist(long[] counts, int countsOffset, float[] probs, int offset) {
+    float norm = modelSize * LAPLACE_SMOOTHING;
+    for (int i = 0; i < modelSize; ++i)
+      norm += counts[countsOffset + i];
+    if (norm > 0)
+      for (int i = 0; i < modelSize; ++i)
+        if (UNNORM) {
+          probs[i + offset] = counts[countsOffset + i] + LAPLACE_SMOOTHING;
+        } else {
+          probs[i + offset] = (counts[countsOffset + i] + LAPLACE_SMOOTHING) / norm;
+        }
+  }
+
   public void fillProbDistI(int[] counts, float[] probs, int offset) {
     float norm = 0.0f;
     for (int i = 0; i < modelSize; ++i)
@@ -58,8 +58,8 @@ public class MosesPharoahFeatureExtractor extends AbstractFeatureExtractor imple
       AlignmentTemplates alTemps) {
     super.init(prop, featureIndex, alTemps);
     // Set counts of "NULL":
-    fLexCounts.add(0);
-    eLexCounts.add(0);
+    fLexCounts.add(indexOfFLex(NULL_STR, true));
+    eLexCounts.add(indexOfELex(NULL_STR, true));
     // Do we want exact counts?
     boolean exact = prop.getProperty(PhraseExtract.EXACT_PHI_OPT, "true")
         .equals("true");
@@ -90,6 +90,9 @@ public class MosesPharoahFeatureExtractor extends AbstractFeatureExtractor imple
 
   @Override
   public void featurizeSentence(SymmetricalWordAlignment sent, AlignmentGrid alGrid) {
+    // Word counts are collected once, during the first pass:
+    if (getCurrentPass() > 0)
+      return;
     // Increment word counts:
     Sequence<IString> f = sent.f();
     Sequence<IString> e = sent.e();
@@ -137,10 +140,18 @@ public class MosesPharoahFeatureExtractor extends AbstractFeatureExtractor imple
     if ( ! (feCounts.contains(idx) && eCounts.contains(idxE) && fCounts.contains(idxF))) {
       throw new RuntimeException("Unknown alignment template");
     }
+    return score(alTemp, feCounts.count(idx), fCounts.count(idxF), eCounts.count(idxE));
+  }
+
+  /**
+   * Score an alignment template given its phrase counts. The lexical
+   * weighting counts are taken from this extractor. Used by
+   * {@link ExternalPhraseExtract}, which collects phrase counts on disk.
+   *
+   * @return The feature values, or null if the phrase pair is filtered.
+   */
+  double[] score(AlignmentTemplate alTemp, double pairCount, double fCount, double eCount) {
     // Compute phi features p(f|e) and p(e|f):
-    double pairCount = feCounts.count(idx);
-    double eCount = eCounts.count(idxE);
-    double fCount = fCounts.count(idxF);
     double phi_f_e = pairCount * 1.0 / eCount;
     double phi_e_f = pairCount * 1.0 / fCount;
 
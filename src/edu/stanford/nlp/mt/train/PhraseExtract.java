@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.io.File;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintStream;
@@ -61,7 +62,7 @@ public class PhraseExtract {
   // The Moses default feature set: a phrase table and a lexicalized
   // reordering model.
   private static final String DEFAULT_FEATURE_SET = 
-      String.format("%s%s%s%s%s%s", MosesPharoahFeatureExtractor.class.getName(),
+      String.format("%s%s%s%s%s%s%s", MosesPharoahFeatureExtractor.class.getName(),
           FILE_DELIM, DEFAULT_PTABLE_NAME, FEATURE_EXTRACTOR_DELIM, 
           LexicalReorderingFeatureExtractor.class.getName(),
           FILE_DELIM, DEFAULT_LO_NAME);
@@ -101,6 +102,8 @@ public class PhraseExtract {
   static public final String TRIPLE_FILE = "tripleFile";
   static public final String MIN_PHRASE_COUNT = "minCount";
   static public final String OUTPUT_DIR = "outputDir";
+  static public final String EXTERNAL_DIR_OPT = "externalDir";
+  static public final String MEMORY_BUDGET_OPT = "memoryBudget";
   
   
   // phrase translation probs:  
@@ -158,7 +161,7 @@ public class PhraseExtract {
         DTUPhraseExtractor.NO_UNALIGNED_SUBPHRASE_OPT,
         FILTER_CENTERDOT_OPT,
         WITH_POS_OPT,
-        TRIPLE_FILE));
+        TRIPLE_FILE, EXTERNAL_DIR_OPT, MEMORY_BUDGET_OPT));
     ALL_RECOGNIZED_OPTS.addAll(REQUIRED_OPTS);
     ALL_RECOGNIZED_OPTS.addAll(OPTIONAL_OPTS);
   }
@@ -193,6 +196,11 @@ public class PhraseExtract {
   private boolean lowercase;
   private String outputDir;
   private boolean addBoundaryMarkers;
+
+  // External-memory extraction
+  private String externalDir;
+  private long memoryBudget;
+  private ExternalPhraseExtract externalExtract = null;
   
   // Triple file format:
   // Single source ||| target ||| alignment triple file
@@ -359,6 +367,8 @@ public class PhraseExtract {
     verbose = Boolean.parseBoolean(prop.getProperty(VERBOSE_OPT, "false"));
     minPhraseCount = PropertiesUtils.getInt(prop, MIN_PHRASE_COUNT, 0);
     outputDir = prop.getProperty(OUTPUT_DIR, null);
+    externalDir = prop.getProperty(EXTERNAL_DIR_OPT, null);
+    memoryBudget = PropertiesUtils.getLong(prop, MEMORY_BUDGET_OPT, 2048) << 20;
   }
 
   /**
@@ -456,6 +466,12 @@ public class PhraseExtract {
     }
 
     setTotalPassNumber();
+
+    if (externalDir != null) {
+      externalExtract = new ExternalPhraseExtract(prop, extractors, sourceFilter,
+          new File(externalDir), memoryBudget);
+      totalPassNumber = 1;
+    }
   }
 
   /**
@@ -464,7 +480,7 @@ public class PhraseExtract {
    * @author Spence Green
    *
    */
-  private static class ExtractorInput {
+  static class ExtractorInput {
     public final int lineNb;
     public final String fLine;
     public final String eLine;
@@ -558,9 +574,10 @@ public class PhraseExtract {
 
         doneReadingData = false;
 
+        ThreadsafeProcessor<ExtractorInput,Boolean> extractor = externalExtract == null ?
+            new Extractor(phraseExtractor, prop, extractors) : externalExtract.newMapper();
         MulticoreWrapper<ExtractorInput,Boolean> wrapper = 
-            new MulticoreWrapper<ExtractorInput,Boolean>(nThreads, 
-                new Extractor(phraseExtractor, prop, extractors), false);
+            new MulticoreWrapper<ExtractorInput,Boolean>(nThreads, extractor, false);
 
         boolean useGIZA = alignInvCorpus != null;
 
@@ -717,8 +734,10 @@ public class PhraseExtract {
       }
 
       // just let each extractor output some stuff to the STDERR
-      for (AbstractFeatureExtractor e : extractors)
-        e.report();
+      if (externalExtract == null) {
+        for (AbstractFeatureExtractor e : extractors)
+          e.report();
+      }
 
     } catch (IOException e) {
       e.printStackTrace();
@@ -727,6 +746,10 @@ public class PhraseExtract {
 
   // Write combined features to a stream.
   boolean write(boolean withAlign) {
+    if (externalExtract != null) {
+      return externalExtract.write(phrasePrinter, extractorToFileString, fileStringToWriter,
+          withAlign, minPhraseCount);
+    }
 
     final long startTime = System.nanoTime();
 
@@ -772,26 +795,7 @@ public class PhraseExtract {
           // Impossible unless the init() method is changed....
           throw new RuntimeException("No score collector for output file: " + outFileName);  
         }
-        
-        if (scores instanceof float[]) { // as dense vector
-          float[] scoreArray = (float[]) scores;
-          for (float score : scoreArray) {
-            score = (score > 0.0) ? (float) Math.log(score) : score;
-            scoreStr.append(score).append(" ");
-          }
-        
-        } else if (scores instanceof double[]) {
-          double[] scoreArray = (double[]) scores;
-          for (double score : scoreArray) {
-            score = (score > 0.0) ? Math.log(score) : score;
-            scoreStr.append((float) score).append(" ");
-          }
-        
-        } else {
-          throw new UnsupportedOperationException(
-              "AbstractFeatureExtractor should return double[] or Counter, not "
-                  + scores.getClass());
-        }
+        appendScores(scores, scoreStr);
       }
       if (!skip) {
         for (String file : fileStringToWriter.keySet()) {
@@ -812,6 +816,29 @@ public class PhraseExtract {
     return true;
   }
 
+  // Append log scores to a rule.
+  static void appendScores(Object scores, StringBuilder scoreStr) {
+    if (scores instanceof float[]) { // as dense vector
+      float[] scoreArray = (float[]) scores;
+      for (float score : scoreArray) {
+        score = (score > 0.0) ? (float) Math.log(score) : score;
+        scoreStr.append(score).append(" ");
+      }
+
+    } else if (scores instanceof double[]) {
+      double[] scoreArray = (double[]) scores;
+      for (double score : scoreArray) {
+        score = (score > 0.0) ? Math.log(score) : score;
+        scoreStr.append((float) score).append(" ");
+      }
+
+    } else {
+      throw new UnsupportedOperationException(
+          "AbstractFeatureExtractor should return double[] or Counter, not "
+              + scores.getClass());
+    }
+  }
+
   private void setTotalPassNumber() {
     totalPassNumber = 0;
     for (AbstractFeatureExtractor ex : extractors) {
@@ -822,7 +849,7 @@ public class PhraseExtract {
   }
 
   public void extractAll() {
-    if (filterFromDev) {
+    if (filterFromDev && externalDir == null) {
       int sz = sourceFilter.size();
       int size = 1 + (numSplits == 0 ? sz : sz / numSplits);
       int startLine = 0;
@@ -835,6 +862,10 @@ public class PhraseExtract {
       }
     } else {
       init();
+      if (filterFromDev) {
+        // External-memory extraction does not split the filter list
+        sourceFilter.setRange(0, sourceFilter.size());
+      }
       extractFromAlignedData();
       write(withAlign);
     }
@@ -867,6 +898,9 @@ public class PhraseExtract {
             + " -fFilterList <file> : phrase extraction restricted to this list%n"
             + " -split <N> : split filter list into N chunks%n"
             + "  (divides memory usage by N, but multiplies running time by N)%n"
+            + " -externalDir <dir> : spill sorted rule counts to <dir> and merge them on disk%n"
+            + "  (supports the default extractors; replaces -split)%n"
+            + " -memoryBudget <MB> : memory for buffered rule counts with -externalDir (default: 2048)%n"
             + " -refFile <file> : check features against a Moses phrase table%n"
             + " -maxLen <n> : max phrase length%n"
             + " -maxLenF <n> : max phrase length (source-language)%n"
@@ -0,0 +1,19 @@
+package edu.stanford.nlp.mt.train;
+
+/**
+ * Receives the phrase pairs extracted from a sentence pair by an
+ * {@link AbstractPhraseExtractor}.
+ */
+public interface PhraseFeaturizer {
+
+  /**
+   * Called once for each instance of an alignment template.
+   * 
+   * @param alTemp
+   *          A particular occurrence of an alignment template.
+   * @param alGrid
+   *          The alignment grid of the sentence pair.
+   */
+  public void featurizePhrase(AlignmentTemplateInstance alTemp,
+      AlignmentGrid alGrid);
+}
@@ -25,7 +25,7 @@ public class SoftPhraseExtractor extends AbstractPhraseExtractor {
   private static final int[] in = new int[MAX_SENT_LEN];
 
   public SoftPhraseExtractor(Properties prop, AlignmentTemplates alTemps,
-      List<AbstractFeatureExtractor> extractors) {
+      List<? extends PhraseFeaturizer> extractors) {
     super(prop, alTemps, extractors);
     System.err.println("Using experimental phrase extractor. Max crossings: "
         + maxCrossings);
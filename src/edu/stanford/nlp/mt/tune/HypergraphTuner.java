@@ -0,0 +1,574 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.decoder.util.TranslationHypergraph;
+import edu.stanford.nlp.mt.metrics.MetricUtils;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
+
+/**
+ * Batch tuning over search hypergraphs written by the decoder (see
+ * <code>Phrasal.HYPERGRAPH_OUTPUT_FILE</code>) instead of n-best lists.
+ *
+ * Two objectives are supported:
+ * <ul>
+ * <li><code>mert</code>: Lattice MERT (Macherey et al., 2008). The line search computes
+ * the upper envelope of all paths in the hypergraph along a search direction.</li>
+ * <li><code>xbleu</code>: Expected linear BLEU (Tromble et al., 2008) maximized by
+ * gradient ascent. Expectations and feature covariances are computed with the
+ * inside-outside algorithm.</li>
+ * </ul>
+ *
+ * BLEU sufficient statistics are computed per edge from the target phrase and its left
+ * context. Matches are not clipped across edges, which is the usual approximation for
+ * hypergraph MERT.
+ */
+public class HypergraphTuner {
+
+  private static final Logger logger = LogManager.getLogger(HypergraphTuner.class);
+
+  private static final int MAX_ORDER = 4;
+
+  // Layout of the sufficient statistics
+  private static final int MATCH_OFFSET = 0;
+  private static final int TOTAL_OFFSET = MAX_ORDER;
+  private static final int LENGTH_OFFSET = 2*MAX_ORDER;
+  private static final int NUM_STATS = 2*MAX_ORDER + 1;
+
+  // Linear BLEU parameters from Tromble et al. (2008)
+  private static final double LINEAR_BLEU_PRECISION = 0.85;
+  private static final double LINEAR_BLEU_RATIO = 0.7;
+
+  private static final double MIN_IMPROVEMENT = 1e-5;
+
+  private final List<TranslationHypergraph<IString,String>> hypergraphs;
+  private final List<double[][]> edgeStatistics;
+  private final List<int[]> refLengths;
+  private final double[] linearBleuWeights;
+
+  /**
+   * Constructor.
+   *
+   * @param hypergraphs
+   * @param references
+   */
+  public HypergraphTuner(List<TranslationHypergraph<IString,String>> hypergraphs,
+      List<List<Sequence<IString>>> references) {
+    this.hypergraphs = hypergraphs;
+    this.edgeStatistics = new ArrayList<>(hypergraphs.size());
+    this.refLengths = new ArrayList<>(hypergraphs.size());
+    for (TranslationHypergraph<IString,String> hypergraph : hypergraphs) {
+      if (hypergraph.sourceInputId >= references.size()) {
+        throw new IllegalArgumentException("No reference for input " + hypergraph.sourceInputId);
+      }
+      List<Sequence<IString>> refs = references.get(hypergraph.sourceInputId);
+      edgeStatistics.add(edgeStatistics(hypergraph, refs));
+      refLengths.add(refs.stream().mapToInt(Sequence::size).toArray());
+    }
+
+    linearBleuWeights = new double[NUM_STATS];
+    linearBleuWeights[LENGTH_OFFSET] = -1.0;
+    for (int n = 0; n < MAX_ORDER; ++n) {
+      linearBleuWeights[MATCH_OFFSET + n] = 1.0 / (MAX_ORDER * LINEAR_BLEU_PRECISION *
+          Math.pow(LINEAR_BLEU_RATIO, n));
+    }
+  }
+
+  /**
+   * Compute BLEU sufficient statistics for each edge.
+   */
+  private static double[][] edgeStatistics(TranslationHypergraph<IString,String> hypergraph,
+      List<Sequence<IString>> refs) {
+    Set<Sequence<IString>> refNgrams = new HashSet<>();
+    for (Sequence<IString> ref : refs) refNgrams.addAll(Sequences.ngrams(ref, MAX_ORDER));
+
+    double[][] stats = new double[hypergraph.numEdges()][];
+    for (int e = 0; e < stats.length; ++e) {
+      Sequence<IString> context = hypergraph.contexts.get(e);
+      Sequence<IString> window = context.concat(hypergraph.targets.get(e));
+      double[] edgeStats = new double[NUM_STATS];
+      for (int j = context.size(), sz = window.size(); j < sz; ++j) {
+        for (int n = 0; n < MAX_ORDER; ++n) {
+          int start = j - n;
+          if (start < 0) break;
+          edgeStats[TOTAL_OFFSET + n] += 1.0;
+          if (refNgrams.contains(window.subsequence(start, j + 1))) edgeStats[MATCH_OFFSET + n] += 1.0;
+        }
+      }
+      edgeStats[LENGTH_OFFSET] = window.size() - context.size();
+      stats[e] = edgeStats;
+    }
+    return stats;
+  }
+
+  /**
+   * Closest reference length. Ties are broken in favor of the shorter reference.
+   */
+  private static int closestRefLength(int[] lengths, double hypLength) {
+    int best = lengths[0];
+    for (int length : lengths) {
+      double diff = Math.abs(length - hypLength);
+      double bestDiff = Math.abs(best - hypLength);
+      if (diff < bestDiff || (diff == bestDiff && length < best)) best = length;
+    }
+    return best;
+  }
+
+  /**
+   * BLEU from corpus-level sufficient statistics.
+   */
+  private static double bleu(double[] stats, double refLength) {
+    double logPrecision = 0.0;
+    for (int n = 0; n < MAX_ORDER; ++n) {
+      if (stats[MATCH_OFFSET + n] == 0.0) return 0.0;
+      logPrecision += Math.log(stats[MATCH_OFFSET + n] / stats[TOTAL_OFFSET + n]);
+    }
+    final double hypLength = stats[LENGTH_OFFSET];
+    final double brevityPenalty = hypLength < refLength ? 1.0 - refLength / hypLength : 0.0;
+    return Math.exp(logPrecision / MAX_ORDER + brevityPenalty);
+  }
+
+  /**
+   * Dot product of the edge features with a weight vector.
+   */
+  private static double[] dotProducts(TranslationHypergraph<IString,String> hypergraph, Counter<String> weights) {
+    double[] scores = new double[hypergraph.numEdges()];
+    for (int e = 0; e < scores.length; ++e) {
+      double score = 0.0;
+      for (FeatureValue<String> f : hypergraph.features.get(e)) score += weights.getCount(f.name) * f.value;
+      scores[e] = score;
+    }
+    return scores;
+  }
+
+  /**
+   * Corpus BLEU of the Viterbi derivations under the given weights.
+   *
+   * @param weights
+   * @return
+   */
+  public double viterbiBleu(Counter<String> weights) {
+    double[] corpusStats = new double[NUM_STATS];
+    double refLength = 0.0;
+    for (int i = 0, sz = hypergraphs.size(); i < sz; ++i) {
+      TranslationHypergraph<IString,String> hypergraph = hypergraphs.get(i);
+      double[] scores = dotProducts(hypergraph, weights);
+      double[] best = new double[hypergraph.numNodes];
+      int[] backPointer = new int[hypergraph.numNodes];
+      Arrays.fill(best, Double.NEGATIVE_INFINITY);
+      Arrays.fill(backPointer, -1);
+      best[0] = 0.0;
+      for (int e = 0; e < scores.length; ++e) {
+        double score = best[hypergraph.tails[e]] + scores[e];
+        if (score > best[hypergraph.heads[e]]) {
+          best[hypergraph.heads[e]] = score;
+          backPointer[hypergraph.heads[e]] = e;
+        }
+      }
+      int bestGoal = -1;
+      for (int goal : hypergraph.goalNodes) {
+        if (bestGoal < 0 || best[goal] > best[bestGoal]) bestGoal = goal;
+      }
+      double[] stats = new double[NUM_STATS];
+      for (int node = bestGoal; node >= 0 && backPointer[node] >= 0; node = hypergraph.tails[backPointer[node]]) {
+        double[] edgeStats = edgeStatistics.get(i)[backPointer[node]];
+        for (int k = 0; k < NUM_STATS; ++k) stats[k] += edgeStats[k];
+      }
+      for (int k = 0; k < NUM_STATS; ++k) corpusStats[k] += stats[k];
+      refLength += closestRefLength(refLengths.get(i), stats[LENGTH_OFFSET]);
+    }
+    return bleu(corpusStats, refLength);
+  }
+
+  /**
+   * A line in the upper envelope. The line is optimal on the interval
+   * that starts at <code>x</code>.
+   */
+  static class Line {
+    final double slope;
+    final double intercept;
+    final double[] stats;
+    double x = Double.NEGATIVE_INFINITY;
+    Line(double slope, double intercept, double[] stats) {
+      this.slope = slope;
+      this.intercept = intercept;
+      this.stats = stats;
+    }
+  }
+
+  /**
+   * Compute the upper envelope of a set of lines.
+   */
+  private static List<Line> upperEnvelope(List<Line> lines) {
+    lines.sort(Comparator.comparingDouble((Line l) -> l.slope).thenComparingDouble(l -> l.intercept));
+    List<Line> hull = new ArrayList<>(lines.size());
+    for (Line line : lines) {
+      if ( ! hull.isEmpty() && hull.get(hull.size() - 1).slope == line.slope) {
+        hull.remove(hull.size() - 1);
+      }
+      line.x = Double.NEGATIVE_INFINITY;
+      while ( ! hull.isEmpty()) {
+        Line top = hull.get(hull.size() - 1);
+        double x = (line.intercept - top.intercept) / (top.slope - line.slope);
+        if (x <= top.x) {
+          hull.remove(hull.size() - 1);
+        } else {
+          line.x = x;
+          break;
+        }
+      }
+      hull.add(line);
+    }
+    return hull;
+  }
+
+  /**
+   * Upper envelope of all goal paths of a hypergraph along the line weights + x*direction.
+   */
+  List<Line> goalEnvelope(int i, Counter<String> weights, Counter<String> direction) {
+    final TranslationHypergraph<IString,String> hypergraph = hypergraphs.get(i);
+    final double[][] stats = edgeStatistics.get(i);
+    final double[] intercepts = dotProducts(hypergraph, weights);
+    final double[] slopes = dotProducts(hypergraph, direction);
+
+    final List<List<Line>> envelopes = new ArrayList<>(Collections.nCopies(hypergraph.numNodes, null));
+    envelopes.set(0, Collections.singletonList(new Line(0.0, 0.0, new double[NUM_STATS])));
+    List<Line> candidates = new ArrayList<>();
+    for (int e = 0, numEdges = hypergraph.numEdges(); e < numEdges; ++e) {
+      final List<Line> tailEnvelope = envelopes.get(hypergraph.tails[e]);
+      if (tailEnvelope != null) {
+        for (Line line : tailEnvelope) {
+          double[] lineStats = line.stats.clone();
+          for (int k = 0; k < NUM_STATS; ++k) lineStats[k] += stats[e][k];
+          candidates.add(new Line(line.slope + slopes[e], line.intercept + intercepts[e], lineStats));
+        }
+      }
+      // Edges are sorted by head
+      final int head = hypergraph.heads[e];
+      if (e + 1 == numEdges || hypergraph.heads[e + 1] != head) {
+        envelopes.set(head, upperEnvelope(candidates));
+        candidates = new ArrayList<>();
+      }
+    }
+
+    List<Line> goalLines = new ArrayList<>();
+    for (int goal : hypergraph.goalNodes) {
+      if (envelopes.get(goal) == null) continue;
+      for (Line line : envelopes.get(goal)) goalLines.add(new Line(line.slope, line.intercept, line.stats));
+    }
+    return upperEnvelope(goalLines);
+  }
+
+  /**
+   * Exact line search along a direction.
+   *
+   * @param weights
+   * @param direction
+   * @return The optimal step size and corpus BLEU at that point.
+   */
+  public double[] lineSearch(Counter<String> weights, Counter<String> direction) {
+    final int numSentences = hypergraphs.size();
+    final List<List<Line>> envelopes = new ArrayList<>(numSentences);
+    final double[] corpusStats = new double[NUM_STATS];
+    final double[] sentenceRefLengths = new double[numSentences];
+    double refLength = 0.0;
+    List<double[]> events = new ArrayList<>();
+    for (int i = 0; i < numSentences; ++i) {
+      List<Line> envelope = goalEnvelope(i, weights, direction);
+      envelopes.add(envelope);
+      if (envelope.isEmpty()) continue;
+      double[] stats = envelope.get(0).stats;
+      for (int k = 0; k < NUM_STATS; ++k) corpusStats[k] += stats[k];
+      sentenceRefLengths[i] = closestRefLength(refLengths.get(i), stats[LENGTH_OFFSET]);
+      refLength += sentenceRefLengths[i];
+      for (int j = 1; j < envelope.size(); ++j) events.add(new double[] { envelope.get(j).x, i, j });
+    }
+    events.sort(Comparator.comparingDouble(ev -> ev[0]));
+
+    // Sweep over the intervals
+    double bestScore = bleu(corpusStats, refLength);
+    double bestStep = events.isEmpty() ? 0.0 : events.get(0)[0] - 1.0;
+    double currentScore = events.isEmpty() || events.get(0)[0] > 0.0 ? bestScore : Double.NEGATIVE_INFINITY;
+    for (int k = 0, sz = events.size(); k < sz;) {
+      final double x = events.get(k)[0];
+      for (; k < sz && events.get(k)[0] == x; ++k) {
+        final int i = (int) events.get(k)[1];
+        final int j = (int) events.get(k)[2];
+        final double[] oldStats = envelopes.get(i).get(j - 1).stats;
+        final double[] newStats = envelopes.get(i).get(j).stats;
+        for (int s = 0; s < NUM_STATS; ++s) corpusStats[s] += newStats[s] - oldStats[s];
+        double newRefLength = closestRefLength(refLengths.get(i), newStats[LENGTH_OFFSET]);
+        refLength += newRefLength - sentenceRefLengths[i];
+        sentenceRefLengths[i] = newRefLength;
+      }
+      final double nextX = k < sz ? events.get(k)[0] : x + 2.0;
+      final double score = bleu(corpusStats, refLength);
+      if (x <= 0.0 && 0.0 < nextX) currentScore = score;
+      if (score > bestScore) {
+        bestScore = score;
+        bestStep = (x + nextX) / 2.0;
+      }
+    }
+    if (bestScore - currentScore < MIN_IMPROVEMENT) return new double[] { 0.0, currentScore };
+    return new double[] { bestStep, bestScore };
+  }
+
+  /**
+   * Lattice MERT with coordinate and random search directions.
+   *
+   * @param weights
+   * @param maxIterations
+   * @param numRandomDirections
+   * @param random
+   * @return The optimized weights
+   */
+  public Counter<String> mert(Counter<String> weights, int maxIterations, int numRandomDirections, Random random) {
+    weights = new ClassicCounter<>(weights);
+    List<String> featureNames = new ArrayList<>(weights.keySet());
+    if (featureNames.isEmpty()) featureNames.addAll(featureNames());
+    for (int iter = 0; iter < maxIterations; ++iter) {
+      final double startScore = viterbiBleu(weights);
+      List<Counter<String>> directions = new ArrayList<>();
+      for (String feature : featureNames) {
+        Counter<String> direction = new ClassicCounter<>();
+        direction.setCount(feature, 1.0);
+        directions.add(direction);
+      }
+      for (int i = 0; i < numRandomDirections; ++i) {
+        Counter<String> direction = new ClassicCounter<>();
+        for (String feature : featureNames) direction.setCount(feature, random.nextGaussian());
+        directions.add(direction);
+      }
+      double score = startScore;
+      for (Counter<String> direction : directions) {
+        double[] result = lineSearch(weights, direction);
+        if (result[0] != 0.0 && result[1] > score) {
+          for (String feature : direction.keySet()) {
+            weights.incrementCount(feature, result[0] * direction.getCount(feature));
+          }
+          score = result[1];
+        }
+      }
+      logger.info("Iteration {} BLEU: {} -> {}", iter, startScore * 100.0, score * 100.0);
+      if (score - startScore < MIN_IMPROVEMENT) break;
+    }
+    return weights;
+  }
+
+  private Set<String> featureNames() {
+    Set<String> names = new HashSet<>();
+    for (TranslationHypergraph<IString,String> hypergraph : hypergraphs) {
+      for (List<FeatureValue<String>> features : hypergraph.features) {
+        for (FeatureValue<String> f : features) names.add(f.name);
+      }
+    }
+    return names;
+  }
+
+  private static double logSum(double a, double b) {
+    if (a == Double.NEGATIVE_INFINITY) return b;
+    if (b == Double.NEGATIVE_INFINITY) return a;
+    return a > b ? a + Math.log1p(Math.exp(b - a)) : b + Math.log1p(Math.exp(a - b));
+  }
+
+  /**
+   * Compute the expected linear BLEU gain of one hypergraph and add its gradient to
+   * <code>gradient</code>.
+   *
+   * @return The expected gain.
+   */
+  private double expectedGain(int i, Counter<String> weights, double scale, Counter<String> gradient) {
+    final TranslationHypergraph<IString,String> hypergraph = hypergraphs.get(i);
+    final double[][] stats = edgeStatistics.get(i);
+    final int numEdges = hypergraph.numEdges();
+    final int numNodes = hypergraph.numNodes;
+    final double[] scores = dotProducts(hypergraph, weights);
+    final double[] gains = new double[numEdges];
+    for (int e = 0; e < numEdges; ++e) {
+      scores[e] *= scale;
+      for (int k = 0; k < NUM_STATS; ++k) gains[e] += linearBleuWeights[k] * stats[e][k];
+    }
+
+    // Inside pass: log inside scores and expected prefix gains
+    final double[] inside = new double[numNodes];
+    final double[] insideGain = new double[numNodes];
+    Arrays.fill(inside, Double.NEGATIVE_INFINITY);
+    inside[0] = 0.0;
+    for (int e = 0; e < numEdges; ++e) {
+      inside[hypergraph.heads[e]] = logSum(inside[hypergraph.heads[e]], inside[hypergraph.tails[e]] + scores[e]);
+    }
+    for (int e = 0; e < numEdges; ++e) {
+      final int tail = hypergraph.tails[e], head = hypergraph.heads[e];
+      if (inside[head] == Double.NEGATIVE_INFINITY) continue;
+      double p = Math.exp(inside[tail] + scores[e] - inside[head]);
+      insideGain[head] += p * (insideGain[tail] + gains[e]);
+    }
+
+    // Outside pass: log outside scores and expected suffix gains
+    final boolean[] isGoal = new boolean[numNodes];
+    for (int goal : hypergraph.goalNodes) isGoal[goal] = true;
+    final double[] outside = new double[numNodes];
+    final double[] outsideGain = new double[numNodes];
+    Arrays.fill(outside, Double.NEGATIVE_INFINITY);
+    for (int goal : hypergraph.goalNodes) outside[goal] = 0.0;
+    for (int e = numEdges - 1; e >= 0; --e) {
+      outside[hypergraph.tails[e]] = logSum(outside[hypergraph.tails[e]], scores[e] + outside[hypergraph.heads[e]]);
+    }
+    for (int e = numEdges - 1; e >= 0; --e) {
+      final int tail = hypergraph.tails[e], head = hypergraph.heads[e];
+      if (outside[tail] == Double.NEGATIVE_INFINITY) continue;
+      double p = Math.exp(scores[e] + outside[head] - outside[tail]);
+      outsideGain[tail] += p * (gains[e] + outsideGain[head]);
+    }
+
+    double logZ = Double.NEGATIVE_INFINITY;
+    for (int goal : hypergraph.goalNodes) logZ = logSum(logZ, inside[goal]);
+    if (logZ == Double.NEGATIVE_INFINITY) return 0.0;
+    double expectedGain = 0.0;
+    for (int goal : hypergraph.goalNodes) expectedGain += Math.exp(inside[goal] - logZ) * insideGain[goal];
+
+    // dE[G]/dw = scale * (E[G*f] - E[G]E[f]), accumulated per edge
+    for (int e = 0; e < numEdges; ++e) {
+      final int tail = hypergraph.tails[e], head = hypergraph.heads[e];
+      double posterior = Math.exp(inside[tail] + scores[e] + outside[head] - logZ);
+      if (posterior == 0.0 || Double.isNaN(posterior)) continue;
+      double edgeGain = insideGain[tail] + gains[e] + outsideGain[head];
+      double coefficient = scale * posterior * (edgeGain - expectedGain);
+      for (FeatureValue<String> f : hypergraph.features.get(e)) {
+        gradient.incrementCount(f.name, coefficient * f.value);
+      }
+    }
+    return expectedGain;
+  }
+
+  /**
+   * Maximize expected linear BLEU by batch gradient ascent.
+   *
+   * @param weights
+   * @param maxIterations
+   * @param learningRate
+   * @param scale
+   * @return The optimized weights
+   */
+  public Counter<String> expectedBleu(Counter<String> weights, int maxIterations, double learningRate, double scale) {
+    weights = new ClassicCounter<>(weights);
+    for (int iter = 0; iter < maxIterations; ++iter) {
+      Counter<String> gradient = new ClassicCounter<>();
+      double objective = 0.0;
+      for (int i = 0, sz = hypergraphs.size(); i < sz; ++i) {
+        objective += expectedGain(i, weights, scale, gradient);
+      }
+      for (String feature : gradient.keySet()) {
+        weights.incrementCount(feature, learningRate * gradient.getCount(feature) / hypergraphs.size());
+      }
+      logger.info("Iteration {} expected gain: {} BLEU: {}", iter, objective / hypergraphs.size(),
+          viterbiBleu(weights) * 100.0);
+    }
+    return weights;
+  }
+
+  /**
+   * Command-line parameter specification.
+   */
+  private static Map<String,Integer> optionArgDefs() {
+    Map<String,Integer> optionMap = new HashMap<>();
+    optionMap.put("m", 1);
+    optionMap.put("n", 1);
+    optionMap.put("i", 1);
+    optionMap.put("rd", 1);
+    optionMap.put("lr", 1);
+    optionMap.put("sc", 1);
+    optionMap.put("seed", 1);
+    return optionMap;
+  }
+
+  /**
+   * Usage string for the main method.
+   */
+  private static String usage() {
+    StringBuilder sb = new StringBuilder();
+    String nl = System.getProperty("line.separator");
+    sb.append("Usage: java ").append(HypergraphTuner.class.getName())
+      .append(" [OPTIONS] hypergraph_file ref_files initial_weights").append(nl).append(nl)
+      .append("Options:").append(nl)
+      .append("   -m str     : Objective: [mert,xbleu] (default: mert)").append(nl)
+      .append("   -n str     : Experiment name (default: debug)").append(nl)
+      .append("   -i num     : Maximum number of iterations (default: 10)").append(nl)
+      .append("   -rd num    : Number of random search directions for MERT (default: 5)").append(nl)
+      .append("   -lr num    : Learning rate for expected BLEU (default: 0.1)").append(nl)
+      .append("   -sc num    : Scaling factor of the model score for expected BLEU (default: 1.0)").append(nl)
+      .append("   -seed num  : Random seed").append(nl)
+      .append(nl).append("ref_files is a comma-separated list of reference files.").append(nl);
+    return sb.toString();
+  }
+
+  /**
+   * Tune on a set of hypergraphs.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    Properties opts = StringUtils.argsToProperties(args, optionArgDefs());
+    String objective = opts.getProperty("m", "mert");
+    String experimentName = opts.getProperty("n", "debug");
+    int maxIterations = PropertiesUtils.getInt(opts, "i", 10);
+    int numRandomDirections = PropertiesUtils.getInt(opts, "rd", 5);
+    double learningRate = PropertiesUtils.getDouble(opts, "lr", 0.1);
+    double scale = PropertiesUtils.getDouble(opts, "sc", 1.0);
+    long seed = PropertiesUtils.getLong(opts, "seed", System.nanoTime());
+
+    String[] parsedArgs = opts.getProperty("","").split("\\s+");
+    if (parsedArgs.length != 3) {
+      System.err.println(usage());
+      System.exit(-1);
+    }
+
+    final long startTime = TimingUtils.startTime();
+    List<TranslationHypergraph<IString,String>> hypergraphs = TranslationHypergraph.readAll(parsedArgs[0]);
+    List<List<Sequence<IString>>> references = MetricUtils.readReferences(parsedArgs[1].split(","), false);
+    Counter<String> weights = IOTools.readWeights(parsedArgs[2]);
+    if (weights == null) weights = new ClassicCounter<>();
+    logger.info("Loaded {} hypergraphs", hypergraphs.size());
+
+    HypergraphTuner tuner = new HypergraphTuner(hypergraphs, references);
+    logger.info("Initial BLEU: {}", tuner.viterbiBleu(weights) * 100.0);
+    final Counter<String> finalWeights;
+    if (objective.equals("mert")) {
+      finalWeights = tuner.mert(weights, maxIterations, numRandomDirections, new Random(seed));
+    } else if (objective.equals("xbleu")) {
+      finalWeights = tuner.expectedBleu(weights, maxIterations, learningRate, scale);
+    } else {
+      throw new IllegalArgumentException("Unsupported objective: " + objective);
+    }
+    logger.info("Final BLEU: {}", tuner.viterbiBleu(finalWeights) * 100.0);
+
+    String filename = experimentName + ".hypergraph" + IOTools.WEIGHTS_FILE_EXTENSION;
+    IOTools.writeWeights(filename, finalWeights);
+    logger.info("Final weights to: {}", filename);
+    logger.info("Elapsed time: {} seconds", TimingUtils.elapsedSeconds(startTime));
+  }
+}
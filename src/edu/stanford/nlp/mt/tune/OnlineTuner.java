@@ -19,6 +19,7 @@ import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,6 +29,7 @@ import edu.stanford.nlp.mt.Phrasal;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.decoder.feat.base.NGramLanguageModelFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.base.WordPenaltyFeaturizer;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryCache;
 import edu.stanford.nlp.mt.metrics.BLEUMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
@@ -132,6 +134,14 @@ public final class OnlineTuner {
   private int pseudoReferenceBurnIn = -1;
   private List<List<Sequence<IString>>> pseudoReferences;
   private double[] referenceWeights;
+  
+  // Distributed tuning. The parameter server owns the update rule.
+  private ParameterServerClient parameterServer;
+  private int shardId = 0;
+  private int numShards = 1;
+  
+  // Cache of TM query results that is re-used across epochs
+  private RuleQueryCache<IString,String> ruleQueryCache;
     
   /**
    * Constructor.
@@ -290,6 +300,28 @@ public final class OnlineTuner {
     logger.info("Pseudoreference temp directory: {}", tempDirectory);
   }
   
+  /**
+   * Run as a worker for distributed tuning. The worker decodes one shard of the
+   * tuning set and sends its gradients to a {@link ParameterServer}.
+   * 
+   * @param hostAndPort Server address in the format host:port
+   * @param shardSpec Shard of the tuning set in the format shardId,numShards
+   * @throws IOException 
+   */
+  private void connectParameterServer(String hostAndPort, String shardSpec) throws IOException {
+    if (shardSpec != null) {
+      String[] fields = shardSpec.split(",");
+      if (fields.length != 2) throw new IllegalArgumentException("Invalid shard specification: " + shardSpec);
+      shardId = Integer.parseInt(fields[0]);
+      numShards = Integer.parseInt(fields[1]);
+      if (shardId < 0 || shardId >= numShards) {
+        throw new IllegalArgumentException("Invalid shard specification: " + shardSpec);
+      }
+    }
+    parameterServer = new ParameterServerClient(hostAndPort);
+    logger.info("Distributed tuning: parameter server {} shard {} of {}", hostAndPort, shardId, numShards);
+  }
+  
   /**
    * Minimum number of times we need to see a feature
    * before learning a model weight for it.
@@ -330,6 +362,19 @@ public final class OnlineTuner {
    */
   private void enforceStrictlySequential(boolean b) { this.enforceStrictlySequential = b; }
   
+  /**
+   * Cache the TM query for each tuning example across epochs. Only the
+   * weights change between epochs, so the cached rules are re-scored instead
+   * of querying the translation model again. Each cached rule keeps its
+   * feature values in memory, so the cache holds at most maxRules rules.
+   * 
+   * @param b
+   * @param maxRules
+   */
+  private void cacheRuleQueries(boolean b, long maxRules) { 
+    this.ruleQueryCache = b ? new RuleQueryCache<>(maxRules) : null; 
+  }
+  
   /**
    * Output single best translation?
    * 
@@ -483,6 +528,8 @@ public final class OnlineTuner {
 
         inputProperties.put(InputProperty.ModelWeights, input.weights);
         if (input.localTM != null) inputProperties.put(InputProperty.ForegroundTM, input.localTM);
+        // The local TM changes between batches, so its query results cannot be cached.
+        else if (ruleQueryCache != null) inputProperties.put(InputProperty.RuleQueryCache, ruleQueryCache);
         List<Sequence<IString>> targets = null;
         if (prefixes != null) {
           inputProperties.put(InputProperty.TargetPrefix, true);
@@ -572,7 +619,11 @@ public final class OnlineTuner {
       logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient.keySet().size());
       
       // Update rule. 
-      updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      if (parameterServer == null) {
+        updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      } else {
+        parameterServer.push(result.gradient, isEndOfEpoch, currentWts);
+      }
 
       // Debug info
       logger.info("Update {} with gradient from input step {} (diff: {})", 
@@ -640,13 +691,19 @@ public final class OnlineTuner {
     // Initialize weight vector(s) for the decoder
     // currentWts will be used in every round; wts will accumulate weight vectors
     final int numThreads = decoder.getNumThreads();
-    Counter<String> currentWts = new ClassicCounter<>(wtsAccumulator);
+    Counter<String> currentWts = parameterServer == null ? new ClassicCounter<>(wtsAccumulator) :
+      parameterServer.pull();
     // Clear the accumulator, which we will use for parameter averaging.
     wtsAccumulator.clear();
     
     final int tuneSetSize = tuneSource.size();
-    final int[] indices = ArrayMath.range(0, tuneSetSize);
+    final int[] indices = numShards == 1 ? ArrayMath.range(0, tuneSetSize) : 
+      IntStream.range(0, tuneSetSize).filter(i -> i % numShards == shardId).toArray();
     final int numBatches = (int) Math.ceil((double) indices.length / (double) batchSize);
+    if (parameterServer != null && doParameterAveraging) {
+      logger.warn("Parameter averaging is not supported in distributed mode");
+      doParameterAveraging = false;
+    }
     final OnlineUpdateRule<String> updater = optimizer.newUpdater();
     final UpdaterState initialState = OnlineTuner.loadUpdaterState(initialWtsFileName);
     if (initialState != null && ! discardInitialWeightState) {
@@ -700,7 +757,7 @@ public final class OnlineTuner {
           wrapper.join(false);
         updateId = update(currentWts, updateId, wrapper, updater, nbestLists, false, corpus, prefixDecodingOutputs);
         
-        if((t+1) % weightWriteOutInterval == 0) {
+        if(parameterServer == null && (t+1) % weightWriteOutInterval == 0) {
           String filename = String.format("%s.%d.%d%s", outputWeightPrefix, epoch, t, IOTools.WEIGHTS_FILE_EXTENSION);
           IOTools.writeWeights(filename, currentWts);
         }
@@ -717,10 +774,16 @@ public final class OnlineTuner {
         Counters.divideInPlace(currentWts, (epoch+1)*numBatches);
       }
       
-      // Write the intermediate state for this epoch
+      // Write the intermediate state for this epoch. In distributed mode, the parameter
+      // server writes the weights once all workers have finished the epoch.
       String epochFilePrefix = String.format("%s.%d", outputWeightPrefix, epoch);
-      IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, currentWts);
-      IOTools.serialize( epochFilePrefix + STATE_FILE_EXTENSION, updater.getState(), SerializationMode.BIN_GZ);
+      if (parameterServer == null) {
+        IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, currentWts);
+        IOTools.serialize( epochFilePrefix + STATE_FILE_EXTENSION, updater.getState(), SerializationMode.BIN_GZ);
+      } else {
+        parameterServer.endEpoch(epoch, currentWts);
+        if (numShards > 1) epochFilePrefix += ".shard" + shardId;
+      }
       
       if(outputSingleBest) {
         PrintStream ps = IOTools.getWriterFromFile(epochFilePrefix + ".trans");
@@ -739,6 +802,7 @@ public final class OnlineTuner {
       // Debug info for this epoch
       double elapsedTime = TimingUtils.elapsedSeconds(startTime);
       logger.info("Epoch {} elapsed time: {} seconds", epoch, elapsedTime);
+      if (ruleQueryCache != null) logger.info("Epoch {} rule query cache: {}", epoch, ruleQueryCache);
       double approxObjectiveValue = approximateObjective(nbestLists, epoch, corpusLevelMetricStr);
       if (approxObjectiveValue > maxObjectiveValue) maxObjectiveEpoch = epoch;
       if(localTMTraining && localTMoutFile != "") {
@@ -747,7 +811,15 @@ public final class OnlineTuner {
       }
     }
     
-    saveFinalWeights(currentWts, maxObjectiveEpoch, numEpochs);
+    if (parameterServer == null) {
+      saveFinalWeights(currentWts, maxObjectiveEpoch, numEpochs);
+    } else {
+      try {
+        parameterServer.close();
+      } catch (IOException e) {
+        logger.warn("Could not close the parameter server connection", e);
+      }
+    }
   }
   
   private TranslationModel<IString,String> getLocalTM(ParallelCorpus corpus, DynamicTranslationModel<String> backgroundTM) {
@@ -816,12 +888,15 @@ public final class OnlineTuner {
    * @param scoreMetricStr A string specifying the metric to be passed to <code>CorpusLevelMetricFactory</code>.
    */
   private double approximateObjective(Map<Integer, Sequence<IString>> nbestLists, int epoch, String scoreMetricStr) {
-    assert nbestLists.keySet().size() == references.size();
+    assert numShards > 1 || nbestLists.keySet().size() == references.size();
 
-    EvaluationMetric<IString,String> metric = CorpusLevelMetricFactory.newMetric(scoreMetricStr, references);
-    IncrementalEvaluationMetric<IString,String> incMetric = metric.getIncrementalMetric();
     Map<Integer, Sequence<IString>> sortedMap = 
         new TreeMap<Integer, Sequence<IString>>(nbestLists);
+    // Workers in distributed mode only see the references for their shard
+    List<List<Sequence<IString>>> shardReferences = numShards == 1 ? references :
+      sortedMap.keySet().stream().map(references::get).collect(Collectors.toList());
+    EvaluationMetric<IString,String> metric = CorpusLevelMetricFactory.newMetric(scoreMetricStr, shardReferences);
+    IncrementalEvaluationMetric<IString,String> incMetric = metric.getIncrementalMetric();
     for (Map.Entry<Integer, Sequence<IString>> entry : sortedMap.entrySet()) {
       incMetric.add(new ScoredFeaturizedTranslation<IString,String>(entry.getValue(), null, 0.0));
     }
@@ -1004,6 +1079,10 @@ public final class OnlineTuner {
     optionMap.put("sb", 0);
     optionMap.put("pt", 1);
     optionMap.put("ifw", 1);
+    optionMap.put("ps", 1);
+    optionMap.put("shard", 1);
+    optionMap.put("cr", 0);
+    optionMap.put("crsize", 1);
     return optionMap;
   }
 
@@ -1042,7 +1121,11 @@ public final class OnlineTuner {
       .append("   -niw       : normalize the initial weights file (default: false)").append(nl)
       .append("   -sb        : Specify for single best output. ").append(nl)
       .append("   -pt path   : Prefix tuning file. Only one reference allowed. Or RANDOM to randomly select prefixes from reference.")
-      .append("   -ifw path  : Additional initial feature weights file in plain text. Values are only used if feature is not already present in the weight vector.");
+      .append("   -ifw path  : Additional initial feature weights file in plain text. Values are only used if feature is not already present in the weight vector.").append(nl)
+      .append("   -ps str    : Distributed tuning worker. Address of the parameter server (format: host:port)").append(nl)
+      .append("   -shard str : Shard of the tuning set decoded by this worker (format: shardId,numShards)").append(nl)
+      .append("   -cr        : Cache TM queries across epochs and re-score them under the new weights (default: false)").append(nl)
+      .append("   -crsize num: Maximum number of rules in the -cr cache. Each rule keeps its feature values in memory. (default: " + RuleQueryCache.DEFAULT_MAX_RULES + ")");
     
     return sb.toString();
   }
@@ -1083,6 +1166,10 @@ public final class OnlineTuner {
     boolean normalizeInitialWeights = PropertiesUtils.getBool(opts, "niw", false);
     String prefixTuningFile = opts.getProperty("pt", null);
     String additionalInitialFeatureWeights = opts.getProperty("ifw", null);
+    String parameterServerAddress = opts.getProperty("ps", null);
+    String shardSpec = opts.getProperty("shard", null);
+    boolean cacheRuleQueries = PropertiesUtils.getBool(opts, "cr", false);
+    long ruleQueryCacheSize = PropertiesUtils.getLong(opts, "crsize", RuleQueryCache.DEFAULT_MAX_RULES);
     
     // Check option combinations
     if (prefixTuningFile != null && refStr != null) {
@@ -1125,6 +1212,8 @@ public final class OnlineTuner {
       tuner.outputPrefixDecoding(outputPrefixDecoding);
       tuner.enforceStrictlySequential(enforceStrictlySequential);
       tuner.trainLocalTM(trainLocalTM, localTMoutFile);
+      tuner.cacheRuleQueries(cacheRuleQueries, ruleQueryCacheSize);
+      if (parameterServerAddress != null) tuner.connectParameterServer(parameterServerAddress, shardSpec);
       tuner.run(numEpochs, batchSize, slScoreMetric, clMetricString, weightWriteOutInterval);
 
       final double elapsedTime = TimingUtils.elapsedSeconds(startTime);
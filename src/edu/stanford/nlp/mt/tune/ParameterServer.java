@@ -0,0 +1,471 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.tune.OnlineUpdateRule.UpdaterState;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IOTools.SerializationMode;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
+
+/**
+ * Parameter server for distributed online tuning.
+ *
+ * Each worker is an {@link OnlineTuner} process started with the <code>-ps</code> and
+ * <code>-shard</code> options. Workers decode disjoint shards of the tuning set, push
+ * sparse gradients to the server, and receive the weights that changed since their
+ * previous request in the reply. The server owns the only {@link OnlineUpdateRule}, so
+ * updates are applied in arrival order exactly as in the asynchronous, single JVM tuner.
+ * Workers synchronize at the end of each epoch, at which point the server writes the
+ * weights and updater state.
+ *
+ * The weight vector is versioned by the number of updates applied. For each feature, the
+ * server records the version of its last change, so the reply to a worker at version v
+ * only contains the features changed after v. A zero value means that the feature was
+ * removed.
+ *
+ * The wire protocol is a sequence of binary frames over one TCP connection per worker.
+ * Each request starts with an opcode byte. Sparse vectors are written as a count followed
+ * by (feature name, value) pairs.
+ *
+ * The server and workers may run on the same machine for testing.
+ */
+public class ParameterServer {
+
+  private static final Logger logger = LogManager.getLogger(ParameterServer.class);
+
+  // Opcodes
+  static final byte PULL = 1;
+  static final byte PUSH = 2;
+  static final byte END_EPOCH = 3;
+  static final byte CLOSE = 4;
+
+  private static final String STATE_FILE_EXTENSION = ".ostate";
+
+  private final int port;
+  private final int numWorkers;
+  private final String outputWeightPrefix;
+  private final OnlineUpdateRule<String> updater;
+
+  // Guarded by this
+  private final ChangeTrackingCounter weights;
+  private int updateStep = 0;
+  private final Map<String,Integer> lastChange = new HashMap<>();
+  private final TreeMap<Integer,Set<String>> changesByVersion = new TreeMap<>();
+  private int numClosed = 0;
+  private final Map<Integer,Integer> epochArrivals = new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param port
+   * @param numWorkers
+   * @param initialWeights
+   * @param optimizer
+   * @param outputWeightPrefix
+   */
+  public ParameterServer(int port, int numWorkers, Counter<String> initialWeights,
+      OnlineOptimizer<?,String> optimizer, String outputWeightPrefix) {
+    if (numWorkers < 1) throw new IllegalArgumentException("Invalid number of workers: " + numWorkers);
+    this.port = port;
+    this.numWorkers = numWorkers;
+    this.weights = new ChangeTrackingCounter(initialWeights);
+    this.updater = optimizer.newUpdater();
+    this.outputWeightPrefix = outputWeightPrefix;
+  }
+
+  /**
+   * Warm restart of the update rule.
+   *
+   * @param state
+   */
+  public void setUpdaterState(UpdaterState state) {
+    updater.setState(state);
+  }
+
+  /**
+   * Accept worker connections and serve requests until all workers have closed
+   * their connections. Then write the final weights.
+   *
+   * @throws IOException
+   */
+  public void run() throws IOException {
+    final long startTime = TimingUtils.startTime();
+    try (ServerSocket serverSocket = new ServerSocket(port)) {
+      run(serverSocket);
+    }
+    logger.info("Elapsed time: {} seconds", TimingUtils.elapsedSeconds(startTime));
+  }
+
+  /**
+   * Serve the workers that connect to a bound socket.
+   *
+   * @param serverSocket
+   * @throws IOException
+   */
+  void run(ServerSocket serverSocket) throws IOException {
+    logger.info("Parameter server listening on port {} for {} workers", serverSocket.getLocalPort(), numWorkers);
+    Thread[] handlers = new Thread[numWorkers];
+    for (int i = 0; i < numWorkers; ++i) {
+      Socket socket = serverSocket.accept();
+      socket.setTcpNoDelay(true);
+      logger.info("Worker {} connected from {}", i, socket.getRemoteSocketAddress());
+      handlers[i] = new Thread(new WorkerHandler(socket, i), "ps-worker-" + i);
+      handlers[i].start();
+    }
+    for (Thread handler : handlers) {
+      try {
+        handler.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+    String finalFilename = String.format("%s.final%s", outputWeightPrefix, IOTools.WEIGHTS_FILE_EXTENSION);
+    synchronized(this) {
+      IOTools.writeWeights(finalFilename, weights);
+      logger.info("Final weights to: {}", finalFilename);
+      logger.info("Non-zero final weights: {}", weights.keySet().size());
+    }
+  }
+
+  /**
+   * Weight vector that records the features changed by the update rule.
+   * The update rules only modify the weights through the <code>Counter</code>
+   * methods overridden here.
+   */
+  private static class ChangeTrackingCounter extends ClassicCounter<String> {
+    private static final long serialVersionUID = 4398437437232167123L;
+
+    private final Set<String> changed = new HashSet<>();
+
+    public ChangeTrackingCounter(Counter<String> weights) {
+      super.addAll(weights);
+    }
+
+    @Override
+    public void setCount(String key, double count) {
+      changed.add(key);
+      super.setCount(key, count);
+    }
+
+    @Override
+    public double incrementCount(String key, double count) {
+      changed.add(key);
+      return super.incrementCount(key, count);
+    }
+
+    @Override
+    public double decrementCount(String key, double count) {
+      changed.add(key);
+      return super.decrementCount(key, count);
+    }
+
+    @Override
+    public double decrementCount(String key) {
+      changed.add(key);
+      return super.decrementCount(key);
+    }
+
+    @Override
+    public double logIncrementCount(String key, double count) {
+      changed.add(key);
+      return super.logIncrementCount(key, count);
+    }
+
+    @Override
+    public void addAll(Counter<String> counter) {
+      changed.addAll(counter.keySet());
+      super.addAll(counter);
+    }
+
+    @Override
+    public double remove(String key) {
+      changed.add(key);
+      return super.remove(key);
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys) {
+      changed.addAll(keys);
+      super.removeAll(keys);
+    }
+
+    @Override
+    public void clear() {
+      changed.addAll(keySet());
+      super.clear();
+    }
+  }
+
+  /**
+   * Apply a gradient and record the changed features under the new version.
+   */
+  private synchronized void update(Counter<String> gradient, boolean endOfEpoch, int workerId) {
+    updater.update(weights, gradient, updateStep, endOfEpoch);
+    logger.info("Update {} from worker {} gradient cardinality: {} approximate L2 ||w'-w|| {}",
+        updateStep, workerId, gradient.keySet().size(), Counters.L2Norm(gradient));
+    ++updateStep;
+    if (weights.changed.isEmpty()) return;
+    Set<String> changes = new HashSet<>(weights.changed);
+    for (String feature : changes) {
+      Integer previous = lastChange.put(feature, updateStep);
+      if (previous != null) {
+        Set<String> previousChanges = changesByVersion.get(previous);
+        previousChanges.remove(feature);
+        if (previousChanges.isEmpty()) changesByVersion.remove(previous);
+      }
+    }
+    changesByVersion.put(updateStep, changes);
+    weights.changed.clear();
+  }
+
+  /**
+   * Write the current version followed by the features that changed after
+   * the given version.
+   */
+  private void writeChanges(DataOutputStream out, int version) throws IOException {
+    final int currentVersion;
+    Counter<String> changes = new ClassicCounter<>();
+    synchronized(this) {
+      currentVersion = updateStep;
+      for (Set<String> features : changesByVersion.tailMap(version, false).values()) {
+        for (String feature : features) changes.setCount(feature, weights.getCount(feature));
+      }
+    }
+    out.writeInt(currentVersion);
+    writeVector(out, changes);
+  }
+
+  /**
+   * Write the current version followed by the full weight vector.
+   */
+  private void writeWeights(DataOutputStream out) throws IOException {
+    final int currentVersion;
+    Counter<String> currentWeights;
+    synchronized(this) {
+      currentVersion = updateStep;
+      currentWeights = new ClassicCounter<>(weights);
+    }
+    out.writeInt(currentVersion);
+    writeVector(out, currentWeights);
+  }
+
+  /**
+   * Epoch barrier. Blocks until all workers that are still connected have
+   * finished the epoch. The last worker to arrive writes the epoch weights.
+   */
+  private synchronized void endEpoch(int epoch) throws InterruptedException {
+    int arrivals = epochArrivals.getOrDefault(epoch, 0) + 1;
+    epochArrivals.put(epoch, arrivals);
+    if (arrivals + numClosed >= numWorkers) {
+      String epochFilePrefix = String.format("%s.%d", outputWeightPrefix, epoch);
+      IOTools.writeWeights(epochFilePrefix + IOTools.WEIGHTS_FILE_EXTENSION, weights);
+      IOTools.serialize(epochFilePrefix + STATE_FILE_EXTENSION, updater.getState(), SerializationMode.BIN_GZ);
+      logger.info("End of epoch {} after {} updates", epoch, updateStep);
+      notifyAll();
+    } else {
+      while (epochArrivals.get(epoch) + numClosed < numWorkers) {
+        wait();
+      }
+    }
+  }
+
+  private synchronized void close(int workerId) {
+    ++numClosed;
+    logger.info("Worker {} disconnected", workerId);
+    // Release any workers waiting on an epoch barrier.
+    notifyAll();
+  }
+
+  /**
+   * Serves the requests of one worker.
+   */
+  private class WorkerHandler implements Runnable {
+    private final Socket socket;
+    private final int workerId;
+
+    public WorkerHandler(Socket socket, int workerId) {
+      this.socket = socket;
+      this.workerId = workerId;
+    }
+
+    @Override
+    public void run() {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+        while (true) {
+          final byte opcode = in.readByte();
+          if (opcode == PULL) {
+            writeWeights(out);
+
+          } else if (opcode == PUSH) {
+            int version = in.readInt();
+            boolean endOfEpoch = in.readBoolean();
+            Counter<String> gradient = readVector(in);
+            update(gradient, endOfEpoch, workerId);
+            writeChanges(out, version);
+
+          } else if (opcode == END_EPOCH) {
+            int epoch = in.readInt();
+            int version = in.readInt();
+            endEpoch(epoch);
+            writeChanges(out, version);
+
+          } else if (opcode == CLOSE) {
+            break;
+
+          } else {
+            throw new IOException("Unknown opcode: " + opcode);
+          }
+          out.flush();
+        }
+      } catch (EOFException e) {
+        logger.warn("Worker {} closed the connection without notice", workerId);
+      } catch (IOException e) {
+        logger.error("Worker {} failed", workerId, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        close(workerId);
+        try {
+          socket.close();
+        } catch (IOException e) {}
+      }
+    }
+  }
+
+  /**
+   * Write a sparse vector to a stream.
+   *
+   * @param out
+   * @param vector
+   * @throws IOException
+   */
+  static void writeVector(DataOutputStream out, Counter<String> vector) throws IOException {
+    out.writeInt(vector.size());
+    for (Map.Entry<String,Double> entry : vector.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeDouble(entry.getValue());
+    }
+  }
+
+  /**
+   * Read a sparse vector from a stream.
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  static Counter<String> readVector(DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    Counter<String> vector = new ClassicCounter<>(size);
+    for (int i = 0; i < size; ++i) {
+      String key = in.readUTF();
+      vector.setCount(key, in.readDouble());
+    }
+    return vector;
+  }
+
+  /**
+   * Command-line parameter specification.
+   */
+  private static Map<String,Integer> optionArgDefs() {
+    Map<String,Integer> optionMap = new HashMap<>();
+    optionMap.put("p", 1);
+    optionMap.put("w", 1);
+    optionMap.put("o", 1);
+    optionMap.put("of", 1);
+    optionMap.put("ef", 1);
+    optionMap.put("ts", 1);
+    optionMap.put("n", 1);
+    optionMap.put("restart", 0);
+    return optionMap;
+  }
+
+  /**
+   * Usage string for the main method.
+   */
+  private static String usage() {
+    StringBuilder sb = new StringBuilder();
+    String nl = System.getProperty("line.separator");
+    sb.append("Usage: java ").append(ParameterServer.class.getName())
+      .append(" [OPTIONS] initial_weights").append(nl).append(nl)
+      .append("Options:").append(nl)
+      .append("   -p num     : Port (default: 7100)").append(nl)
+      .append("   -w num     : Number of workers (default: 1)").append(nl)
+      .append("   -o str     : Optimizer: [pro-sgd,mira-1best] (must match the workers)").append(nl)
+      .append("   -of str    : Optimizer flags (format: CSV list)").append(nl)
+      .append("   -ef num    : Expected # of features").append(nl)
+      .append("   -ts num    : Size of the tuning set").append(nl)
+      .append("   -n str     : Experiment name").append(nl)
+      .append("   -restart   : Load the updater state that accompanies the initial weights").append(nl);
+    return sb.toString();
+  }
+
+  /**
+   * Run the parameter server.
+   *
+   * @param args
+   */
+  public static void main(String[] args) {
+    Properties opts = StringUtils.argsToProperties(args, optionArgDefs());
+    int port = PropertiesUtils.getInt(opts, "p", 7100);
+    int numWorkers = PropertiesUtils.getInt(opts, "w", 1);
+    String optimizerAlg = opts.getProperty("o", "mira-1best");
+    String[] optimizerFlags = opts.containsKey("of") ? opts.getProperty("of").split(",") : null;
+    int expectedNumFeatures = PropertiesUtils.getInt(opts, "ef", 30);
+    int tuneSetSize = PropertiesUtils.getInt(opts, "ts", 1);
+    String experimentName = opts.getProperty("n", "debug");
+    boolean warmRestart = PropertiesUtils.getBool(opts, "restart", false);
+
+    String[] parsedArgs = opts.getProperty("","").split("\\s+");
+    if (parsedArgs.length != 1 || parsedArgs[0].isEmpty()) {
+      System.err.println(usage());
+      System.exit(-1);
+    }
+    String wtsInitialFile = parsedArgs[0];
+
+    Counter<String> weights = IOTools.readWeights(wtsInitialFile);
+    if (weights == null) weights = new ClassicCounter<>();
+    OnlineOptimizer<?,String> optimizer = OnlineOptimizerFactory.configureOptimizer(optimizerAlg,
+        optimizerFlags, tuneSetSize, expectedNumFeatures);
+    ParameterServer server = new ParameterServer(port, numWorkers, weights, optimizer,
+        experimentName + ".online");
+    if (warmRestart) {
+      int delim = wtsInitialFile.lastIndexOf('.');
+      if (delim >= 0) {
+        String stateFile = wtsInitialFile.substring(0, delim) + STATE_FILE_EXTENSION;
+        UpdaterState state = IOTools.deserialize(stateFile, UpdaterState.class, SerializationMode.BIN_GZ);
+        if (state != null) server.setUpdaterState(state);
+      }
+    }
+    try {
+      server.run();
+    } catch (IOException e) {
+      logger.fatal("Parameter server failed", e);
+      System.exit(-1);
+    }
+  }
+}
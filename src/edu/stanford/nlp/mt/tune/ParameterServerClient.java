@@ -0,0 +1,133 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Worker-side connection to a {@link ParameterServer}. Calls are synchronized
+ * since the decoder threads of one worker share a single connection.
+ *
+ * The client tracks the version of the weights that it last received. The replies
+ * to pushes only contain the weights changed since then, which are applied in place
+ * to the worker's copy of the weight vector.
+ */
+public class ParameterServerClient implements AutoCloseable {
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private int version = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param hostAndPort Address of the server in the format <code>host:port</code>
+   * @throws IOException
+   */
+  public ParameterServerClient(String hostAndPort) throws IOException {
+    int delim = hostAndPort.lastIndexOf(':');
+    if (delim < 0) throw new IllegalArgumentException("Invalid parameter server address: " + hostAndPort);
+    String host = hostAndPort.substring(0, delim);
+    int port = Integer.parseInt(hostAndPort.substring(delim + 1));
+    this.socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * Fetch the current weight vector from the server.
+   *
+   * @return
+   */
+  public synchronized Counter<String> pull() {
+    try {
+      out.writeByte(ParameterServer.PULL);
+      out.flush();
+      version = in.readInt();
+      return ParameterServer.readVector(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Send a gradient to the server, which applies its update rule.
+   *
+   * @param gradient
+   * @param endOfEpoch
+   * @param weights The weight vector returned by {@link #pull()}, which is brought
+   *                up to date with the server.
+   */
+  public synchronized void push(Counter<String> gradient, boolean endOfEpoch, Counter<String> weights) {
+    try {
+      out.writeByte(ParameterServer.PUSH);
+      out.writeInt(version);
+      out.writeBoolean(endOfEpoch);
+      ParameterServer.writeVector(out, gradient);
+      out.flush();
+      readChanges(weights);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Block until all workers have finished the epoch.
+   *
+   * @param epoch
+   * @param weights The weight vector returned by {@link #pull()}, which is set
+   *                to the weights at the end of the epoch.
+   */
+  public synchronized void endEpoch(int epoch, Counter<String> weights) {
+    try {
+      out.writeByte(ParameterServer.END_EPOCH);
+      out.writeInt(epoch);
+      out.writeInt(version);
+      out.flush();
+      readChanges(weights);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Apply the weights changed since the last reply. Zero values are removed.
+   */
+  private void readChanges(Counter<String> weights) throws IOException {
+    version = in.readInt();
+    for (int i = 0, size = in.readInt(); i < size; ++i) {
+      String feature = in.readUTF();
+      double value = in.readDouble();
+      if (value == 0.0) {
+        weights.remove(feature);
+      } else {
+        weights.setCount(feature, value);
+      }
+    }
+  }
+
+  /**
+   * The version of the weights that were last received from the server.
+   */
+  synchronized int version() {
+    return version;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      out.writeByte(ParameterServer.CLOSE);
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,420 @@
+package edu.stanford.nlp.mt.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.TypesafeMap;
+
+/**
+ * On-disk store of per-sentence annotations indexed by source input id. The file
+ * is memory-mapped and each annotation layer of a sentence is decoded only when it
+ * is requested. Decoded layers are kept in a bounded LRU cache. Reads are threadsafe.
+ *
+ * A layer is either a CoreNLP annotation, which is named by its key class and
+ * stored with Java serialization, or the CoNLL dependency block of the sentence
+ * (<code>CONLL_LAYER</code>), which is stored as text.
+ *
+ * File format:
+ * <pre>
+ *   int magic, int version, blobs...,
+ *   int numLayers, numLayers x UTF layerName, int numSentences,
+ *   numSentences x numLayers x (long offset, int length),
+ *   long indexOffset
+ * </pre>
+ * An offset of -1 marks a missing layer.
+ */
+public class CoreNLPAnnotationStore implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger(CoreNLPAnnotationStore.class);
+
+  public static final String CONLL_LAYER = "conll";
+  public static final long DEFAULT_CACHE_SIZE = 10000;
+
+  private static final int MAGIC = 0x504e4c53;
+  private static final int VERSION = 1;
+  private static final int SEGMENT_SIZE = 1 << 30;
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer[] segments;
+  private final Map<String,Integer> layerIndex;
+  private final String[] layers;
+  private final int numSentences;
+  private final long[] offsets;
+  private final int[] lengths;
+  private final Cache<Long,Object> cache;
+
+  /**
+   * Open a store.
+   *
+   * @param filename
+   * @param cacheSize Maximum number of decoded layers to keep in memory.
+   * @throws IOException
+   */
+  public CoreNLPAnnotationStore(String filename, long cacheSize) throws IOException {
+    this.file = new RandomAccessFile(filename, "r");
+    final FileChannel channel = file.getChannel();
+    final long size = channel.size();
+    final int numSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    this.segments = new MappedByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      final long start = (long) i * SEGMENT_SIZE;
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+    }
+    if (size < 16 || readInt(0) != MAGIC) throw new IOException("Not an annotation store: " + filename);
+    if (readInt(4) != VERSION) throw new IOException("Unsupported annotation store version: " + filename);
+
+    // Read the index
+    final long indexOffset = ByteBuffer.wrap(read(size - 8, 8)).getLong();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(indexOffset,
+        (int) (size - 8 - indexOffset))));
+    this.layers = new String[in.readInt()];
+    this.layerIndex = new HashMap<>(layers.length * 2);
+    for (int i = 0; i < layers.length; ++i) {
+      layers[i] = in.readUTF();
+      layerIndex.put(layers[i], i);
+    }
+    this.numSentences = in.readInt();
+    this.offsets = new long[numSentences * layers.length];
+    this.lengths = new int[offsets.length];
+    for (int i = 0; i < offsets.length; ++i) {
+      offsets[i] = in.readLong();
+      lengths[i] = in.readInt();
+    }
+    this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+    logger.info("Opened annotation store {}: {} sentences, layers: {}", filename, numSentences,
+        Arrays.toString(layers));
+  }
+
+  /**
+   * True if the file is an annotation store.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isStore(String filename) {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Number of sentences, i.e., the largest source id plus one.
+   *
+   * @return
+   */
+  public int size() { return numSentences; }
+
+  /**
+   * The names of the layers in this store.
+   *
+   * @return
+   */
+  public List<String> layers() { return Arrays.asList(layers); }
+
+  /**
+   * Return a single annotation of a sentence. Only this layer is decoded.
+   *
+   * @param sourceId
+   * @param key
+   * @return The annotation, or null if it is not in the store.
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V get(int sourceId, Class<? extends TypesafeMap.Key<V>> key) {
+    return (V) getLayer(sourceId, key.getName());
+  }
+
+  /**
+   * Return the CoNLL dependency block of a sentence.
+   *
+   * @param sourceId
+   * @return The block, or null if it is not in the store.
+   */
+  public String getCoNLL(int sourceId) {
+    return (String) getLayer(sourceId, CONLL_LAYER);
+  }
+
+  /**
+   * Return all CoreNLP annotations of a sentence. This decodes every layer, so
+   * callers that need only some annotations should use <code>get(sourceId, key)</code>.
+   *
+   * @param sourceId
+   * @return The annotations, or null if the sentence is not in the store.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public CoreMap get(int sourceId) {
+    CoreMap annotation = null;
+    for (String layer : layers) {
+      if (layer.equals(CONLL_LAYER)) continue;
+      Object value = getLayer(sourceId, layer);
+      if (value == null) continue;
+      if (annotation == null) annotation = new ArrayCoreMap(layers.length);
+      try {
+        annotation.set((Class) Class.forName(layer), value);
+      } catch (ClassNotFoundException e) {
+        logger.warn("Unknown annotation key: {}", layer);
+      }
+    }
+    return annotation;
+  }
+
+  private Object getLayer(int sourceId, String layer) {
+    final Integer l = layerIndex.get(layer);
+    if (l == null || sourceId < 0 || sourceId >= numSentences) return null;
+    final int cell = sourceId * layers.length + l;
+    if (offsets[cell] < 0) return null;
+    try {
+      return cache.get((long) cell, () -> decode(layer, read(offsets[cell], lengths[cell])));
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Could not decode layer " + layer + " of sentence " + sourceId, e.getCause());
+    }
+  }
+
+  private static Object decode(String layer, byte[] bytes) throws IOException, ClassNotFoundException {
+    if (layer.equals(CONLL_LAYER)) return new String(bytes, StandardCharsets.UTF_8);
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    }
+  }
+
+  /**
+   * Copy a range of the file, which may span segments. Uses a view of each
+   * segment so that concurrent reads do not share a buffer position.
+   */
+  private byte[] read(long offset, int length) {
+    byte[] bytes = new byte[length];
+    for (int pos = 0; pos < length; ) {
+      final long fileOffset = offset + pos;
+      final ByteBuffer segment = segments[(int) (fileOffset / SEGMENT_SIZE)].duplicate();
+      segment.position((int) (fileOffset % SEGMENT_SIZE));
+      final int n = Math.min(length - pos, segment.remaining());
+      segment.get(bytes, pos, n);
+      pos += n;
+    }
+    return bytes;
+  }
+
+  private int readInt(long offset) {
+    return ByteBuffer.wrap(read(offset, 4)).getInt();
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("sentences: %d cached: %d hit rate: %.3f", numSentences, cache.size(),
+        cache.stats().hitRate());
+  }
+
+  /**
+   * Writes a store. Sentences may be added in any order, but each layer of a
+   * sentence may be added only once.
+   */
+  public static class Builder implements Closeable {
+    private final DataOutputStream out;
+    private final List<String> layers = new ArrayList<>();
+    private final Map<String,Integer> layerIndex = new HashMap<>();
+    private final List<Map<Integer,long[]>> index = new ArrayList<>();
+    private int numSentences = 0;
+    // DataOutputStream.size() overflows past 2GB
+    private long position = 8;
+
+    /**
+     * Constructor.
+     *
+     * @param filename
+     * @throws IOException
+     */
+    public Builder(String filename) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+
+    /**
+     * Add a layer of a sentence.
+     *
+     * @param sourceId
+     * @param layer
+     * @param bytes
+     * @throws IOException
+     */
+    public void put(int sourceId, String layer, byte[] bytes) throws IOException {
+      Integer l = layerIndex.get(layer);
+      if (l == null) {
+        l = layers.size();
+        layers.add(layer);
+        layerIndex.put(layer, l);
+        index.add(new HashMap<>());
+      }
+      index.get(l).put(sourceId, new long[] {position, bytes.length});
+      out.write(bytes);
+      position += bytes.length;
+      numSentences = Math.max(numSentences, sourceId + 1);
+    }
+
+    /**
+     * Add all serializable CoreNLP annotations of a sentence as layers.
+     *
+     * @param sourceId
+     * @param sentence
+     * @throws IOException
+     */
+    public void put(int sourceId, CoreMap sentence) throws IOException {
+      for (Class<?> key : sentence.keySet()) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Object value = sentence.get((Class) key);
+        if ( ! (value instanceof Serializable)) continue;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+          objectOut.writeObject(value);
+        } catch (NotSerializableException e) {
+          logger.warn("Skipping annotation {} of sentence {}: {}", key.getName(), sourceId, e.getMessage());
+          continue;
+        }
+        put(sourceId, key.getName(), bytes.toByteArray());
+      }
+    }
+
+    /**
+     * Add the CoNLL dependency block of a sentence.
+     *
+     * @param sourceId
+     * @param block
+     * @throws IOException
+     */
+    public void putCoNLL(int sourceId, String block) throws IOException {
+      put(sourceId, CONLL_LAYER, block.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the index and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+      final long indexOffset = position;
+      out.writeInt(layers.size());
+      for (String layer : layers) out.writeUTF(layer);
+      out.writeInt(numSentences);
+      for (int i = 0; i < numSentences; ++i) {
+        for (Map<Integer,long[]> layer : index) {
+          long[] entry = layer.get(i);
+          out.writeLong(entry == null ? -1 : entry[0]);
+          out.writeInt(entry == null ? 0 : (int) entry[1]);
+        }
+      }
+      out.writeLong(indexOffset);
+      out.close();
+    }
+  }
+
+  /**
+   * Add the sentences of a serialized CoreNLP <code>Annotation</code>. The source
+   * id of a sentence is its <code>LineNumberAnnotation</code> minus one, as in
+   * <code>CoreNLPCache</code>.
+   *
+   * @param builder
+   * @param filename
+   * @throws IOException
+   */
+  public static void addAnnotations(Builder builder, String filename) throws IOException {
+    Annotation annotation = IOTools.deserialize(filename, Annotation.class);
+    List<CoreMap> sentenceList = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+    if (sentenceList == null) {
+      throw new RuntimeException("Unusable annotation (no sentences) in " + filename);
+    }
+    for (CoreMap sentence : sentenceList) {
+      int lineId = sentence.get(CoreAnnotations.LineNumberAnnotation.class);
+      builder.put(lineId - 1, sentence);
+    }
+  }
+
+  /**
+   * Add the sentences of a CoNLL file. Sentences are separated by empty lines and
+   * numbered from zero.
+   *
+   * @param builder
+   * @param filename
+   * @throws IOException
+   */
+  public static void addCoNLL(Builder builder, String filename) throws IOException {
+    LineNumberReader reader = IOTools.getReaderFromFile(filename);
+    StringBuilder block = new StringBuilder();
+    int sourceId = 0;
+    for (String line; (line = reader.readLine()) != null; ) {
+      if (line.length() > 1) {
+        block.append(line).append('\n');
+      } else {
+        builder.putCoNLL(sourceId++, block.toString());
+        block.setLength(0);
+      }
+    }
+    if (block.length() > 0) builder.putCoNLL(sourceId, block.toString());
+    reader.close();
+  }
+
+  /**
+   * Build a store from serialized annotations and/or a CoNLL dependency file.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    Map<String,Integer> optionArgDefs = new HashMap<>();
+    optionArgDefs.put("annotations", 1);
+    optionArgDefs.put("conll", 1);
+    Properties options = StringUtils.argsToProperties(args, optionArgDefs);
+    String annotations = PropertiesUtils.getString(options, "annotations", null);
+    String conll = PropertiesUtils.getString(options, "conll", null);
+    String[] positionalArgs = options.getProperty("", "").split("\\s+");
+    if (positionalArgs.length != 1 || positionalArgs[0].isEmpty() || (annotations == null && conll == null)) {
+      System.err.printf("Usage: java %s [-annotations file] [-conll file] output_file%n",
+          CoreNLPAnnotationStore.class.getName());
+      System.exit(-1);
+    }
+    try (Builder builder = new Builder(positionalArgs[0])) {
+      if (annotations != null) addAnnotations(builder, annotations);
+      if (conll != null) addCoNLL(builder, conll);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt.util;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,11 +8,15 @@ import java.util.Map;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.TypesafeMap;
 
 /**
  * Cache Stanford CoreNLP annotations for lookup by source input id. Obviously,
  * this cache is only useful for fixed-size source inputs.
  * 
+ * If the file is a <code>CoreNLPAnnotationStore</code>, then annotations are read
+ * lazily from disk instead of being loaded into memory.
+ * 
  * @author Spence Green
  *
  */
@@ -19,6 +24,7 @@ public class CoreNLPCache {
 
   // The list of raw English CoreNLP annotations
   private static Map<Integer,CoreMap> annotationMap;
+  private static CoreNLPAnnotationStore annotationStore;
   
   /**
    * Load serialized CoreNLP annotations from a file.
@@ -26,6 +32,17 @@ public class CoreNLPCache {
    * @param filename
    */
   public static int loadSerialized(String filename) {
+    // Release the annotations of a previous call, which may have been a store
+    flush();
+    if (CoreNLPAnnotationStore.isStore(filename)) {
+      try {
+        annotationStore = new CoreNLPAnnotationStore(filename, CoreNLPAnnotationStore.DEFAULT_CACHE_SIZE);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not open annotation store " + filename, e);
+      }
+      // Same as below: the largest (1-indexed) line number plus one
+      return annotationStore.size() + 1;
+    }
     Annotation annotation = IOTools.deserialize(filename, Annotation.class);
     List<CoreMap> sentenceList = annotation.get(CoreAnnotations.SentencesAnnotation.class);
 
@@ -50,19 +67,44 @@ public class CoreNLPCache {
    * @return
    */
   public static CoreMap get(int sourceId) {
+    if (annotationStore != null) return annotationStore.get(sourceId);
     return annotationMap.containsKey(sourceId) ? annotationMap.get(sourceId) : null;
   }
   
+  /**
+   * Return a single CoreNLP annotation for the given SourceId. With an annotation
+   * store, only this annotation is read from disk.
+   * 
+   * @param sourceId
+   * @param key
+   * @return
+   */
+  public static <V> V get(int sourceId, Class<? extends TypesafeMap.Key<V>> key) {
+    if (annotationStore != null) return annotationStore.get(sourceId, key);
+    CoreMap annotation = get(sourceId);
+    return annotation == null ? null : annotation.get(key);
+  }
+  
   /**
    * Return true if the cache is loaded. Otherwise, false.
    * 
    * @return
    */
-  public static boolean isLoaded() { return annotationMap != null; }
+  public static boolean isLoaded() { return annotationMap != null || annotationStore != null; }
   
   
   /**
    * Flushes the cache.
    */
-  public static void flush() { annotationMap = null; }
+  public static void flush() { 
+    annotationMap = null;
+    if (annotationStore != null) {
+      try {
+        annotationStore.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+      annotationStore = null;
+    }
+  }
 }
@@ -0,0 +1,171 @@
+package edu.stanford.nlp.mt.util;
+
+/**
+ * Source coverage of inputs with up to <code>MAX_LENGTH</code> tokens as a
+ * pair of primitive words. Bits 0-63 are stored in the low word and bits 64-127 in
+ * the high word. The operations mirror those of <code>java.util.BitSet</code>,
+ * but allocate nothing.
+ */
+public final class CoverageMask {
+
+  /**
+   * Maximum input length that can be represented by a mask.
+   */
+  public static final int MAX_LENGTH = 2 * Long.SIZE;
+
+  private CoverageMask() {}
+
+  /**
+   * True if coverage sets of inputs of this length can be represented by a mask.
+   *
+   * @param length
+   * @return
+   */
+  public static boolean fits(int length) {
+    return length <= MAX_LENGTH;
+  }
+
+  /**
+   * Extract a word of the mask from a coverage set.
+   *
+   * @param coverage
+   * @param index 0 for the low word, 1 for the high word.
+   * @return
+   */
+  public static long word(CoverageSet coverage, int index) {
+    final int start = index * Long.SIZE;
+    final int end = start + Long.SIZE;
+    final int first = coverage.nextSetBit(start);
+    if (first < 0 || first >= end) return 0L;
+    final int last = coverage.nextClearBit(first);
+    if (last >= end || coverage.nextSetBit(last) < 0) {
+      // Contiguous run of bits to the end of the word or the coverage set
+      return range(first - start, Math.min(last, end) - start);
+    }
+    long word = 0L;
+    for (int i = first; i >= 0 && i < end; i = coverage.nextSetBit(i + 1)) {
+      word |= 1L << i;
+    }
+    return word;
+  }
+
+  /**
+   * A word with bits [from, to) set, where 0 &lt;= from &lt; to &lt;= 64.
+   */
+  private static long range(int from, int to) {
+    return (-1L >>> (Long.SIZE - (to - from))) << from;
+  }
+
+  /**
+   * Create a coverage set from a mask.
+   *
+   * @param low
+   * @param high
+   * @param size Initial size of the coverage set.
+   * @return
+   */
+  public static CoverageSet toCoverageSet(long low, long high, int size) {
+    CoverageSet coverage = new CoverageSet(size);
+    for (int i = nextSetBit(low, high, 0); i >= 0; i = nextSetBit(low, high, i + 1)) {
+      coverage.set(i);
+    }
+    return coverage;
+  }
+
+  /**
+   * Test a bit.
+   *
+   * @param low
+   * @param high
+   * @param i
+   * @return
+   */
+  public static boolean get(long low, long high, int i) {
+    return i < Long.SIZE ? (low & (1L << i)) != 0 : i < MAX_LENGTH && (high & (1L << i)) != 0;
+  }
+
+  /**
+   * Number of bits set.
+   *
+   * @param low
+   * @param high
+   * @return
+   */
+  public static int cardinality(long low, long high) {
+    return Long.bitCount(low) + Long.bitCount(high);
+  }
+
+  /**
+   * Index of the first set bit at or after fromIndex, or -1 if there is none.
+   *
+   * @param low
+   * @param high
+   * @param fromIndex
+   * @return
+   */
+  public static int nextSetBit(long low, long high, int fromIndex) {
+    if (fromIndex < Long.SIZE) {
+      final long w = low & (-1L << fromIndex);
+      if (w != 0) return Long.numberOfTrailingZeros(w);
+      fromIndex = Long.SIZE;
+    }
+    if (fromIndex >= MAX_LENGTH) return -1;
+    final long w = high & (-1L << fromIndex);
+    return w == 0 ? -1 : Long.SIZE + Long.numberOfTrailingZeros(w);
+  }
+
+  /**
+   * Index of the first clear bit at or after fromIndex. Like BitSet, the result
+   * may be beyond the length of the input.
+   *
+   * @param low
+   * @param high
+   * @param fromIndex
+   * @return
+   */
+  public static int nextClearBit(long low, long high, int fromIndex) {
+    if (fromIndex < Long.SIZE) {
+      final long w = ~low & (-1L << fromIndex);
+      if (w != 0) return Long.numberOfTrailingZeros(w);
+      fromIndex = Long.SIZE;
+    }
+    if (fromIndex >= MAX_LENGTH) return fromIndex;
+    final long w = ~high & (-1L << fromIndex);
+    return w == 0 ? MAX_LENGTH : Long.SIZE + Long.numberOfTrailingZeros(w);
+  }
+
+  /**
+   * Index of the last set bit at or before fromIndex, or -1 if there is none.
+   *
+   * @param low
+   * @param high
+   * @param fromIndex
+   * @return
+   */
+  public static int previousSetBit(long low, long high, int fromIndex) {
+    if (fromIndex < 0) return -1;
+    if (fromIndex >= Long.SIZE) {
+      final int shift = fromIndex >= MAX_LENGTH ? 0 : MAX_LENGTH - 1 - fromIndex;
+      final long w = high & (-1L >>> shift);
+      if (w != 0) return MAX_LENGTH - 1 - Long.numberOfLeadingZeros(w);
+      fromIndex = Long.SIZE - 1;
+    }
+    final long w = low & (-1L >>> (Long.SIZE - 1 - fromIndex));
+    return w == 0 ? -1 : Long.SIZE - 1 - Long.numberOfLeadingZeros(w);
+  }
+
+  /**
+   * Hash code of a mask. Equal masks have equal hash codes.
+   *
+   * @param low
+   * @param high
+   * @return
+   */
+  public static long hashCode(long low, long high) {
+    long h = low * 0x9e3779b97f4a7c15L + high;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h;
+  }
+}
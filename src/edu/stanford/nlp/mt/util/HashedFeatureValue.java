@@ -0,0 +1,24 @@
+package edu.stanford.nlp.mt.util;
+
+/**
+ * A feature value with a 64-bit hashed feature id. The id is the hash of the
+ * feature name (see <code>FeatureHashing</code>), so scorers can look up weights
+ * in a primitive map instead of hashing the name.
+ */
+public class HashedFeatureValue extends FeatureValue<String> {
+  private static final long serialVersionUID = -3417402960251953375L;
+
+  public final long id;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   * @param id
+   * @param value
+   */
+  public HashedFeatureValue(String name, long id, double value) {
+    super(name, value);
+    this.id = id;
+  }
+}
@@ -1,52 +1,150 @@
 package edu.stanford.nlp.mt.util;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.WeakHashMap;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 import static java.lang.System.*;
 
 /**
- * 
+ * IBM Model 1 translation table.
+ *
+ * Each source word owns a row of target word ids sorted by id, with a parallel
+ * array of float probabilities; lookups are binary searches within the row.
+ * Words are numbered by a model-local vocabulary. Models are read either from
+ * the text format (source, target, probability separated by tabs) or from the
+ * binary format written by <code>write()</code>, whose entry arrays are
+ * memory-mapped instead of loaded onto the heap.
+ *
+ * Binary format:
+ * <pre>
+ *   int magic, int version, long entriesOffset, int vocabSize,
+ *   vocabSize x UTF word, (vocabSize+1) x int rowStart,
+ *   numEntries x int target, numEntries x float probability
+ * </pre>
+ *
+ * Loaded models are shared through a registry keyed by absolute path, and stay
+ * loaded until they are explicitly unloaded.
+ *
  * @author danielcer
- * 
+ *
  */
 public class IBMModel1 {
-  final IntegerArrayIndex foreignIndex = new ProbingIntegerArrayIndex();
-  final double[] scores;
   private static final double epsilon = 1.0;
   private static final double logEpsilon = Math.log(epsilon);
   private static final double UNKNOWN_SCORE = 1e-7;
 
-  static WeakHashMap<String, IBMModel1> model1Store = new WeakHashMap<String, IBMModel1>();
+  private static final int MAGIC = 0x49424d31;
+  private static final int VERSION = 1;
+
+  private static final Map<String, IBMModel1> registry = new HashMap<>();
+
+  // Model-local vocabulary: local id -> system id, and back
+  private final int[] vocabulary;
+  private final Int2IntOpenHashMap localIds;
+  // Row of local source id s is [rowStart[s], rowStart[s+1])
+  private final int[] rowStart;
+  private final IntBuffer targets;
+  private final FloatBuffer probs;
+  private final int nullRow;
 
-  public static IBMModel1 load(String filename) throws IOException {
-    File f = new File(filename);
-    if (model1Store.get(f.getAbsolutePath()) != null) {
-      return model1Store.get(f.getAbsolutePath());
+  /**
+   * Return the shared model for a file, loading it if necessary.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static synchronized IBMModel1 load(String filename) throws IOException {
+    String key = new File(filename).getAbsolutePath();
+    IBMModel1 m1 = registry.get(key);
+    if (m1 == null) {
+      m1 = read(filename);
+      registry.put(key, m1);
     }
+    return m1;
+  }
 
-    IBMModel1 m1 = new IBMModel1(filename);
-    model1Store.put(f.getAbsolutePath(), m1);
+  /**
+   * Load a model from disk and replace the shared model for the file.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static synchronized IBMModel1 reload(String filename) throws IOException {
+    IBMModel1 m1 = read(filename);
+    registry.put(new File(filename).getAbsolutePath(), m1);
     return m1;
   }
 
-  public static IBMModel1 reload(String filename) throws IOException {
-    File f = new File(filename);
-    IBMModel1 m1 = new IBMModel1(filename);
-    model1Store.put(f.getAbsolutePath(), m1);
+  /**
+   * Remove the shared model for a file. Holders of the model can still use it.
+   *
+   * @param filename
+   * @return True if the model was loaded.
+   */
+  public static synchronized boolean unload(String filename) {
+    return registry.remove(new File(filename).getAbsolutePath()) != null;
+  }
+
+  /**
+   * True if the file is in the binary format.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isBinary(String filename) {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+      return in.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static IBMModel1 read(String filename) throws IOException {
+    err.printf("IBMModel1: %s\n", filename);
+    IBMModel1 m1 = isBinary(filename) ? readBinary(filename) : readText(filename);
+    err.printf("Done loading %s (%d pairs)\n", filename, m1.size());
     return m1;
   }
 
-  private IBMModel1(String filename) throws IOException {
+  private IBMModel1(int[] vocabulary, int[] rowStart, IntBuffer targets, FloatBuffer probs) {
+    this.vocabulary = vocabulary;
+    this.rowStart = rowStart;
+    this.targets = targets;
+    this.probs = probs;
+    this.localIds = new Int2IntOpenHashMap(vocabulary.length);
+    localIds.defaultReturnValue(-1);
+    for (int i = 0; i < vocabulary.length; i++) {
+      localIds.put(vocabulary[i], i);
+    }
+    this.nullRow = localIds.get(TokenUtils.NULL_TOKEN.id);
+  }
+
+  private static IBMModel1 readText(String filename) throws IOException {
     LineNumberReader reader;
 
     if (filename.endsWith(".gz")) {
@@ -55,12 +153,12 @@ public class IBMModel1 {
     } else {
       reader = new LineNumberReader(new FileReader(filename));
     }
-    List<Double> scoresList = new ArrayList<Double>();
-
-    System.gc();
-    Runtime rt = Runtime.getRuntime();
-    long preMemUsed = rt.totalMemory() - rt.freeMemory();
-    System.err.printf("IBMModel1: %s\n", filename);
+    IntArrayList vocabulary = new IntArrayList();
+    Int2IntOpenHashMap localIds = new Int2IntOpenHashMap();
+    localIds.defaultReturnValue(-1);
+    // Pairs are packed as (target << 32 | probability bits) so that sorting a row sorts by target
+    IntArrayList sources = new IntArrayList();
+    LongArrayList entries = new LongArrayList();
     for (String line; (line = reader.readLine()) != null;) {
       String[] fields = line.split("\t");
       if (fields.length != 3) {
@@ -68,50 +166,204 @@ public class IBMModel1 {
             "Only %d fields found on line %d, expected 3\n", fields.length,
             reader.getLineNumber()));
       }
-      IString sourceWord = new IString(fields[0]);
-      IString targetWord = new IString(fields[1]);
-      double p;
+      float p;
       try {
-        p = Double.parseDouble(fields[2]);
+        p = Float.parseFloat(fields[2]);
       } catch (NumberFormatException e) {
         throw new RuntimeException(String.format(
             "Can't parse %s as a number on line %d\n", fields[2],
             reader.getLineNumber()));
       }
-      int[] wordPair = new int[2];
-      wordPair[0] = sourceWord.id;
-      wordPair[1] = targetWord.id;
-      int idx = foreignIndex.indexOf(wordPair, true);
-      if (scoresList.size() != idx) {
-        throw new RuntimeException(String.format(
-            "Index error, likely cause : duplicate entries for %s=>%s\n",
-            sourceWord, targetWord));
+      sources.add(localId(new IString(fields[0]).id, vocabulary, localIds));
+      int target = localId(new IString(fields[1]).id, vocabulary, localIds);
+      entries.add(((long) target << 32) | (Float.floatToIntBits(p) & 0xffffffffL));
+    }
+    reader.close();
+
+    // Counting sort by source, then sort each row by target
+    final int vocabSize = vocabulary.size();
+    int[] rowStart = new int[vocabSize + 1];
+    for (int i = 0; i < sources.size(); i++) {
+      rowStart[sources.getInt(i) + 1]++;
+    }
+    for (int i = 0; i < vocabSize; i++) {
+      rowStart[i + 1] += rowStart[i];
+    }
+    long[] rows = new long[entries.size()];
+    int[] fill = Arrays.copyOf(rowStart, vocabSize);
+    for (int i = 0; i < sources.size(); i++) {
+      rows[fill[sources.getInt(i)]++] = entries.getLong(i);
+    }
+    int[] targets = new int[rows.length];
+    float[] probs = new float[rows.length];
+    for (int s = 0; s < vocabSize; s++) {
+      Arrays.sort(rows, rowStart[s], rowStart[s + 1]);
+      for (int i = rowStart[s]; i < rowStart[s + 1]; i++) {
+        targets[i] = (int) (rows[i] >>> 32);
+        probs[i] = Float.intBitsToFloat((int) rows[i]);
+        if (i > rowStart[s] && targets[i] == targets[i - 1]) {
+          throw new RuntimeException(String.format(
+              "Duplicate entries for %s=>%s\n", new IString(vocabulary.getInt(s)),
+              new IString(vocabulary.getInt(targets[i]))));
+        }
+      }
+    }
+    return new IBMModel1(vocabulary.toIntArray(), rowStart, IntBuffer.wrap(targets),
+        FloatBuffer.wrap(probs));
+  }
+
+  private static int localId(int id, IntArrayList vocabulary, Int2IntOpenHashMap localIds) {
+    int localId = localIds.get(id);
+    if (localId < 0) {
+      localId = vocabulary.size();
+      vocabulary.add(id);
+      localIds.put(id, localId);
+    }
+    return localId;
+  }
+
+  private static IBMModel1 readBinary(String filename) throws IOException {
+    final long entriesOffset;
+    final int[] vocabulary;
+    final int[] rowStart;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(filename)))) {
+      if (in.readInt() != MAGIC) throw new IOException("Not an IBM Model 1 file: " + filename);
+      if (in.readInt() != VERSION) throw new IOException("Unsupported IBM Model 1 version: " + filename);
+      entriesOffset = in.readLong();
+      vocabulary = new int[in.readInt()];
+      for (int i = 0; i < vocabulary.length; i++) {
+        vocabulary[i] = new IString(in.readUTF()).id;
       }
-      scoresList.add(p);
-      if (idx % 500000 == 0) {
-        long currentMemUsed = rt.totalMemory() - rt.freeMemory();
-        System.err.printf("model1 > %d pairs (mem used: %d MiB)\n", idx,
-            (currentMemUsed - preMemUsed) / (1024 * 1024));
+      rowStart = new int[vocabulary.length + 1];
+      for (int i = 0; i < rowStart.length; i++) {
+        rowStart[i] = in.readInt();
       }
     }
-    this.scores = new double[scoresList.size()];
-    for (int i = 0; i < this.scores.length; i++) {
-      this.scores[i] = scoresList.get(i);
+    final long numEntries = rowStart[vocabulary.length];
+    if (4 * numEntries > Integer.MAX_VALUE) throw new IOException("Too many entries to map: " + filename);
+    try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+      // The mappings stay valid after the file is closed
+      FileChannel channel = file.getChannel();
+      IntBuffer targets = channel.map(FileChannel.MapMode.READ_ONLY, entriesOffset,
+          4 * numEntries).asIntBuffer();
+      FloatBuffer probs = channel.map(FileChannel.MapMode.READ_ONLY, entriesOffset + 4 * numEntries,
+          4 * numEntries).asFloatBuffer();
+      return new IBMModel1(vocabulary, rowStart, targets, probs);
     }
-    reader.close();
-    err.printf("Done loading %s\n", filename);
   }
 
-  public double score(IString sourceToken, IString targetToken) {
-    if (sourceToken.id == targetToken.id)
+  /**
+   * Write the model in the binary format.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public void write(String filename) throws IOException {
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerOut = new DataOutputStream(header);
+    headerOut.writeInt(vocabulary.length);
+    for (int id : vocabulary) {
+      headerOut.writeUTF(Vocabulary.systemGet(id));
+    }
+    for (int start : rowStart) {
+      headerOut.writeInt(start);
+    }
+    headerOut.close();
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(filename)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(16L + header.size());
+      header.writeTo(out);
+      final int numEntries = size();
+      for (int i = 0; i < numEntries; i++) {
+        out.writeInt(targets.get(i));
+      }
+      for (int i = 0; i < numEntries; i++) {
+        out.writeFloat(probs.get(i));
+      }
+    }
+  }
+
+  /**
+   * Number of entries in the translation table.
+   *
+   * @return
+   */
+  public int size() {
+    return rowStart[vocabulary.length];
+  }
+
+  /**
+   * The model-local id of a system vocabulary id, or -1 if the word is not in
+   * the model.
+   */
+  private int localId(int id) {
+    return localIds.get(id);
+  }
+
+  private int[] localIds(Sequence<IString> words) {
+    int[] ids = new int[words.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = localId(words.get(i).id);
+    }
+    return ids;
+  }
+
+  private static int[] ids(Sequence<IString> words) {
+    int[] ids = new int[words.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = words.get(i).id;
+    }
+    return ids;
+  }
+
+  private double score(int sourceId, int sourceRow, int targetId, int target) {
+    if (sourceId == targetId)
       return 1.0; // XXX experimental hack for unknown words
-    int[] pair = new int[2];
-    pair[0] = sourceToken.id;
-    pair[1] = targetToken.id;
-    int idx = foreignIndex.indexOf(pair);
-    if (idx < 0)
+    if (sourceRow < 0 || target < 0)
       return UNKNOWN_SCORE;
-    return scores[idx];
+    int lo = rowStart[sourceRow];
+    int hi = rowStart[sourceRow + 1] - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int midTarget = targets.get(mid);
+      if (midTarget < target) {
+        lo = mid + 1;
+      } else if (midTarget > target) {
+        hi = mid - 1;
+      } else {
+        return probs.get(mid);
+      }
+    }
+    return UNKNOWN_SCORE;
+  }
+
+  /**
+   * Sum of the translation probabilities of a target word over the null word
+   * and the source words.
+   */
+  private double targetSum(int[] sourceIds, int[] sourceRows, int targetId) {
+    final int target = localId(targetId);
+    double sumJ = score(TokenUtils.NULL_TOKEN.id, nullRow, targetId, target);
+    for (int i = 0; i < sourceIds.length; i++) {
+      sumJ += score(sourceIds[i], sourceRows[i], targetId, target);
+    }
+    return sumJ;
+  }
+
+  private double logTargetSums(int[] sourceIds, int[] sourceRows, Sequence<IString> target) {
+    double transScore = 0;
+    for (int j = 0, m = target.size(); j < m; j++) {
+      transScore += Math.log(targetSum(sourceIds, sourceRows, target.get(j).id));
+    }
+    return transScore;
+  }
+
+  public double score(IString sourceToken, IString targetToken) {
+    return score(sourceToken.id, localId(sourceToken.id), targetToken.id,
+        localId(targetToken.id));
   }
 
   public double score(Sequence<IString> source, Sequence<IString> target) {
@@ -127,14 +379,7 @@ public class IBMModel1 {
     int l = source.size();
     int m = target.size();
     double singleAlignmentScore = -m * Math.log(l + 1);
-    double transScore = 0;
-    for (int j = 0; j < m; j++) {
-      double sumJ = score(TokenUtils.NULL_TOKEN, target.get(j));
-      for (int i = 0; i < l; i++) {
-        sumJ += score(source.get(i), target.get(j));
-      }
-      transScore += Math.log(sumJ);
-    }
+    double transScore = logTargetSums(ids(source), localIds(source), target);
     /*
      * err.printf("s.sas: %e\n", singleAlignmentScore);
      * err.printf("s.transScore: %e\n", transScore);
@@ -153,6 +398,9 @@ public class IBMModel1 {
 
   public class PartialTargetFeatureState {
     private final Sequence<IString> source;
+    // Resolved once per source and shared by all successor states
+    private final int[] sourceIds;
+    private final int[] sourceRows;
     private final int targetSz;
     private final double partialTransScore;
 
@@ -160,12 +408,16 @@ public class IBMModel1 {
       partialTransScore = 0;
       targetSz = 0;
       this.source = source;
+      this.sourceIds = ids(source);
+      this.sourceRows = localIds(source);
     }
 
     private PartialTargetFeatureState(double partialTransScore,
-        Sequence<IString> source, int targetSz) {
+        PartialTargetFeatureState prior, int targetSz) {
       this.partialTransScore = partialTransScore;
-      this.source = source;
+      this.source = prior.source;
+      this.sourceIds = prior.sourceIds;
+      this.sourceRows = prior.sourceRows;
       this.targetSz = targetSz;
     }
 
@@ -180,36 +432,33 @@ public class IBMModel1 {
     }
 
     public PartialTargetFeatureState appendTargetWord(IString targetWord) {
-      double sumJ = IBMModel1.this.score(TokenUtils.NULL_TOKEN, targetWord);
-      int l = source.size();
-      for (int i = 0; i < l; i++) {
-        sumJ += IBMModel1.this.score(source.get(i), targetWord);
-      }
+      double sumJ = targetSum(sourceIds, sourceRows, targetWord.id);
       return new PartialTargetFeatureState(partialTransScore + Math.log(sumJ),
-          source, targetSz + 1);
+          this, targetSz + 1);
+    }
+
+    /**
+     * Append several target words at once.
+     *
+     * @param targetWords
+     * @return
+     */
+    public PartialTargetFeatureState appendTargetWords(Sequence<IString> targetWords) {
+      return new PartialTargetFeatureState(partialTransScore
+          + logTargetSums(sourceIds, sourceRows, targetWords), this, targetSz + targetWords.size());
     }
 
     public PartialTargetFeatureState appendPhrasePrecompute(
         PhrasePrecomputePTarget pppt) {
       return new PartialTargetFeatureState(partialTransScore + pppt.logSum,
-          source, targetSz + pppt.targetSz);
+          this, targetSz + pppt.targetSz);
     }
   } // end class PartialTargetFeatureState
 
   public PhrasePrecomputePTarget phrasePrecomputePTarget(
       Sequence<IString> targetPhrase, Sequence<IString> source) {
-    int l = source.size();
-
-    int m = targetPhrase.size();
-    double transScore = 0;
-    for (int j = 0; j < m; j++) {
-      double sumJ = score(TokenUtils.NULL_TOKEN, targetPhrase.get(j));
-      for (int i = 0; i < l; i++) {
-        sumJ += score(source.get(i), targetPhrase.get(j));
-      }
-      transScore += Math.log(sumJ);
-    }
-    return new PhrasePrecomputePTarget(transScore, m);
+    double transScore = logTargetSums(ids(source), localIds(source), targetPhrase);
+    return new PhrasePrecomputePTarget(transScore, targetPhrase.size());
   }
 
   public static class PhrasePrecomputePTarget {
@@ -228,28 +477,32 @@ public class IBMModel1 {
   }
 
   /**
-   * 
+   *
    * @author danielcer
-   * 
+   *
    */
   public class PartialSourceFeatureState {
     private final int sourceSz;
     private final double[] targetSums;
-    private final Sequence<IString> target;
+    private final int[] targetIds;
+    private final int[] targetLocalIds;
 
     public PartialSourceFeatureState(Sequence<IString> target) {
       targetSums = new double[target.size()];
       sourceSz = 0;
-      this.target = target;
+      this.targetIds = ids(target);
+      this.targetLocalIds = localIds(target);
       for (int i = 0; i < targetSums.length; i++) {
-        targetSums[i] = IBMModel1.this.score(TokenUtils.NULL_TOKEN, target.get(i));
+        targetSums[i] = IBMModel1.this.score(TokenUtils.NULL_TOKEN.id, nullRow,
+            targetIds[i], targetLocalIds[i]);
       }
     }
 
     private PartialSourceFeatureState(double[] targetSums,
-        Sequence<IString> target, int sourceSz) {
+        PartialSourceFeatureState prior, int sourceSz) {
       this.targetSums = targetSums;
-      this.target = target;
+      this.targetIds = prior.targetIds;
+      this.targetLocalIds = prior.targetLocalIds;
       this.sourceSz = sourceSz;
     }
 
@@ -269,22 +522,27 @@ public class IBMModel1 {
 
     public PartialSourceFeatureState appendSourceWord(IString sourceWord) {
       PartialSourceFeatureState pfs = new PartialSourceFeatureState(
-          new double[targetSums.length], target, sourceSz + 1);
+          new double[targetSums.length], this, sourceSz + 1);
+      final int sourceRow = localId(sourceWord.id);
       for (int i = 0; i < targetSums.length; i++) {
         pfs.targetSums[i] = targetSums[i]
-            + IBMModel1.this.score(sourceWord, target.get(i));
+            + IBMModel1.this.score(sourceWord.id, sourceRow, targetIds[i], targetLocalIds[i]);
       }
       return pfs;
     }
   }
 
   static public void main(String[] args) throws IOException {
-    if (args.length != 1) {
+    if (args.length == 3 && args[0].equals("-b")) {
+      read(args[1]).write(args[2]);
+      return;
+    } else if (args.length != 1) {
       err.printf("Usage:\n\tjava IBMModel1 (model.actual.t1) < file_with_sentence_pairs\n");
+      err.printf("\tjava IBMModel1 -b (model.actual.t1) (binary_model)\n");
       exit(-1);
     }
 
-    IBMModel1 model1 = new IBMModel1(args[0]);
+    IBMModel1 model1 = read(args[0]);
     System.err.println("ready");
     BufferedReader reader = new BufferedReader(new InputStreamReader(in));
     for (String sourceStr; (sourceStr = reader.readLine()) != null;) {
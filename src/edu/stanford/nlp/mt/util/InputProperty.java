@@ -64,6 +64,16 @@ public enum InputProperty {
   
   //Sentence based beam size
   // Type: Integer
-  BeamSize
+  BeamSize,
+  
+  // Cache of weight-independent TM query results that is re-used
+  // when the same input is decoded again under new weights (e.g., across tuning epochs).
+  // Type: RuleQueryCache
+  RuleQueryCache,
+  
+  // Search state of prefix-constrained decoding that is re-used when the next
+  // prefix for the same input shares words with the previous one (e.g., interactive MT).
+  // Type: PrefixDecodingState
+  PrefixDecodingState
   
 }
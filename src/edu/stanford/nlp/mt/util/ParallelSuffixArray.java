@@ -10,6 +10,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -17,6 +19,10 @@ import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoSerializable;
 import com.esotericsoftware.kryo.io.Input;
@@ -37,6 +43,12 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
   private static final long serialVersionUID = -5403502473957235135L;
 
   private static final Logger logger = LogManager.getLogger(ParallelSuffixArray.class);
+
+  // Number of lines encoded per batch by the streaming loader.
+  private static final int LOAD_CHUNK_SIZE = 10000;
+
+  // Smallest run sorted by a single task when building the suffix arrays.
+  private static final int MIN_SORT_CHUNK_SIZE = 1 << 16;
   
   protected int[] srcBitext;
   protected int[] f2e;
@@ -74,11 +86,39 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @param sourceFile
    * @param targetFile
    * @param alignFile
-   * @param expectedSize
    * @throws IOException 
    */
   public ParallelSuffixArray(String sourceFile, String targetFile, String alignFile) throws IOException {
-    loadCorpus(sourceFile, targetFile, alignFile);
+    this(sourceFile, targetFile, alignFile, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor. Memory-efficient for large files.
+   * 
+   * @param sourceFile
+   * @param targetFile
+   * @param alignFile
+   * @param numThreads Number of threads for encoding the corpus.
+   * @throws IOException 
+   */
+  public ParallelSuffixArray(String sourceFile, String targetFile, String alignFile, 
+      int numThreads) throws IOException {
+    this(sourceFile, targetFile, alignFile, numThreads, LOAD_CHUNK_SIZE);
+  }
+
+  /**
+   * Constructor. Encodes the corpus in chunks of the given number of lines.
+   * 
+   * @param sourceFile
+   * @param targetFile
+   * @param alignFile
+   * @param numThreads
+   * @param loadChunkSize
+   * @throws IOException
+   */
+  ParallelSuffixArray(String sourceFile, String targetFile, String alignFile, 
+      int numThreads, int loadChunkSize) throws IOException {
+    loadCorpus(sourceFile, targetFile, alignFile, numThreads, loadChunkSize);
   }
   
 
@@ -157,34 +197,49 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * Streaming loader, which does not double peak memory like the loader
    * that creates a suffix array from a parallel corpus.
    * 
+   * The first pass only tokenizes the corpus to build the vocabulary and
+   * size the arrays. The second pass encodes chunks of
+   * <code>loadChunkSize</code> lines in parallel and copies them into place,
+   * so at most one chunk of decoded sentences is held in memory.
+   * 
    * @param source
    * @param target
    * @param align
+   * @param numThreads
+   * @param loadChunkSize
    * @throws IOException 
    */
-  private void loadCorpus(String source, String target, String align) throws IOException {
+  private void loadCorpus(String source, String target, String align, int numThreads,
+      int loadChunkSize) throws IOException {
     logger.info("Counting the number of corpus positions");
     TimeKeeper timer = TimingUtils.start();
-    // Read in the files once to count the sentences and corpus positions
+    // Read in the files once to count the sentences and corpus positions.
+    // Vocabulary ids are assigned here, in corpus order.
     int numSourcePositions = 0;
     int numTargetPositions = 0;
     numSentences = 0;
-    ParallelCorpus corpus = new ParallelCorpus(1);
-    try (LineNumberReader fReader = IOTools.getReaderFromFile(source)) {
-      LineNumberReader eReader = IOTools.getReaderFromFile(target);
-      LineNumberReader aReader = IOTools.getReaderFromFile(align);
+    vocabulary = new Vocabulary();
+    try (LineNumberReader fReader = IOTools.getReaderFromFile(source);
+        LineNumberReader eReader = IOTools.getReaderFromFile(target);
+        LineNumberReader aReader = IOTools.getReaderFromFile(align)) {
       for (String fLine; (fLine = fReader.readLine()) != null; ) {
         String eLine = eReader.readLine();
         String aLine = aReader.readLine();
-        AlignedSentence example = corpus.getSentence(fLine, eLine, aLine);
-        if (example != null) {
-          numSourcePositions += example.sourceLength();
-          numTargetPositions += example.targetLength();
+        if (eLine == null || aLine == null) {
+          throw new RuntimeException("Corpus files have different lengths at line " + fReader.getLineNumber());
+        }
+        String[] f = tokenize(fLine);
+        String[] e = tokenize(eLine);
+        if (isValid(f, e, aLine)) {
+          for (String word : f) vocabulary.add(word);
+          for (String word : e) vocabulary.add(word);
+          numSourcePositions += f.length;
+          numTargetPositions += e.length;
           ++numSentences;
         }
       }
     }
-    final int initialVocabularySize = corpus.getVocabulary().size();
+    final int initialVocabularySize = vocabulary.size();
     timer.mark("Counting corpus positions");
     logger.info("Source positions: {}  Target positions: {}  Sentences: {}", numSourcePositions, 
         numTargetPositions, numSentences);
@@ -199,39 +254,101 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     tgtBitext = new int[tgtLength];
     e2f = new int[tgtLength];
     
-    // Create the arrays and read the files again
-    try (LineNumberReader fReader = IOTools.getReaderFromFile(source)) {
-      LineNumberReader eReader = IOTools.getReaderFromFile(target);
-      LineNumberReader aReader = IOTools.getReaderFromFile(align);
-      int srcOffset = 0;
-      int tgtOffset = 0;
+    // Read the files again and encode them chunk by chunk
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try (LineNumberReader fReader = IOTools.getReaderFromFile(source);
+        LineNumberReader eReader = IOTools.getReaderFromFile(target);
+        LineNumberReader aReader = IOTools.getReaderFromFile(align)) {
+      List<String[]> chunk = new ArrayList<>(loadChunkSize);
+      int[] offsets = new int[2];
+      int firstLine = 1;
       for (String fLine; (fLine = fReader.readLine()) != null; ) {
-        String eLine = eReader.readLine();
-        String aLine = aReader.readLine();
-        AlignedSentence sentence = corpus.getSentence(fLine, eLine, aLine);
-        if (sentence == null) {
-          logger.info("Discarding parallel example {}", fReader.getLineNumber());
-        } else {
-          System.arraycopy(sentence.source, 0, srcBitext, srcOffset, sentence.sourceLength());
-          System.arraycopy(sentence.f2e, 0, f2e, srcOffset, sentence.f2e.length);
-          System.arraycopy(sentence.target, 0, tgtBitext, tgtOffset, sentence.targetLength());
-          System.arraycopy(sentence.e2f, 0, e2f, tgtOffset, sentence.e2f.length);
-          srcOffset += sentence.sourceLength();
-          tgtOffset += sentence.targetLength();
-          // Source points to target
-          srcBitext[srcOffset] = toSentenceOffset(tgtOffset);
-          // Target points to source
-          tgtBitext[tgtOffset] = toSentenceOffset(srcOffset);
-          ++srcOffset;
-          ++tgtOffset;
-        }        
+        chunk.add(new String[] { fLine, eReader.readLine(), aReader.readLine() });
+        if (chunk.size() == loadChunkSize) {
+          loadChunk(chunk, firstLine, offsets, pool);
+          firstLine += chunk.size();
+          chunk.clear();
+        }
       }
+      if ( ! chunk.isEmpty()) loadChunk(chunk, firstLine, offsets, pool);
+    } finally {
+      pool.shutdown();
     }
-    this.vocabulary = corpus.getVocabulary();
     assert initialVocabularySize == vocabulary.size();
     timer.mark("Loading corpus");
     logger.info("Done loading corpus: {}", timer);
   }
+
+  /**
+   * Encode a chunk of lines in parallel and append them to the bitext arrays.
+   * 
+   * @param chunk
+   * @param firstLine Line number of the first line in the chunk.
+   * @param offsets The current source and target offsets, which are updated.
+   * @param pool
+   */
+  private void loadChunk(List<String[]> chunk, int firstLine, int[] offsets, ForkJoinPool pool) {
+    final AlignedSentence[] sentences = new AlignedSentence[chunk.size()];
+    run(pool, () -> IntStream.range(0, sentences.length).parallel().forEach(i -> {
+      String[] lines = chunk.get(i);
+      sentences[i] = encode(lines[0], lines[1], lines[2]);
+    }));
+    int srcOffset = offsets[0];
+    int tgtOffset = offsets[1];
+    for (int i = 0; i < sentences.length; ++i) {
+      AlignedSentence sentence = sentences[i];
+      if (sentence == null) {
+        logger.info("Discarding parallel example {}", firstLine + i);
+      } else {
+        System.arraycopy(sentence.source, 0, srcBitext, srcOffset, sentence.sourceLength());
+        System.arraycopy(sentence.f2e, 0, f2e, srcOffset, sentence.f2e.length);
+        System.arraycopy(sentence.target, 0, tgtBitext, tgtOffset, sentence.targetLength());
+        System.arraycopy(sentence.e2f, 0, e2f, tgtOffset, sentence.e2f.length);
+        srcOffset += sentence.sourceLength();
+        tgtOffset += sentence.targetLength();
+        // Source points to target
+        srcBitext[srcOffset] = toSentenceOffset(tgtOffset);
+        // Target points to source
+        tgtBitext[tgtOffset] = toSentenceOffset(srcOffset);
+        ++srcOffset;
+        ++tgtOffset;
+      }
+    }
+    offsets[0] = srcOffset;
+    offsets[1] = tgtOffset;
+  }
+
+  /**
+   * Encode a parallel example with the vocabulary built by the counting pass.
+   * Applies the same filters as {@link ParallelCorpus#getSentence(String, String, String)}.
+   * 
+   * @param source
+   * @param target
+   * @param align
+   * @return The sentence, or null if the example should be discarded.
+   */
+  private AlignedSentence encode(String source, String target, String align) {
+    String[] f = tokenize(source);
+    String[] e = tokenize(target);
+    if ( ! isValid(f, e, align)) return null;
+    ParallelCorpus.Alignment a = ParallelCorpus.extractAlignment(align, f.length, e.length);
+    return new AlignedSentence(toIds(f), toIds(e), a.f2e, a.e2f);
+  }
+
+  private static String[] tokenize(String line) {
+    return line.trim().split("\\s+");
+  }
+
+  private static boolean isValid(String[] f, String[] e, String align) {
+    return align.trim().length() > 0 && f.length <= ParallelCorpus.MAX_SENTENCE_LENGTH
+        && e.length <= ParallelCorpus.MAX_SENTENCE_LENGTH;
+  }
+
+  private int[] toIds(String[] words) {
+    int[] ids = new int[words.length];
+    for (int i = 0; i < ids.length; ++i) ids[i] = vocabulary.indexOf(words[i]);
+    return ids;
+  }
   
   /**
    * Load the parallel corpus into a contiguous block of memory.
@@ -296,58 +413,201 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * Create suffix arrays for the parallel corpus.
    */
   public void build() {
+    build(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create suffix arrays for the parallel corpus.
+   * 
+   * @param numThreads
+   */
+  public void build(int numThreads) {
+    build(numThreads, MIN_SORT_CHUNK_SIZE);
+  }
+
+  /**
+   * Create suffix arrays for the parallel corpus.
+   * 
+   * @param numThreads
+   * @param minSortChunkSize Smallest run sorted by a single task.
+   */
+  void build(int numThreads, int minSortChunkSize) {
     logger.info("Building suffix arrays...");
     TimeKeeper timer = TimingUtils.start();
-    int numSourcePositions = srcBitext.length - numSentences;
-    srcSuffixArray = build(srcBitext, numSourcePositions);
-    if (srcSuffixArray.length != numSourcePositions) throw new RuntimeException();
-    timer.mark("Source array");
-    int numTargetPositions = tgtBitext.length - numSentences;
-    tgtSuffixArray = build(tgtBitext, numTargetPositions);
-    if (tgtSuffixArray.length != numTargetPositions) throw new RuntimeException();
-    timer.mark("Target array");
+    final int[] rank = lexicographicRanks();
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      srcSuffixArray = build(srcBitext, srcBitext.length - numSentences, rank, pool, minSortChunkSize);
+      timer.mark("Source array");
+      tgtSuffixArray = build(tgtBitext, tgtBitext.length - numSentences, rank, pool, minSortChunkSize);
+      timer.mark("Target array");
+    } finally {
+      pool.shutdown();
+    }
     logger.info("Done constructing suffix arrays: {}", timer);
   }
+
+  /**
+   * Create the suffix arrays and write this object in the format of
+   * {@link #write(Kryo, Output)}. Each array is released as soon as it has been written,
+   * and the target suffix array is only created after the source suffix array has been
+   * released, so the complete model is never held in memory.
+   * 
+   * NOTE: This object cannot be used after this call.
+   * 
+   * @param kryo
+   * @param output
+   * @param numThreads
+   */
+  public void buildAndWrite(Kryo kryo, Output output, int numThreads) {
+    logger.info("Building and writing suffix arrays...");
+    TimeKeeper timer = TimingUtils.start();
+    writeArray(srcBitext, output);
+    writeArray(tgtBitext, output);
+    writeArray(e2f, output);
+    e2f = null;
+    writeArray(f2e, output);
+    f2e = null;
+    timer.mark("Bitext");
+    final int[] rank = lexicographicRanks();
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      int[] suffixArray = build(srcBitext, srcBitext.length - numSentences, rank, pool, MIN_SORT_CHUNK_SIZE);
+      writeArray(suffixArray, output);
+      suffixArray = null;
+      timer.mark("Source array");
+      suffixArray = build(tgtBitext, tgtBitext.length - numSentences, rank, pool, MIN_SORT_CHUNK_SIZE);
+      writeArray(suffixArray, output);
+      suffixArray = null;
+      timer.mark("Target array");
+    } finally {
+      pool.shutdown();
+    }
+    srcBitext = null;
+    tgtBitext = null;
+    output.writeInt(numSentences, true);
+    kryo.writeObject(output, vocabulary);
+    logger.info("Done writing suffix arrays: {}", timer);
+  }
+
+  /**
+   * Position of each word type in the lexicographic order of the vocabulary.
+   * 
+   * @return
+   */
+  private int[] lexicographicRanks() {
+    final int[] ids = IntStream.range(0, vocabulary.size()).toArray();
+    IntArrays.quickSort(ids, new AbstractIntComparator() {
+      private static final long serialVersionUID = 1L;
+      @Override
+      public int compare(int x, int y) {
+        return vocabulary.get(x).compareTo(vocabulary.get(y));
+      }
+    });
+    final int[] rank = new int[ids.length];
+    for (int i = 0; i < ids.length; ++i) rank[ids[i]] = i;
+    return rank;
+  }
   
   /**
-   * Sort the bitext in parallel.
+   * Sort the bitext in parallel. The corpus positions are split into chunks that are
+   * sorted independently and then merged pairwise, which needs one buffer
+   * the size of the suffix array instead of a boxed copy of the bitext.
    * 
    * @param bitext
    * @param numPositions
+   * @param rank
+   * @param pool
+   * @param minSortChunkSize
    * @return
    */
-  private int[] build(final int[] bitext, int numPositions) {
-    return IntStream.range(0, bitext.length).parallel().boxed().sorted((x,y) -> {
-      // Compare suffixes
-      int xPos = x, yPos = y, xId = bitext[x], yId = bitext[y];
-      
-      // Check to see if these points are sentence boundaries
-      if (xId < 0 && yId < 0) {
-        return 0;
-      } else if (xId < 0) {
-        // Say that sentence boundaries are longer than everything else.
-        // They will be pushed to the end of the stream so that limit() can filter them.
-        return 1;
-      } else if (yId < 0) {
-        return -1;
+  private static int[] build(final int[] bitext, int numPositions, final int[] rank, ForkJoinPool pool,
+      int minSortChunkSize) {
+    // Sentence boundaries are not suffixes
+    int[] suffixes = new int[numPositions];
+    for (int i = 0, j = 0; i < bitext.length; ++i) {
+      if (bitext[i] >= 0) suffixes[j++] = i;
+    }
+    final IntComparator cmp = new AbstractIntComparator() {
+      private static final long serialVersionUID = 1L;
+      @Override
+      public int compare(int x, int y) {
+        return compareSuffixes(bitext, rank, x, y);
       }
-            
-      while(xId >= 0 && yId >= 0) {
-        if (xId == yId) {
-          xId = bitext[++xPos];
-          yId = bitext[++yPos];
-        } else {
-          // Lexicographic sort
-          return vocabulary.get(xId).compareTo(vocabulary.get(yId));
-        }
+    };
+    final int numChunks = Math.max(1, Math.min(4 * pool.getParallelism(), numPositions / minSortChunkSize));
+    final int chunkSize = (int) (((long) numPositions + numChunks - 1) / numChunks);
+    
+    // Sort the chunks
+    final int[] sortInput = suffixes;
+    run(pool, () -> IntStream.range(0, numChunks).parallel().forEach(c -> {
+      int from = (int) Math.min((long) c * chunkSize, numPositions);
+      int to = (int) Math.min((long) from + chunkSize, numPositions);
+      IntArrays.quickSort(sortInput, from, to, cmp);
+    }));
+    
+    // Merge sorted runs
+    int[] buffer = new int[numPositions];
+    for (long width = chunkSize; width < numPositions; width *= 2) {
+      final int[] src = suffixes, dst = buffer;
+      final long runWidth = width;
+      final int numMerges = (int) ((numPositions + 2 * width - 1) / (2 * width));
+      run(pool, () -> IntStream.range(0, numMerges).parallel().forEach(m -> {
+        int from = (int) (m * 2 * runWidth);
+        int mid = (int) Math.min(from + runWidth, numPositions);
+        int to = (int) Math.min(from + 2 * runWidth, numPositions);
+        merge(src, dst, from, mid, to, cmp);
+      }));
+      buffer = suffixes;
+      suffixes = dst;
+    }
+    return suffixes;
+  }
+
+  /**
+   * Merge the sorted runs src[from,mid) and src[mid,to) into dst[from,to).
+   */
+  private static void merge(int[] src, int[] dst, int from, int mid, int to, IntComparator cmp) {
+    int i = from, j = mid, k = from;
+    while (i < mid && j < to) {
+      dst[k++] = cmp.compare(src[i], src[j]) <= 0 ? src[i++] : src[j++];
+    }
+    if (i < mid) System.arraycopy(src, i, dst, k, mid - i);
+    if (j < to) System.arraycopy(src, j, dst, k, to - j);
+  }
+
+  /**
+   * Compare two suffixes lexicographically. Proper prefixes come first, and
+   * identical suffixes are ordered by corpus position.
+   */
+  private static int compareSuffixes(int[] bitext, int[] rank, int x, int y) {
+    int xPos = x, yPos = y, xId = bitext[x], yId = bitext[y];
+    while(xId >= 0 && yId >= 0) {
+      if (xId == yId) {
+        xId = bitext[++xPos];
+        yId = bitext[++yPos];
+      } else {
+        // Lexicographic sort
+        return Integer.compare(rank[xId], rank[yId]);
       }
-      
-      // Compare lengths
-      int xLength = xPos - x + (xId < 0 ? 0 : 1);
-      int yLength = yPos - y + (yId < 0 ? 0 : 1);
-      return xLength - yLength;
-      
-    }).limit(numPositions).mapToInt(i -> i).toArray();
+    }
+    
+    // Compare lengths
+    if (xId < 0 && yId < 0) {
+      return Integer.compare(x, y);
+    }
+    return xId < 0 ? -1 : 1;
+  }
+
+  /**
+   * Run a task in the pool and wait for it to finish.
+   */
+  private static void run(ForkJoinPool pool, Runnable task) {
+    try {
+      pool.submit(task).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   /**
@@ -0,0 +1,326 @@
+package edu.stanford.nlp.mt.wordcls;
+
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Primitive-array implementation of the one-sided exchange algorithm
+ * (see {@link OneSidedObjectiveFunction}).
+ *
+ * Words and histories are integer-indexed. The histories of each word are stored
+ * in compressed sparse row format, and class-history counts are kept in one
+ * primitive hash map per class. In each iteration, the workers read the shared
+ * state and accumulate their moves in local deltas, which are then applied in
+ * parallel under locks striped by class.
+ */
+public class ArrayExchangeClusterer {
+
+  private static final Logger logger = LogManager.getLogger(ArrayExchangeClusterer.class);
+
+  private static final int NUM_LOCKS = 64;
+
+  private final int numClasses;
+  private final int numThreads;
+  private final int vparts;
+
+  // Gross statistics
+  private final int vocabSize;
+  private final double[] wordCount;
+  private final int[] historyStart;
+  private final int[] historyIds;
+  private final int[] historyCounts;
+
+  // Clustering state
+  private final int[] wordToClass;
+  private final double[] classCount;
+  private final Int2DoubleOpenHashMap[] classHistoryCount;
+  private final Object[] locks;
+  private final int[] order;
+
+  /**
+   * Constructor. The initial class of word i is i mod numClasses.
+   *
+   * @param wordCount Count of each word.
+   * @param historyStart Offset of the histories of word i in historyIds. The array has length
+   * vocabSize + 1.
+   * @param historyIds History ids.
+   * @param historyCounts History counts.
+   * @param numClasses
+   * @param numThreads
+   * @param vparts Number of vocabulary partitions.
+   * @param random Source of the random processing order.
+   */
+  public ArrayExchangeClusterer(double[] wordCount, int[] historyStart, int[] historyIds,
+      int[] historyCounts, int numClasses, int numThreads, int vparts, Random random) {
+    this.vocabSize = wordCount.length;
+    this.wordCount = wordCount;
+    this.historyStart = historyStart;
+    this.historyIds = historyIds;
+    this.historyCounts = historyCounts;
+    this.numClasses = numClasses;
+    this.numThreads = numThreads;
+    this.vparts = vparts;
+
+    wordToClass = new int[vocabSize];
+    classCount = new double[numClasses];
+    classHistoryCount = new Int2DoubleOpenHashMap[numClasses];
+    for (int c = 0; c < numClasses; ++c) classHistoryCount[c] = new Int2DoubleOpenHashMap();
+    locks = new Object[NUM_LOCKS];
+    for (int i = 0; i < locks.length; ++i) locks[i] = new Object();
+    for (int w = 0; w < vocabSize; ++w) {
+      final int c = w % numClasses;
+      wordToClass[w] = c;
+      classCount[c] += wordCount[w];
+      final Int2DoubleOpenHashMap histories = classHistoryCount[c];
+      for (int i = historyStart[w]; i < historyStart[w+1]; ++i) {
+        histories.addTo(historyIds[i], historyCounts[i]);
+      }
+    }
+
+    // Random processing order. Same permutation as Collections.shuffle() for
+    // the same source of randomness.
+    order = new int[vocabSize];
+    for (int i = 0; i < vocabSize; ++i) order[i] = i;
+    for (int i = vocabSize - 1; i > 0; --i) {
+      int j = random.nextInt(i + 1);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+  }
+
+  /**
+   * Class assignment of word i.
+   *
+   * @param word
+   * @return
+   */
+  public int classOf(int word) { return wordToClass[word]; }
+
+  private static double xlogx(double x) {
+    return x > 0.0 ? x * Math.log(x) : 0.0;
+  }
+
+  /**
+   * Objective function of Uszkoreit and Brants (2008) (Eq. 10).
+   *
+   * @return
+   */
+  public double objectiveFunctionValue() {
+    double[] classValues = new double[numClasses];
+    Arrays.parallelSetAll(classValues, c -> {
+      double value = 0.0;
+      for (DoubleIterator it = classHistoryCount[c].values().iterator(); it.hasNext();) {
+        value += xlogx(it.nextDouble());
+      }
+      return value - xlogx(classCount[c]);
+    });
+    double objValue = 0.0;
+    for (int c = 0; c < numClasses; ++c) {
+      objValue += classValues[c];
+      if (classCount[c] == 0.0) logger.warn("Empty cluster: {}", c);
+    }
+    return objValue;
+  }
+
+  /**
+   * Run the exchange algorithm.
+   *
+   * @param numIterations
+   */
+  public void run(int numIterations) {
+    ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int e = 0; e < numIterations; ++e) {
+        final int partitionNumber = e % vparts;
+        if (e > 0 && partitionNumber == 0) {
+          logger.info("Sorting vocabulary according to the current class assignments");
+          sortOrderByClass();
+        }
+        logger.info("Iteration {}: partition {} start", e, partitionNumber);
+        final long iterationStartTime = System.nanoTime();
+
+        // Cluster
+        List<Future<Delta>> workers = new ArrayList<>(numThreads);
+        for (int[] range : partition(partitionNumber)) {
+          workers.add(threadPool.submit(() -> cluster(range[0], range[1])));
+        }
+        List<Delta> deltas = new ArrayList<>(workers.size());
+        for (Future<Delta> worker : workers) deltas.add(worker.get());
+
+        // Apply the updates
+        List<Future<?>> updates = new ArrayList<>(deltas.size());
+        for (Delta delta : deltas) updates.add(threadPool.submit(() -> apply(delta)));
+        for (Future<?> update : updates) update.get();
+        int numUpdates = deltas.stream().mapToInt(d -> d.numMoves).sum();
+
+        double elapsedTime = ((double) System.nanoTime() - iterationStartTime) / 1e9;
+        logger.info(String.format("Iteration %d: elapsed time %.3fsec", e, elapsedTime));
+        logger.info(String.format("Iteration %d: #updates %d", e, numUpdates));
+        logger.info(String.format("Iteration %d: objective: %.4f", e, objectiveFunctionValue()));
+      }
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new RuntimeException(ex);
+    } finally {
+      threadPool.shutdown();
+    }
+  }
+
+  /**
+   * Stable sort of the processing order by class.
+   */
+  private void sortOrderByClass() {
+    long[] keys = new long[vocabSize];
+    for (int i = 0; i < vocabSize; ++i) {
+      keys[i] = ((long) wordToClass[order[i]] << 32) | i;
+    }
+    Arrays.parallelSort(keys);
+    int[] sorted = new int[vocabSize];
+    for (int i = 0; i < vocabSize; ++i) sorted[i] = order[(int) keys[i]];
+    System.arraycopy(sorted, 0, order, 0, vocabSize);
+  }
+
+  /**
+   * Split a vocabulary partition into one range per thread. As in the Brants and
+   * Uszkoreit heuristic, all words from a given class end up in the same range.
+   */
+  private List<int[]> partition(int partitionNumber) {
+    final int partitionSize = vocabSize / vparts;
+    final int partitionStart = partitionNumber * partitionSize;
+    final int partitionEnd = partitionNumber == vparts - 1 ? vocabSize : (partitionNumber + 1) * partitionSize;
+    final int targetInputSize = Math.max(1, (partitionEnd - partitionStart) / numThreads);
+    List<int[]> ranges = new ArrayList<>(numThreads);
+    int startIndex = partitionStart;
+    for (int t = 0; t < numThreads && startIndex < partitionEnd; ++t) {
+      int endIndex = t == numThreads - 1 ? partitionEnd : Math.min(partitionEnd, startIndex + targetInputSize);
+      while (endIndex < partitionEnd && wordToClass[order[endIndex - 1]] == wordToClass[order[endIndex]]) {
+        ++endIndex;
+      }
+      logger.info("Partition {} thread {} size {}: input {}-{}", partitionNumber, t,
+          endIndex - startIndex, startIndex, endIndex - 1);
+      ranges.add(new int[] { startIndex, endIndex });
+      startIndex = endIndex;
+    }
+    return ranges;
+  }
+
+  /**
+   * Local updates of one worker.
+   */
+  private class Delta {
+    final int start;
+    final int end;
+    final int[] newClass;
+    final double[] classCount = new double[numClasses];
+    final Int2DoubleOpenHashMap[] classHistoryCount = new Int2DoubleOpenHashMap[numClasses];
+    int numMoves = 0;
+
+    Delta(int start, int end) {
+      this.start = start;
+      this.end = end;
+      this.newClass = new int[end - start];
+    }
+
+    double classCount(int c) {
+      return ArrayExchangeClusterer.this.classCount[c] + classCount[c];
+    }
+
+    double historyCount(int c, int history) {
+      double count = ArrayExchangeClusterer.this.classHistoryCount[c].get(history);
+      return classHistoryCount[c] == null ? count : count + classHistoryCount[c].get(history);
+    }
+
+    void addHistoryCount(int c, int history, double count) {
+      if (classHistoryCount[c] == null) classHistoryCount[c] = new Int2DoubleOpenHashMap();
+      classHistoryCount[c].addTo(history, count);
+    }
+  }
+
+  /**
+   * Exchange algorithm on the words order[start,end). The shared state is read-only.
+   */
+  private Delta cluster(int start, int end) {
+    final Delta delta = new Delta(start, end);
+    for (int i = start; i < end; ++i) {
+      final int word = order[i];
+      final int fromClass = wordToClass[word];
+      final int hStart = historyStart[word], hEnd = historyStart[word + 1];
+      final double count = wordCount[word];
+
+      // Change of the objective from removing the word from its class
+      final double fromClassCount = delta.classCount(fromClass);
+      double removeGain = xlogx(fromClassCount) - xlogx(fromClassCount - count);
+      for (int h = hStart; h < hEnd; ++h) {
+        double fromCount = delta.historyCount(fromClass, historyIds[h]);
+        removeGain += xlogx(fromCount - historyCounts[h]) - xlogx(fromCount);
+      }
+
+      // Change of the objective from adding the word to each candidate class
+      int argMaxClass = fromClass;
+      double maxGain = 0.0;
+      for (int toClass = 0; toClass < numClasses; ++toClass) {
+        if (toClass == fromClass) continue;
+        final double toClassCount = delta.classCount(toClass);
+        double gain = removeGain + xlogx(toClassCount) - xlogx(toClassCount + count);
+        for (int h = hStart; h < hEnd; ++h) {
+          double toCount = delta.historyCount(toClass, historyIds[h]);
+          gain += xlogx(toCount + historyCounts[h]) - xlogx(toCount);
+        }
+        if (gain > maxGain) {
+          argMaxClass = toClass;
+          maxGain = gain;
+        }
+      }
+
+      // Final move
+      if (argMaxClass != fromClass) {
+        delta.classCount[fromClass] -= count;
+        delta.classCount[argMaxClass] += count;
+        for (int h = hStart; h < hEnd; ++h) {
+          delta.addHistoryCount(fromClass, historyIds[h], -historyCounts[h]);
+          delta.addHistoryCount(argMaxClass, historyIds[h], historyCounts[h]);
+        }
+        delta.newClass[i - start] = argMaxClass + 1;
+        ++delta.numMoves;
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Apply the updates of a worker to the shared state.
+   */
+  private void apply(Delta delta) {
+    for (int c = 0; c < numClasses; ++c) {
+      if (delta.classCount[c] == 0.0 && delta.classHistoryCount[c] == null) continue;
+      synchronized (locks[c % locks.length]) {
+        classCount[c] += delta.classCount[c];
+        if (delta.classHistoryCount[c] == null) continue;
+        final Int2DoubleOpenHashMap histories = classHistoryCount[c];
+        for (Int2DoubleMap.Entry entry : delta.classHistoryCount[c].int2DoubleEntrySet()) {
+          final int history = entry.getIntKey();
+          final double value = entry.getDoubleValue();
+          if (value == 0.0) continue;
+          if (histories.addTo(history, value) + value == 0.0) histories.remove(history);
+        }
+      }
+    }
+    // Each word is in exactly one range
+    for (int i = delta.start; i < delta.end; ++i) {
+      if (delta.newClass[i - delta.start] > 0) wordToClass[order[i]] = delta.newClass[i - delta.start] - 1;
+    }
+  }
+}
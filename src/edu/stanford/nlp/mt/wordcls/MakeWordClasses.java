@@ -11,6 +11,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
@@ -65,6 +66,9 @@ public class MakeWordClasses {
   private List<IString> effectiveVocabulary;
   private final boolean normalizeDigits;
   private final boolean writeUnkClass;
+  private final boolean useArrays;
+  private ArrayExchangeClusterer arrayClusterer;
+  private final Random random;
 
   private double currentObjectiveValue = 0.0;
   
@@ -94,6 +98,11 @@ public class MakeWordClasses {
     
     this.writeUnkClass = PropertiesUtils.getBool(properties, "writeunk", false);
 
+    this.useArrays = PropertiesUtils.getBool(properties, "arrays", false);
+
+    this.random = properties.containsKey("seed") ?
+        new Random(PropertiesUtils.getLong(properties, "seed", 0L)) : new Random();
+
     this.outputFormat = OutputFormat.valueOf(
         properties.getProperty("format", OutputFormat.TSV.toString()).toUpperCase());
 
@@ -103,6 +112,7 @@ public class MakeWordClasses {
     logger.info("#vocabulary partitions: {}", vparts);
     logger.info("Rare word threshold: {}", vocabThreshold);
     logger.info("Input file encoding: {}", inputEncoding);
+    logger.info("Primitive array implementation: {}", useArrays);
     if (normalizeDigits) {
       logger.info("Mapping all ASCII digit characters to 0");
     }
@@ -186,6 +196,10 @@ public class MakeWordClasses {
 
     // Initialize clustering
     Collections.sort(effectiveVocabulary, Counters.toComparator(wordCount, false, true));
+    if (useArrays) {
+      initializeArrays();
+      return;
+    }
     for (int i = 0; i < effectiveVocabulary.size(); ++i) {
       IString word = effectiveVocabulary.get(i);
       int classId = i % numClasses;
@@ -195,7 +209,7 @@ public class MakeWordClasses {
       Counter<NgramHistory> historiesForClass = classHistoryCount.getCounter(classId);
       Counters.addInPlace(historiesForClass, historiesForWord);
     }
-    Collections.shuffle(effectiveVocabulary);
+    Collections.shuffle(effectiveVocabulary, random);
 
     // Debug output
     logger.info("Effective vocabulary size: " + String.valueOf(effectiveVocabulary.size()));
@@ -204,6 +218,40 @@ public class MakeWordClasses {
     logger.info(String.format("Initial objective function value: %.3f%n", currentObjectiveValue));
   }
 
+  /**
+   * Convert the gross statistics to integer-indexed arrays and create the
+   * initial clustering. Word i is the i-th word of the effective vocabulary.
+   */
+  private void initializeArrays() {
+    final int vocabSize = effectiveVocabulary.size();
+    double[] counts = new double[vocabSize];
+    int[] historyStart = new int[vocabSize + 1];
+    for (int i = 0; i < vocabSize; ++i) {
+      IString word = effectiveVocabulary.get(i);
+      counts[i] = wordCount.getCount(word);
+      historyStart[i+1] = historyStart[i] + historyCount.getCounter(word).size();
+    }
+    int[] historyIds = new int[historyStart[vocabSize]];
+    int[] historyCounts = new int[historyStart[vocabSize]];
+    for (int i = 0; i < vocabSize; ++i) {
+      IString word = effectiveVocabulary.get(i);
+      int j = historyStart[i];
+      for (Map.Entry<NgramHistory,Double> entry : historyCount.getCounter(word).entrySet()) {
+        historyIds[j] = entry.getKey().id();
+        historyCounts[j++] = entry.getValue().intValue();
+      }
+      // Release the boxed counts
+      historyCount.remove(word);
+    }
+    arrayClusterer = new ArrayExchangeClusterer(counts, historyStart, historyIds, historyCounts,
+        numClasses, numThreads, vparts, random);
+    logger.info("Effective vocabulary size: " + String.valueOf(vocabSize));
+    logger.info("Word-history pairs: {}  distinct histories: {}", historyIds.length, NgramHistory.indexSize());
+    currentObjectiveValue = arrayClusterer.objectiveFunctionValue();
+    logger.info("Finished generating initial cluster assignment");
+    logger.info(String.format("Initial objective function value: %.3f%n", currentObjectiveValue));
+  }
+
   /**
    * Create word clusters from the list of input files.
    * 
@@ -218,56 +266,63 @@ public class MakeWordClasses {
     }
 
     logger.info(String.format("Starting clustering with %d threads", numThreads));
-    for (int e = 0; e < numIterations; ++e) {
-      MulticoreWrapper<ClustererState,PartialStateUpdate> threadpool = 
-          new MulticoreWrapper<ClustererState,PartialStateUpdate>(numThreads, 
-              new ThreadsafeProcessor<ClustererState,PartialStateUpdate>() {
-            @Override
-            public PartialStateUpdate process(ClustererState input) {
-              OneSidedObjectiveFunction algorithm = new OneSidedObjectiveFunction(input);
-              return algorithm.cluster();
-            }
-            @Override
-            public ThreadsafeProcessor<ClustererState, PartialStateUpdate> newInstance() {
-              return this;
-            }
-          });
+    if (useArrays) {
+      arrayClusterer.run(numIterations);
+      for (int i = 0; i < effectiveVocabulary.size(); ++i) {
+        wordToClass.put(effectiveVocabulary.get(i), arrayClusterer.classOf(i));
+      }
+    } else {
+      for (int e = 0; e < numIterations; ++e) {
+        MulticoreWrapper<ClustererState,PartialStateUpdate> threadpool = 
+            new MulticoreWrapper<ClustererState,PartialStateUpdate>(numThreads, 
+                new ThreadsafeProcessor<ClustererState,PartialStateUpdate>() {
+              @Override
+              public PartialStateUpdate process(ClustererState input) {
+                OneSidedObjectiveFunction algorithm = new OneSidedObjectiveFunction(input);
+                return algorithm.cluster();
+              }
+              @Override
+              public ThreadsafeProcessor<ClustererState, PartialStateUpdate> newInstance() {
+                return this;
+              }
+            });
       
-      // Select vocabulary partition number
-      final int partitionNumber = e % vparts;
+        // Select vocabulary partition number
+        final int partitionNumber = e % vparts;
 
-      if (e > 0 && partitionNumber == 0) {
-        logger.info("Sorting vocabulary according to the current class assignments");
-        Collections.sort(effectiveVocabulary, new WordClassComparator(wordToClass));
-      }
+        if (e > 0 && partitionNumber == 0) {
+          logger.info("Sorting vocabulary according to the current class assignments");
+          Collections.sort(effectiveVocabulary, new WordClassComparator(wordToClass));
+        }
 
-      logger.info(String.format("Iteration %d: partition %d start", e, partitionNumber));
-      final long iterationStartTime = System.nanoTime();
-      int startIndex = 0;
-      for (int t = 0; t < numThreads; ++t) {
-        Pair<ClustererState,Integer> input = createInput(partitionNumber, t, startIndex);
-        if (input != null) {
-          threadpool.put(input.first());
-          startIndex = input.second();
+        logger.info(String.format("Iteration %d: partition %d start", e, partitionNumber));
+        final long iterationStartTime = System.nanoTime();
+        int startIndex = 0;
+        for (int t = 0; t < numThreads; ++t) {
+          Pair<ClustererState,Integer> input = createInput(partitionNumber, t, startIndex);
+          if (input != null) {
+            threadpool.put(input.first());
+            startIndex = input.second();
+          }
         }
-      }
 
-      // Wait for shutdown and process results
-      threadpool.join();
-      int numUpdates = 0;
-      while(threadpool.peek()) {
-        PartialStateUpdate result = threadpool.poll();
-        numUpdates += updateCountsWith(result);
-      }
+        // Wait for shutdown and process results
+        threadpool.join();
+        int numUpdates = 0;
+        while(threadpool.peek()) {
+          PartialStateUpdate result = threadpool.poll();
+          numUpdates += updateCountsWith(result);
+        }
 
-      // Clean out zeros from counters after updating
-      classHistoryCount.clean();
-      Counters.retainNonZeros(classCount);
+        // Clean out zeros from counters after updating
+        classHistoryCount.clean();
+        Counters.retainNonZeros(classCount);
 
-      double elapsedTime = ((double) System.nanoTime() - iterationStartTime) / 1e9;
-      logger.info(String.format("Iteration %d: elapsed time %.3fsec", e, elapsedTime));
-      logger.info(String.format("Iteration %d: #updates %d", e, numUpdates));
-      logger.info(String.format("Iteration %d: objective: %.4f", e, objectiveFunctionValue()));
+        double elapsedTime = ((double) System.nanoTime() - iterationStartTime) / 1e9;
+        logger.info(String.format("Iteration %d: elapsed time %.3fsec", e, elapsedTime));
+        logger.info(String.format("Iteration %d: #updates %d", e, numUpdates));
+        logger.info(String.format("Iteration %d: objective: %.4f", e, objectiveFunctionValue()));
+      }
     }
 
     double elapsedTime = ((double) System.nanoTime() - runStartTime) / 1e9;
@@ -310,6 +365,15 @@ public class MakeWordClasses {
     return objValue;
   }
 
+  /**
+   * Objective function value of the current clustering.
+   * 
+   * @return
+   */
+  double objectiveValue() {
+    return useArrays ? arrayClusterer.objectiveFunctionValue() : objectiveFunctionValue();
+  }
+
   /**
    * Create the input to a clustering iteration.
    * 
@@ -411,6 +475,8 @@ public class MakeWordClasses {
     argDefs.put("vclip", 1);
     argDefs.put("normdigits", 1);
     argDefs.put("encoding", 1);
+    argDefs.put("arrays", 1);
+    argDefs.put("seed", 1);
     return argDefs;
   }
 
@@ -427,7 +493,9 @@ public class MakeWordClasses {
     .append(" -name str        : Run name for log file.").append(nl)
     .append(" -vclip num       : Map rare words to <unk> (default: 5)").append(nl)
     .append(" -normdigits bool : Map ASCII digits to 0 (default: true)").append(nl)
-    .append(" -encoding str    : Input file encoding (default: UTF-8)");
+    .append(" -encoding str    : Input file encoding (default: UTF-8)").append(nl)
+    .append(" -arrays bool     : Primitive array implementation of the exchange algorithm (default: false)").append(nl)
+    .append(" -seed num        : Random seed for the word processing order");
 
     return sb.toString();
   }
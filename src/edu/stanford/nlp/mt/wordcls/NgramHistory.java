@@ -34,6 +34,16 @@ public class NgramHistory implements Iterable<IString> {
   }
   
   public static void lockIndex() { index.lock(); }
+
+  /**
+   * Number of distinct histories. History ids are in the range [0,size).
+   */
+  static int indexSize() { return index.size(); }
+
+  /**
+   * Integer id of this history.
+   */
+  int id() { return id; }
   
   @Override
   public Iterator<IString> iterator() {
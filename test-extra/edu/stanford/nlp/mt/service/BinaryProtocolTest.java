@@ -0,0 +1,183 @@
+package edu.stanford.nlp.mt.service;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.service.BinaryProtocol.RequestFrame;
+import edu.stanford.nlp.mt.service.BinaryProtocol.ResponseFrame;
+import edu.stanford.nlp.mt.service.Messages.Language;
+import edu.stanford.nlp.mt.service.Messages.MessageType;
+import edu.stanford.nlp.mt.service.Messages.RuleQueryReply;
+import edu.stanford.nlp.mt.service.Messages.RuleQueryRequest;
+import edu.stanford.nlp.mt.service.Messages.TranslationReply;
+import edu.stanford.nlp.mt.service.Messages.TranslationRequest;
+import edu.stanford.nlp.mt.service.handlers.RuleQuery;
+import edu.stanford.nlp.mt.service.handlers.ServiceResponse;
+import edu.stanford.nlp.mt.service.handlers.TranslationQuery;
+
+/**
+ * Test case.
+ */
+public class BinaryProtocolTest {
+
+  private static DataInputStream input(ByteArrayOutputStream bytes) {
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  /**
+   * A frame with the given message type ordinal and an arbitrary body.
+   */
+  private static void writeRawFrame(DataOutputStream out, int requestId, int typeOrdinal) throws IOException {
+    out.writeInt(4 + 1 + 3);
+    out.writeInt(requestId);
+    out.writeByte(typeOrdinal);
+    out.write(new byte[] { 1, 2, 3 });
+  }
+
+  @Test
+  public void testTranslationRequest() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryProtocol.writeRequest(out, 7, new TranslationRequest(Language.DE, Language.EN,
+        "das ist ein Test \u00fcber", "a=b", 5, "this is", true));
+    DataInputStream in = input(bytes);
+    RequestFrame frame = BinaryProtocol.readRequest(in);
+    assertEquals(7, frame.requestId);
+    assertEquals(MessageType.TRANSLATION_REQUEST, frame.type);
+    TranslationRequest request = (TranslationRequest) frame.request;
+    assertEquals(Language.DE, request.src);
+    assertEquals(Language.EN, request.tgt);
+    assertEquals("das ist ein Test \u00fcber", request.text);
+    assertEquals("a=b", request.inputProperties);
+    assertEquals(5, request.n);
+    assertEquals("this is", request.tgtPrefix);
+    assertTrue(request.bulk);
+    assertNull(BinaryProtocol.readRequest(in));
+  }
+
+  @Test
+  public void testRuleQueryRequest() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryProtocol.writeRequest(out, 3, new RuleQueryRequest(Language.FR, Language.EN, "la maison", "", 20, "the"));
+    RequestFrame frame = BinaryProtocol.readRequest(input(bytes));
+    assertEquals(3, frame.requestId);
+    assertEquals(MessageType.RULE_QUERY_REQUEST, frame.type);
+    RuleQueryRequest request = (RuleQueryRequest) frame.request;
+    assertEquals(Language.FR, request.src);
+    assertEquals("la maison", request.text);
+    assertEquals(20, request.spanLimit);
+    assertEquals("the", request.leftContext);
+  }
+
+  @Test
+  public void testTranslationReply() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    TranslationReply reply = new TranslationReply(Arrays.asList(
+        new TranslationQuery(Arrays.asList("this", "is"), Arrays.asList("0-0", "1-1"), -1.5),
+        new TranslationQuery(Arrays.asList("that"), Arrays.asList("0-0"), -2.0)));
+    BinaryProtocol.writeResponse(out, 11, BinaryProtocol.STATUS_OK, new ServiceResponse(reply, null));
+    ResponseFrame frame = BinaryProtocol.readResponse(input(bytes));
+    assertEquals(11, frame.requestId);
+    assertEquals(BinaryProtocol.STATUS_OK, frame.status);
+    TranslationReply decoded = (TranslationReply) frame.reply;
+    assertEquals(2, decoded.result.size());
+    for (int i = 0; i < reply.result.size(); ++i) {
+      assertEquals(reply.result.get(i).tgt, decoded.result.get(i).tgt);
+      assertEquals(reply.result.get(i).align, decoded.result.get(i).align);
+      assertEquals(reply.result.get(i).score, decoded.result.get(i).score, 0.0);
+    }
+  }
+
+  @Test
+  public void testRuleQueryReply() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    RuleQueryReply reply = new RuleQueryReply(Arrays.asList(
+        new RuleQuery(Arrays.asList("the", "house"), Arrays.asList("0-0", "1-1"), -0.5)));
+    BinaryProtocol.writeResponse(out, 12, BinaryProtocol.STATUS_OK, new ServiceResponse(reply, null));
+    ResponseFrame frame = BinaryProtocol.readResponse(input(bytes));
+    assertEquals(12, frame.requestId);
+    RuleQueryReply decoded = (RuleQueryReply) frame.reply;
+    assertEquals(1, decoded.result.size());
+    assertEquals(reply.result.get(0).tgt, decoded.result.get(0).tgt);
+    assertEquals(reply.result.get(0).align, decoded.result.get(0).align);
+    assertEquals(-0.5, decoded.result.get(0).score, 0.0);
+  }
+
+  @Test
+  public void testErrorResponse() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryProtocol.writeResponse(out, 13, BinaryProtocol.STATUS_UNAVAILABLE, null);
+    DataInputStream in = input(bytes);
+    ResponseFrame frame = BinaryProtocol.readResponse(in);
+    assertEquals(13, frame.requestId);
+    assertEquals(BinaryProtocol.STATUS_UNAVAILABLE, frame.status);
+    assertNull(frame.reply);
+    assertNull(BinaryProtocol.readResponse(in));
+  }
+
+  @Test
+  public void testUnknownFrame() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeRawFrame(out, 1, MessageType.UNKNOWN_REQUEST.ordinal());
+    writeRawFrame(out, 2, 100);
+    BinaryProtocol.writeRequest(out, 3, new RuleQueryRequest(Language.FR, Language.EN, "maison", "", 10, null));
+    writeRawFrame(out, 4, MessageType.TRANSLATION_REPLY.ordinal());
+    DataInputStream in = input(bytes);
+    // Unknown frames keep their request ids, so that the server can reply
+    for (int requestId : new int[] { 1, 2, 3, 4 }) {
+      RequestFrame frame = BinaryProtocol.readRequest(in);
+      assertEquals(requestId, frame.requestId);
+      if (requestId == 3) {
+        assertEquals("maison", frame.request.text);
+      } else {
+        assertEquals(MessageType.UNKNOWN_REQUEST, frame.type);
+        assertNull(frame.request);
+      }
+    }
+    assertNull(BinaryProtocol.readRequest(in));
+  }
+
+  @Test
+  public void testNullInputProperties() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryProtocol.writeRequest(out, 8, new RuleQueryRequest(Language.FR, Language.EN, "maison", null, 10, null));
+    RequestFrame frame = BinaryProtocol.readRequest(input(bytes));
+    assertEquals("", frame.request.inputProperties);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidNumResults() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(4 + 1 + 1 + 4);
+    out.writeInt(14);
+    out.writeByte(BinaryProtocol.STATUS_OK);
+    out.writeByte(MessageType.TRANSLATION_REPLY.ordinal());
+    out.writeInt(Integer.MAX_VALUE);
+    BinaryProtocol.readResponse(input(bytes));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedFrame() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryProtocol.writeRequest(out, 5, new TranslationRequest(Language.DE, Language.EN, "ein Test", "", 1, ""));
+    byte[] frame = bytes.toByteArray();
+    BinaryProtocol.readRequest(new DataInputStream(new ByteArrayInputStream(
+        Arrays.copyOf(frame, frame.length - 1))));
+  }
+}
@@ -0,0 +1,154 @@
+package edu.stanford.nlp.mt.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.service.RequestScheduler.Priority;
+
+/**
+ * Test case.
+ */
+public class RequestSchedulerTest {
+
+  /**
+   * Records processed and shed requests. Requests that start with "block" wait
+   * until they are released.
+   */
+  private static class RecordingProcessor implements RequestScheduler.Processor<String> {
+    private final List<String> processed = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> shed = Collections.synchronizedList(new ArrayList<>());
+    private final Semaphore started = new Semaphore(0);
+    private final Semaphore released = new Semaphore(0);
+    private final Semaphore finished = new Semaphore(0);
+
+    @Override
+    public void process(String request) {
+      if (request.startsWith("block")) {
+        started.release();
+        released.acquireUninterruptibly();
+      }
+      processed.add(request);
+      finished.release();
+    }
+
+    @Override
+    public void shed(String request) {
+      shed.add(request);
+      finished.release();
+    }
+
+    private void awaitStarted() throws InterruptedException {
+      assertTrue(started.tryAcquire(10, TimeUnit.SECONDS));
+    }
+
+    private void awaitFinished(int numRequests) throws InterruptedException {
+      assertTrue(finished.tryAcquire(numRequests, 10, TimeUnit.SECONDS));
+    }
+  }
+
+  private final RecordingProcessor processor = new RecordingProcessor();
+  private RequestScheduler<String> scheduler;
+
+  private RequestScheduler<String> scheduler(int interactiveCapacity, int bulkCapacity,
+      long interactiveSloMillis) {
+    scheduler = new RequestScheduler<>(1, i -> processor, new int[] { interactiveCapacity, bulkCapacity },
+        new long[] { interactiveSloMillis, 0 });
+    return scheduler;
+  }
+
+  @After
+  public void tearDown() {
+    if (scheduler != null) {
+      processor.released.release(100);
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testCapacity() throws InterruptedException {
+    scheduler(2, 1, 0);
+    assertTrue(scheduler.submit("block", "a", Priority.INTERACTIVE));
+    processor.awaitStarted();
+    assertTrue(scheduler.submit("i1", "a", Priority.INTERACTIVE));
+    assertTrue(scheduler.submit("i2", "b", Priority.INTERACTIVE));
+    assertFalse(scheduler.submit("i3", "c", Priority.INTERACTIVE));
+    assertTrue(scheduler.submit("b1", "a", Priority.BULK));
+    assertFalse(scheduler.submit("b2", "a", Priority.BULK));
+    assertEquals(3, scheduler.size());
+    assertEquals(1, scheduler.numShed(Priority.INTERACTIVE));
+    assertEquals(1, scheduler.numShed(Priority.BULK));
+
+    processor.released.release();
+    processor.awaitFinished(4);
+    assertEquals(Arrays.asList("block", "i1", "i2", "b1"), processor.processed);
+    assertTrue(processor.shed.isEmpty());
+  }
+
+  @Test
+  public void testShedAfterQueueWait() throws InterruptedException {
+    scheduler(10, 10, 50);
+    assertTrue(scheduler.submit("block", "a", Priority.INTERACTIVE));
+    processor.awaitStarted();
+    assertTrue(scheduler.submit("late", "b", Priority.INTERACTIVE));
+    assertTrue(scheduler.submit("bulk", "b", Priority.BULK));
+    Thread.sleep(150);
+    processor.released.release();
+    processor.awaitFinished(3);
+    assertEquals(Arrays.asList("block", "bulk"), processor.processed);
+    assertEquals(Arrays.asList("late"), processor.shed);
+    assertEquals(1, scheduler.numShed(Priority.INTERACTIVE));
+    assertEquals(0, scheduler.numShed(Priority.BULK));
+  }
+
+  @Test
+  public void testShedOnExpectedWait() throws InterruptedException {
+    // The first request sets the mean service time to at least 200ms
+    scheduler(10, 10, 500);
+    assertTrue(scheduler.submit("block0", "a", Priority.INTERACTIVE));
+    processor.awaitStarted();
+    Thread.sleep(200);
+    processor.released.release();
+    processor.awaitFinished(1);
+
+    assertTrue(scheduler.submit("block1", "a", Priority.INTERACTIVE));
+    processor.awaitStarted();
+    assertTrue(scheduler.submit("q0", "a", Priority.INTERACTIVE));
+    assertTrue(scheduler.submit("q1", "a", Priority.INTERACTIVE));
+    // At least 3 x 200ms ahead
+    boolean rejected = false;
+    for (int i = 2; i < 4 && ! rejected; ++i) {
+      rejected = ! scheduler.submit("q" + i, "a", Priority.INTERACTIVE);
+    }
+    assertTrue(rejected);
+    assertEquals(1, scheduler.numShed(Priority.INTERACTIVE));
+    // No SLO for bulk requests
+    assertTrue(scheduler.submit("b", "a", Priority.BULK));
+  }
+
+  @Test
+  public void testFairness() throws InterruptedException {
+    scheduler(10, 10, 0);
+    assertTrue(scheduler.submit("block", "x", Priority.INTERACTIVE));
+    processor.awaitStarted();
+    for (String request : new String[] { "a1", "a2", "a3" }) {
+      assertTrue(scheduler.submit(request, "a", Priority.INTERACTIVE));
+    }
+    assertTrue(scheduler.submit("bulk", "b", Priority.BULK));
+    assertTrue(scheduler.submit("b1", "b", Priority.INTERACTIVE));
+    assertTrue(scheduler.submit("c1", "c", Priority.INTERACTIVE));
+    assertTrue(scheduler.submit("b2", "b", Priority.INTERACTIVE));
+    processor.released.release();
+    processor.awaitFinished(8);
+    assertEquals(Arrays.asList("block", "a1", "b1", "c1", "a2", "b2", "a3", "bulk"), processor.processed);
+  }
+}
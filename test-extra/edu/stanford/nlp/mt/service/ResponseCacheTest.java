@@ -0,0 +1,153 @@
+package edu.stanford.nlp.mt.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.service.Messages.TranslationReply;
+import edu.stanford.nlp.mt.service.handlers.ServiceResponse;
+
+/**
+ * Test case.
+ */
+public class ResponseCacheTest {
+
+  private static ServiceResponse response() {
+    return new ServiceResponse(new TranslationReply(Collections.emptyList()), TranslationReply.class);
+  }
+
+  @Test
+  public void testKey() {
+    ResponseCache<Integer> cache = new ResponseCache<>(10, 0, "v1");
+    assertEquals(cache.key("  a  b\tc ", 3), cache.key("a b c", 3));
+    assertNotEquals(cache.key("a b", 3), cache.key("a b", 4));
+    assertNotEquals(cache.key("a b"), new ResponseCache<Integer>(10, 0, "v2").key("a b"));
+    // No model version
+    ResponseCache<Integer> unversioned = new ResponseCache<>(10, 0, null);
+    assertEquals(unversioned.key("a  b"), unversioned.key("a b"));
+  }
+
+  @Test
+  public void testCoalesce() {
+    ResponseCache<Integer> cache = new ResponseCache<>(10, 0, "v1");
+    String key = cache.key("a b");
+    assertFalse(cache.coalesce(key, 0));
+    assertTrue(cache.coalesce(key, 1));
+    assertTrue(cache.coalesce(key, 2));
+    assertFalse(cache.coalesce(cache.key("c"), 3));
+
+    ServiceResponse response = response();
+    assertEquals(Arrays.asList(1, 2), cache.complete(key, response));
+    assertSame(response, cache.getIfPresent(key));
+    // The key is released
+    assertFalse(cache.coalesce(key, 4));
+    assertTrue(cache.complete(key, response).isEmpty());
+  }
+
+  @Test
+  public void testConcurrentCoalesce() throws Exception {
+    final int numThreads = 8;
+    ResponseCache<Integer> cache = new ResponseCache<>(10, 0, "v1");
+    String key = cache.key("a b");
+    CyclicBarrier barrier = new CyclicBarrier(numThreads);
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Boolean>> parked = new ArrayList<>();
+      for (int i = 0; i < numThreads; ++i) {
+        final int waiter = i;
+        parked.add(pool.submit(() -> {
+          barrier.await();
+          return cache.coalesce(key, waiter);
+        }));
+      }
+      int numLeaders = 0;
+      for (Future<Boolean> result : parked) if ( ! result.get()) ++numLeaders;
+      assertEquals(1, numLeaders);
+      assertEquals(numThreads - 1, cache.complete(key, response()).size());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailedRequest() {
+    ResponseCache<Integer> cache = new ResponseCache<>(10, 0, "v1");
+    String key = cache.key("a b");
+    assertFalse(cache.coalesce(key, 0));
+    assertTrue(cache.coalesce(key, 1));
+    // Waiters are released, but the response is not cached
+    assertEquals(Arrays.asList(1), cache.complete(key, null));
+    assertNull(cache.getIfPresent(key));
+    assertFalse(cache.coalesce(key, 2));
+  }
+
+  @Test
+  public void testCompleteWithoutCoalesce() {
+    ResponseCache<Integer> cache = new ResponseCache<>(10, 0, "v1");
+    ServiceResponse response = response();
+    assertTrue(cache.complete(cache.key("a"), response).isEmpty());
+    assertSame(response, cache.getIfPresent(cache.key("a")));
+  }
+
+  @Test
+  public void testEviction() {
+    ResponseCache<Integer> cache = new ResponseCache<>(1, 0, "v1");
+    ServiceResponse first = response();
+    ServiceResponse second = response();
+    cache.complete(cache.key("a"), first);
+    cache.complete(cache.key("b"), second);
+    assertNull(cache.getIfPresent(cache.key("a")));
+    assertSame(second, cache.getIfPresent(cache.key("b")));
+    cache.invalidateAll();
+    assertNull(cache.getIfPresent(cache.key("b")));
+  }
+
+  @Test
+  public void testLoader() throws Exception {
+    ResponseCache<Void> cache = new ResponseCache<>(10, 0, "v1");
+    String key = cache.key("a b");
+    try {
+      cache.get(key, () -> { throw new IOException("failed"); });
+      fail();
+    } catch (IOException e) {
+      assertEquals("failed", e.getMessage());
+    }
+    assertNull(cache.getIfPresent(key));
+
+    // Concurrent identical requests share one load
+    final int numThreads = 4;
+    AtomicInteger numLoads = new AtomicInteger();
+    CountDownLatch loading = new CountDownLatch(1);
+    ServiceResponse response = response();
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<ServiceResponse>> results = new ArrayList<>();
+      for (int i = 0; i < numThreads; ++i) {
+        results.add(pool.submit(() -> cache.get(key, () -> {
+          numLoads.incrementAndGet();
+          loading.await(10, TimeUnit.SECONDS);
+          return response;
+        })));
+      }
+      Thread.sleep(100);
+      loading.countDown();
+      for (Future<ServiceResponse> result : results) assertSame(response, result.get());
+      assertEquals(1, numLoads.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
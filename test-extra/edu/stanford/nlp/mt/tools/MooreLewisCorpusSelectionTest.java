@@ -0,0 +1,124 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.lm.ARPALanguageModel;
+
+/**
+ * Test case.
+ */
+public class MooreLewisCorpusSelectionTest {
+
+  // More than two chunks
+  private static final int NUM_LINES = 25000;
+  private static final int VOCAB_SIZE = 5;
+
+  /**
+   * A unigram model in which word wi has probability weights[i].
+   */
+  private static File unigramModel(double[] weights) throws IOException {
+    File file = File.createTempFile("unigram", ".arpa");
+    file.deleteOnExit();
+    double sum = 1.0;
+    for (double weight : weights) sum += weight;
+    try (PrintWriter writer = new PrintWriter(file)) {
+      writer.println("\\data\\");
+      writer.printf("ngram 1=%d%n%n", weights.length + 2);
+      writer.println("\\1-grams:");
+      writer.printf("%f\t</s>%n", Math.log10(1.0 / sum));
+      writer.println("-99\t<s>");
+      for (int i = 0; i < weights.length; ++i) writer.printf("%f\tw%d%n", Math.log10(weights[i] / sum), i);
+      writer.println();
+      writer.println("\\end\\");
+    }
+    return file;
+  }
+
+  /**
+   * Short lines from a small vocabulary, so that there are many duplicates and ties.
+   * Some lines have extra whitespace.
+   */
+  private static File corpus() throws IOException {
+    File file = File.createTempFile("corpus", ".txt");
+    file.deleteOnExit();
+    Random random = new Random(11);
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (int i = 0; i < NUM_LINES; ++i) {
+        StringBuilder line = new StringBuilder(random.nextInt(10) == 0 ? " " : "");
+        for (int j = 0, length = 1 + random.nextInt(4); j < length; ++j) {
+          line.append(j == 0 ? "" : " ").append("w").append(random.nextInt(VOCAB_SIZE));
+        }
+        if (random.nextInt(10) == 0) line.append("  ");
+        writer.println(line);
+      }
+    }
+    return file;
+  }
+
+  private static List<String> read(String filename) throws IOException {
+    return Files.readAllLines(new File(filename).toPath(), StandardCharsets.UTF_8);
+  }
+
+  private static void assertSelection(MooreLewisCorpusSelection mlcs, List<String> lines, int selectionSize,
+      int lenThreshold, boolean isRemoveRepetition) throws IOException {
+    // Sort all lines and take the first unique lines
+    List<Integer> sorted = IntStream.range(0, lines.size())
+        .filter(i -> lines.get(i).trim().split("\\s+").length >= lenThreshold)
+        .boxed()
+        .sorted(Comparator.<Integer>comparingDouble(i -> mlcs.computeCrossEntDiff(lines.get(i).trim()))
+            .thenComparingInt(i -> i))
+        .collect(Collectors.toList());
+    List<Integer> expected = new ArrayList<>();
+    Set<String> uniqueLines = new HashSet<>();
+    for (int i : sorted) {
+      if (expected.size() == selectionSize) break;
+      if (isRemoveRepetition && ! uniqueLines.add(lines.get(i))) continue;
+      expected.add(i);
+    }
+
+    File outPrefix = File.createTempFile("selection", "");
+    outPrefix.deleteOnExit();
+    mlcs.select(outPrefix.getPath(), selectionSize, lenThreshold, isRemoveRepetition);
+    List<String> data = read(outPrefix.getPath() + ".data");
+    List<String> scores = read(outPrefix.getPath() + ".score");
+    List<String> lineIds = read(outPrefix.getPath() + ".line");
+    for (String suffix : new String[] { ".data", ".score", ".line" }) new File(outPrefix.getPath() + suffix).delete();
+
+    assertEquals(expected.size(), lineIds.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      int lineId = expected.get(i);
+      assertEquals(String.valueOf(lineId), lineIds.get(i));
+      assertEquals(lines.get(lineId), data.get(i));
+      assertEquals(mlcs.computeCrossEntDiff(lines.get(lineId).trim()), Double.parseDouble(scores.get(i)), 0.0);
+    }
+  }
+
+  @Test
+  public void testSelection() throws IOException {
+    File corpus = corpus();
+    List<String> lines = read(corpus.getPath());
+    ARPALanguageModel inDomainLM = new ARPALanguageModel(unigramModel(new double[] { 5, 4, 3, 2, 1 }).getPath());
+    ARPALanguageModel outDomainLM = new ARPALanguageModel(unigramModel(new double[] { 1, 2, 3, 3, 5 }).getPath());
+    MooreLewisCorpusSelection mlcs = new MooreLewisCorpusSelection(inDomainLM, outDomainLM, corpus.getPath(), 4);
+    assertSelection(mlcs, lines, 500, 1, false);
+    assertSelection(mlcs, lines, 500, 3, false);
+    assertSelection(mlcs, lines, 200, 1, true);
+    assertSelection(mlcs, lines, NUM_LINES, 2, true);
+  }
+}
@@ -0,0 +1,112 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.HashedFeatureValue;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Test case.
+ */
+public class FeatureHashingTest {
+
+  @After
+  public void tearDown() {
+    FeatureHashing.setEnabled(false);
+    FeatureHashing.setMaxDictionarySize(FeatureHashing.DEFAULT_MAX_DICTIONARY_SIZE);
+  }
+
+  @Test
+  public void testIncrementalHash() {
+    long h = FeatureHashing.hash("DPT:");
+    h = FeatureHashing.hash(h, "a b");
+    h = FeatureHashing.hash(h, '>');
+    assertEquals(FeatureHashing.hash("DPT:a b>"), h);
+    assertNotEquals(FeatureHashing.hash("DPT:a b>"), FeatureHashing.hash("DPT:a b<"));
+  }
+
+  @Test
+  public void testBuilder() {
+    FeatureHashing.Builder builder = FeatureHashing.builder("RSHP").append(':').append(12)
+        .append('-').append(-3).append(new IString("x"));
+    assertEquals("RSHP:12--3x", builder.toString());
+    assertEquals(FeatureHashing.hash("RSHP:12--3x"), builder.id());
+    assertEquals("RSHP:0", FeatureHashing.builder("RSHP").append(':').append(0).toString());
+  }
+
+  @Test
+  public void testDisabled() {
+    FeatureValue<String> feature = FeatureHashing.builder("TGTCLS").append(":1").toFeature(1.0);
+    assertFalse(feature instanceof HashedFeatureValue);
+    assertEquals("TGTCLS:1", feature.name);
+  }
+
+  @Test
+  public void testDictionary() {
+    FeatureHashing.setEnabled(true);
+    FeatureValue<String> first = FeatureHashing.builder("ALN").append(":a>b").toFeature(1.0);
+    FeatureValue<String> second = FeatureHashing.builder("ALN").append(":a>b").toFeature(2.0);
+    assertTrue(first instanceof HashedFeatureValue);
+    assertEquals("ALN:a>b", first.name);
+    assertEquals(FeatureHashing.hash("ALN:a>b"), ((HashedFeatureValue) first).id);
+    // The name of a known id is not materialized again
+    assertSame(first.name, second.name);
+    assertEquals(first.name, FeatureHashing.name(((HashedFeatureValue) first).id));
+  }
+
+  @Test
+  public void testFixedName() {
+    final String name = "RFERT";
+    FeatureValue<String> feature = FeatureHashing.toFeature(name, 0.5);
+    assertFalse(feature instanceof HashedFeatureValue);
+    assertSame(name, feature.name);
+    FeatureHashing.setEnabled(true);
+    feature = FeatureHashing.toFeature(name, 0.5);
+    assertEquals(FeatureHashing.hash(name), ((HashedFeatureValue) feature).id);
+    assertEquals(name, feature.name);
+    assertEquals(0.5, feature.value, 0.0);
+    assertSame(feature.name, FeatureHashing.builder(name).toFeature(1.0).name);
+  }
+
+  @Test
+  public void testDictionaryBound() {
+    FeatureHashing.setEnabled(true);
+    FeatureHashing.setMaxDictionarySize(0);
+    FeatureValue<String> first = FeatureHashing.builder("ALN").append(":unbounded").toFeature(1.0);
+    FeatureValue<String> second = FeatureHashing.builder("ALN").append(":unbounded").toFeature(1.0);
+    assertEquals("ALN:unbounded", first.name);
+    assertEquals(first.name, second.name);
+    assertNotSame(first.name, second.name);
+    assertNull(FeatureHashing.name(((HashedFeatureValue) first).id));
+  }
+
+  @Test
+  public void testScorer() {
+    FeatureHashing.setEnabled(true);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("RSHP:1-1", 0.5);
+    SparseScorer scorer = new SparseScorer(weights);
+    List<FeatureValue<String>> features = Arrays.asList(
+        FeatureHashing.builder("RSHP").append(":1-1").toFeature(2.0),
+        FeatureHashing.builder("RSHP").append(":2-1").toFeature(1.0),
+        new FeatureValue<>("RSHP:1-1", 1.0));
+    assertEquals(1.5, scorer.getIncrementalScore(features), 1e-9);
+    // Same weight vector: the cached hashed weights are kept
+    scorer.updateWeights(weights);
+    assertEquals(1.5, scorer.getIncrementalScore(features), 1e-9);
+    Counter<String> newWeights = new ClassicCounter<>(weights);
+    newWeights.setCount("RSHP:2-1", -1.0);
+    scorer.updateWeights(newWeights);
+    assertEquals(0.5, scorer.getIncrementalScore(features), 1e-9);
+  }
+}
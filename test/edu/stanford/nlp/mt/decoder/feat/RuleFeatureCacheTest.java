@@ -0,0 +1,108 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.Featurizable;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Test case.
+ */
+public class RuleFeatureCacheTest {
+
+  private static final PhraseAlignment ALIGNMENT = PhraseAlignment.getPhraseAlignment("(0)");
+  private static final String[] SCORE_NAMES = new String[] {"p(e|f)"};
+
+  private static class CountingFeaturizer implements RuleFeaturizer<IString,String> {
+    int numCalls = 0;
+    @Override
+    public void initialize() {}
+    @Override
+    public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString, String> f) {
+      ++numCalls;
+      return Collections.singletonList(new FeatureValue<>(getClass().getSimpleName(), 1.0));
+    }
+    @Override
+    public boolean isolationScoreOnly() { return false; }
+  }
+
+  private static class CacheableCountingFeaturizer extends CountingFeaturizer implements CacheableFeaturizer {}
+
+  private static class OtherCacheableFeaturizer extends CacheableCountingFeaturizer {}
+
+  private static Rule<IString> makeRule(String source, String target, float score) {
+    return new Rule<>(new float[] {score}, SCORE_NAMES, IStrings.tokenize(target),
+        IStrings.tokenize(source), ALIGNMENT, "test");
+  }
+
+  @Test
+  public void testKeys() {
+    assertEquals(RuleFeatureCache.key(makeRule("a", "b", -1.0f)), RuleFeatureCache.key(makeRule("a", "b", -1.0f)));
+    assertNotEquals(RuleFeatureCache.key(makeRule("a", "b", -1.0f)), RuleFeatureCache.key(makeRule("a", "c", -1.0f)));
+    assertNotEquals(RuleFeatureCache.key(makeRule("a", "b", -1.0f)), RuleFeatureCache.key(makeRule("a", "b", -2.0f)));
+    assertNotEquals(RuleFeatureCache.key(makeRule("a b", "c", -1.0f)), RuleFeatureCache.key(makeRule("a", "b c", -1.0f)));
+
+    Rule<IString> rule = new Rule<>(7, new float[] {-1.0f}, SCORE_NAMES, IStrings.tokenize("b"),
+        IStrings.tokenize("a"), ALIGNMENT, "test");
+    Rule<IString> sameId = new Rule<>(7, new float[] {-1.0f}, SCORE_NAMES, IStrings.tokenize("b"),
+        IStrings.tokenize("a"), ALIGNMENT, "test");
+    assertEquals(RuleFeatureCache.key(rule), RuleFeatureCache.key(sameId));
+  }
+
+  @Test
+  public void testFeatureExtractor() {
+    CountingFeaturizer uncached = new CountingFeaturizer();
+    CacheableCountingFeaturizer cached = new CacheableCountingFeaturizer();
+    OtherCacheableFeaturizer otherCached = new OtherCacheableFeaturizer();
+    List<Featurizer<IString,String>> featurizers = new ArrayList<>();
+    featurizers.add(cached);
+    featurizers.add(uncached);
+    featurizers.add(otherCached);
+    FeatureExtractor<IString,String> extractor = new FeatureExtractor<>(featurizers);
+    extractor.setRuleFeatureCache(10);
+
+    Sequence<IString> source = IStrings.tokenize("a b");
+    for (int sourceInputId = 0; sourceInputId < 3; ++sourceInputId) {
+      CoverageSet coverage = new CoverageSet(source.size());
+      coverage.set(0);
+      ConcreteRule<IString,String> rule = new ConcreteRule<>(makeRule("a", "x", -1.0f), coverage,
+          extractor, null, source, sourceInputId, null);
+      // Cached features keep the featurizer order
+      assertEquals(3, rule.cachedFeatureList.size());
+      assertEquals("CacheableCountingFeaturizer", rule.cachedFeatureList.get(0).name);
+      assertEquals("CountingFeaturizer", rule.cachedFeatureList.get(1).name);
+      assertEquals("OtherCacheableFeaturizer", rule.cachedFeatureList.get(2).name);
+    }
+    assertEquals(3, uncached.numCalls);
+    assertEquals(1, cached.numCalls);
+    assertEquals(1, otherCached.numCalls);
+    assertEquals(1, extractor.getRuleFeatureCache().size());
+    assertEquals(2.0 / 3.0, extractor.getRuleFeatureCache().hitRate(), 1e-6);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testUnmodifiable() {
+    RuleFeatureCache<String> cache = new RuleFeatureCache<>(10);
+    Rule<IString> rule = makeRule("a", "x", -1.0f);
+    List<FeatureValue<String>> features = new ArrayList<>();
+    features.add(new FeatureValue<>("f", 1.0));
+    cache.put(rule, Collections.singletonList(features));
+    // The cache copies the lists
+    features.clear();
+    assertEquals(1, cache.get(rule).get(0).size());
+    cache.get(rule).get(0).add(new FeatureValue<>("g", 1.0));
+  }
+}
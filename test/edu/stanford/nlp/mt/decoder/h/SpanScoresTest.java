@@ -0,0 +1,93 @@
+package edu.stanford.nlp.mt.decoder.h;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.CoverageMask;
+import edu.stanford.nlp.mt.util.CoverageSet;
+
+/**
+ * Test case.
+ */
+public class SpanScoresTest {
+
+  private static final double EPSILON = 1e-9;
+
+  private static SpanScores randomScores(int length, Random random) {
+    SpanScores scores = new SpanScores(length);
+    for (int i = 0; i < length; ++i) {
+      for (int j = i; j < length; ++j) {
+        scores.setScore(i, j, -10.0 * random.nextDouble() * (j - i + 1));
+      }
+    }
+    return scores;
+  }
+
+  private static CoverageSet coverage(int... positions) {
+    CoverageSet coverage = new CoverageSet();
+    for (int i : positions) coverage.set(i);
+    return coverage;
+  }
+
+  @Test
+  public void testFutureCost() {
+    SpanScores scores = randomScores(6, new Random(1));
+    assertEquals(scores.getScore(0, 5), scores.futureCost(new CoverageSet()), EPSILON);
+    assertEquals(scores.getScore(0, 1) + scores.getScore(3, 3), scores.futureCost(coverage(2, 4, 5)), EPSILON);
+    assertEquals(0.0, scores.futureCost(coverage(0, 1, 2, 3, 4, 5)), EPSILON);
+  }
+
+  @Test
+  public void testDeltaIsEquivalent() {
+    final Random random = new Random(7);
+    for (int trial = 0; trial < 200; ++trial) {
+      final int length = 1 + random.nextInt(70);
+      SpanScores scores = randomScores(length, random);
+      CoverageSet parent = new CoverageSet();
+      while (parent.cardinality() < length) {
+        // Random phrase within a random gap, possibly with a source gap
+        int start = parent.nextClearBit(random.nextInt(length));
+        if (start >= length) start = parent.nextClearBit(0);
+        int gapEnd = parent.nextSetBit(start);
+        if (gapEnd < 0) gapEnd = length;
+        int end = start + random.nextInt(gapEnd - start);
+        CoverageSet rule = new CoverageSet();
+        rule.set(start, end + 1);
+        if (random.nextBoolean()) {
+          int next = parent.nextClearBit(end + 2);
+          if (next < length && ! rule.get(next - 1)) rule.set(next);
+        }
+        CoverageSet child = parent.clone();
+        child.or(rule);
+        double expected = scores.futureCost(child) - scores.futureCost(parent);
+        assertEquals(expected, scores.futureCostDelta(parent, rule, child), EPSILON);
+        assertEquals(scores.futureCost(child), scores.futureCost(CoverageMask.word(child, 0),
+            CoverageMask.word(child, 1)), EPSILON);
+        assertEquals(expected, scores.futureCostDelta(CoverageMask.word(parent, 0), CoverageMask.word(parent, 1),
+            CoverageMask.word(rule, 0), CoverageMask.word(rule, 1), CoverageMask.word(child, 0),
+            CoverageMask.word(child, 1)), EPSILON);
+        parent = child;
+      }
+    }
+  }
+
+  @Test
+  public void testCoveredRule() {
+    SpanScores scores = randomScores(5, new Random(3));
+    CoverageSet parent = coverage(1, 3);
+    assertEquals(0.0, scores.futureCostDelta(parent, coverage(1, 3), parent), EPSILON);
+  }
+
+  @Test
+  public void testInfiniteRemainder() {
+    SpanScores scores = new SpanScores(3);
+    scores.setScore(0, 2, -3.0);
+    scores.setScore(0, 0, -1.0);
+    CoverageSet rule = coverage(1);
+    double delta = scores.futureCostDelta(new CoverageSet(), rule, rule);
+    assertTrue(Double.isInfinite(delta) && delta < 0.0);
+  }
+}
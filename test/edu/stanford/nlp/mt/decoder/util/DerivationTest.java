@@ -0,0 +1,93 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.h.NullHeuristic;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Test case.
+ */
+public class DerivationTest {
+
+  private static final FeatureExtractor<IString,String> FEATURIZER =
+      new FeatureExtractor<>(Collections.emptyList());
+  private static final Scorer<String> SCORER = new UniformScorer<>();
+
+  private static Sequence<IString> source(int length) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; ++i) sb.append(i == 0 ? "" : " ").append("w").append(i);
+    return IStrings.tokenize(sb.toString());
+  }
+
+  private static ConcreteRule<IString,String> rule(Sequence<IString> source, int start, int end) {
+    CoverageSet coverage = new CoverageSet(source.size());
+    coverage.set(start, end);
+    Rule<IString> rule = new Rule<>(start, new float[0], new String[0], IStrings.tokenize("x"),
+        source.subsequence(start, end), PhraseAlignment.getPhraseAlignment("(0)"), "test");
+    return new ConcreteRule<>(rule, coverage, null, SCORER, source, 0, null);
+  }
+
+  private static Derivation<IString,String> derive(Sequence<IString> source, int[][] spans) {
+    Derivation<IString,String> d = new Derivation<>(0, source, new InputProperties(),
+        new NullHeuristic<>(), SCORER, Collections.emptyList(), null);
+    for (int[] span : spans) {
+      d = new Derivation<>(0, rule(source, span[0], span[1]), d.length, d, FEATURIZER, SCORER,
+          new NullHeuristic<>(), null);
+    }
+    return d;
+  }
+
+  private static boolean hasCoverageSet(Derivation<IString,String> d) throws Exception {
+    Field field = Derivation.class.getDeclaredField("sourceCoverage");
+    field.setAccessible(true);
+    return field.get(d) != null;
+  }
+
+  private static void checkCoverage(int length, int[][] spans) throws Exception {
+    Sequence<IString> source = source(length);
+    Derivation<IString,String> d = derive(source, spans);
+    CoverageSet expected = new CoverageSet(length);
+    for (int[] span : spans) expected.set(span[0], span[1]);
+
+    // No coverage set is created for inputs that fit in a mask until it is requested
+    assertEquals(length > 128, hasCoverageSet(d));
+    assertEquals(length > 128, hasCoverageSet(d.parent));
+    assertEquals(length - expected.cardinality(), d.untranslatedSourceTokens);
+    assertEquals(expected.cardinality(), d.coveredSourceTokens());
+    for (int i = 0; i <= length; ++i) {
+      assertEquals(expected.get(i), d.isSourceCovered(i));
+      assertEquals(expected.nextSetBit(i), d.nextCoveredSourceIndex(i));
+      assertEquals(expected.nextClearBit(i), d.nextUncoveredSourceIndex(i));
+    }
+    assertTrue(d.coverageIntersects(rule(source, spans[0][0], spans[0][0] + 1)));
+    int gap = expected.nextClearBit(0);
+    assertFalse(d.coverageIntersects(rule(source, gap, gap + 1)));
+    assertEquals(expected, d.getSourceCoverage());
+    assertSame(d.getSourceCoverage(), d.getSourceCoverage());
+  }
+
+  @Test
+  public void testMaskCoverage() throws Exception {
+    checkCoverage(10, new int[][] { {2, 4}, {7, 8}, {0, 1} });
+    checkCoverage(128, new int[][] { {60, 70}, {127, 128}, {0, 3} });
+  }
+
+  @Test
+  public void testLongInputCoverage() throws Exception {
+    checkCoverage(140, new int[][] { {60, 70}, {127, 131}, {0, 3} });
+  }
+}
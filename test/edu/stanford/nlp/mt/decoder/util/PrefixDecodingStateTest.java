@@ -0,0 +1,125 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.train.DynamicTMBuilder;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Test case.
+ */
+public class PrefixDecodingStateTest {
+
+  private static final int NUM_SENTENCES = 300;
+
+  private static final String[][] TRANSLATIONS = {
+    {"the"}, {"government", "state", "administration"}, {"must", "has to", "should"},
+    {"respect", "obey", "follow"}, {"the", "this"}, {"law", "rule of law", "laws"}, {"and"},
+    {"protect", "defend"}, {"society", "the public"} };
+
+  /**
+   * Source word zi is translated as one of TRANSLATIONS[i], with a monotone alignment.
+   */
+  private static Phrasal loadDecoder() throws IOException {
+    File source = File.createTempFile("corpus", ".f");
+    File target = File.createTempFile("corpus", ".e");
+    File align = File.createTempFile("corpus", ".align");
+    File model = File.createTempFile("model", ".bin");
+    for (File file : new File[] { source, target, align, model }) file.deleteOnExit();
+    Random random = new Random(1);
+    try (PrintWriter fWriter = new PrintWriter(source);
+        PrintWriter eWriter = new PrintWriter(target);
+        PrintWriter aWriter = new PrintWriter(align)) {
+      for (int n = 0; n < NUM_SENTENCES; ++n) {
+        int length = 2 + random.nextInt(6);
+        StringBuilder f = new StringBuilder();
+        StringBuilder e = new StringBuilder();
+        StringBuilder a = new StringBuilder();
+        int targetPosition = 0;
+        for (int i = 0; i < length; ++i) {
+          int word = random.nextInt(TRANSLATIONS.length);
+          f.append(i == 0 ? "" : " ").append("z").append(word);
+          String[] candidates = TRANSLATIONS[word];
+          int j = Math.min(candidates.length - 1, (int) Math.abs(random.nextGaussian() * 1.2));
+          for (String token : candidates[j].split(" ")) {
+            e.append(targetPosition == 0 ? "" : " ").append(token);
+            a.append(i).append("-").append(targetPosition++).append(" ");
+          }
+        }
+        fWriter.println(f);
+        eWriter.println(e);
+        aWriter.println(a.toString().trim());
+      }
+    }
+    new DynamicTMBuilder(source.getPath(), target.getPath(), align.getPath()).build(model.getPath());
+
+    Map<String,List<String>> config = new HashMap<>();
+    config.put(Phrasal.TRANSLATION_TABLE_OPT, Arrays.asList("dyn:" + model.getPath()));
+    config.put(Phrasal.LANGUAGE_MODEL_OPT, Arrays.asList("test-resources/inputs/mt06.flt_giga.lm.gz"));
+    config.put(Phrasal.DISTORTION_LIMIT, Arrays.asList("5"));
+    Phrasal phrasal = Phrasal.loadDecoder(config);
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("LM", 0.5);
+    weights.setCount("LinearDistortion", 0.1);
+    weights.setCount("WordPenalty", -0.3);
+    for (String featureName : phrasal.getTranslationModel().getFeatureNames()) {
+      weights.setCount("TM:" + featureName, 0.2);
+    }
+    phrasal.setModel(weights);
+    return phrasal;
+  }
+
+  private static RichTranslation<IString,String> decode(Phrasal phrasal, Sequence<IString> source,
+      String prefix, PrefixDecodingState<IString,String> state) {
+    InputProperties inputProperties = new InputProperties();
+    inputProperties.put(InputProperty.TargetPrefix, true);
+    if (state != null) inputProperties.put(InputProperty.PrefixDecodingState, state);
+    List<Sequence<IString>> targets = Collections.singletonList(IStrings.tokenize(prefix));
+    List<RichTranslation<IString,String>> translations = phrasal.decode(source, 0, 0, 1, targets,
+        inputProperties);
+    assertFalse(translations.isEmpty());
+    return translations.get(0);
+  }
+
+  /**
+   * Decoding an extended prefix from the beams of the previous prefix must give the
+   * same result as decoding from scratch, including after the saved beams were re-used.
+   */
+  @Test
+  public void testIncrementalDecoding() throws IOException {
+    Phrasal phrasal = loadDecoder();
+    Sequence<IString> source = IStrings.tokenize("z1 z2 z3 z4 z5 z6 z7 z0 z8");
+    String[] prefixes = { "the government", "the government must", "the government must obey the",
+        "the government must obey the law and", "the government must respect",
+        "the government must obey the law and" };
+    PrefixDecodingState<IString,String> state = new PrefixDecodingState<>();
+    for (String prefix : prefixes) {
+      RichTranslation<IString,String> incremental = decode(phrasal, source, prefix, state);
+      RichTranslation<IString,String> fresh = decode(phrasal, source, prefix, null);
+      assertTrue(incremental.translation.startsWith(IStrings.tokenize(prefix)));
+      assertEquals(fresh.translation, incremental.translation);
+      assertEquals(fresh.score, incremental.score, 1e-6);
+    }
+    assertTrue(state.numReusedBeams() > 0);
+  }
+}
@@ -3,17 +3,24 @@ package edu.stanford.nlp.mt.decoder.util;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.stanford.nlp.mt.decoder.feat.DeferrableFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
+import edu.stanford.nlp.mt.decoder.feat.Featurizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
 import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.tm.CompiledPhraseTable;
 import edu.stanford.nlp.mt.tm.Rule;
 import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
@@ -83,4 +90,99 @@ public class RuleGridTest {
 //    assertEquals(2, numRules);
   }
   
+  @Test
+  public void testLazySorting() {
+    Sequence<IString> sourceSequence = IStrings.tokenize("a b c");
+    CoverageSet sourceCoverage = new CoverageSet(sourceSequence.size());
+    sourceCoverage.set(0, 2);
+    Scorer<String> scorer = new UniformScorer<>();
+    List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+    for (int i = 0; i <= 20; ++i) {
+      // The first and last rules tie
+      float[] scores = new float[] { -((i * 7) % 20) };
+      Rule<IString> rule = new Rule<>(scores, new String[] { PHRASE_SCORE_NAMES[0] }, 
+          IStrings.tokenize("x" + i), sourceSequence.subsequence(0, 2), ALIGNMENT, PHRASE_TABLE_NAME);
+      ruleList.add(new ConcreteRule<>(rule, sourceCoverage, featurizer, scorer, sourceSequence, 0, null));
+    }
+    List<ConcreteRule<IString,String>> sortedRules = new ArrayList<>(ruleList);
+    Collections.sort(sortedRules);
+    
+    RuleGrid<IString,String> ruleGrid = new RuleGrid<>(ruleList, sourceSequence, 5);
+    assertEquals(21, ruleGrid.size());
+    List<ConcreteRule<IString,String>> rules = ruleGrid.get(0, 1);
+    assertEquals(5, rules.size());
+    assertSame(ruleList.get(0), rules.get(0));
+    assertEquals(sortedRules.subList(0, 5), new ArrayList<>(rules));
+    // Only rules reached by the search count as expanded
+    assertEquals(0, ruleGrid.numExpandedRules());
+    assertSame(sortedRules.get(2), RuleGrid.expand(rules, 2));
+    assertEquals(3, ruleGrid.numExpandedRules());
+    RuleGrid.expand(rules, 0);
+    assertEquals(3, ruleGrid.numExpandedRules());
+    assertTrue(ruleGrid.get(2, 2).isEmpty());
+    assertEquals(1, ruleGrid.numSortedSpans());
+    
+    // Adding a rule to a queried span re-sorts the rules that survived the limit
+    ruleGrid.addEntry(ruleList.get(20));
+    assertEquals(5, ruleGrid.get(0, 1).size());
+    assertSame(ruleList.get(20), ruleGrid.get(0, 1).get(1));
+  }
+
+  private static class CountingFeaturizer implements RuleFeaturizer<IString,String>, DeferrableFeaturizer {
+    private int numCalls = 0;
+    @Override
+    public void initialize() {}
+    @Override
+    public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString, String> f) {
+      ++numCalls;
+      return Collections.singletonList(new FeatureValue<>("DEFERRED", 1.0));
+    }
+    @Override
+    public boolean isolationScoreOnly() { return false; }
+  }
+  
+  @Test
+  public void testDeferredFeatures() {
+    Sequence<IString> sourceSequence = IStrings.tokenize("a b c");
+    CoverageSet sourceCoverage = new CoverageSet(sourceSequence.size());
+    sourceCoverage.set(0, 2);
+    CountingFeaturizer deferred = new CountingFeaturizer();
+    FeatureExtractor<IString,String> extractor = new FeatureExtractor<>(
+        Arrays.<Featurizer<IString,String>>asList(new TranslationModelFeaturizer(), deferred));
+    extractor.setDeferRuleFeatures(true);
+    Scorer<String> scorer = new UniformScorer<>();
+    List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      Rule<IString> rule = new Rule<>(new float[] { -i }, new String[] { PHRASE_SCORE_NAMES[0] }, 
+          IStrings.tokenize("x" + i), sourceSequence.subsequence(0, 2), ALIGNMENT, PHRASE_TABLE_NAME);
+      ruleList.add(new ConcreteRule<>(rule, sourceCoverage, extractor, scorer, sourceSequence, 0, null));
+    }
+    // The isolation score does not include the deferred features
+    assertEquals(0, deferred.numCalls);
+    assertEquals(0.0, ruleList.get(0).isolationScore, 1e-9);
+    assertEquals(1, ruleList.get(0).cachedFeatureList.size());
+    
+    RuleGrid<IString,String> ruleGrid = new RuleGrid<>(ruleList, sourceSequence, 5);
+    List<ConcreteRule<IString,String>> rules = ruleGrid.get(0, 1);
+    assertSame(ruleList.get(3), rules.get(3));
+    assertEquals(0, deferred.numCalls);
+    
+    // Only the rules reached by the search are featurized
+    assertSame(ruleList.get(1), RuleGrid.expand(rules, 1));
+    assertEquals(2, deferred.numCalls);
+    assertEquals(2, ruleGrid.numExpandedRules());
+    assertEquals(2, ruleList.get(1).cachedFeatureList.size());
+    assertEquals(1, ruleList.get(2).cachedFeatureList.size());
+    assertEquals(-1.0, ruleList.get(1).isolationScore, 1e-9);
+    assertFalse(ruleList.get(1).extractDeferredFeatures());
+    assertEquals(2, deferred.numCalls);
+    
+    // Re-scoring does not include the deferred features either
+    ConcreteRule<IString,String> rescored = new ConcreteRule<>(ruleList.get(1), scorer);
+    assertEquals(-1.0, rescored.isolationScore, 1e-9);
+    assertEquals(1, rescored.cachedFeatureList.size());
+    assertTrue(rescored.extractDeferredFeatures());
+    assertEquals(2, rescored.cachedFeatureList.size());
+    assertEquals(3, deferred.numCalls);
+  }
 }
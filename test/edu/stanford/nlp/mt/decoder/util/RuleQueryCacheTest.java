@@ -0,0 +1,124 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.decoder.feat.base.TranslationModelFeaturizer;
+import edu.stanford.nlp.mt.tm.CombinedTranslationModel;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.tm.TranslationModel;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.InputProperty;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Test case.
+ */
+public class RuleQueryCacheTest {
+
+  private static final PhraseAlignment ALIGNMENT = PhraseAlignment.getPhraseAlignment("(0)");
+  private static final String[] SCORE_NAMES = new String[] {"p(e|f)", "p(f|e)"};
+
+  /**
+   * Three translations of each source word with different trade-offs between the two scores.
+   */
+  private static class SyntheticModel implements TranslationModel<IString,String> {
+    private RuleFeaturizer<IString,String> featurizer = new TranslationModelFeaturizer();
+    @Override
+    public List<ConcreteRule<IString,String>> getRules(Sequence<IString> source,
+        InputProperties sourceInputProperties, int sourceInputId, Scorer<String> scorer) {
+      List<ConcreteRule<IString,String>> rules = new ArrayList<>();
+      float[][] scores = { {-1.0f, -3.0f}, {-3.0f, -1.0f}, {-2.0f, -2.0f} };
+      for (int i = 0; i < source.size(); ++i) {
+        CoverageSet coverage = new CoverageSet(source.size());
+        coverage.set(i);
+        for (int j = 0; j < scores.length; ++j) {
+          Rule<IString> rule = new Rule<>(3*i + j, scores[j], SCORE_NAMES,
+              IStrings.tokenize(source.get(i) + "_" + j), source.subsequence(i, i+1), ALIGNMENT, "test");
+          rules.add(new ConcreteRule<>(rule, coverage, featurizer, scorer, source, sourceInputId,
+              sourceInputProperties));
+        }
+      }
+      return rules;
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException { return super.clone(); }
+    @Override
+    public int maxLengthSource() { return 1; }
+    @Override
+    public int maxLengthTarget() { return 1; }
+    @Override
+    public void setFeaturizer(RuleFeaturizer<IString,String> featurizer) { this.featurizer = featurizer; }
+    @Override
+    public List<String> getFeatureNames() { return Arrays.asList(SCORE_NAMES); }
+    @Override
+    public String getName() { return "test"; }
+    @Override
+    public void setName(String name) {}
+  }
+
+  private static Scorer<String> scorer(String featureName) {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(TranslationModelFeaturizer.toTMFeature(featureName), 1.0);
+    return new SparseScorer(weights);
+  }
+
+  private static List<String> targets(List<ConcreteRule<IString,String>> rules) {
+    return rules.stream().map(r -> r.abstractRule.target.toString()).sorted().collect(Collectors.toList());
+  }
+
+  @Test
+  public void testQueryLimitAfterRescoring() {
+    CombinedTranslationModel<IString,String> tm = new CombinedTranslationModel<>(new SyntheticModel(), 1);
+    RuleQueryCache<IString,String> cache = new RuleQueryCache<>();
+    InputProperties inputProperties = new InputProperties();
+    inputProperties.put(InputProperty.RuleQueryCache, cache);
+    Sequence<IString> source = IStrings.tokenize("a b");
+    Scorer<String> first = scorer(SCORE_NAMES[0]);
+    Scorer<String> second = scorer(SCORE_NAMES[1]);
+
+    List<ConcreteRule<IString,String>> pruned = tm.getRules(source, inputProperties, 0, first);
+    assertEquals(Arrays.asList("a_0", "b_0"), targets(pruned));
+    cache.put(0, source, source, tm.getRules(source, inputProperties, 0, first, -1));
+    RuleQueryCache.CachedQuery<IString,String> query = cache.get(0, source);
+    assertNotNull(query);
+    assertEquals(targets(pruned), targets(query.rescore(first, 1)));
+
+    // New weights select rules that did not make the cut under the old weights
+    List<ConcreteRule<IString,String>> rescored = query.rescore(second, 1);
+    assertEquals(Arrays.asList("a_1", "b_1"), targets(rescored));
+    assertEquals(targets(tm.getRules(source, inputProperties, 0, second)), targets(rescored));
+    for (ConcreteRule<IString,String> rule : rescored) assertEquals(-1.0, rule.isolationScore, 1e-9);
+    assertEquals(6, query.rescore(second, -1).size());
+  }
+
+  @Test
+  public void testBoundedByRuleCount() {
+    CombinedTranslationModel<IString,String> tm = new CombinedTranslationModel<>(new SyntheticModel(), 1);
+    RuleQueryCache<IString,String> cache = new RuleQueryCache<>(24);
+    InputProperties inputProperties = new InputProperties();
+    inputProperties.put(InputProperty.RuleQueryCache, cache);
+    Sequence<IString> source = IStrings.tokenize("a b");
+    Scorer<String> scorer = scorer(SCORE_NAMES[0]);
+    for (int i = 0; i < 10; ++i) {
+      cache.put(i, source, source, tm.getRules(source, inputProperties, i, scorer, -1));
+    }
+    // Six rules per input
+    assertTrue(cache.size() > 0);
+    assertTrue(cache.size() * 6 <= 24);
+  }
+}
@@ -0,0 +1,77 @@
+package edu.stanford.nlp.mt.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Test case.
+ */
+public class SufficientStatisticsMetricTest {
+
+  private static final int NUM_SEGMENTS = 30;
+
+  private static Sequence<IString> randomSentence(Random random, int vocabSize) {
+    String[] tokens = new String[2 + random.nextInt(10)];
+    for (int i = 0; i < tokens.length; ++i) tokens[i] = "w" + random.nextInt(vocabSize);
+    return IStrings.toIStringSequence(tokens);
+  }
+
+  private static List<List<Sequence<IString>>> references(Random random) {
+    List<List<Sequence<IString>>> references = new ArrayList<>(NUM_SEGMENTS);
+    for (int i = 0; i < NUM_SEGMENTS; ++i) {
+      references.add(Arrays.asList(randomSentence(random, 8), randomSentence(random, 8)));
+    }
+    return references;
+  }
+
+  private static List<Sequence<IString>> translations(Random random) {
+    List<Sequence<IString>> translations = new ArrayList<>(NUM_SEGMENTS);
+    for (int i = 0; i < NUM_SEGMENTS; ++i) translations.add(randomSentence(random, 8));
+    return translations;
+  }
+
+  private static <M extends AbstractMetric<IString,String> & SufficientStatisticsMetric<IString>>
+  void assertConsistent(M metric, List<Sequence<IString>> translations) {
+    IncrementalEvaluationMetric<IString,String> incMetric = metric.getIncrementalMetric();
+    double[] sum = new double[metric.numStatistics()];
+    for (int i = 0; i < translations.size(); ++i) {
+      incMetric.add(new ScoredFeaturizedTranslation<>(translations.get(i), null, 0));
+      double[] stats = metric.sufficientStatistics(i, translations.get(i));
+      assertEquals(metric.numStatistics(), stats.length);
+      for (int k = 0; k < sum.length; ++k) sum[k] += stats[k];
+    }
+    assertEquals(incMetric.score(), metric.scoreStatistics(sum), 1e-9);
+  }
+
+  @Test
+  public void testBLEU() {
+    Random random = new Random(3);
+    List<List<Sequence<IString>>> references = references(random);
+    List<Sequence<IString>> translations = translations(random);
+    assertConsistent(new BLEUMetric<IString,String>(references), translations);
+    assertConsistent(new BLEUMetric<IString,String>(references, 2), translations);
+  }
+
+  @Test
+  public void testSmoothedBLEU() {
+    Random random = new Random(5);
+    assertConsistent(new BLEUMetric<IString,String>(references(random), true), translations(random));
+  }
+
+  @Test
+  public void testTERp() {
+    Random random = new Random(7);
+    assertConsistent(new TERpMetric<IString,String>(references(random)), translations(random));
+  }
+}
@@ -0,0 +1,85 @@
+package edu.stanford.nlp.mt.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bbn.mt.terp.TERcalc;
+import com.bbn.mt.terp.TERcost;
+
+/**
+ * Test case.
+ */
+public class TERKernelTest {
+
+  private static String[] randomSentence(Random random, int length, int vocabSize) {
+    String[] tokens = new String[length];
+    for (int i = 0; i < length; ++i) tokens[i] = "w" + random.nextInt(vocabSize);
+    return tokens;
+  }
+
+  /**
+   * Insert, delete, substitute, and move tokens of the reference.
+   */
+  private static String[] perturb(Random random, String[] ref, int vocabSize) {
+    List<String> hyp = new ArrayList<>();
+    Collections.addAll(hyp, ref);
+    for (int i = 0, numEdits = random.nextInt(ref.length + 1); i < numEdits && hyp.size() > 1; ++i) {
+      int pos = random.nextInt(hyp.size());
+      switch (random.nextInt(4)) {
+      case 0:
+        hyp.remove(pos);
+        break;
+      case 1:
+        hyp.add(pos, "w" + random.nextInt(vocabSize + 2));
+        break;
+      case 2:
+        hyp.set(pos, "w" + random.nextInt(vocabSize + 2));
+        break;
+      default:
+        int length = 1 + random.nextInt(Math.min(4, hyp.size() - pos));
+        List<String> phrase = new ArrayList<>(hyp.subList(pos, pos + length));
+        hyp.subList(pos, pos + length).clear();
+        hyp.addAll(random.nextInt(hyp.size() + 1), phrase);
+      }
+    }
+    return hyp.toArray(new String[hyp.size()]);
+  }
+
+  @Test
+  public void testSameAsTERcalc() {
+    Random random = new Random(7);
+    TERKernel kernel = new TERKernel();
+    TERcalc calc = new TERcalc(new TERcost());
+    calc.BEAM_WIDTH = TERKernel.DEFAULT_BEAM_WIDTH;
+    for (int i = 0; i < 100; ++i) {
+      int vocabSize = 3 + random.nextInt(20);
+      String[] ref = randomSentence(random, 1 + random.nextInt(i % 10 == 0 ? 80 : 25), vocabSize);
+      String[] hyp = i % 4 == 0 ? randomSentence(random, 1 + random.nextInt(30), vocabSize) :
+        perturb(random, ref, vocabSize);
+      assertEquals(calc.TER(hyp, ref).numEdits, kernel.numEdits(hyp, new TERKernel.Reference(ref)), 0.0);
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    TERKernel kernel = new TERKernel();
+    String[] ref = { "a", "b", "c" };
+    assertEquals(3.0, kernel.numEdits(new String[0], new TERKernel.Reference(ref)), 0.0);
+    assertEquals(3.0, kernel.numEdits(ref, new TERKernel.Reference(new String[0])), 0.0);
+    assertEquals(0.0, kernel.numEdits(ref, new TERKernel.Reference(ref)), 0.0);
+  }
+
+  @Test
+  public void testShift() {
+    TERKernel kernel = new TERKernel();
+    String[] ref = "the cat sat on the mat today".split(" ");
+    String[] hyp = "today the cat sat on the mat".split(" ");
+    assertEquals(1.0, kernel.numEdits(hyp, new TERKernel.Reference(ref)), 0.0);
+  }
+}
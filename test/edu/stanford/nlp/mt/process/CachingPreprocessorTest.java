@@ -0,0 +1,53 @@
+package edu.stanford.nlp.mt.process;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Test case.
+ */
+public class CachingPreprocessorTest {
+
+  private static class CountingPreprocessor implements Preprocessor {
+    int numCalls = 0;
+    @Override
+    public SymmetricalWordAlignment processAndAlign(String input) {
+      ++numCalls;
+      Sequence<IString> tokens = IStrings.tokenize(input.trim());
+      SymmetricalWordAlignment alignment = new SymmetricalWordAlignment(tokens, tokens);
+      for (int i = 0; i < tokens.size(); ++i) alignment.addAlign(i, i);
+      return alignment;
+    }
+    @Override
+    public Sequence<IString> process(String input) {
+      return IStrings.tokenize(input.trim());
+    }
+    @Override
+    public String toUncased(String input) {
+      return input.toLowerCase();
+    }
+  }
+
+  @Test
+  public void testCache() {
+    CountingPreprocessor counting = new CountingPreprocessor();
+    CachingPreprocessor preprocessor = new CachingPreprocessor(counting, 10);
+    SymmetricalWordAlignment first = preprocessor.processAndAlign("a b c");
+    SymmetricalWordAlignment second = preprocessor.processAndAlign(" a b c ");
+    assertSame(first, second);
+    assertEquals(1, counting.numCalls);
+    assertEquals(3, first.e().size());
+
+    preprocessor.processAndAlign("a b");
+    assertEquals(2, counting.numCalls);
+    assertEquals(2, preprocessor.size());
+    assertEquals(1.0 / 3.0, preprocessor.hitRate(), 1e-6);
+    assertEquals("a b", preprocessor.toUncased("A B"));
+  }
+}
@@ -0,0 +1,71 @@
+package edu.stanford.nlp.mt.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test case.
+ */
+public class ResamplingTest {
+
+  private static final int NUM_SEGMENTS = 200;
+
+  /**
+   * Per-segment (correct, total) counts of a system with the given accuracy.
+   */
+  private static double[][] accuracyStatistics(Random random, double accuracy) {
+    double[][] stats = new double[NUM_SEGMENTS][];
+    for (int i = 0; i < NUM_SEGMENTS; ++i) {
+      int total = 5 + random.nextInt(20);
+      int correct = 0;
+      for (int j = 0; j < total; ++j) if (random.nextDouble() < accuracy) ++correct;
+      stats[i] = new double[] { correct, total };
+    }
+    return stats;
+  }
+
+  private static double accuracy(double[] stats) {
+    return stats[0] / stats[1];
+  }
+
+  @Test
+  public void testThreadIndependence() {
+    Random random = new Random(11);
+    Resampling.PairedScorer scorer = Resampling.sufficientStatisticsScorer(
+        accuracyStatistics(random, 0.5), accuracyStatistics(random, 0.55), ResamplingTest::accuracy);
+    assertArrayEquals(Resampling.approximateRandomization(NUM_SEGMENTS, scorer, 300, 5L, 1),
+        Resampling.approximateRandomization(NUM_SEGMENTS, scorer, 300, 5L, 4), 0.0);
+    assertArrayEquals(Resampling.pairedBootstrap(NUM_SEGMENTS, scorer, 300, 5L, 1),
+        Resampling.pairedBootstrap(NUM_SEGMENTS, scorer, 300, 5L, 3), 0.0);
+  }
+
+  @Test
+  public void testSignificance() {
+    Random random = new Random(13);
+    double[][] stats1 = accuracyStatistics(random, 0.8);
+    double[][] stats2 = accuracyStatistics(random, 0.4);
+    Resampling.PairedScorer scorer = Resampling.sufficientStatisticsScorer(stats1, stats2,
+        ResamplingTest::accuracy);
+    int[] identity = new int[NUM_SEGMENTS];
+    for (int i = 0; i < NUM_SEGMENTS; ++i) identity[i] = i;
+    double[] scores = scorer.score(identity, new boolean[NUM_SEGMENTS]);
+    double diff = scores[0] - scores[1];
+    assertTrue(diff > 0.0);
+
+    double[] arDiffs = Resampling.approximateRandomization(NUM_SEGMENTS, scorer, 500, 1L, 2);
+    assertEquals(1.0 / 501.0, Resampling.approximateRandomizationPValue(diff, arDiffs), 1e-12);
+    double[] bootDiffs = Resampling.pairedBootstrap(NUM_SEGMENTS, scorer, 500, 1L, 2);
+    assertEquals(0.0, Resampling.pairedBootstrapPValue(diff, bootDiffs), 0.0);
+    double[] ci = ConfidenceIntervals.percentileInterval(bootDiffs, 0.95);
+    assertTrue(ci[0] <= diff && diff <= ci[1]);
+
+    // Identical systems are never significantly different
+    Resampling.PairedScorer same = Resampling.sufficientStatisticsScorer(stats1, stats1,
+        ResamplingTest::accuracy);
+    double[] sameDiffs = Resampling.approximateRandomization(NUM_SEGMENTS, same, 100, 1L, 2);
+    assertEquals(1.0, Resampling.approximateRandomizationPValue(0.0, sameDiffs), 0.0);
+  }
+}
@@ -0,0 +1,126 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test case.
+ */
+public class QuantizedReorderingTableTest {
+
+  private static final int NUM_CLASSES = 6;
+
+  private static File tempFile() throws IOException {
+    File file = File.createTempFile("reordering", ".bin");
+    file.deleteOnExit();
+    return file;
+  }
+
+  private static File textFile(String... lines) throws IOException {
+    File file = File.createTempFile("reordering", ".txt");
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (String line : lines) writer.println(line);
+    }
+    return file;
+  }
+
+  private static void checkLookup(int numRules, LexicalReorderingTable table) {
+    for (int i = -1; i <= numRules; ++i) {
+      float[] scores = table.getReorderingScores(i);
+      assertEquals(scores != null, table.contains(i));
+      if (scores == null) continue;
+      for (int c = 0; c < NUM_CLASSES; ++c) assertEquals(scores[c], table.getScore(i, c), 0.0f);
+    }
+  }
+
+  private static void checkLookup(int numRules, ExtendedLexicalReorderingTable table) {
+    for (int i = -1; i <= numRules; ++i) {
+      float[] scores = table.getReorderingScores(i);
+      assertEquals(scores != null, table.contains(i));
+      if (scores == null) continue;
+      for (int c = 0; c < NUM_CLASSES; ++c) assertEquals(scores[c], table.getScore(i, c), 0.0f);
+    }
+  }
+
+  @Test
+  public void testTableLookup() throws IOException {
+    final String filetype = "msd-bidirectional-fe";
+    File phraseTableFile = textFile(
+        "a ||| x ||| (0) ||| (0) ||| -0.1 -0.2",
+        "a b ||| x y ||| (0) (1) ||| (0) (1) ||| -0.3 -0.4",
+        "b ||| y ||| (0) ||| (0) ||| -0.5 -0.6");
+    File reorderingFile = textFile(
+        "a ||| x ||| -0.1 -2.5 -3.0 -0.2 -1.5 -4.0",
+        "b ||| y ||| -0.7 -0.7 -1.0 -0.2 -1.5 -4.0");
+    CompiledPhraseTable phraseTable = new CompiledPhraseTable(phraseTableFile.getPath());
+    final int numRules = phraseTable.size() - phraseTable.minRuleIndex();
+
+    LexicalReorderingTable table = new LexicalReorderingTable(reorderingFile.getPath(), phraseTable, filetype);
+    checkLookup(numRules, table);
+    checkLookup(numRules, new ExtendedLexicalReorderingTable(reorderingFile.getPath(), phraseTable, filetype));
+
+    File file = tempFile();
+    QuantizedReorderingTable.write(file.getPath(), filetype, NUM_CLASSES, numRules, table::getReorderingScores);
+    LexicalReorderingTable binaryTable = new LexicalReorderingTable(file.getPath(), phraseTable, filetype);
+    checkLookup(numRules, binaryTable);
+    checkLookup(numRules, new ExtendedLexicalReorderingTable(file.getPath(), phraseTable, filetype));
+    for (int i = 0; i < numRules; ++i) assertEquals(table.contains(i), binaryTable.contains(i));
+  }
+
+  @Test
+  public void testLossless() throws IOException {
+    final float[][] scores = {
+      { -0.1f, -2.5f, -3.0f, -0.2f, -1.5f, -4.0f },
+      null,
+      { -0.7f, -0.7f, -1.0f, -0.2f, -1.5f, -4.0f },
+    };
+    File file = tempFile();
+    QuantizedReorderingTable.write(file.getPath(), "msd-bidirectional-fe", NUM_CLASSES, scores.length,
+        i -> scores[i]);
+    assertTrue(QuantizedReorderingTable.isBinary(file.getPath()));
+
+    QuantizedReorderingTable table = QuantizedReorderingTable.load(file.getPath());
+    assertEquals("msd-bidirectional-fe", table.getFiletype());
+    assertEquals(NUM_CLASSES, table.numClasses());
+    assertEquals(3, table.size());
+    assertArrayEquals(scores[0], table.getReorderingScores(0), 0.0f);
+    assertNull(table.getReorderingScores(1));
+    assertArrayEquals(scores[2], table.getReorderingScores(2), 0.0f);
+    assertNull(table.getReorderingScores(-1));
+    assertNull(table.getReorderingScores(3));
+  }
+
+  @Test
+  public void testQuantization() throws IOException {
+    Random random = new Random(7);
+    final float[][] scores = new float[5000][];
+    for (int i = 0; i < scores.length; ++i) {
+      if (i % 10 == 3) continue;
+      scores[i] = new float[NUM_CLASSES];
+      for (int c = 0; c < NUM_CLASSES; ++c) scores[i][c] = (float) Math.log(random.nextDouble());
+    }
+    File file = tempFile();
+    QuantizedReorderingTable.write(file.getPath(), "msd-bidirectional-fe", NUM_CLASSES, scores.length,
+        i -> scores[i]);
+    QuantizedReorderingTable table = QuantizedReorderingTable.load(file.getPath());
+    double error = 0.0;
+    int n = 0;
+    for (int i = 0; i < scores.length; ++i) {
+      assertEquals(scores[i] != null, table.contains(i));
+      if (scores[i] == null) continue;
+      for (int c = 0; c < NUM_CLASSES; ++c) {
+        error += Math.abs(Math.exp(scores[i][c]) - Math.exp(table.getScore(i, c)));
+        ++n;
+      }
+    }
+    // Mean absolute error in probability space
+    assertTrue(error / n < 0.005);
+  }
+}
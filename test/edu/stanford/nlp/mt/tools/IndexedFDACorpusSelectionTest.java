@@ -0,0 +1,73 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.LineIndexedCorpus;
+
+/**
+ * Test case.
+ */
+public class IndexedFDACorpusSelectionTest {
+
+  private static final int POOL_SIZE = 150;
+  private static final int SELECTION_SIZE = 40;
+
+  /**
+   * Distinct random lines over a small vocabulary.
+   */
+  private static LineIndexedCorpus corpus(String prefix, int numLines, String wordPrefix, Random random)
+      throws IOException {
+    Set<String> lines = new LinkedHashSet<>();
+    while (lines.size() < numLines) {
+      StringBuilder line = new StringBuilder();
+      for (int i = 0, length = 3 + random.nextInt(8); i < length; ++i) {
+        line.append(i == 0 ? "" : " ").append(wordPrefix).append(random.nextInt(8));
+      }
+      lines.add(line.toString());
+    }
+    File file = File.createTempFile(prefix, ".txt");
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (String line : lines) writer.println(line);
+    }
+    return new LineIndexedCorpus(file.getPath());
+  }
+
+  private static List<Integer> select(FDACorpusSelection selection) {
+    List<Integer> selected = new ArrayList<>();
+    for (int i = 0; i < SELECTION_SIZE; ++i) selected.add(selection.getNextBest().third());
+    return selected;
+  }
+
+  private static List<Integer> select(IndexedFDACorpusSelection selection) {
+    List<Integer> selected = new ArrayList<>();
+    for (int i = 0; i < SELECTION_SIZE; ++i) selected.add(selection.getNextBest().third());
+    return selected;
+  }
+
+  @Test
+  public void testSameSelectionOrder() throws IOException {
+    Random random = new Random(41);
+    LineIndexedCorpus poolFr = corpus("poolfr", POOL_SIZE, "f", random);
+    LineIndexedCorpus poolEn = corpus("poolen", POOL_SIZE, "e", random);
+    LineIndexedCorpus testFr = corpus("testfr", 10, "f", random);
+
+    List<Integer> expected = select(new FDACorpusSelection(poolEn, poolFr, testFr));
+    assertEquals(expected, select(new IndexedFDACorpusSelection(poolEn, poolFr, testFr, 1, 1)));
+    // Parallel re-scoring of the stale candidates
+    assertEquals(expected, select(new IndexedFDACorpusSelection(poolEn, poolFr, testFr, 2, 8)));
+    // Monolingual selection
+    assertEquals(expected, select(new IndexedFDACorpusSelection(null, poolFr, testFr, 2, 8)));
+  }
+}
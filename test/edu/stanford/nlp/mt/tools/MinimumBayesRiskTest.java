@@ -0,0 +1,69 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.metrics.BLEUMetric;
+import edu.stanford.nlp.mt.util.BasicNBestEntry;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Test case.
+ */
+public class MinimumBayesRiskTest {
+
+  private static final String[] HYPS = {
+    "the cat sat on the mat",
+    "the cat sat on a mat",
+    "a cat is on the mat",
+    "the the the cat",
+    "cat",
+  };
+
+  private static List<BasicNBestEntry> nbestList() {
+    List<BasicNBestEntry> nbestlist = new ArrayList<>();
+    for (int i = 0; i < HYPS.length; ++i) {
+      nbestlist.add(new BasicNBestEntry(String.format("0 ||| %s ||| lm: -1 ||| %d", HYPS[i], -i)));
+    }
+    return nbestlist;
+  }
+
+  @Test
+  public void testPairwiseGainsMatchMetric() {
+    List<BasicNBestEntry> nbestlist = nbestList();
+    double[] weights = new double[nbestlist.size()];
+    for (int i = 0; i < weights.length; ++i) weights[i] = Math.exp(0.1 * nbestlist.get(i).getScore());
+
+    double[] gains = new MinimumBayesRisk.NgramStatistics(nbestlist).pairwiseBLEUGains(weights);
+
+    for (int h = 0; h < nbestlist.size(); ++h) {
+      double expected = 0.0;
+      for (int r = 0; r < nbestlist.size(); ++r) {
+        List<List<Sequence<IString>>> ref = Arrays.asList(Arrays.asList(nbestlist.get(r).getTokens()));
+        BLEUMetric<IString,String> metric = new BLEUMetric<>(ref, true);
+        expected += metric.scoreSeq(Arrays.asList(nbestlist.get(h).getTokens())) * weights[r];
+      }
+      assertEquals(expected, gains[h], 1e-9);
+    }
+  }
+
+  @Test
+  public void testApproximationsPreferConsensus() {
+    List<BasicNBestEntry> nbestlist = nbestList();
+    double[] posteriors = MinimumBayesRisk.posteriors(nbestlist, 0.1);
+    assertEquals(1.0, Arrays.stream(posteriors).sum(), 1e-9);
+
+    MinimumBayesRisk.NgramStatistics stats = new MinimumBayesRisk.NgramStatistics(nbestlist);
+    double[] expected = stats.expectedBLEUGains(posteriors);
+    double[] linear = stats.linearBLEUGains(posteriors, 0.85, 0.72);
+    assertTrue(expected[0] > expected[3]);
+    assertTrue(expected[0] > expected[4]);
+    assertTrue(linear[0] > linear[3]);
+  }
+}
@@ -0,0 +1,63 @@
+package edu.stanford.nlp.mt.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.metrics.BLEUMetric;
+import edu.stanford.nlp.mt.stats.Resampling;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Test case.
+ */
+public class SignificanceTestTest {
+
+  private static final int NUM_SEGMENTS = 40;
+
+  private static Sequence<IString> randomSentence(Random random) {
+    String[] tokens = new String[2 + random.nextInt(8)];
+    for (int i = 0; i < tokens.length; ++i) tokens[i] = "w" + random.nextInt(6);
+    return IStrings.toIStringSequence(tokens);
+  }
+
+  /**
+   * Bootstrap samples re-scored with the incremental metric must be scored
+   * against the references of the resampled segments.
+   */
+  @Test
+  public void testRescoringFollowsSegments() {
+    Random random = new Random(19);
+    List<List<Sequence<IString>>> references = new ArrayList<>();
+    List<Sequence<IString>> system1 = new ArrayList<>();
+    List<Sequence<IString>> system2 = new ArrayList<>();
+    for (int i = 0; i < NUM_SEGMENTS; ++i) {
+      references.add(Arrays.asList(randomSentence(random)));
+      system1.add(randomSentence(random));
+      system2.add(randomSentence(random));
+    }
+    BLEUMetric<IString,String> bleu = new BLEUMetric<>(references);
+    Resampling.PairedScorer expected = Resampling.sufficientStatisticsScorer(
+        SignificanceTest.sufficientStatistics(system1, bleu),
+        SignificanceTest.sufficientStatistics(system2, bleu), bleu::scoreStatistics);
+    Resampling.PairedScorer rescoring = SignificanceTest.rescoringScorer(system1, system2,
+        references, bleu, BLEUMetric::new);
+
+    for (int n = 0; n < 10; ++n) {
+      int[] segments = new int[NUM_SEGMENTS];
+      boolean[] swapped = new boolean[NUM_SEGMENTS];
+      for (int i = 0; i < NUM_SEGMENTS; ++i) {
+        segments[i] = random.nextInt(NUM_SEGMENTS);
+        swapped[i] = random.nextBoolean();
+      }
+      assertArrayEquals(expected.score(segments, swapped), rescoring.score(segments, swapped), 1e-9);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package edu.stanford.nlp.mt.train;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.train.AlignmentSymmetrizer.SymmetrizationType;
+import edu.stanford.nlp.mt.util.Vocabulary;
+
+/**
+ * Test case.
+ */
+public class EMWordAlignerTest {
+
+  private static final String[][] BITEXT = {
+    { "das haus", "the house" },
+    { "das buch", "the book" },
+    { "ein buch", "a book" },
+    { "ein haus ist klein", "a house is small" },
+    { "das haus ist klein", "the house is small" },
+    { "klein ist das buch", "small is the book" },
+  };
+
+  private static EMWordAligner aligner(int numThreads) {
+    Vocabulary vocabulary = new Vocabulary();
+    int[][] source = new int[BITEXT.length][];
+    int[][] target = new int[BITEXT.length][];
+    for (int i = 0; i < BITEXT.length; ++i) {
+      source[i] = Arrays.stream(BITEXT[i][0].split(" ")).mapToInt(vocabulary::add).toArray();
+      target[i] = Arrays.stream(BITEXT[i][1].split(" ")).mapToInt(vocabulary::add).toArray();
+    }
+    return new EMWordAligner(source, target, vocabulary, EMWordAligner.DEFAULT_TENSION,
+        EMWordAligner.DEFAULT_NULL_PROB, numThreads);
+  }
+
+  @Test
+  public void testAlign() {
+    for (int hmmIterations : new int[] { 0, 5 }) {
+      try (EMWordAligner aligner = aligner(2)) {
+        aligner.train(EMWordAligner.DEFAULT_MODEL1_ITERATIONS, hmmIterations);
+        assertEquals("0-0 1-1", aligner.align(0, SymmetrizationType.grow_diag_final_and).toString());
+        assertEquals("0-0 1-1 2-2 3-3", aligner.align(4, SymmetrizationType.grow_diag_final_and).toString());
+        assertEquals("0-0 1-1 2-2 3-3", aligner.align(5, SymmetrizationType.intersection).toString());
+      }
+    }
+  }
+
+  @Test
+  public void testThreads() {
+    try (EMWordAligner expected = aligner(1); EMWordAligner aligner = aligner(4)) {
+      expected.train(EMWordAligner.DEFAULT_MODEL1_ITERATIONS, EMWordAligner.DEFAULT_HMM_ITERATIONS);
+      aligner.train(EMWordAligner.DEFAULT_MODEL1_ITERATIONS, EMWordAligner.DEFAULT_HMM_ITERATIONS);
+      for (int i = 0; i < BITEXT.length; ++i) {
+        assertEquals(expected.align(i, SymmetrizationType.grow_diag_final_and).toString(),
+            aligner.align(i, SymmetrizationType.grow_diag_final_and).toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package edu.stanford.nlp.mt.train;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.util.HashIndex;
+
+/**
+ * Test case.
+ */
+public class ExternalPhraseExtractTest {
+
+  private static final int NUM_LINES = 300;
+  private static final int VOCAB_SIZE = 8;
+
+  private static File newFile(File dir, String name, List<String> lines) throws IOException {
+    File file = new File(dir, name);
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (String line : lines) writer.println(line);
+    }
+    return file;
+  }
+
+  private static File tempDir(String prefix) throws IOException {
+    File dir = Files.createTempDirectory(prefix).toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  /**
+   * A small bitext with mostly monotone, partly crossing and unaligned word
+   * alignments in Moses format.
+   */
+  private static File[] bitext(File dir) throws IOException {
+    Random random = new Random(13);
+    List<String> source = new ArrayList<>(), target = new ArrayList<>(), align = new ArrayList<>();
+    for (int n = 0; n < NUM_LINES; ++n) {
+      int length = 2 + random.nextInt(7);
+      StringBuilder f = new StringBuilder(), e = new StringBuilder(), a = new StringBuilder();
+      for (int i = 0; i < length; ++i) {
+        int word = random.nextInt(VOCAB_SIZE);
+        f.append(i == 0 ? "" : " ").append("f").append(word);
+        e.append(i == 0 ? "" : " ").append("e").append(random.nextInt(4) == 0 ? random.nextInt(VOCAB_SIZE) : word);
+        if (random.nextInt(8) == 0) continue;
+        int j = i + 1 < length && random.nextInt(5) == 0 ? i + 1 : i;
+        a.append(a.length() == 0 ? "" : " ").append(i).append('-').append(j);
+      }
+      source.add(f.toString());
+      target.add(e.toString());
+      align.add(a.toString());
+    }
+    return new File[] { newFile(dir, "corpus.f", source), newFile(dir, "corpus.e", target),
+        newFile(dir, "corpus.align", align) };
+  }
+
+  private static List<String> readSorted(File file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    LineNumberReader reader = IOTools.getReaderFromFile(file);
+    for (String line; (line = reader.readLine()) != null;) lines.add(line);
+    reader.close();
+    Collections.sort(lines);
+    return lines;
+  }
+
+  private static File extract(File[] bitext, Properties options, boolean external) throws IOException {
+    File outputDir = tempDir("phrases");
+    Properties prop = new Properties();
+    prop.putAll(options);
+    prop.setProperty(PhraseExtract.F_CORPUS_OPT, bitext[0].getPath());
+    prop.setProperty(PhraseExtract.E_CORPUS_OPT, bitext[1].getPath());
+    prop.setProperty(PhraseExtract.A_CORPUS_OPT, bitext[2].getPath());
+    prop.setProperty(PhraseExtract.OUTPUT_DIR, outputDir.getPath());
+    prop.setProperty(PhraseExtract.THREADS_OPT, "2");
+    if (external) {
+      prop.setProperty(PhraseExtract.EXTERNAL_DIR_OPT, tempDir("runs").getPath());
+      // Spill after every sentence so that the runs are merged in several rounds
+      prop.setProperty(PhraseExtract.MEMORY_BUDGET_OPT, "0");
+    }
+    AbstractPhraseExtractor.setPhraseExtractionProperties(prop);
+    new PhraseExtract(prop).extractAll();
+    for (File file : outputDir.listFiles()) file.deleteOnExit();
+    return outputDir;
+  }
+
+  private static void assertSameTables(Properties options) throws IOException {
+    File[] bitext = bitext(tempDir("bitext"));
+    File inMemory = extract(bitext, options, false);
+    File external = extract(bitext, options, true);
+    for (String name : new String[] { PhraseExtract.DEFAULT_PTABLE_NAME, PhraseExtract.DEFAULT_LO_NAME }) {
+      List<String> expected = readSorted(new File(inMemory, name));
+      assertTrue(expected.size() > 100);
+      assertEquals(expected, readSorted(new File(external, name)));
+    }
+  }
+
+  @Test
+  public void testSamePhraseTable() throws IOException {
+    assertSameTables(new Properties());
+  }
+
+  @Test
+  public void testSamePhraseTableWithFilter() throws IOException {
+    File filter = newFile(tempDir("filter"), "filter.f",
+        Arrays.asList("f0 f1 f2 f3 f4 f5", "f6 f7 f0 f2 f4 f6 f1 f3"));
+    Properties options = new Properties();
+    options.setProperty(PhraseExtract.FILTER_CORPUS_OPT, filter.getPath());
+    options.setProperty(PhraseExtract.MIN_PHRASE_COUNT, "2");
+    assertSameTables(options);
+  }
+
+  @Test
+  public void testReorderingCountsBeyondIntRange() {
+    LexicalReorderingFeatureExtractor extractor = new LexicalReorderingFeatureExtractor();
+    extractor.init(new Properties(), new HashIndex<>(), null);
+    // c(f,e), c(f), alignment count, then the forward and backward orientation counts
+    long[] counts = new long[3 + extractor.numOrientationCounts()];
+    counts[3] = 3_000_000_000L;
+    counts[4] = 1_000_000_000L;
+    counts[counts.length - 1] = 5_000_000_000L;
+    float[] scores = extractor.score(counts, 3);
+    assertEquals(extractor.numOrientationCounts(), scores.length);
+    assertEquals(0.75f, scores[0], 1e-6f);
+    assertEquals(0.25f, scores[1], 1e-6f);
+    assertEquals(1.0f, scores[scores.length - 1], 1e-6f);
+  }
+}
@@ -0,0 +1,76 @@
+package edu.stanford.nlp.mt.train;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IOTools;
+
+/**
+ * Test case.
+ */
+public class MosesPharoahFeatureExtractorTest {
+
+  private static File newFile(File dir, String name, String... lines) throws IOException {
+    File file = new File(dir, name);
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (String line : lines) writer.println(line);
+    }
+    return file;
+  }
+
+  private static List<String> extract(String exactPhiCounts) throws IOException {
+    File dir = Files.createTempDirectory("bitext").toFile();
+    dir.deleteOnExit();
+    Properties prop = new Properties();
+    prop.setProperty(PhraseExtract.F_CORPUS_OPT, newFile(dir, "corpus.f", "a b", "a c", "b").getPath());
+    prop.setProperty(PhraseExtract.E_CORPUS_OPT, newFile(dir, "corpus.e", "x y", "x z", "y").getPath());
+    prop.setProperty(PhraseExtract.A_CORPUS_OPT, newFile(dir, "corpus.align", "0-0 1-1", "0-0", "0-0").getPath());
+    prop.setProperty(PhraseExtract.FEATURE_EXTRACTORS_OPT,
+        MosesPharoahFeatureExtractor.class.getName() + PhraseExtract.FILE_DELIM + "phrase-table.gz");
+    prop.setProperty(PhraseExtract.EXACT_PHI_OPT, exactPhiCounts);
+    prop.setProperty(PhraseExtract.OUTPUT_DIR, dir.getPath());
+    prop.setProperty(PhraseExtract.THREADS_OPT, "1");
+    AbstractPhraseExtractor.setPhraseExtractionProperties(prop);
+    new PhraseExtract(prop).extractAll();
+
+    File table = new File(dir, "phrase-table.gz");
+    table.deleteOnExit();
+    List<String> lines = new ArrayList<>();
+    LineNumberReader reader = IOTools.getReaderFromFile(table);
+    for (String line; (line = reader.readLine()) != null;) lines.add(line.trim());
+    reader.close();
+    Collections.sort(lines);
+    return lines;
+  }
+
+  /**
+   * Word pair counts are c(a,x) = c(b,y) = 2, c(c,NULL) = c(NULL,z) = 1, and the
+   * NULL words have one smoothing count each. So p(c|NULL) = p(z|NULL) = 1/2 in
+   * both the one and the two pass configuration.
+   */
+  @Test
+  public void testKnownPhraseTable() throws IOException {
+    List<String> expected = Arrays.asList(
+        "a b ||| x y ||| (0) (1) ||| (0) (1) ||| 0.0 0.0 0.0 0.0",
+        "a c ||| x z ||| (0) () ||| (0) () ||| -0.6931472 -0.6931472 -0.6931472 -0.6931472",
+        "a c ||| x ||| (0) () ||| (0) ||| -1.0986123 -0.6931472 -0.6931472 0.0",
+        "a ||| x z ||| (0) ||| (0) () ||| -0.6931472 0.0 -1.0986123 -0.6931472",
+        "a ||| x ||| (0) ||| (0) ||| -0.4054651 0.0 -0.4054651 0.0",
+        "b ||| y ||| (0) ||| (0) ||| 0.0 0.0 0.0 0.0");
+    assertEquals(expected, extract("true"));
+    assertEquals(expected, extract("false"));
+  }
+}
@@ -0,0 +1,168 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.TranslationHypergraph;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Test case.
+ */
+public class HypergraphTunerTest {
+
+  private static final String[] TOKENS = { "a", "b" };
+  private static final String[] FEATURES = { "f0", "f1", "f2" };
+  private static final int NUM_NODES = 10;
+
+  /**
+   * A random lattice in the serialization format of <code>TranslationHypergraph</code>.
+   * Nodes are in topological order and every node has one to three incoming edges
+   * from the two preceding nodes.
+   * The last two nodes are goal nodes.
+   */
+  private static TranslationHypergraph<IString,String> randomHypergraph(int sourceInputId, Random random)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(sourceInputId);
+    out.writeInt(TOKENS.length);
+    for (String token : TOKENS) out.writeUTF(token);
+    out.writeInt(FEATURES.length);
+    for (String feature : FEATURES) out.writeUTF(feature);
+    out.writeInt(NUM_NODES);
+    out.writeInt(2);
+    out.writeInt(NUM_NODES - 2);
+    out.writeInt(NUM_NODES - 1);
+    List<int[]> edges = new ArrayList<>();
+    for (int head = 1; head < NUM_NODES; ++head) {
+      for (int k = 0, numIncoming = 1 + random.nextInt(3); k < numIncoming; ++k) {
+        edges.add(new int[] { Math.max(0, head - 1 - random.nextInt(2)), head });
+      }
+    }
+    out.writeInt(edges.size());
+    for (int[] edge : edges) {
+      out.writeInt(edge[0]);
+      out.writeInt(edge[1]);
+      // Context and target
+      for (int length : new int[] { edge[0] == 0 ? 0 : 3, 1 + random.nextInt(3) }) {
+        out.writeShort(length);
+        for (int i = 0; i < length; ++i) out.writeInt(random.nextInt(TOKENS.length));
+      }
+      out.writeShort(FEATURES.length);
+      for (int f = 0; f < FEATURES.length; ++f) {
+        out.writeInt(f);
+        out.writeFloat((float) random.nextGaussian());
+      }
+    }
+    out.close();
+    return TranslationHypergraph.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+
+  private static double dotProduct(List<FeatureValue<String>> features, Counter<String> weights) {
+    double score = 0.0;
+    for (FeatureValue<String> f : features) score += weights.getCount(f.name) * f.value;
+    return score;
+  }
+
+  /**
+   * Enumerate the (slope, intercept) of all paths from the root to the given node.
+   */
+  private static void paths(TranslationHypergraph<IString,String> hypergraph, int node,
+      Counter<String> weights, Counter<String> direction, double slope, double intercept, List<double[]> lines) {
+    if (node == 0) {
+      lines.add(new double[] { slope, intercept });
+      return;
+    }
+    for (int e = 0; e < hypergraph.numEdges(); ++e) {
+      if (hypergraph.heads[e] != node) continue;
+      List<FeatureValue<String>> features = hypergraph.features.get(e);
+      paths(hypergraph, hypergraph.tails[e], weights, direction, slope + dotProduct(features, direction),
+          intercept + dotProduct(features, weights), lines);
+    }
+  }
+
+  private static Counter<String> randomWeights(Random random) {
+    Counter<String> weights = new ClassicCounter<>();
+    for (String feature : FEATURES) weights.setCount(feature, random.nextGaussian());
+    return weights;
+  }
+
+  @Test
+  public void testGoalEnvelope() throws IOException {
+    Random random = new Random(23);
+    List<TranslationHypergraph<IString,String>> hypergraphs = new ArrayList<>();
+    List<List<Sequence<IString>>> references = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      hypergraphs.add(randomHypergraph(i, random));
+      references.add(Arrays.asList(IStrings.tokenize("a b b a b a a b")));
+    }
+    HypergraphTuner tuner = new HypergraphTuner(hypergraphs, references);
+    for (int i = 0; i < hypergraphs.size(); ++i) {
+      TranslationHypergraph<IString,String> hypergraph = hypergraphs.get(i);
+      Counter<String> weights = randomWeights(random);
+      Counter<String> direction = randomWeights(random);
+      List<double[]> lines = new ArrayList<>();
+      for (int goal : hypergraph.goalNodes) paths(hypergraph, goal, weights, direction, 0.0, 0.0, lines);
+      List<HypergraphTuner.Line> envelope = tuner.goalEnvelope(i, weights, direction);
+      assertFalse(envelope.isEmpty());
+      assertTrue(envelope.size() <= lines.size());
+      for (int j = 1; j < envelope.size(); ++j) assertTrue(envelope.get(j - 1).x < envelope.get(j).x);
+
+      for (double x = -20.0; x <= 20.0; x += 0.01) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (double[] line : lines) best = Math.max(best, line[1] + x * line[0]);
+        // The envelope line that is optimal at x
+        HypergraphTuner.Line optimal = envelope.get(0);
+        for (HypergraphTuner.Line line : envelope) {
+          if (line.x <= x) optimal = line;
+        }
+        assertEquals(best, optimal.intercept + x * optimal.slope, 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testLineSearch() throws IOException {
+    Random random = new Random(29);
+    List<TranslationHypergraph<IString,String>> hypergraphs = new ArrayList<>();
+    List<List<Sequence<IString>>> references = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      hypergraphs.add(randomHypergraph(i, random));
+      references.add(Arrays.asList(IStrings.tokenize("a b a a b b a b"), IStrings.tokenize("b a b b a a")));
+    }
+    HypergraphTuner tuner = new HypergraphTuner(hypergraphs, references);
+    for (int n = 0; n < 5; ++n) {
+      Counter<String> weights = randomWeights(random);
+      Counter<String> direction = randomWeights(random);
+      double[] result = tuner.lineSearch(weights, direction);
+      Counter<String> optimum = new ClassicCounter<>(weights);
+      for (String feature : FEATURES) optimum.incrementCount(feature, result[0] * direction.getCount(feature));
+      assertEquals(tuner.viterbiBleu(optimum), result[1], 1e-9);
+      assertTrue(result[1] > 0.0);
+
+      // Brute force search over step sizes
+      for (double x = -20.0; x <= 20.0; x += 0.01) {
+        Counter<String> point = new ClassicCounter<>(weights);
+        for (String feature : FEATURES) point.incrementCount(feature, x * direction.getCount(feature));
+        assertTrue(tuner.viterbiBleu(point) <= result[1] + 1e-5);
+      }
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Test case.
+ */
+public class ParameterServerTest {
+
+  private static final int NUM_FEATURES = 20;
+
+  private static class TestState implements OnlineUpdateRule.UpdaterState {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Gradient descent with a unit learning rate. Zero weights are removed, and
+   * the end of an epoch doubles all weights. The gradients are recorded in the
+   * order in which they are applied.
+   */
+  private static class TestUpdater implements OnlineUpdateRule<String> {
+    private final List<Counter<String>> gradients;
+
+    public TestUpdater(List<Counter<String>> gradients) {
+      this.gradients = gradients;
+    }
+
+    @Override
+    public void update(Counter<String> weights, Counter<String> gradient, int timeStep, boolean endOfEpoch) {
+      gradients.add(new ClassicCounter<>(gradient));
+      for (String feature : gradient.keySet()) {
+        double value = weights.getCount(feature) - gradient.getCount(feature);
+        if (value == 0.0) {
+          weights.remove(feature);
+        } else {
+          weights.setCount(feature, value);
+        }
+      }
+      if (endOfEpoch) {
+        for (String feature : new ArrayList<>(weights.keySet())) {
+          weights.setCount(feature, 2.0 * weights.getCount(feature));
+        }
+      }
+    }
+
+    @Override
+    public UpdaterState getState() {
+      return new TestState();
+    }
+
+    @Override
+    public void setState(UpdaterState state) {}
+  }
+
+  private static class TestOptimizer implements OnlineOptimizer<IString,String> {
+    private final List<Counter<String>> gradients = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public Counter<String> getGradient(Counter<String> weights, Sequence<IString> source, int sourceId,
+        List<RichTranslation<IString,String>> translations, List<Sequence<IString>> references,
+        double[] referenceWeights, SentenceLevelMetric<IString,String> scoreMetric) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Counter<String> getBatchGradient(Counter<String> weights, List<Sequence<IString>> sources,
+        int[] sourceIds, List<List<RichTranslation<IString,String>>> translations,
+        List<List<Sequence<IString>>> references, double[] referenceWeights,
+        SentenceLevelMetric<IString,String> scoreMetric) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public OnlineUpdateRule<String> newUpdater() {
+      return new TestUpdater(gradients);
+    }
+  }
+
+  /**
+   * A sparse gradient with small integer values, so that weights are often set
+   * to zero and removed.
+   */
+  private static Counter<String> randomGradient(Random random) {
+    Counter<String> gradient = new ClassicCounter<>();
+    for (int i = 0; i < 3; ++i) {
+      gradient.setCount("f" + random.nextInt(NUM_FEATURES), random.nextInt(5) - 2);
+    }
+    return gradient;
+  }
+
+  private static Counter<String> initialWeights() {
+    Counter<String> weights = new ClassicCounter<>();
+    for (int i = 0; i < NUM_FEATURES; i += 2) weights.setCount("f" + i, 1.0);
+    return weights;
+  }
+
+  private static void assertSameWeights(Counter<String> expected, Counter<String> actual) {
+    Set<String> features = new HashSet<>(expected.keySet());
+    features.addAll(actual.keySet());
+    for (String feature : features) {
+      assertEquals(feature, expected.getCount(feature), actual.getCount(feature), 0.0);
+    }
+  }
+
+  private static String outputPrefix() throws IOException {
+    File dir = Files.createTempDirectory("weights").toFile();
+    dir.deleteOnExit();
+    return new File(dir, "tune").getPath();
+  }
+
+  private static void deleteOutput(String outputPrefix) {
+    for (File file : new File(outputPrefix).getParentFile().listFiles()) file.deleteOnExit();
+  }
+
+  /**
+   * Start a server on an ephemeral port. Returns the address of the server.
+   */
+  private static String start(ParameterServer server, ExecutorService pool) throws IOException {
+    ServerSocket serverSocket = new ServerSocket(0);
+    pool.submit(() -> {
+      try {
+        server.run(serverSocket);
+      } finally {
+        serverSocket.close();
+      }
+      return null;
+    });
+    return "localhost:" + serverSocket.getLocalPort();
+  }
+
+  @Test
+  public void testSameAsLocalUpdates() throws Exception {
+    TestOptimizer optimizer = new TestOptimizer();
+    String outputPrefix = outputPrefix();
+    ParameterServer server = new ParameterServer(0, 1, initialWeights(), optimizer, outputPrefix);
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try (ParameterServerClient client = new ParameterServerClient(start(server, pool))) {
+      Counter<String> weights = client.pull();
+      assertSameWeights(initialWeights(), weights);
+      assertEquals(0, client.version());
+
+      Counter<String> localWeights = initialWeights();
+      OnlineUpdateRule<String> localUpdater = new TestOptimizer().newUpdater();
+      Random random = new Random(31);
+      for (int t = 0; t < 200; ++t) {
+        Counter<String> gradient = randomGradient(random);
+        boolean endOfEpoch = t == 99 || t == 199;
+        client.push(gradient, endOfEpoch, weights);
+        localUpdater.update(localWeights, gradient, t, endOfEpoch);
+        assertSameWeights(localWeights, weights);
+        assertEquals(t + 1, client.version());
+      }
+      client.endEpoch(0, weights);
+      assertSameWeights(localWeights, weights);
+    } finally {
+      pool.shutdown();
+    }
+    deleteOutput(outputPrefix);
+    assertTrue(new File(outputPrefix + ".0" + IOTools.WEIGHTS_FILE_EXTENSION).exists());
+  }
+
+  @Test
+  public void testConcurrentPushes() throws Exception {
+    final int numWorkers = 4;
+    final int numEpochs = 2;
+    final int numPushes = 50;
+    TestOptimizer optimizer = new TestOptimizer();
+    String outputPrefix = outputPrefix();
+    ParameterServer server = new ParameterServer(0, numWorkers, initialWeights(), optimizer, outputPrefix);
+    ExecutorService pool = Executors.newFixedThreadPool(numWorkers + 1);
+    try {
+      String address = start(server, pool);
+      List<Future<List<Object[]>>> workers = new ArrayList<>();
+      for (int i = 0; i < numWorkers; ++i) {
+        final Random random = new Random(37 + i);
+        // Each worker records (version, weights) after every reply
+        workers.add(pool.submit(() -> {
+          List<Object[]> views = new ArrayList<>();
+          try (ParameterServerClient client = new ParameterServerClient(address)) {
+            Counter<String> weights = client.pull();
+            views.add(new Object[] { client.version(), new ClassicCounter<>(weights) });
+            for (int epoch = 0; epoch < numEpochs; ++epoch) {
+              for (int t = 0; t < numPushes; ++t) {
+                client.push(randomGradient(random), false, weights);
+                views.add(new Object[] { client.version(), new ClassicCounter<>(weights) });
+              }
+              client.endEpoch(epoch, weights);
+              views.add(new Object[] { client.version(), new ClassicCounter<>(weights) });
+            }
+          }
+          return views;
+        }));
+      }
+      List<List<Object[]>> views = new ArrayList<>();
+      for (Future<List<Object[]>> worker : workers) views.add(worker.get());
+
+      // The weights at version v are the initial weights minus the first v gradients
+      List<Counter<String>> gradients = optimizer.gradients;
+      assertEquals(numWorkers * numEpochs * numPushes, gradients.size());
+      List<Counter<String>> weightsByVersion = new ArrayList<>();
+      Counter<String> weights = initialWeights();
+      weightsByVersion.add(new ClassicCounter<>(weights));
+      for (Counter<String> gradient : gradients) {
+        for (String feature : gradient.keySet()) {
+          weights.incrementCount(feature, -gradient.getCount(feature));
+        }
+        weightsByVersion.add(new ClassicCounter<>(weights));
+      }
+      for (List<Object[]> workerViews : views) {
+        int previousVersion = 0;
+        for (Object[] view : workerViews) {
+          int version = (Integer) view[0];
+          assertTrue(version >= previousVersion);
+          previousVersion = version;
+          @SuppressWarnings("unchecked")
+          Counter<String> viewWeights = (Counter<String>) view[1];
+          assertSameWeights(weightsByVersion.get(version), viewWeights);
+        }
+        // All workers end with the final weights
+        assertEquals(gradients.size(), previousVersion);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    deleteOutput(outputPrefix);
+  }
+}
@@ -0,0 +1,82 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Test case.
+ */
+public class CoreNLPAnnotationStoreTest {
+
+  private static CoreMap sentence(String text, int lineNumber) {
+    CoreMap sentence = new ArrayCoreMap();
+    sentence.set(CoreAnnotations.TextAnnotation.class, text);
+    sentence.set(CoreAnnotations.LineNumberAnnotation.class, lineNumber);
+    return sentence;
+  }
+
+  private static File store() throws IOException {
+    File file = File.createTempFile("annotations", ".store");
+    file.deleteOnExit();
+    try (CoreNLPAnnotationStore.Builder builder = new CoreNLPAnnotationStore.Builder(file.getPath())) {
+      builder.put(2, sentence("a b c", 3));
+      builder.putCoNLL(0, "1\ta\t_\t_\tN\t_\t0\troot\t_\t_\n");
+    }
+    return file;
+  }
+
+  @Test
+  public void testStore() throws IOException {
+    File file = store();
+    assertTrue(CoreNLPAnnotationStore.isStore(file.getPath()));
+
+    try (CoreNLPAnnotationStore store = new CoreNLPAnnotationStore(file.getPath(), 10)) {
+      assertEquals(3, store.size());
+      assertEquals("a b c", store.get(2, CoreAnnotations.TextAnnotation.class));
+      assertEquals(Integer.valueOf(3), store.get(2, CoreAnnotations.LineNumberAnnotation.class));
+      assertNull(store.get(0, CoreAnnotations.TextAnnotation.class));
+      assertNull(store.get(1));
+      assertNull(store.get(5));
+      assertEquals("a b c", store.get(2).get(CoreAnnotations.TextAnnotation.class));
+      assertTrue(store.getCoNLL(0).startsWith("1\ta"));
+      assertNull(store.getCoNLL(2));
+    }
+  }
+
+  @Test
+  public void testCacheReload() throws IOException {
+    File serialized = File.createTempFile("annotations", ".ser.gz");
+    serialized.deleteOnExit();
+    Annotation annotation = new Annotation("x y");
+    annotation.set(CoreAnnotations.SentencesAnnotation.class, Arrays.asList(sentence("x y", 1)));
+    IOTools.serialize(serialized.getPath(), annotation);
+
+    try {
+      assertEquals(4, CoreNLPCache.loadSerialized(store().getPath()));
+      assertEquals("a b c", CoreNLPCache.get(2, CoreAnnotations.TextAnnotation.class));
+      // Annotations from the previously loaded store are released
+      assertEquals(2, CoreNLPCache.loadSerialized(serialized.getPath()));
+      assertEquals("x y", CoreNLPCache.get(0, CoreAnnotations.TextAnnotation.class));
+      assertNull(CoreNLPCache.get(2));
+    } finally {
+      CoreNLPCache.flush();
+    }
+  }
+
+  @Test
+  public void testNotStore() throws IOException {
+    File file = File.createTempFile("annotations", ".txt");
+    file.deleteOnExit();
+    assertFalse(CoreNLPAnnotationStore.isStore(file.getPath()));
+  }
+}
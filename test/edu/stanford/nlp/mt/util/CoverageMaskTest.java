@@ -0,0 +1,67 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test case.
+ */
+public class CoverageMaskTest {
+
+  @Test
+  public void testAgainstCoverageSet() {
+    final Random random = new Random(11);
+    for (int trial = 0; trial < 500; ++trial) {
+      final int length = 1 + random.nextInt(CoverageMask.MAX_LENGTH);
+      CoverageSet coverage = new CoverageSet(length);
+      for (int i = 0, sz = random.nextInt(length + 1); i < sz; ++i) {
+        coverage.set(random.nextInt(length));
+      }
+      final long low = CoverageMask.word(coverage, 0);
+      final long high = CoverageMask.word(coverage, 1);
+      assertEquals(coverage.cardinality(), CoverageMask.cardinality(low, high));
+      assertEquals(coverage, CoverageMask.toCoverageSet(low, high, length));
+      for (int i = 0; i < length; ++i) {
+        assertEquals(coverage.get(i), CoverageMask.get(low, high, i));
+        assertEquals(coverage.nextSetBit(i), CoverageMask.nextSetBit(low, high, i));
+        assertEquals(coverage.nextClearBit(i), CoverageMask.nextClearBit(low, high, i));
+        assertEquals(coverage.previousSetBit(i), CoverageMask.previousSetBit(low, high, i));
+      }
+    }
+  }
+
+  @Test
+  public void testWordBoundaries() {
+    CoverageSet coverage = new CoverageSet();
+    coverage.set(0, 64);
+    coverage.set(127);
+    final long low = CoverageMask.word(coverage, 0);
+    final long high = CoverageMask.word(coverage, 1);
+    assertEquals(-1L, low);
+    assertEquals(1L << 63, high);
+    assertEquals(64, CoverageMask.nextClearBit(low, high, 0));
+    assertEquals(127, CoverageMask.nextSetBit(low, high, 64));
+    assertEquals(63, CoverageMask.previousSetBit(low, high, 126));
+    assertEquals(128, CoverageMask.nextClearBit(low, high, 127));
+    assertEquals(-1, CoverageMask.nextSetBit(low, high, 128));
+    assertEquals(127, CoverageMask.previousSetBit(low, high, 200));
+  }
+
+  @Test
+  public void testSpans() {
+    for (int start = 0; start < CoverageMask.MAX_LENGTH; ++start) {
+      for (int end = start + 1; end <= CoverageMask.MAX_LENGTH; ++end) {
+        CoverageSet coverage = new CoverageSet();
+        coverage.set(start, end);
+        final long low = CoverageMask.word(coverage, 0);
+        final long high = CoverageMask.word(coverage, 1);
+        assertEquals(end - start, CoverageMask.cardinality(low, high));
+        assertEquals(start, CoverageMask.nextSetBit(low, high, 0));
+        assertEquals(end, CoverageMask.nextClearBit(low, high, start));
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.Test;
+
+/**
+ * Test case.
+ */
+public class IBMModel1Test {
+
+  private static final String[] TABLE = {
+    "<<<null>>>\tthe\t0.25",
+    "haus\thouse\t0.75",
+    "haus\tthe\t0.125",
+    "das\tthe\t0.5",
+    "das\tthat\t0.375",
+  };
+
+  private static File textModel() throws IOException {
+    File file = File.createTempFile("model1", ".t1");
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      // Out of order on purpose
+      for (int i = TABLE.length - 1; i >= 0; --i) writer.println(TABLE[i]);
+    }
+    return file;
+  }
+
+  @Test
+  public void testBinaryFormat() throws IOException {
+    File text = textModel();
+    IBMModel1 model = IBMModel1.load(text.getPath());
+    assertSame(model, IBMModel1.load(text.getPath()));
+    assertEquals(5, model.size());
+    assertFalse(IBMModel1.isBinary(text.getPath()));
+
+    File binary = File.createTempFile("model1", ".bin");
+    binary.deleteOnExit();
+    model.write(binary.getPath());
+    assertTrue(IBMModel1.isBinary(binary.getPath()));
+    IBMModel1 mapped = IBMModel1.load(binary.getPath());
+    for (IBMModel1 m : new IBMModel1[] { model, mapped }) {
+      assertEquals(0.75, m.score(new IString("haus"), new IString("house")), 0.0);
+      assertEquals(0.375, m.score(new IString("das"), new IString("that")), 0.0);
+      assertEquals(1e-7, m.score(new IString("das"), new IString("house")), 0.0);
+      assertEquals(1e-7, m.score(new IString("ist"), new IString("is")), 0.0);
+    }
+    assertTrue(IBMModel1.unload(text.getPath()));
+    assertTrue(IBMModel1.unload(binary.getPath()));
+    assertFalse(IBMModel1.unload(binary.getPath()));
+  }
+
+  @Test
+  public void testIncrementalScores() throws IOException {
+    IBMModel1 model = IBMModel1.reload(textModel().getPath());
+    Sequence<IString> source = IStrings.toIStringSequence("das haus".split(" "));
+    Sequence<IString> target = IStrings.toIStringSequence("the house".split(" "));
+    double score = model.score(source, target);
+    IBMModel1.PartialTargetFeatureState state = model.partialTargetFeatureState(source);
+    for (IString word : target) state = state.appendTargetWord(word);
+    assertEquals(score, state.score(), 1e-9);
+    assertEquals(score, model.partialTargetFeatureState(source).appendTargetWords(target).score(), 1e-9);
+    IBMModel1.PartialSourceFeatureState sourceState = model.partialSourceFeatureState(target);
+    for (IString word : source) sourceState = sourceState.appendSourceWord(word);
+    assertEquals(score, sourceState.score(), 1e-9);
+  }
+}
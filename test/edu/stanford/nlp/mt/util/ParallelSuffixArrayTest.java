@@ -0,0 +1,148 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Test case.
+ */
+public class ParallelSuffixArrayTest {
+
+  private static final int NUM_SENTENCES = 300;
+
+  private static File[] corpusFiles() throws IOException {
+    File source = File.createTempFile("corpus", ".f");
+    File target = File.createTempFile("corpus", ".e");
+    File align = File.createTempFile("corpus", ".align");
+    Random random = new Random(17);
+    try (PrintWriter fWriter = new PrintWriter(source);
+        PrintWriter eWriter = new PrintWriter(target);
+        PrintWriter aWriter = new PrintWriter(align)) {
+      for (int i = 0; i < NUM_SENTENCES; ++i) {
+        // Small vocabularies and short sentences yield identical suffixes and proper prefixes
+        int sourceLength = 1 + random.nextInt(6);
+        int targetLength = 1 + random.nextInt(6);
+        StringBuilder f = new StringBuilder();
+        for (int j = 0; j < sourceLength; ++j) f.append(j == 0 ? "" : " ").append("f").append(random.nextInt(4));
+        StringBuilder e = new StringBuilder();
+        for (int j = 0; j < targetLength; ++j) e.append(j == 0 ? "" : " ").append("e").append(random.nextInt(4));
+        StringBuilder a = new StringBuilder();
+        if (i % 50 != 7) {
+          for (int j = 0; j < Math.min(sourceLength, targetLength); ++j) a.append(j).append("-").append(j).append(" ");
+        }
+        fWriter.println(f);
+        eWriter.println(e);
+        aWriter.println(a.toString().trim());
+      }
+    }
+    for (File file : new File[] { source, target, align }) file.deleteOnExit();
+    return new File[] { source, target, align };
+  }
+
+  /**
+   * The comparator-based construction that the chunked sort replaced.
+   */
+  private static int[] boxedSuffixArray(int[] bitext, int numPositions, Vocabulary vocabulary) {
+    return IntStream.range(0, bitext.length).parallel().boxed().sorted((x,y) -> {
+      int xPos = x, yPos = y, xId = bitext[x], yId = bitext[y];
+      if (xId < 0 && yId < 0) {
+        return 0;
+      } else if (xId < 0) {
+        return 1;
+      } else if (yId < 0) {
+        return -1;
+      }
+      while(xId >= 0 && yId >= 0) {
+        if (xId == yId) {
+          xId = bitext[++xPos];
+          yId = bitext[++yPos];
+        } else {
+          return vocabulary.get(xId).compareTo(vocabulary.get(yId));
+        }
+      }
+      int xLength = xPos - x + (xId < 0 ? 0 : 1);
+      int yLength = yPos - y + (yId < 0 ? 0 : 1);
+      return xLength - yLength;
+    }).limit(numPositions).mapToInt(i -> i).toArray();
+  }
+
+  @Test
+  public void testChunkedLoading() throws IOException {
+    File[] files = corpusFiles();
+    ParallelCorpus corpus = ParallelCorpus.loadCorpusFromFiles(files[0].getPath(), files[1].getPath(),
+        files[2].getPath(), NUM_SENTENCES);
+    ParallelSuffixArray expected = new ParallelSuffixArray(corpus);
+    ParallelSuffixArray sa = new ParallelSuffixArray(files[0].getPath(), files[1].getPath(),
+        files[2].getPath(), 3, 7);
+    assertEquals(expected.numSentences, sa.numSentences);
+    assertArrayEquals(expected.f2e, sa.f2e);
+    assertArrayEquals(expected.e2f, sa.e2f);
+    assertEquals(expected.srcBitext.length, sa.srcBitext.length);
+    assertEquals(expected.tgtBitext.length, sa.tgtBitext.length);
+    for (int i = 0; i < sa.srcBitext.length; ++i) {
+      assertEquals(expected.srcBitext[i] < 0 ? String.valueOf(expected.srcBitext[i]) : expected.vocabulary.get(expected.srcBitext[i]),
+          sa.srcBitext[i] < 0 ? String.valueOf(sa.srcBitext[i]) : sa.vocabulary.get(sa.srcBitext[i]));
+    }
+    for (int i = 0; i < sa.tgtBitext.length; ++i) {
+      assertEquals(expected.tgtBitext[i] < 0 ? String.valueOf(expected.tgtBitext[i]) : expected.vocabulary.get(expected.tgtBitext[i]),
+          sa.tgtBitext[i] < 0 ? String.valueOf(sa.tgtBitext[i]) : sa.vocabulary.get(sa.tgtBitext[i]));
+    }
+  }
+
+  @Test
+  public void testSuffixArrays() throws IOException {
+    File[] files = corpusFiles();
+    for (int numThreads : new int[] { 1, 4 }) {
+      for (int minSortChunkSize : new int[] { 1 << 16, 1, 10 }) {
+        ParallelSuffixArray sa = new ParallelSuffixArray(files[0].getPath(), files[1].getPath(),
+            files[2].getPath(), numThreads, 10);
+        sa.build(numThreads, minSortChunkSize);
+        int numSourcePositions = sa.srcBitext.length - sa.numSentences;
+        int numTargetPositions = sa.tgtBitext.length - sa.numSentences;
+        assertArrayEquals(boxedSuffixArray(sa.srcBitext, numSourcePositions, sa.vocabulary), sa.srcSuffixArray);
+        assertArrayEquals(boxedSuffixArray(sa.tgtBitext, numTargetPositions, sa.vocabulary), sa.tgtSuffixArray);
+      }
+    }
+  }
+
+  @Test
+  public void testBuildAndWrite() throws IOException {
+    File[] files = corpusFiles();
+    ParallelSuffixArray expected = new ParallelSuffixArray(files[0].getPath(), files[1].getPath(),
+        files[2].getPath(), 2);
+    expected.build(2);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Kryo kryo = new Kryo();
+    kryo.setReferences(false);
+    try (Output output = new Output(bytes)) {
+      new ParallelSuffixArray(files[0].getPath(), files[1].getPath(), files[2].getPath(), 2)
+        .buildAndWrite(kryo, output, 2);
+    }
+    ParallelSuffixArray sa;
+    try (Input input = new Input(new ByteArrayInputStream(bytes.toByteArray()))) {
+      sa = kryo.readObject(input, ParallelSuffixArray.class);
+    }
+    assertEquals(expected.numSentences, sa.numSentences);
+    assertArrayEquals(expected.srcBitext, sa.srcBitext);
+    assertArrayEquals(expected.tgtBitext, sa.tgtBitext);
+    assertArrayEquals(expected.f2e, sa.f2e);
+    assertArrayEquals(expected.e2f, sa.e2f);
+    assertArrayEquals(expected.srcSuffixArray, sa.srcSuffixArray);
+    assertArrayEquals(expected.tgtSuffixArray, sa.tgtSuffixArray);
+    assertEquals(expected.vocabulary.size(), sa.vocabulary.size());
+  }
+}
@@ -0,0 +1,85 @@
+package edu.stanford.nlp.mt.wordcls;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test case.
+ */
+public class ArrayExchangeClustererTest {
+
+  private static final int VOCAB_SIZE = 40;
+
+  /**
+   * Sentences from a bigram process in which each word prefers the words of one
+   * of four groups as successors.
+   */
+  private static File corpus() throws IOException {
+    File file = File.createTempFile("corpus", ".txt");
+    file.deleteOnExit();
+    Random random = new Random(17);
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (int i = 0; i < 2000; ++i) {
+        StringBuilder line = new StringBuilder();
+        int word = random.nextInt(VOCAB_SIZE);
+        for (int j = 0, length = 3 + random.nextInt(10); j < length; ++j) {
+          line.append(j == 0 ? "" : " ").append("w").append(word);
+          word = random.nextInt(3) == 0 ? random.nextInt(VOCAB_SIZE)
+              : 4 * random.nextInt(VOCAB_SIZE / 4) + (word * 7) % 4;
+        }
+        writer.println(line);
+      }
+    }
+    return file;
+  }
+
+  private static MakeWordClasses run(File corpus, boolean useArrays) {
+    Properties properties = new Properties();
+    properties.setProperty("nclasses", "6");
+    properties.setProperty("niters", "9");
+    properties.setProperty("nthreads", "1");
+    properties.setProperty("vclip", "2");
+    properties.setProperty("normdigits", "false");
+    properties.setProperty("seed", "5");
+    properties.setProperty("arrays", String.valueOf(useArrays));
+    MakeWordClasses mkWordCls = new MakeWordClasses(properties);
+    mkWordCls.run(new String[] { corpus.getPath() });
+    return mkWordCls;
+  }
+
+  /**
+   * Class assignments sorted by word.
+   */
+  private static List<String> results(MakeWordClasses mkWordCls) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    mkWordCls.writeResults(out);
+    out.close();
+    List<String> lines = Arrays.asList(bytes.toString().split("\n"));
+    Collections.sort(lines);
+    return lines;
+  }
+
+  @Test
+  public void testSameAsCounterImplementation() throws IOException {
+    File corpus = corpus();
+    MakeWordClasses counters = run(corpus, false);
+    MakeWordClasses arrays = run(corpus, true);
+    assertEquals(counters.objectiveValue(), arrays.objectiveValue(), 1e-6);
+    List<String> classes = results(counters);
+    assertEquals(classes, results(arrays));
+    assertEquals(VOCAB_SIZE, classes.size());
+  }
+}